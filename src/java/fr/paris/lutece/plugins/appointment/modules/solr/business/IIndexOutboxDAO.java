@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.business;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+import fr.paris.lutece.portal.service.plugin.Plugin;
+
+/**
+ * IIndexOutboxDAO Interface
+ *
+ */
+public interface IIndexOutboxDAO
+{
+    /**
+     * Insert a new entry
+     *
+     * @param entry
+     *            the entry
+     * @param plugin
+     *            the plugin
+     */
+    void insert( IndexOutboxEntry entry, Plugin plugin );
+
+    /**
+     * Record a new change on an existing entry: the kinds of change are merged and the version is incremented
+     *
+     * @param change
+     *            the change, holding the form id, its kinds and its date
+     * @param plugin
+     *            the plugin
+     * @return the number of entries updated, 0 if the form has no entry
+     */
+    int storeChange( IndexOutboxEntry change, Plugin plugin );
+
+    /**
+     * Load the entry of a form
+     *
+     * @param nIdForm
+     *            the form id
+     * @param plugin
+     *            the plugin
+     * @return the entry, null if the form has no pending work
+     */
+    IndexOutboxEntry load( int nIdForm, Plugin plugin );
+
+    /**
+     * Select the forms which have changed slots but no entry
+     *
+     * @param plugin
+     *            the plugin
+     * @return the form ids
+     */
+    List<Integer> selectOrphanSlotFormIds( Plugin plugin );
+
+    /**
+     * Select the forms whose work is not claimed or whose claim has expired, oldest change first
+     *
+     * @param dateNow
+     *            the current date
+     * @param nMax
+     *            the maximum number of forms to return
+     * @param plugin
+     *            the plugin
+     * @return the form ids
+     */
+    List<Integer> selectPendingFormIds( Timestamp dateNow, int nMax, Plugin plugin );
+
+    /**
+     * Claim the work of a form if it is not claimed, or if its claim has expired. A node holding the claim must release it before claiming again.
+     *
+     * @param nIdForm
+     *            the form id
+     * @param strNodeId
+     *            the id of the claiming node
+     * @param dateNow
+     *            the current date
+     * @param dateClaimedUntil
+     *            the end of the claim
+     * @param plugin
+     *            the plugin
+     */
+    void claim( int nIdForm, String strNodeId, Timestamp dateNow, Timestamp dateClaimedUntil, Plugin plugin );
+
+    /**
+     * Release the claim of a node without deleting the entry
+     *
+     * @param nIdForm
+     *            the form id
+     * @param strNodeId
+     *            the id of the node
+     * @param plugin
+     *            the plugin
+     */
+    void release( int nIdForm, String strNodeId, Plugin plugin );
+
+    /**
+     * Delete the entry if it was not changed since the given version
+     *
+     * @param nIdForm
+     *            the form id
+     * @param nVersion
+     *            the version processed
+     * @param plugin
+     *            the plugin
+     */
+    void delete( int nIdForm, int nVersion, Plugin plugin );
+
+    /**
+     * Record a changed slot of a form, if it is not recorded yet
+     *
+     * @param nIdForm
+     *            the form id
+     * @param nIdSlot
+     *            the slot id
+     * @param plugin
+     *            the plugin
+     */
+    void insertSlot( int nIdForm, int nIdSlot, Plugin plugin );
+
+    /**
+     * Select the changed slots of a form
+     *
+     * @param nIdForm
+     *            the form id
+     * @param plugin
+     *            the plugin
+     * @return the slot ids
+     */
+    List<Integer> selectSlotIds( int nIdForm, Plugin plugin );
+
+    /**
+     * Delete a changed slot of a form
+     *
+     * @param nIdForm
+     *            the form id
+     * @param nIdSlot
+     *            the slot id
+     * @param plugin
+     *            the plugin
+     */
+    void deleteSlot( int nIdForm, int nIdSlot, Plugin plugin );
+
+    /**
+     * Delete all the changed slots of a form
+     *
+     * @param nIdForm
+     *            the form id
+     * @param plugin
+     *            the plugin
+     */
+    void deleteSlots( int nIdForm, Plugin plugin );
+}
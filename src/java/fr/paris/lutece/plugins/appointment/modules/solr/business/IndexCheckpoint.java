@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.business;
+
+import java.sql.Timestamp;
+
+/**
+ * Status of a form in the current full reindex
+ *
+ */
+public class IndexCheckpoint
+{
+    public static final String STATUS_DONE = "DONE";
+    public static final String STATUS_FAILED = "FAILED";
+
+    private int _nIdForm;
+    private String _strStatus;
+    private int _nNbSlots;
+    private Timestamp _dateStatus;
+
+    /**
+     * @return the form id
+     */
+    public int getIdForm( )
+    {
+        return _nIdForm;
+    }
+
+    /**
+     * @param nIdForm
+     *            the form id
+     */
+    public void setIdForm( int nIdForm )
+    {
+        _nIdForm = nIdForm;
+    }
+
+    /**
+     * @return the status, {@link #STATUS_DONE} or {@link #STATUS_FAILED}
+     */
+    public String getStatus( )
+    {
+        return _strStatus;
+    }
+
+    /**
+     * @param strStatus
+     *            the status
+     */
+    public void setStatus( String strStatus )
+    {
+        _strStatus = strStatus;
+    }
+
+    /**
+     * @return true if the form was indexed
+     */
+    public boolean isDone( )
+    {
+        return STATUS_DONE.equals( _strStatus );
+    }
+
+    /**
+     * @return the number of slots written
+     */
+    public int getNbSlots( )
+    {
+        return _nNbSlots;
+    }
+
+    /**
+     * @param nNbSlots
+     *            the number of slots written
+     */
+    public void setNbSlots( int nNbSlots )
+    {
+        _nNbSlots = nNbSlots;
+    }
+
+    /**
+     * @return the date of the status
+     */
+    public Timestamp getDateStatus( )
+    {
+        return _dateStatus;
+    }
+
+    /**
+     * @param dateStatus
+     *            the date of the status
+     */
+    public void setDateStatus( Timestamp dateStatus )
+    {
+        _dateStatus = dateStatus;
+    }
+}
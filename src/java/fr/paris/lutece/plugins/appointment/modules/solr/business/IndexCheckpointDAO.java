@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.business;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import fr.paris.lutece.portal.service.plugin.Plugin;
+import fr.paris.lutece.util.sql.DAOUtil;
+
+/**
+ * This class provides Data Access methods for the full reindex checkpoints
+ *
+ */
+public final class IndexCheckpointDAO implements IIndexCheckpointDAO
+{
+    private static final String SQL_QUERY_INSERT = "INSERT INTO appointment_solr_checkpoint ( id_form, status, nb_slots, date_status ) VALUES ( ?, ?, ?, ? )";
+    private static final String SQL_QUERY_DELETE = "DELETE FROM appointment_solr_checkpoint WHERE id_form = ?";
+    private static final String SQL_QUERY_DELETE_ALL = "DELETE FROM appointment_solr_checkpoint";
+    private static final String SQL_QUERY_SELECT_ALL = "SELECT id_form, status, nb_slots, date_status FROM appointment_solr_checkpoint ORDER BY id_form";
+
+    @Override
+    public void insert( IndexCheckpoint checkpoint, Plugin plugin )
+    {
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_INSERT, plugin ) )
+        {
+            int nIndex = 1;
+            daoUtil.setInt( nIndex++, checkpoint.getIdForm( ) );
+            daoUtil.setString( nIndex++, checkpoint.getStatus( ) );
+            daoUtil.setInt( nIndex++, checkpoint.getNbSlots( ) );
+            daoUtil.setTimestamp( nIndex, checkpoint.getDateStatus( ) );
+            daoUtil.executeUpdate( );
+        }
+    }
+
+    @Override
+    public void delete( int nIdForm, Plugin plugin )
+    {
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_DELETE, plugin ) )
+        {
+            daoUtil.setInt( 1, nIdForm );
+            daoUtil.executeUpdate( );
+        }
+    }
+
+    @Override
+    public void deleteAll( Plugin plugin )
+    {
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_DELETE_ALL, plugin ) )
+        {
+            daoUtil.executeUpdate( );
+        }
+    }
+
+    @Override
+    public List<IndexCheckpoint> selectAll( Plugin plugin )
+    {
+        List<IndexCheckpoint> listCheckpoints = new ArrayList<>( );
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT_ALL, plugin ) )
+        {
+            daoUtil.executeQuery( );
+            while ( daoUtil.next( ) )
+            {
+                int nIndex = 1;
+                IndexCheckpoint checkpoint = new IndexCheckpoint( );
+                checkpoint.setIdForm( daoUtil.getInt( nIndex++ ) );
+                checkpoint.setStatus( daoUtil.getString( nIndex++ ) );
+                checkpoint.setNbSlots( daoUtil.getInt( nIndex++ ) );
+                checkpoint.setDateStatus( daoUtil.getTimestamp( nIndex ) );
+                listCheckpoints.add( checkpoint );
+            }
+        }
+        return listCheckpoints;
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.business;
+
+import java.sql.Timestamp;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import fr.paris.lutece.plugins.appointment.service.AppointmentPlugin;
+import fr.paris.lutece.portal.service.plugin.Plugin;
+import fr.paris.lutece.portal.service.plugin.PluginService;
+import fr.paris.lutece.portal.service.spring.SpringContextService;
+
+/**
+ * This class provides instances management methods for the checkpoints of the full reindex. The checkpoints are kept while a full reindex is incomplete, so
+ * that the next one resumes where it stopped.
+ *
+ */
+public final class IndexCheckpointHome
+{
+    // Static variable pointed at the DAO instance
+    private static IIndexCheckpointDAO _dao = SpringContextService.getBean( "appointment-solr.indexCheckpointDAO" );
+    private static Plugin _plugin = PluginService.getPlugin( AppointmentPlugin.PLUGIN_NAME );
+
+    /**
+     * Private constructor - this class need not be instantiated
+     */
+    private IndexCheckpointHome( )
+    {
+    }
+
+    /**
+     * Set the DAO of the checkpoints
+     *
+     * @param dao
+     *            the DAO
+     */
+    static void setDAO( IIndexCheckpointDAO dao )
+    {
+        _dao = dao;
+    }
+
+    /**
+     * Record the status of a form
+     *
+     * @param nIdForm
+     *            the form id
+     * @param strStatus
+     *            the status
+     * @param nNbSlots
+     *            the number of slots written
+     */
+    public static void store( int nIdForm, String strStatus, int nNbSlots )
+    {
+        IndexCheckpoint checkpoint = new IndexCheckpoint( );
+        checkpoint.setIdForm( nIdForm );
+        checkpoint.setStatus( strStatus );
+        checkpoint.setNbSlots( nNbSlots );
+        checkpoint.setDateStatus( new Timestamp( System.currentTimeMillis( ) ) );
+        _dao.delete( nIdForm, _plugin );
+        _dao.insert( checkpoint, _plugin );
+    }
+
+    /**
+     * Load the checkpoints of the incomplete full reindex
+     *
+     * @return the checkpoints by form id, empty if the last full reindex completed
+     */
+    public static Map<Integer, IndexCheckpoint> findAll( )
+    {
+        Map<Integer, IndexCheckpoint> mapCheckpoints = new LinkedHashMap<>( );
+        for ( IndexCheckpoint checkpoint : _dao.selectAll( _plugin ) )
+        {
+            mapCheckpoints.put( checkpoint.getIdForm( ), checkpoint );
+        }
+        return mapCheckpoints;
+    }
+
+    /**
+     * Remove all the checkpoints
+     */
+    public static void removeAll( )
+    {
+        _dao.deleteAll( _plugin );
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.business;
+
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+
+import fr.paris.lutece.portal.service.plugin.Plugin;
+import fr.paris.lutece.util.sql.DAOUtil;
+
+/**
+ * This class provides Data Access methods for the index outbox
+ *
+ */
+public final class IndexOutboxDAO implements IIndexOutboxDAO
+{
+    private static final String SQL_QUERY_INSERT = "INSERT INTO appointment_solr_outbox ( id_form, reindex_full, reindex_metadata, range_start, range_end, version, date_change ) VALUES ( ?, ?, ?, ?, ?, 0, ? )";
+    private static final String SQL_QUERY_STORE_CHANGE = "UPDATE appointment_solr_outbox SET reindex_full = CASE WHEN ? = 1 THEN 1 ELSE reindex_full END, reindex_metadata = CASE WHEN ? = 1 THEN 1 ELSE reindex_metadata END, version = version + 1, date_change = ? ";
+    private static final String SQL_STORE_RANGE = ", range_start = CASE WHEN range_start IS NULL OR range_start > ? THEN ? ELSE range_start END, range_end = CASE WHEN range_end IS NULL OR range_end < ? THEN ? ELSE range_end END ";
+    private static final String SQL_WHERE_ID_FORM = "WHERE id_form = ?";
+    private static final String SQL_QUERY_SELECT = "SELECT id_form, reindex_full, reindex_metadata, range_start, range_end, version, date_change, claimed_by, claimed_until FROM appointment_solr_outbox WHERE id_form = ?";
+    private static final String SQL_QUERY_SELECT_PENDING = "SELECT id_form FROM appointment_solr_outbox WHERE claimed_by IS NULL OR claimed_until < ? ORDER BY date_change";
+    private static final String SQL_QUERY_CLAIM = "UPDATE appointment_solr_outbox SET claimed_by = ?, claimed_until = ? WHERE id_form = ? AND ( claimed_by IS NULL OR claimed_until < ? )";
+    private static final String SQL_QUERY_RELEASE = "UPDATE appointment_solr_outbox SET claimed_by = NULL, claimed_until = NULL WHERE id_form = ? AND claimed_by = ?";
+    private static final String SQL_QUERY_DELETE = "DELETE FROM appointment_solr_outbox WHERE id_form = ? AND version = ?";
+    private static final String SQL_QUERY_INSERT_SLOT = "INSERT INTO appointment_solr_outbox_slot ( id_form, id_slot ) VALUES ( ?, ? )";
+    private static final String SQL_QUERY_SELECT_SLOTS = "SELECT id_slot FROM appointment_solr_outbox_slot WHERE id_form = ?";
+    private static final String SQL_QUERY_DELETE_SLOT = "DELETE FROM appointment_solr_outbox_slot WHERE id_form = ? AND id_slot = ?";
+    private static final String SQL_QUERY_SELECT_ORPHAN_SLOT_FORMS = "SELECT DISTINCT s.id_form FROM appointment_solr_outbox_slot s WHERE NOT EXISTS ( SELECT o.id_form FROM appointment_solr_outbox o WHERE o.id_form = s.id_form )";
+    private static final String SQL_QUERY_DELETE_SLOTS = "DELETE FROM appointment_solr_outbox_slot WHERE id_form = ?";
+
+    @Override
+    public void insert( IndexOutboxEntry entry, Plugin plugin )
+    {
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_INSERT, plugin ) )
+        {
+            int nIndex = 1;
+            daoUtil.setInt( nIndex++, entry.getIdForm( ) );
+            daoUtil.setInt( nIndex++, entry.isFull( ) ? 1 : 0 );
+            daoUtil.setInt( nIndex++, entry.isMetadata( ) ? 1 : 0 );
+            daoUtil.setDate( nIndex++, toSqlDate( entry.getDateRangeStart( ) ) );
+            daoUtil.setDate( nIndex++, toSqlDate( entry.getDateRangeEnd( ) ) );
+            daoUtil.setTimestamp( nIndex, entry.getDateChange( ) );
+            daoUtil.executeUpdate( );
+        }
+    }
+
+    @Override
+    public int storeChange( IndexOutboxEntry change, Plugin plugin )
+    {
+        boolean bRange = change.getDateRangeStart( ) != null && change.getDateRangeEnd( ) != null;
+        String strQuery = SQL_QUERY_STORE_CHANGE + ( bRange ? SQL_STORE_RANGE : StringUtils.EMPTY ) + SQL_WHERE_ID_FORM;
+        try ( DAOUtil daoUtil = new DAOUtil( strQuery, plugin ) )
+        {
+            int nIndex = 1;
+            daoUtil.setInt( nIndex++, change.isFull( ) ? 1 : 0 );
+            daoUtil.setInt( nIndex++, change.isMetadata( ) ? 1 : 0 );
+            daoUtil.setTimestamp( nIndex++, change.getDateChange( ) );
+            if ( bRange )
+            {
+                Date dateRangeStart = toSqlDate( change.getDateRangeStart( ) );
+                Date dateRangeEnd = toSqlDate( change.getDateRangeEnd( ) );
+                daoUtil.setDate( nIndex++, dateRangeStart );
+                daoUtil.setDate( nIndex++, dateRangeStart );
+                daoUtil.setDate( nIndex++, dateRangeEnd );
+                daoUtil.setDate( nIndex++, dateRangeEnd );
+            }
+            daoUtil.setInt( nIndex, change.getIdForm( ) );
+            return daoUtil.executeUpdate( );
+        }
+    }
+
+    @Override
+    public IndexOutboxEntry load( int nIdForm, Plugin plugin )
+    {
+        IndexOutboxEntry entry = null;
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT, plugin ) )
+        {
+            daoUtil.setInt( 1, nIdForm );
+            daoUtil.executeQuery( );
+            if ( daoUtil.next( ) )
+            {
+                int nIndex = 1;
+                entry = new IndexOutboxEntry( );
+                entry.setIdForm( daoUtil.getInt( nIndex++ ) );
+                entry.setFull( daoUtil.getInt( nIndex++ ) == 1 );
+                entry.setMetadata( daoUtil.getInt( nIndex++ ) == 1 );
+                entry.setDateRangeStart( toLocalDate( daoUtil.getDate( nIndex++ ) ) );
+                entry.setDateRangeEnd( toLocalDate( daoUtil.getDate( nIndex++ ) ) );
+                entry.setVersion( daoUtil.getInt( nIndex++ ) );
+                entry.setDateChange( daoUtil.getTimestamp( nIndex++ ) );
+                entry.setClaimedBy( daoUtil.getString( nIndex++ ) );
+                entry.setDateClaimedUntil( daoUtil.getTimestamp( nIndex ) );
+            }
+        }
+        return entry;
+    }
+
+    @Override
+    public List<Integer> selectPendingFormIds( Timestamp dateNow, int nMax, Plugin plugin )
+    {
+        List<Integer> listIdForms = new ArrayList<>( );
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT_PENDING, plugin ) )
+        {
+            daoUtil.setTimestamp( 1, dateNow );
+            daoUtil.executeQuery( );
+            while ( listIdForms.size( ) < nMax && daoUtil.next( ) )
+            {
+                listIdForms.add( daoUtil.getInt( 1 ) );
+            }
+        }
+        return listIdForms;
+    }
+
+    @Override
+    public List<Integer> selectOrphanSlotFormIds( Plugin plugin )
+    {
+        List<Integer> listIdForms = new ArrayList<>( );
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT_ORPHAN_SLOT_FORMS, plugin ) )
+        {
+            daoUtil.executeQuery( );
+            while ( daoUtil.next( ) )
+            {
+                listIdForms.add( daoUtil.getInt( 1 ) );
+            }
+        }
+        return listIdForms;
+    }
+
+    @Override
+    public void claim( int nIdForm, String strNodeId, Timestamp dateNow, Timestamp dateClaimedUntil, Plugin plugin )
+    {
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_CLAIM, plugin ) )
+        {
+            int nIndex = 1;
+            daoUtil.setString( nIndex++, strNodeId );
+            daoUtil.setTimestamp( nIndex++, dateClaimedUntil );
+            daoUtil.setInt( nIndex++, nIdForm );
+            daoUtil.setTimestamp( nIndex, dateNow );
+            daoUtil.executeUpdate( );
+        }
+    }
+
+    @Override
+    public void release( int nIdForm, String strNodeId, Plugin plugin )
+    {
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_RELEASE, plugin ) )
+        {
+            daoUtil.setInt( 1, nIdForm );
+            daoUtil.setString( 2, strNodeId );
+            daoUtil.executeUpdate( );
+        }
+    }
+
+    @Override
+    public void delete( int nIdForm, int nVersion, Plugin plugin )
+    {
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_DELETE, plugin ) )
+        {
+            daoUtil.setInt( 1, nIdForm );
+            daoUtil.setInt( 2, nVersion );
+            daoUtil.executeUpdate( );
+        }
+    }
+
+    @Override
+    public void insertSlot( int nIdForm, int nIdSlot, Plugin plugin )
+    {
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_INSERT_SLOT, plugin ) )
+        {
+            daoUtil.setInt( 1, nIdForm );
+            daoUtil.setInt( 2, nIdSlot );
+            daoUtil.executeUpdate( );
+        }
+    }
+
+    @Override
+    public List<Integer> selectSlotIds( int nIdForm, Plugin plugin )
+    {
+        List<Integer> listIdSlots = new ArrayList<>( );
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT_SLOTS, plugin ) )
+        {
+            daoUtil.setInt( 1, nIdForm );
+            daoUtil.executeQuery( );
+            while ( daoUtil.next( ) )
+            {
+                listIdSlots.add( daoUtil.getInt( 1 ) );
+            }
+        }
+        return listIdSlots;
+    }
+
+    @Override
+    public void deleteSlot( int nIdForm, int nIdSlot, Plugin plugin )
+    {
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_DELETE_SLOT, plugin ) )
+        {
+            daoUtil.setInt( 1, nIdForm );
+            daoUtil.setInt( 2, nIdSlot );
+            daoUtil.executeUpdate( );
+        }
+    }
+
+    @Override
+    public void deleteSlots( int nIdForm, Plugin plugin )
+    {
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_DELETE_SLOTS, plugin ) )
+        {
+            daoUtil.setInt( 1, nIdForm );
+            daoUtil.executeUpdate( );
+        }
+    }
+
+    private static Date toSqlDate( LocalDate date )
+    {
+        return date != null ? Date.valueOf( date ) : null;
+    }
+
+    private static LocalDate toLocalDate( Date date )
+    {
+        return date != null ? date.toLocalDate( ) : null;
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.business;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+
+/**
+ * Pending index work of a form, shared by all the nodes of a cluster
+ *
+ */
+public class IndexOutboxEntry
+{
+    private int _nIdForm;
+    private boolean _bFull;
+    private boolean _bMetadata;
+    private LocalDate _dateRangeStart;
+    private LocalDate _dateRangeEnd;
+    private int _nVersion;
+    private Timestamp _dateChange;
+    private String _strClaimedBy;
+    private Timestamp _dateClaimedUntil;
+
+    /**
+     * @return the form id
+     */
+    public int getIdForm( )
+    {
+        return _nIdForm;
+    }
+
+    /**
+     * @param nIdForm
+     *            the form id
+     */
+    public void setIdForm( int nIdForm )
+    {
+        _nIdForm = nIdForm;
+    }
+
+    /**
+     * @return true if the whole form must be deleted and reindexed, false if only its current state must be written
+     */
+    public boolean isFull( )
+    {
+        return _bFull;
+    }
+
+    /**
+     * @param bFull
+     *            true if the whole form must be deleted and reindexed
+     */
+    public void setFull( boolean bFull )
+    {
+        _bFull = bFull;
+    }
+
+    /**
+     * @return true if the attributes of the form changed
+     */
+    public boolean isMetadata( )
+    {
+        return _bMetadata;
+    }
+
+    /**
+     * @param bMetadata
+     *            true if the attributes of the form changed
+     */
+    public void setMetadata( boolean bMetadata )
+    {
+        _bMetadata = bMetadata;
+    }
+
+    /**
+     * @return the first day of the period whose slots changed, null if none
+     */
+    public LocalDate getDateRangeStart( )
+    {
+        return _dateRangeStart;
+    }
+
+    /**
+     * @param dateRangeStart
+     *            the first day of the period whose slots changed
+     */
+    public void setDateRangeStart( LocalDate dateRangeStart )
+    {
+        _dateRangeStart = dateRangeStart;
+    }
+
+    /**
+     * @return the last day of the period whose slots changed, null if none
+     */
+    public LocalDate getDateRangeEnd( )
+    {
+        return _dateRangeEnd;
+    }
+
+    /**
+     * @param dateRangeEnd
+     *            the last day of the period whose slots changed
+     */
+    public void setDateRangeEnd( LocalDate dateRangeEnd )
+    {
+        _dateRangeEnd = dateRangeEnd;
+    }
+
+    /**
+     * @return the version, incremented on each change of the form
+     */
+    public int getVersion( )
+    {
+        return _nVersion;
+    }
+
+    /**
+     * @param nVersion
+     *            the version
+     */
+    public void setVersion( int nVersion )
+    {
+        _nVersion = nVersion;
+    }
+
+    /**
+     * @return the date of the last change
+     */
+    public Timestamp getDateChange( )
+    {
+        return _dateChange;
+    }
+
+    /**
+     * @param dateChange
+     *            the date of the last change
+     */
+    public void setDateChange( Timestamp dateChange )
+    {
+        _dateChange = dateChange;
+    }
+
+    /**
+     * @return the id of the node which claimed the work, null if not claimed
+     */
+    public String getClaimedBy( )
+    {
+        return _strClaimedBy;
+    }
+
+    /**
+     * @param strClaimedBy
+     *            the id of the node which claimed the work
+     */
+    public void setClaimedBy( String strClaimedBy )
+    {
+        _strClaimedBy = strClaimedBy;
+    }
+
+    /**
+     * @return the end of the claim, after which another node may claim the work
+     */
+    public Timestamp getDateClaimedUntil( )
+    {
+        return _dateClaimedUntil;
+    }
+
+    /**
+     * @param dateClaimedUntil
+     *            the end of the claim
+     */
+    public void setDateClaimedUntil( Timestamp dateClaimedUntil )
+    {
+        _dateClaimedUntil = dateClaimedUntil;
+    }
+}
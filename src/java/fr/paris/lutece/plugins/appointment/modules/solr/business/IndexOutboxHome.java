@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.business;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.List;
+
+import fr.paris.lutece.plugins.appointment.service.AppointmentPlugin;
+import fr.paris.lutece.portal.service.plugin.Plugin;
+import fr.paris.lutece.portal.service.plugin.PluginService;
+import fr.paris.lutece.portal.service.spring.SpringContextService;
+import fr.paris.lutece.portal.service.util.AppException;
+
+/**
+ * This class provides instances management methods for the index outbox. The outbox is stored in the appointment database so that it is shared by all the
+ * nodes of a cluster.
+ *
+ */
+public final class IndexOutboxHome
+{
+    private static final int MAX_ENQUEUE_ATTEMPTS = 5;
+
+    // Static variable pointed at the DAO instance
+    private static IIndexOutboxDAO _dao = SpringContextService.getBean( "appointment-solr.indexOutboxDAO" );
+    private static Plugin _plugin = PluginService.getPlugin( AppointmentPlugin.PLUGIN_NAME );
+
+    /**
+     * Private constructor - this class need not be instantiated
+     */
+    private IndexOutboxHome( )
+    {
+    }
+
+    /**
+     * Set the DAO of the outbox
+     *
+     * @param dao
+     *            the DAO
+     */
+    static void setDAO( IIndexOutboxDAO dao )
+    {
+        _dao = dao;
+    }
+
+    /**
+     * Record a change of a form. The changes of a form are coalesced in a single entry.
+     *
+     * @param nIdForm
+     *            the form id
+     * @param bFull
+     *            true if the whole form must be reindexed
+     */
+    public static void enqueue( int nIdForm, boolean bFull )
+    {
+        IndexOutboxEntry change = newChange( nIdForm );
+        change.setFull( bFull );
+        store( change );
+    }
+
+    /**
+     * Record a change of the attributes of a form
+     *
+     * @param nIdForm
+     *            the form id
+     */
+    public static void enqueueMetadata( int nIdForm )
+    {
+        IndexOutboxEntry change = newChange( nIdForm );
+        change.setMetadata( true );
+        store( change );
+    }
+
+    /**
+     * Record a change of the slots of a form between two dates. The periods recorded on the entry of a form are merged.
+     *
+     * @param nIdForm
+     *            the form id
+     * @param startingDate
+     *            the first day of the period
+     * @param endingDate
+     *            the last day of the period
+     */
+    public static void enqueueRange( int nIdForm, LocalDate startingDate, LocalDate endingDate )
+    {
+        IndexOutboxEntry change = newChange( nIdForm );
+        change.setDateRangeStart( startingDate );
+        change.setDateRangeEnd( endingDate );
+        store( change );
+    }
+
+    private static IndexOutboxEntry newChange( int nIdForm )
+    {
+        IndexOutboxEntry change = new IndexOutboxEntry( );
+        change.setIdForm( nIdForm );
+        return change;
+    }
+
+    /**
+     * Store a change on the entry of its form, or insert a new entry if there is none, for instance because it was completed meanwhile
+     *
+     * @param change
+     *            the change
+     */
+    private static void store( IndexOutboxEntry change )
+    {
+        for ( int nAttempt = 0; nAttempt < MAX_ENQUEUE_ATTEMPTS; nAttempt++ )
+        {
+            change.setDateChange( new Timestamp( System.currentTimeMillis( ) ) );
+            if ( _dao.storeChange( change, _plugin ) > 0 )
+            {
+                return;
+            }
+            try
+            {
+                _dao.insert( change, _plugin );
+                return;
+            }
+            catch( AppException e )
+            {
+                // Inserted concurrently by another node, record the change on its entry
+            }
+        }
+        throw new AppException( "The change of the form " + change.getIdForm( ) + " could not be recorded in the index outbox" );
+    }
+
+    /**
+     * Record a change of a slot. The slot is recorded before the change of its form, so that the node processing the change finds it.
+     *
+     * @param nIdForm
+     *            the form id
+     * @param nIdSlot
+     *            the slot id
+     */
+    public static void enqueueSlot( int nIdForm, int nIdSlot )
+    {
+        try
+        {
+            _dao.insertSlot( nIdForm, nIdSlot, _plugin );
+        }
+        catch( AppException e )
+        {
+            // Already recorded and not processed yet
+        }
+        enqueue( nIdForm, false );
+    }
+
+    /**
+     * Take the changed slots of a form: they are removed from the outbox before their state is read, so that a change recorded afterwards is processed
+     * again
+     *
+     * @param nIdForm
+     *            the form id
+     * @return the slot ids
+     */
+    public static List<Integer> takeSlotIds( int nIdForm )
+    {
+        List<Integer> listIdSlots = _dao.selectSlotIds( nIdForm, _plugin );
+        listIdSlots.forEach( nIdSlot -> _dao.deleteSlot( nIdForm, nIdSlot, _plugin ) );
+        return listIdSlots;
+    }
+
+    /**
+     * Remove all the changed slots of a form, before a full reindex of the form
+     *
+     * @param nIdForm
+     *            the form id
+     */
+    public static void clearSlots( int nIdForm )
+    {
+        _dao.deleteSlots( nIdForm, _plugin );
+    }
+
+    /**
+     * Load the entry of a form
+     *
+     * @param nIdForm
+     *            the form id
+     * @return the entry, null if the form has no pending work
+     */
+    public static IndexOutboxEntry findByPrimaryKey( int nIdForm )
+    {
+        return _dao.load( nIdForm, _plugin );
+    }
+
+    /**
+     * Get the forms whose work can be claimed
+     *
+     * @param nMax
+     *            the maximum number of forms
+     * @return the form ids
+     */
+    public static List<Integer> getPendingFormIds( int nMax )
+    {
+        // The changed slots whose form change was not recorded, the entry being inserted if it is still missing
+        _dao.selectOrphanSlotFormIds( _plugin ).forEach( nIdForm -> enqueue( nIdForm, false ) );
+        return _dao.selectPendingFormIds( new Timestamp( System.currentTimeMillis( ) ), nMax, _plugin );
+    }
+
+    /**
+     * Try to claim the work of a form
+     *
+     * @param nIdForm
+     *            the form id
+     * @param strNodeId
+     *            the id of the claim, unique to the claiming processing
+     * @param lClaimDuration
+     *            the duration of the claim in milliseconds
+     * @return the claimed entry, null if there is no work or if it is claimed by another processing
+     */
+    public static IndexOutboxEntry claim( int nIdForm, String strNodeId, long lClaimDuration )
+    {
+        long lNow = System.currentTimeMillis( );
+        _dao.claim( nIdForm, strNodeId, new Timestamp( lNow ), new Timestamp( lNow + lClaimDuration ), _plugin );
+        IndexOutboxEntry entry = _dao.load( nIdForm, _plugin );
+        if ( entry != null && strNodeId.equals( entry.getClaimedBy( ) ) )
+        {
+            return entry;
+        }
+        return null;
+    }
+
+    /**
+     * Release the claim of a node, the work will be done later
+     *
+     * @param nIdForm
+     *            the form id
+     * @param strNodeId
+     *            the id of the node
+     */
+    public static void release( int nIdForm, String strNodeId )
+    {
+        _dao.release( nIdForm, strNodeId, _plugin );
+    }
+
+    /**
+     * Remove the work of a form once done. If the form was changed again during the processing, the claim is released so that the new work can be
+     * claimed.
+     *
+     * @param entry
+     *            the entry processed
+     * @param strNodeId
+     *            the id of the node
+     * @return true if the entry is removed, false if the form was changed again during the processing
+     */
+    public static boolean complete( IndexOutboxEntry entry, String strNodeId )
+    {
+        _dao.delete( entry.getIdForm( ), entry.getVersion( ), _plugin );
+        if ( _dao.load( entry.getIdForm( ), _plugin ) == null )
+        {
+            return true;
+        }
+        _dao.release( entry.getIdForm( ), strNodeId, _plugin );
+        return false;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.business;
+
+import fr.paris.lutece.plugins.appointment.service.AppointmentPlugin;
+import fr.paris.lutece.portal.service.plugin.Plugin;
+import fr.paris.lutece.portal.service.plugin.PluginService;
+import fr.paris.lutece.portal.service.spring.SpringContextService;
+import fr.paris.lutece.portal.service.util.AppException;
+
+/**
+ * This class provides instances management methods for the change sequence of the documents. The last number taken is stored in the appointment database
+ * so that the numbers keep increasing across all the nodes of a cluster, whatever their clocks.
+ *
+ */
+public final class IndexSequenceHome
+{
+    private static final int MAX_NEXT_ATTEMPTS = 100;
+
+    // Static variable pointed at the DAO instance
+    private static IIndexSequenceDAO _dao = SpringContextService.getBean( "appointment-solr.indexSequenceDAO" );
+    private static Plugin _plugin = PluginService.getPlugin( AppointmentPlugin.PLUGIN_NAME );
+
+    /**
+     * Private constructor - this class need not be instantiated
+     */
+    private IndexSequenceHome( )
+    {
+    }
+
+    /**
+     * Set the DAO of the sequence
+     *
+     * @param dao
+     *            the DAO
+     */
+    static void setDAO( IIndexSequenceDAO dao )
+    {
+        _dao = dao;
+    }
+
+    /**
+     * Take the next number. It is higher than all the numbers taken before by any node.
+     *
+     * @param lMinimum
+     *            the lowest number to take
+     * @return the number
+     */
+    public static long next( long lMinimum )
+    {
+        for ( int nAttempt = 0; nAttempt < MAX_NEXT_ATTEMPTS; nAttempt++ )
+        {
+            long lLast = _dao.load( _plugin );
+            long lNext = Math.max( lLast + 1, lMinimum );
+            if ( _dao.store( lLast, lNext, _plugin ) > 0 )
+            {
+                return lNext;
+            }
+            // Taken concurrently by another node
+        }
+        throw new AppException( "No number could be taken from the change sequence of the documents" );
+    }
+
+    /**
+     * Get the last number taken, without taking a new one
+     *
+     * @return the number
+     */
+    public static long current( )
+    {
+        return _dao.load( _plugin );
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache of the results of the availability searches, per form.
+ *
+ * A result is dropped as soon as the indexer writes a slot of its form on one of its days. Since the documents written are only visible in Solr after the
+ * commit, a search running while a day of its period was written, or less than the settle delay after, is not cached. The time to live bounds the staleness
+ * of the results when the index is written by another node.
+ *
+ */
+final class AvailabilityCache
+{
+    private final int _nMaxEntriesPerForm;
+    private final long _lTimeToLive;
+    private final long _lSettleDelay;
+    private final Map<Integer, FormCache> _mapForms = new HashMap<>( );
+
+    /**
+     * Constructor
+     *
+     * @param nMaxEntriesPerForm
+     *            the maximum number of results kept per form, the least recently used are dropped first
+     * @param lTimeToLive
+     *            the time to live of a result in milliseconds
+     * @param lSettleDelay
+     *            the delay in milliseconds after which a write is visible in Solr
+     */
+    AvailabilityCache( int nMaxEntriesPerForm, long lTimeToLive, long lSettleDelay )
+    {
+        _nMaxEntriesPerForm = Math.max( 1, nMaxEntriesPerForm );
+        _lTimeToLive = lTimeToLive;
+        _lSettleDelay = Math.max( 0, lSettleDelay );
+    }
+
+    /**
+     * Get a cached result
+     *
+     * @param nIdForm
+     *            the form id
+     * @param strKey
+     *            the key of the search
+     * @return the result, or null if it is not cached
+     */
+    synchronized List<AvailableSlot> get( int nIdForm, String strKey )
+    {
+        FormCache formCache = _mapForms.get( nIdForm );
+        Entry entry = formCache == null ? null : formCache._mapEntries.get( strKey );
+        if ( entry == null )
+        {
+            return null;
+        }
+        if ( System.currentTimeMillis( ) - entry._lCreated > _lTimeToLive )
+        {
+            formCache._mapEntries.remove( strKey );
+            return null;
+        }
+        return entry._listSlots;
+    }
+
+    /**
+     * Cache a result, unless a day of its period was written since the search started or may not be visible in Solr yet
+     *
+     * @param nIdForm
+     *            the form id
+     * @param strKey
+     *            the key of the search
+     * @param startingDate
+     *            the first day of the search
+     * @param endingDate
+     *            the last day of the search
+     * @param listSlots
+     *            the result
+     * @param lSearchStart
+     *            the time of the start of the search
+     */
+    synchronized void put( int nIdForm, String strKey, LocalDate startingDate, LocalDate endingDate, List<AvailableSlot> listSlots, long lSearchStart )
+    {
+        FormCache formCache = getFormCache( nIdForm );
+        long lSettled = lSearchStart - _lSettleDelay;
+        if ( formCache._lFormWritten > lSettled )
+        {
+            return;
+        }
+        for ( Map.Entry<LocalDate, Long> dayWritten : formCache._mapDaysWritten.entrySet( ) )
+        {
+            LocalDate date = dayWritten.getKey( );
+            if ( dayWritten.getValue( ) > lSettled && !date.isBefore( startingDate ) && !date.isAfter( endingDate ) )
+            {
+                return;
+            }
+        }
+        formCache._mapEntries.put( strKey, new Entry( startingDate, endingDate, listSlots, System.currentTimeMillis( ) ) );
+    }
+
+    /**
+     * Drop the results of a form covering the days written
+     *
+     * @param nIdForm
+     *            the form id
+     * @param collectionDays
+     *            the days written
+     */
+    synchronized void invalidate( int nIdForm, Collection<LocalDate> collectionDays )
+    {
+        if ( collectionDays.isEmpty( ) )
+        {
+            return;
+        }
+        long lNow = System.currentTimeMillis( );
+        FormCache formCache = getFormCache( nIdForm );
+        formCache._mapDaysWritten.values( ).removeIf( lWritten -> lWritten + _lSettleDelay < lNow );
+        for ( LocalDate date : collectionDays )
+        {
+            formCache._mapDaysWritten.put( date, lNow );
+        }
+        Iterator<Entry> iterator = formCache._mapEntries.values( ).iterator( );
+        while ( iterator.hasNext( ) )
+        {
+            Entry entry = iterator.next( );
+            if ( collectionDays.stream( ).anyMatch( date -> !date.isBefore( entry._startingDate ) && !date.isAfter( entry._endingDate ) ) )
+            {
+                iterator.remove( );
+            }
+        }
+    }
+
+    /**
+     * Drop all the results of a form
+     *
+     * @param nIdForm
+     *            the form id
+     */
+    synchronized void invalidateForm( int nIdForm )
+    {
+        FormCache formCache = getFormCache( nIdForm );
+        formCache._lFormWritten = System.currentTimeMillis( );
+        formCache._mapDaysWritten.clear( );
+        formCache._mapEntries.clear( );
+    }
+
+    private FormCache getFormCache( int nIdForm )
+    {
+        return _mapForms.computeIfAbsent( nIdForm, key -> new FormCache( _nMaxEntriesPerForm ) );
+    }
+
+    /**
+     * The results of a form and its last writes
+     */
+    private static final class FormCache
+    {
+        private final Map<String, Entry> _mapEntries;
+        private final Map<LocalDate, Long> _mapDaysWritten = new HashMap<>( );
+        private long _lFormWritten = Long.MIN_VALUE;
+
+        private FormCache( int nMaxEntries )
+        {
+            _mapEntries = new LinkedHashMap<String, Entry>( 16, 0.75f, true )
+            {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry( Map.Entry<String, Entry> eldest )
+                {
+                    return size( ) > nMaxEntries;
+                }
+            };
+        }
+    }
+
+    /**
+     * A cached result
+     */
+    private static final class Entry
+    {
+        private final LocalDate _startingDate;
+        private final LocalDate _endingDate;
+        private final List<AvailableSlot> _listSlots;
+        private final long _lCreated;
+
+        private Entry( LocalDate startingDate, LocalDate endingDate, List<AvailableSlot> listSlots, long lCreated )
+        {
+            _startingDate = startingDate;
+            _endingDate = endingDate;
+            _listSlots = listSlots;
+            _lCreated = lCreated;
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import java.time.LocalDate;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Criteria of a search of the available slots of a form
+ *
+ */
+public class AvailabilityQuery
+{
+    private static final int MINUTES_PER_DAY = 1440;
+
+    private int _nIdForm;
+    private LocalDate _startingDate;
+    private LocalDate _endingDate;
+    private int _nMinFreePlaces = 1;
+    private int _nMinConsecutiveSlots = 1;
+    private Set<Integer> _setDaysOfWeek = new TreeSet<>( );
+    private int _nMinMinuteOfDay;
+    private int _nMaxMinuteOfDay = MINUTES_PER_DAY - 1;
+
+    /**
+     * Constructor
+     *
+     * @param nIdForm
+     *            the form id
+     * @param startingDate
+     *            the first day of the search
+     * @param endingDate
+     *            the last day of the search (included)
+     */
+    public AvailabilityQuery( int nIdForm, LocalDate startingDate, LocalDate endingDate )
+    {
+        _nIdForm = nIdForm;
+        _startingDate = startingDate;
+        _endingDate = endingDate;
+    }
+
+    /**
+     * Build the search of the available slots of a form in the next days
+     *
+     * @param nIdForm
+     *            the form id
+     * @param nNbDays
+     *            the number of days, today included
+     * @return the query
+     */
+    public static AvailabilityQuery nextDays( int nIdForm, int nNbDays )
+    {
+        LocalDate today = LocalDate.now( );
+        return new AvailabilityQuery( nIdForm, today, today.plusDays( Math.max( 1, nNbDays ) - 1L ) );
+    }
+
+    /**
+     * @return the form id
+     */
+    public int getIdForm( )
+    {
+        return _nIdForm;
+    }
+
+    /**
+     * @param nIdForm
+     *            the form id
+     */
+    public void setIdForm( int nIdForm )
+    {
+        _nIdForm = nIdForm;
+    }
+
+    /**
+     * @return the first day of the search
+     */
+    public LocalDate getStartingDate( )
+    {
+        return _startingDate;
+    }
+
+    /**
+     * @param startingDate
+     *            the first day of the search
+     */
+    public void setStartingDate( LocalDate startingDate )
+    {
+        _startingDate = startingDate;
+    }
+
+    /**
+     * @return the last day of the search (included)
+     */
+    public LocalDate getEndingDate( )
+    {
+        return _endingDate;
+    }
+
+    /**
+     * @param endingDate
+     *            the last day of the search (included)
+     */
+    public void setEndingDate( LocalDate endingDate )
+    {
+        _endingDate = endingDate;
+    }
+
+    /**
+     * @return the minimum number of free places of a slot
+     */
+    public int getMinFreePlaces( )
+    {
+        return _nMinFreePlaces;
+    }
+
+    /**
+     * @param nMinFreePlaces
+     *            the minimum number of free places of a slot
+     */
+    public void setMinFreePlaces( int nMinFreePlaces )
+    {
+        _nMinFreePlaces = nMinFreePlaces;
+    }
+
+    /**
+     * @return the minimum number of consecutive available slots starting with the slot
+     */
+    public int getMinConsecutiveSlots( )
+    {
+        return _nMinConsecutiveSlots;
+    }
+
+    /**
+     * @param nMinConsecutiveSlots
+     *            the minimum number of consecutive available slots starting with the slot
+     */
+    public void setMinConsecutiveSlots( int nMinConsecutiveSlots )
+    {
+        _nMinConsecutiveSlots = nMinConsecutiveSlots;
+    }
+
+    /**
+     * @return the days of the week of the slots (1 for monday to 7 for sunday), all the days if empty
+     */
+    public Set<Integer> getDaysOfWeek( )
+    {
+        return _setDaysOfWeek;
+    }
+
+    /**
+     * @param setDaysOfWeek
+     *            the days of the week of the slots (1 for monday to 7 for sunday), all the days if empty
+     */
+    public void setDaysOfWeek( Set<Integer> setDaysOfWeek )
+    {
+        _setDaysOfWeek = new TreeSet<>( setDaysOfWeek );
+    }
+
+    /**
+     * @return the earliest starting minute of the day of the slots
+     */
+    public int getMinMinuteOfDay( )
+    {
+        return _nMinMinuteOfDay;
+    }
+
+    /**
+     * @param nMinMinuteOfDay
+     *            the earliest starting minute of the day of the slots
+     */
+    public void setMinMinuteOfDay( int nMinMinuteOfDay )
+    {
+        _nMinMinuteOfDay = nMinMinuteOfDay;
+    }
+
+    /**
+     * @return the latest starting minute of the day of the slots
+     */
+    public int getMaxMinuteOfDay( )
+    {
+        return _nMaxMinuteOfDay;
+    }
+
+    /**
+     * @param nMaxMinuteOfDay
+     *            the latest starting minute of the day of the slots
+     */
+    public void setMaxMinuteOfDay( int nMaxMinuteOfDay )
+    {
+        _nMaxMinuteOfDay = nMaxMinuteOfDay;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import java.time.LocalDateTime;
+
+/**
+ * An available slot found by {@link SolrAvailabilityService}. The slots are shared by the cached results and can not be modified.
+ *
+ */
+public final class AvailableSlot
+{
+    private final String _strUid;
+    private final LocalDateTime _startingDateTime;
+    private final int _nNbFreePlaces;
+    private final int _nNbPlaces;
+    private final int _nNbConsecutiveSlots;
+    private final String _strUrl;
+
+    /**
+     * Constructor
+     *
+     * @param strUid
+     *            the Solr uid of the slot
+     * @param startingDateTime
+     *            the starting date time
+     * @param nNbFreePlaces
+     *            the number of free places
+     * @param nNbPlaces
+     *            the number of places
+     * @param nNbConsecutiveSlots
+     *            the number of consecutive available slots starting with the slot
+     * @param strUrl
+     *            the url of the booking of the slot
+     */
+    AvailableSlot( String strUid, LocalDateTime startingDateTime, int nNbFreePlaces, int nNbPlaces, int nNbConsecutiveSlots, String strUrl )
+    {
+        _strUid = strUid;
+        _startingDateTime = startingDateTime;
+        _nNbFreePlaces = nNbFreePlaces;
+        _nNbPlaces = nNbPlaces;
+        _nNbConsecutiveSlots = nNbConsecutiveSlots;
+        _strUrl = strUrl;
+    }
+
+    /**
+     * @return the Solr uid of the slot
+     */
+    public String getUid( )
+    {
+        return _strUid;
+    }
+
+    /**
+     * @return the starting date time
+     */
+    public LocalDateTime getStartingDateTime( )
+    {
+        return _startingDateTime;
+    }
+
+    /**
+     * @return the number of free places
+     */
+    public int getNbFreePlaces( )
+    {
+        return _nNbFreePlaces;
+    }
+
+    /**
+     * @return the number of places
+     */
+    public int getNbPlaces( )
+    {
+        return _nNbPlaces;
+    }
+
+    /**
+     * @return the number of consecutive available slots starting with the slot
+     */
+    public int getNbConsecutiveSlots( )
+    {
+        return _nNbConsecutiveSlots;
+    }
+
+    /**
+     * @return the url of the booking of the slot
+     */
+    public String getUrl( )
+    {
+        return _strUrl;
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+
+import fr.paris.lutece.portal.service.util.AppLogService;
+
+/**
+ * Debouncer of the periods to reindex per form.
+ *
+ * The periods received for a form are merged until no new period is received during the quiet period, then a single flush is done for the merged period.
+ * A burst lasting longer than the maximum delay is flushed anyway, so that a form continuously changed is still reindexed.
+ *
+ */
+final class DateRangeDebouncer
+{
+    /**
+     * Callback receiving the merged periods
+     */
+    @FunctionalInterface
+    interface RangeFlush
+    {
+        /**
+         * Flush the merged period of a form
+         *
+         * @param nIdForm
+         *            the form id
+         * @param startingDate
+         *            the first day of the period
+         * @param endingDate
+         *            the last day of the period
+         */
+        void flush( int nIdForm, LocalDate startingDate, LocalDate endingDate );
+    }
+
+    private final long _lQuietPeriod;
+    private final long _lMaxDelay;
+    private final RangeFlush _flush;
+    private final Map<Integer, PendingRange> _mapPending = new HashMap<>( );
+
+    /**
+     * Constructor
+     *
+     * @param lQuietPeriod
+     *            the quiet period in milliseconds, 0 to flush every period immediately
+     * @param lMaxDelay
+     *            the maximum delay in milliseconds between the first period of a burst and its flush
+     * @param flush
+     *            the callback receiving the merged periods
+     */
+    DateRangeDebouncer( long lQuietPeriod, long lMaxDelay, RangeFlush flush )
+    {
+        _lQuietPeriod = Math.max( 0, lQuietPeriod );
+        _lMaxDelay = Math.max( _lQuietPeriod, lMaxDelay );
+        _flush = flush;
+    }
+
+    /**
+     * Add a period to reindex
+     *
+     * @param nIdForm
+     *            the form id
+     * @param startingDate
+     *            the first day of the period
+     * @param endingDate
+     *            the last day of the period
+     */
+    void add( int nIdForm, LocalDate startingDate, LocalDate endingDate )
+    {
+        if ( _lQuietPeriod == 0 )
+        {
+            _flush.flush( nIdForm, startingDate, endingDate );
+            return;
+        }
+        long lNow = System.currentTimeMillis( );
+        synchronized( this )
+        {
+            PendingRange pending = _mapPending.get( nIdForm );
+            if ( pending == null )
+            {
+                _mapPending.put( nIdForm, new PendingRange( startingDate, endingDate, lNow ) );
+                schedule( nIdForm, _lQuietPeriod );
+            }
+            else
+            {
+                pending.merge( startingDate, endingDate, lNow );
+            }
+        }
+    }
+
+    private void schedule( int nIdForm, long lDelay )
+    {
+        IndexingScheduler.schedule( ( ) -> check( nIdForm ), lDelay );
+    }
+
+    private void check( int nIdForm )
+    {
+        PendingRange pending;
+        synchronized( this )
+        {
+            pending = _mapPending.get( nIdForm );
+            if ( pending == null )
+            {
+                return;
+            }
+            long lNow = System.currentTimeMillis( );
+            long lDelay = Math.min( pending._lLastEvent + _lQuietPeriod - lNow, pending._lFirstEvent + _lMaxDelay - lNow );
+            if ( lDelay > 0 )
+            {
+                schedule( nIdForm, lDelay );
+                return;
+            }
+            _mapPending.remove( nIdForm );
+        }
+        try
+        {
+            _flush.flush( nIdForm, pending._startingDate, pending._endingDate );
+        }
+        catch( RuntimeException e )
+        {
+            AppLogService.error( "Error during DateRangeDebouncer flush of form " + nIdForm, e );
+        }
+    }
+
+    /**
+     * The merged period of a burst
+     */
+    private static final class PendingRange
+    {
+        private LocalDate _startingDate;
+        private LocalDate _endingDate;
+        private final long _lFirstEvent;
+        private long _lLastEvent;
+
+        private PendingRange( LocalDate startingDate, LocalDate endingDate, long lNow )
+        {
+            _startingDate = startingDate;
+            _endingDate = endingDate;
+            _lFirstEvent = lNow;
+            _lLastEvent = lNow;
+        }
+
+        private void merge( LocalDate startingDate, LocalDate endingDate, long lNow )
+        {
+            if ( startingDate.isBefore( _startingDate ) )
+            {
+                _startingDate = startingDate;
+            }
+            if ( endingDate.isAfter( _endingDate ) )
+            {
+                _endingDate = endingDate;
+            }
+            _lLastEvent = lNow;
+        }
+    }
+}
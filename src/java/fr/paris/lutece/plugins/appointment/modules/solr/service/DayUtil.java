@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+import fr.paris.lutece.plugins.appointment.web.dto.AppointmentFormDTO;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+/**
+ * Utils for the availability summaries of the days (Uid, Item ...)
+ *
+ * A summary document is written per form and per day with slots, so that an availability calendar needs a single small query instead of a facet over
+ * the slot documents.
+ *
+ */
+public final class DayUtil
+{
+    private static final String PROPERTY_DAY_SUMMARY_ENABLE = "appointment-solr.daySummary.enable";
+
+    private static final String DAY_NB_FREE_PLACES = "day_nb_free_places";
+    private static final String DAY_NB_PLACES = "day_nb_places";
+    private static final String DAY_NB_SLOTS = "day_nb_slots";
+    private static final String DAY_FIRST_FREE_MINUTE_OF_DAY = "day_first_free_minute_of_day";
+    private static final String DAY_MAX_CONSECUTIVES_FREE_SLOTS = "day_max_consecutives_free_slots";
+    private static final String DAY_OF_WEEK = "day_of_week";
+    private static final String UID_FORM = "uid_form";
+    private static final String URL_FORM = "url_form";
+
+    /**
+     * Private constructor - this class does not need to be instantiated
+     */
+    private DayUtil( )
+    {
+    }
+
+    /**
+     * Check if the summary documents of the days are written
+     * 
+     * @return true if the summaries are enabled
+     */
+    public static boolean isEnabled( )
+    {
+        return AppPropertiesService.getPropertyBoolean( PROPERTY_DAY_SUMMARY_ENABLE, false );
+    }
+
+    /**
+     * Generate a unique ID for solr from the form id and the day
+     * 
+     * @param nIdForm
+     *            the form id
+     * @param date
+     *            the day
+     * @return the unique ID
+     */
+    public static String getDayUid( int nIdForm, LocalDate date )
+    {
+        return "F" + nIdForm + "D" + date.format( Utilities.DAY_SOLR_ID_DATE_FORMATTER );
+    }
+
+    /**
+     * Build the summary items of all the days of the table, none if the summaries are disabled
+     * 
+     * @param appointmentForm
+     *            the Appointment Form
+     * @param table
+     *            the slots of the form
+     * @return the day items
+     */
+    static List<SolrItem> getDayItems( AppointmentFormDTO appointmentForm, SlotTable table )
+    {
+        List<SolrItem> listItems = new ArrayList<>( );
+        if ( !isEnabled( ) )
+        {
+            return listItems;
+        }
+        FieldProfile profile = FieldProfile.getCurrent( );
+        int nIndex = 0;
+        while ( nIndex < table.size( ) )
+        {
+            LocalDate date = table.getStartingDateTime( nIndex ).toLocalDate( );
+            listItems.add( getDayItem( appointmentForm, table, date, profile ) );
+            nIndex = table.getFirstIndexOfDay( date.plusDays( 1 ) );
+        }
+        return listItems;
+    }
+
+    /**
+     * Build and return the summary item of a day for Solr
+     * 
+     * @param appointmentForm
+     *            the Appointment Form
+     * @param table
+     *            the slots of the form
+     * @param date
+     *            the day
+     * @return the day item, null if the summaries are disabled or the day has no slot
+     */
+    static SolrItem getDayItem( AppointmentFormDTO appointmentForm, SlotTable table, LocalDate date )
+    {
+        return getDayItem( appointmentForm, table, date, FieldProfile.getCurrent( ) );
+    }
+
+    /**
+     * Build and return the summary item of a day for Solr
+     * 
+     * @param appointmentForm
+     *            the Appointment Form
+     * @param table
+     *            the slots of the form
+     * @param date
+     *            the day
+     * @param profile
+     *            the optional fields written
+     * @return the day item, null if the summaries are disabled or the day has no slot
+     */
+    private static SolrItem getDayItem( AppointmentFormDTO appointmentForm, SlotTable table, LocalDate date, FieldProfile profile )
+    {
+        int nFirst = table.getFirstIndexOfDay( date );
+        int nEnd = table.getFirstIndexOfDay( date.plusDays( 1 ) );
+        if ( !isEnabled( ) || nFirst >= nEnd )
+        {
+            return null;
+        }
+        long lFreePlaces = 0;
+        long lPlaces = 0;
+        long lMaxConsecutiveSlots = 0;
+        LocalDateTime firstFreeDateTime = null;
+        for ( int i = nFirst; i < nEnd; i++ )
+        {
+            lFreePlaces += Math.max( 0, table.getNbPotentialRemainingPlaces( i ) );
+            lPlaces += table.getMaxCapacity( i );
+            lMaxConsecutiveSlots = Math.max( lMaxConsecutiveSlots, table.getNbConsecutiveSlots( i ) );
+            if ( firstFreeDateTime == null && table.isOpen( i ) && table.getNbPotentialRemainingPlaces( i ) > 0 )
+            {
+                firstFreeDateTime = table.getStartingDateTime( i );
+            }
+        }
+        // Same bound as the consecutive slots of the slot documents
+        long lMaxAllowed = appointmentForm.getIsMultislotAppointment( ) ? appointmentForm.getNbConsecutiveSlots( ) : 1L;
+
+        SolrItem item = FormUtil.getChildBaseItem( appointmentForm, profile );
+        item.setUid( Utilities.buildResourceUid( getDayUid( appointmentForm.getIdForm( ), date ), Utilities.RESOURCE_TYPE_DAY ) );
+        item.addDynamicFieldNotAnalysed( UID_FORM, FormUtil.getFormUid( appointmentForm.getIdForm( ) ) );
+        item.setUrl( FormUtil.getFormUrl( appointmentForm.getIdForm( ) ) );
+        if ( profile.isEnabled( URL_FORM ) )
+        {
+            item.addDynamicFieldNotAnalysed( URL_FORM, FormUtil.getFormUrl( appointmentForm.getIdForm( ) ) );
+        }
+        item.setDate( Timestamp.valueOf( date.atStartOfDay( ) ) );
+        item.setType( Utilities.SHORT_NAME_DAY );
+        item.addDynamicField( DAY_NB_FREE_PLACES, lFreePlaces );
+        item.addDynamicField( DAY_NB_PLACES, lPlaces );
+        item.addDynamicField( DAY_NB_SLOTS, (long) ( nEnd - nFirst ) );
+        item.addDynamicField( DAY_MAX_CONSECUTIVES_FREE_SLOTS, Math.min( lMaxConsecutiveSlots, lMaxAllowed ) );
+        if ( firstFreeDateTime != null )
+        {
+            item.addDynamicField( DAY_FIRST_FREE_MINUTE_OF_DAY, ChronoUnit.MINUTES.between( date.atStartOfDay( ), firstFreeDateTime ) );
+        }
+        if ( profile.isEnabled( DAY_OF_WEEK ) )
+        {
+            item.addDynamicField( DAY_OF_WEEK, Long.valueOf( date.getDayOfWeek( ).getValue( ) ) );
+        }
+        // Date Hierarchy
+        item.setHieDate( date.format( Utilities.HIE_DATE_FORMATTER ) );
+        return item;
+    }
+}
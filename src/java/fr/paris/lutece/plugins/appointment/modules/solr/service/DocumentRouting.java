@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.common.params.ShardParams;
+
+import fr.paris.lutece.plugins.search.solr.indexer.SolrIndexerService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+/**
+ * Routing of the documents of a form to a single shard of a SolrCloud collection using the compositeId router.
+ *
+ * When the routing is enabled, the uid of every document of a form is prefixed with the route key of the form (<code>F12!</code>), so that the form, slot
+ * and day summary documents of the form are hashed to the same shard. The queries and deletes by query on a form are then sent to that shard only. The
+ * <code>uid_form</code> field keeps the uid of the form without the route key. Switching the routing requires a full reindex.
+ *
+ */
+final class DocumentRouting
+{
+    private static final String PROPERTY_ENABLE = "appointment-solr.routing.enable";
+    private static final String ROUTE_PREFIX = "F";
+    private static final String ROUTE_SEPARATOR = "!";
+
+    /**
+     * Private constructor - this class does not need to be instantiated
+     */
+    private DocumentRouting( )
+    {
+    }
+
+    /**
+     * Check if the documents are routed per form
+     *
+     * @return true if the uids are prefixed with the route key of their form
+     */
+    static boolean isEnabled( )
+    {
+        return AppPropertiesService.getPropertyBoolean( PROPERTY_ENABLE, false );
+    }
+
+    /**
+     * Get the route of the documents of a form
+     *
+     * @param nIdForm
+     *            the form id
+     * @return the route, null if the routing is disabled
+     */
+    static String getRoute( int nIdForm )
+    {
+        return isEnabled( ) ? ROUTE_PREFIX + nIdForm + ROUTE_SEPARATOR : null;
+    }
+
+    /**
+     * Get the Solr uid of a document of a form
+     *
+     * @param nIdForm
+     *            the form id
+     * @param strUid
+     *            the uid of the document, not prefixed with the webapp name
+     * @return the uid prefixed with the webapp name, and with the route key of the form if the routing is enabled
+     */
+    static String getSolrUid( int nIdForm, String strUid )
+    {
+        String strRoute = getRoute( nIdForm );
+        String strSolrUid = SolrIndexerService.getWebAppName( ) + Utilities.UNDERSCORE + strUid;
+        return strRoute == null ? strSolrUid : strRoute + strSolrUid;
+    }
+
+    /**
+     * Restrict a query on the documents of a form to the shard of the form
+     *
+     * @param query
+     *            the query
+     * @param nIdForm
+     *            the form id
+     */
+    static void setRoute( SolrQuery query, int nIdForm )
+    {
+        String strRoute = getRoute( nIdForm );
+        if ( strRoute != null )
+        {
+            query.set( ShardParams._ROUTE_, strRoute );
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+/**
+ * Profile of the optional fields written on the form, slot and day summary documents.
+ *
+ * The fields listed in the property <code>appointment-solr.fields.disabled</code> are neither computed nor written. The fields the indexer relies on (uid,
+ * type, date, uid_form, places, enabled, consecutive slots) are not optional. The property is parsed when it changes; the profile is resolved once per
+ * form written and passed to the builders of its documents.
+ *
+ */
+final class FieldProfile
+{
+    private static final String PROPERTY_DISABLED_FIELDS = "appointment-solr.fields.disabled";
+    private static final String SEPARATOR = ",";
+
+    /** The categorie field and the category lookup behind it */
+    static final String CATEGORIE = "categorie";
+    /** The geoloc field of the form document */
+    static final String FORM_GEOLOC = "appointment_geoloc";
+    /** The geoloc field of the slot documents */
+    static final String SLOT_GEOLOC = "appointmentslot_geoloc";
+
+    private static volatile FieldProfile _current = new FieldProfile( StringUtils.EMPTY );
+
+    private final String _strDisabledFields;
+    private final Set<String> _setDisabledFields;
+
+    /**
+     * Constructor
+     *
+     * @param strDisabledFields
+     *            the value of the property, the names of the disabled fields separated by commas
+     */
+    private FieldProfile( String strDisabledFields )
+    {
+        _strDisabledFields = strDisabledFields;
+        Set<String> setDisabledFields = new HashSet<>( );
+        for ( String strField : strDisabledFields.split( SEPARATOR ) )
+        {
+            if ( StringUtils.isNotBlank( strField ) )
+            {
+                setDisabledFields.add( strField.trim( ) );
+            }
+        }
+        _setDisabledFields = Collections.unmodifiableSet( setDisabledFields );
+    }
+
+    /**
+     * Get the profile of the current value of the property
+     *
+     * @return the profile
+     */
+    static FieldProfile getCurrent( )
+    {
+        String strDisabledFields = AppPropertiesService.getProperty( PROPERTY_DISABLED_FIELDS, StringUtils.EMPTY );
+        FieldProfile profile = _current;
+        if ( !profile._strDisabledFields.equals( strDisabledFields ) )
+        {
+            // The properties were reloaded
+            profile = new FieldProfile( strDisabledFields );
+            _current = profile;
+        }
+        return profile;
+    }
+
+    /**
+     * Get the profile of a value of the property
+     *
+     * @param strDisabledFields
+     *            the names of the disabled fields separated by commas
+     * @return the profile
+     */
+    static FieldProfile of( String strDisabledFields )
+    {
+        return new FieldProfile( strDisabledFields );
+    }
+
+    /**
+     * Check if an optional field is written
+     *
+     * @param strFieldName
+     *            the name of the field, without the suffix of the dynamic fields
+     * @return true if the field is written
+     */
+    boolean isEnabled( String strFieldName )
+    {
+        return !_setDisabledFields.contains( strFieldName );
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import java.time.LocalDateTime;
+
+import fr.paris.lutece.plugins.appointment.web.dto.AppointmentFormDTO;
+
+/**
+ * Availability of the displayed slots of a form, carried by the form document: free places, places and next available slot.
+ *
+ * It can be accumulated period by period, the next available slot being the earliest one found.
+ *
+ */
+final class FormAvailability
+{
+    private long _lFreePlaces;
+    private long _lPlaces;
+    private int _nNbSlots;
+    private LocalDateTime _nextSlotDateTime;
+    private long _lNextSlotNbConsecutiveSlots;
+
+    /**
+     * Compute the availability of the slots of a table
+     *
+     * @param appointmentForm
+     *            the appointment form
+     * @param table
+     *            the slots
+     * @return the availability
+     */
+    static FormAvailability of( AppointmentFormDTO appointmentForm, SlotTable table )
+    {
+        FormAvailability availability = new FormAvailability( );
+        availability.add( appointmentForm, table );
+        return availability;
+    }
+
+    /**
+     * Add the slots of a table
+     *
+     * @param appointmentForm
+     *            the appointment form
+     * @param table
+     *            the slots
+     */
+    void add( AppointmentFormDTO appointmentForm, SlotTable table )
+    {
+        addPlaces( table.getFreePlaces( ), table.getPlaces( ) );
+        _nNbSlots += table.size( );
+        for ( int i = 0; i < table.size( ); i++ )
+        {
+            if ( table.isOpen( i ) && table.getNbPotentialRemainingPlaces( i ) > 0 )
+            {
+                offerNextSlot( table.getStartingDateTime( i ), SlotUtil.getNbConsecutiveSlots( appointmentForm, table, i ) );
+                break;
+            }
+        }
+    }
+
+    /**
+     * Add places counted elsewhere, for example read from the index
+     *
+     * @param lFreePlaces
+     *            the free places
+     * @param lPlaces
+     *            the places
+     */
+    void addPlaces( long lFreePlaces, long lPlaces )
+    {
+        _lFreePlaces += lFreePlaces;
+        _lPlaces += lPlaces;
+    }
+
+    /**
+     * Offer an available slot, kept if it is earlier than the next available slot known
+     *
+     * @param startingDateTime
+     *            the starting date time of the slot
+     * @param lNbConsecutiveSlots
+     *            the number of consecutive slots which can be booked from this slot
+     */
+    void offerNextSlot( LocalDateTime startingDateTime, long lNbConsecutiveSlots )
+    {
+        if ( _nextSlotDateTime == null || startingDateTime.isBefore( _nextSlotDateTime ) )
+        {
+            _nextSlotDateTime = startingDateTime;
+            _lNextSlotNbConsecutiveSlots = lNbConsecutiveSlots;
+        }
+    }
+
+    /**
+     * @return the free places
+     */
+    long getFreePlaces( )
+    {
+        return _lFreePlaces;
+    }
+
+    /**
+     * @return the places
+     */
+    long getPlaces( )
+    {
+        return _lPlaces;
+    }
+
+    /**
+     * @return the number of slots added from tables
+     */
+    int getNbSlots( )
+    {
+        return _nNbSlots;
+    }
+
+    /**
+     * @return the starting date time of the next available slot, null if there is none
+     */
+    LocalDateTime getNextSlotDateTime( )
+    {
+        return _nextSlotDateTime;
+    }
+
+    /**
+     * @return the number of consecutive slots which can be booked from the next available slot
+     */
+    long getNextSlotNbConsecutiveSlots( )
+    {
+        return _lNextSlotNbConsecutiveSlots;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.solr.client.solrj.beans.DocumentObjectBinder;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.SolrInputField;
+
+import fr.paris.lutece.plugins.appointment.web.dto.AppointmentFormDTO;
+import fr.paris.lutece.portal.service.search.SearchItem;
+
+/**
+ * Snapshot of the form attributes last written to Solr with all the slots of the form.
+ *
+ * The attributes are split in two parts: the scheduling attributes, whose change requires the slots to be regenerated, and the shared fields copied from
+ * {@link FormUtil#getDefaultFormItem(AppointmentFormDTO)} on the form document and on every slot document, which can be pushed with atomic updates.
+ *
+ */
+final class FormIndexSnapshot
+{
+    private static final DocumentObjectBinder BINDER = new DocumentObjectBinder( );
+    private static ConcurrentMap<Integer, FormIndexSnapshot> _mapSnapshots = new ConcurrentHashMap<>( );
+
+    private final List<Object> _listSchedulingAttributes;
+    private final Map<String, Object> _mapSharedFields;
+
+    private FormIndexSnapshot( List<Object> listSchedulingAttributes, Map<String, Object> mapSharedFields )
+    {
+        _listSchedulingAttributes = listSchedulingAttributes;
+        _mapSharedFields = mapSharedFields;
+    }
+
+    /**
+     * Build the snapshot of a form
+     *
+     * @param appointmentForm
+     *            the appointment form
+     * @return the snapshot
+     */
+    static FormIndexSnapshot build( AppointmentFormDTO appointmentForm )
+    {
+        // The address is a scheduling attribute: the geoloc labels of the slots carry their free places
+        List<Object> listSchedulingAttributes = Arrays.asList( appointmentForm.getIsActive( ), appointmentForm.getDateStartValidity( ),
+                appointmentForm.getDateEndValidity( ), appointmentForm.getIsMultislotAppointment( ), appointmentForm.getNbConsecutiveSlots( ),
+                appointmentForm.getNbWeeksToDisplay( ), appointmentForm.getMinTimeBeforeAppointment( ), appointmentForm.getAddress( ),
+                appointmentForm.getLongitude( ), appointmentForm.getLatitude( ) );
+
+        Map<String, Object> mapSharedFields = new HashMap<>( );
+        SolrInputDocument document = BINDER.toSolrInputDocument( FormUtil.getDefaultFormItem( appointmentForm ) );
+        for ( SolrInputField field : document )
+        {
+            if ( field.getValue( ) != null && !SearchItem.FIELD_UID.equals( field.getName( ) ) )
+            {
+                mapSharedFields.put( field.getName( ), field.getValue( ) );
+            }
+        }
+        return new FormIndexSnapshot( listSchedulingAttributes, mapSharedFields );
+    }
+
+    /**
+     * Get the snapshot of the form last written with all its slots
+     *
+     * @param nIdForm
+     *            the form id
+     * @return the snapshot, null if unknown
+     */
+    static FormIndexSnapshot get( int nIdForm )
+    {
+        return _mapSnapshots.get( nIdForm );
+    }
+
+    /**
+     * Record the snapshot of the form written with all its slots
+     *
+     * @param nIdForm
+     *            the form id
+     * @param snapshot
+     *            the snapshot
+     */
+    static void put( int nIdForm, FormIndexSnapshot snapshot )
+    {
+        _mapSnapshots.put( nIdForm, snapshot );
+    }
+
+    /**
+     * Forget the snapshot of a form
+     *
+     * @param nIdForm
+     *            the form id
+     */
+    static void remove( int nIdForm )
+    {
+        _mapSnapshots.remove( nIdForm );
+    }
+
+    /**
+     * Check if the scheduling attributes are the same in both snapshots
+     *
+     * @param other
+     *            the other snapshot
+     * @return true if the slots do not need to be regenerated
+     */
+    boolean hasSameScheduling( FormIndexSnapshot other )
+    {
+        return _listSchedulingAttributes.equals( other._listSchedulingAttributes );
+    }
+
+    /**
+     * Get the shared fields which changed since the previous snapshot
+     *
+     * @param previous
+     *            the previous snapshot
+     * @return the changed fields with their new value, a null value for the fields to remove
+     */
+    Map<String, Object> getChangedFields( FormIndexSnapshot previous )
+    {
+        Map<String, Object> mapChangedFields = new HashMap<>( );
+        for ( Map.Entry<String, Object> field : _mapSharedFields.entrySet( ) )
+        {
+            if ( !Objects.equals( field.getValue( ), previous._mapSharedFields.get( field.getKey( ) ) ) )
+            {
+                mapChangedFields.put( field.getKey( ), field.getValue( ) );
+            }
+        }
+        for ( String strName : previous._mapSharedFields.keySet( ) )
+        {
+            if ( !_mapSharedFields.containsKey( strName ) )
+            {
+                mapChangedFields.put( strName, null );
+            }
+        }
+        return mapChangedFields;
+    }
+}
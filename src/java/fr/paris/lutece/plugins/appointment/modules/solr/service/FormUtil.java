@@ -45,6 +45,7 @@ import fr.paris.lutece.portal.web.l10n.LocaleService;
 import fr.paris.lutece.util.url.UrlItem;
 import org.apache.commons.lang3.StringUtils;
 
+import java.sql.Timestamp;
 import java.time.DayOfWeek;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
@@ -70,6 +71,9 @@ public final class FormUtil
     private static final String APPOINTMENT_MAX_CONSECUTIVES_SLOTS = "appointment_max_consecutives_slots";
     private static final String APPOINTMENT_NB_FREE_PLACES = "appointment_nb_free_places";
     private static final String APPOINTMENT_NB_PLACES = "appointment_nb_places";
+    private static final String APPOINTMENT_NEXT_SLOT = "appointment_next_slot";
+    private static final String APPOINTMENT_NEXT_SLOT_TIME = "appointment_next_slot_time";
+    private static final String APPOINTMENT_NEXT_SLOT_NB_CONSECUTIVES_SLOTS = "appointment_next_slot_nb_consecutives_slots";
     private static final String VIEW_APPOINTMENT = "getViewAppointmentCalendar";
 
     private static final String FORM_ID_TITLE_SEPARATOR = "|";
@@ -100,6 +104,18 @@ public final class FormUtil
                 + Utilities.buildResourceUid( Integer.toString( nIdForm ), Utilities.RESOURCE_TYPE_APPOINTMENT );
     }
 
+    /**
+     * Get the Solr uid of the form document, which differs from the form Uid when the documents are routed per form
+     * 
+     * @param nIdForm
+     *            the form id
+     * @return the Solr uid of the form document
+     */
+    static String getFormDocumentUid( int nIdForm )
+    {
+        return DocumentRouting.getSolrUid( nIdForm, Utilities.buildResourceUid( Integer.toString( nIdForm ), Utilities.RESOURCE_TYPE_APPOINTMENT ) );
+    }
+
     /**
      * Get the form url
      * 
@@ -123,6 +139,20 @@ public final class FormUtil
      * @return the form item
      */
     public static SolrItem getDefaultFormItem( AppointmentFormDTO appointmentForm )
+    {
+        return getDefaultFormItem( appointmentForm, FieldProfile.getCurrent( ) );
+    }
+
+    /**
+     * Build and return the default form item for Solr
+     * 
+     * @param appointmentForm
+     *            the appointment form
+     * @param profile
+     *            the optional fields written
+     * @return the form item
+     */
+    static SolrItem getDefaultFormItem( AppointmentFormDTO appointmentForm, FieldProfile profile )
     {
         SolrItem item = new SolrItem( );
         item.setSummary( appointmentForm.getDescription( ) );
@@ -130,19 +160,76 @@ public final class FormUtil
         item.setSite( SolrIndexerService.getWebAppName( ) );
         item.setRole( appointmentForm.getRole( ) );
         item.setXmlContent( StringUtils.EMPTY );
-        Category category = CategoryHome.findByPrimaryKey( appointmentForm.getIdCategory( ) );
+        boolean bCategorie = profile.isEnabled( FieldProfile.CATEGORIE );
+        boolean bIdCategory = profile.isEnabled( FORM_ID_CATEGORY );
+        Category category = isCategoryNeeded( profile ) ? CategoryHome.findByPrimaryKey( appointmentForm.getIdCategory( ) ) : null;
         if ( category != null )
         {
-            item.setCategorie( Arrays.asList( category.getLabel( ) ) );
-            item.addDynamicField( FORM_ID_CATEGORY, (long) category.getIdCategory( ) );
+            if ( bCategorie )
+            {
+                item.setCategorie( Arrays.asList( category.getLabel( ) ) );
+            }
+            if ( bIdCategory )
+            {
+                item.addDynamicField( FORM_ID_CATEGORY, (long) category.getIdCategory( ) );
+            }
         }
         StringBuilder stringBuilder = new StringBuilder( );
         item.setContent( stringBuilder.toString( ) );
-        item.addDynamicField( MIN_HOURS_BEFORE_APPOINTMENT, (long) appointmentForm.getMinTimeBeforeAppointment( ) );
-        item.addDynamicFieldNotAnalysed( APPOINTMENT_ACTIVE, Boolean.toString( appointmentForm.getIsActive( ) ) );
-        item.addDynamicFieldNotAnalysed( URL_BASE, SolrIndexerService.getRootUrl( ) );
-        item.addDynamicFieldNotAnalysed( FORM_ID_TITLE, getFormUid( appointmentForm.getIdForm( ) ) + FORM_ID_TITLE_SEPARATOR + appointmentForm.getTitle( ) );
-        item.addDynamicFieldNotAnalysed( ICON_URL, SolrIndexerService.getRootUrl( ) + ImageResourceManager.getImageUrl( IMAGE_RESOURCE_TYPE_ID, appointmentForm.getIdForm() ));
+        if ( profile.isEnabled( MIN_HOURS_BEFORE_APPOINTMENT ) )
+        {
+            item.addDynamicField( MIN_HOURS_BEFORE_APPOINTMENT, (long) appointmentForm.getMinTimeBeforeAppointment( ) );
+        }
+        if ( profile.isEnabled( APPOINTMENT_ACTIVE ) )
+        {
+            item.addDynamicFieldNotAnalysed( APPOINTMENT_ACTIVE, Boolean.toString( appointmentForm.getIsActive( ) ) );
+        }
+        if ( profile.isEnabled( URL_BASE ) )
+        {
+            item.addDynamicFieldNotAnalysed( URL_BASE, SolrIndexerService.getRootUrl( ) );
+        }
+        if ( profile.isEnabled( FORM_ID_TITLE ) )
+        {
+            item.addDynamicFieldNotAnalysed( FORM_ID_TITLE, getFormUid( appointmentForm.getIdForm( ) ) + FORM_ID_TITLE_SEPARATOR + appointmentForm.getTitle( ) );
+        }
+        if ( profile.isEnabled( ICON_URL ) )
+        {
+            item.addDynamicFieldNotAnalysed( ICON_URL, SolrIndexerService.getRootUrl( ) + ImageResourceManager.getImageUrl( IMAGE_RESOURCE_TYPE_ID, appointmentForm.getIdForm() ));
+        }
+        return item;
+    }
+
+    /**
+     * Check if the category of a form is read from the database
+     * 
+     * @param profile
+     *            the optional fields written
+     * @return true if a field of the category is written
+     */
+    static boolean isCategoryNeeded( FieldProfile profile )
+    {
+        return profile.isEnabled( FieldProfile.CATEGORIE ) || profile.isEnabled( FORM_ID_CATEGORY );
+    }
+
+    /**
+     * Build and return the item the slot and day summary items of a form start from: the default form item, or in the nested document layout an item with
+     * only the site and the role, the other form fields being read from the parent form document
+     *
+     * @param appointmentForm
+     *            the appointment form
+     * @param profile
+     *            the optional fields written
+     * @return the base item
+     */
+    static SolrItem getChildBaseItem( AppointmentFormDTO appointmentForm, FieldProfile profile )
+    {
+        if ( !NestedDocuments.isEnabled( ) )
+        {
+            return getDefaultFormItem( appointmentForm, profile );
+        }
+        SolrItem item = new SolrItem( );
+        item.setSite( SolrIndexerService.getWebAppName( ) );
+        item.setRole( appointmentForm.getRole( ) );
         return item;
     }
 
@@ -157,19 +244,53 @@ public final class FormUtil
      */
     public static SolrItem getFormItem( AppointmentFormDTO appointmentForm, List<Slot> listSlots )
     {
-        SolrItem item = getDefaultFormItem( appointmentForm );
+        return getFormItem( appointmentForm, FormAvailability.of( appointmentForm, SlotTable.of( appointmentForm.getIdForm( ), listSlots ) ) );
+    }
+
+    /**
+     * Build and return the Form Item for Solr
+     * 
+     * @param appointmentForm
+     *            the Appointment Form
+     * @param availability
+     *            the availability of the displayed slots of the form
+     * @return the Form Item
+     */
+    static SolrItem getFormItem( AppointmentFormDTO appointmentForm, FormAvailability availability )
+    {
+        SolrItem item = getFormItem( appointmentForm, availability.getFreePlaces( ), availability.getPlaces( ) );
+        LocalDateTime nextSlotDateTime = availability.getNextSlotDateTime( );
+        if ( nextSlotDateTime != null )
+        {
+            // Forms without available slot have no value, they are sorted last
+            item.addDynamicField( APPOINTMENT_NEXT_SLOT_TIME, Timestamp.valueOf( nextSlotDateTime ).getTime( ) );
+            item.addDynamicFieldNotAnalysed( APPOINTMENT_NEXT_SLOT, nextSlotDateTime.toString( ) );
+            item.addDynamicField( APPOINTMENT_NEXT_SLOT_NB_CONSECUTIVES_SLOTS, availability.getNextSlotNbConsecutiveSlots( ) );
+        }
+        return item;
+    }
+
+    /**
+     * Build and return the Form Item for Solr
+     * 
+     * @param appointmentForm
+     *            the Appointment Form
+     * @param freePlaces
+     *            the number of free places of the displayed slots of the form
+     * @param places
+     *            the number of places of the displayed slots of the form
+     * @return the Form Item
+     */
+    public static SolrItem getFormItem( AppointmentFormDTO appointmentForm, long freePlaces, long places )
+    {
+        FieldProfile profile = FieldProfile.getCurrent( );
+        SolrItem item = getDefaultFormItem( appointmentForm, profile );
         item.setUrl( getFormUrl( appointmentForm.getIdForm( ) ) );
         item.setUid( Utilities.buildResourceUid( Integer.toString( appointmentForm.getIdForm( ) ), Utilities.RESOURCE_TYPE_APPOINTMENT ) );
         item.setDate( appointmentForm.getDateStartValidity( ) );
         item.setType( Utilities.SHORT_NAME_APPOINTMENT );
-        int freePlaces = 0;
-        int places = 0;
-        for ( Slot slot : listSlots )
-        {
-            freePlaces += Math.max( 0, slot.getNbPotentialRemainingPlaces( ) );
-            places += slot.getMaxCapacity( );
-        }
-        if ( StringUtils.isNotEmpty( appointmentForm.getAddress( ) ) && appointmentForm.getLongitude( ) != null && appointmentForm.getLatitude( ) != null )
+        if ( profile.isEnabled( FieldProfile.FORM_GEOLOC ) && StringUtils.isNotEmpty( appointmentForm.getAddress( ) ) && appointmentForm.getLongitude( ) != null
+                && appointmentForm.getLatitude( ) != null )
         {
             item.addDynamicFieldGeoloc( Utilities.SHORT_NAME_APPOINTMENT, appointmentForm.getAddress( ), appointmentForm.getLongitude( ),
                     appointmentForm.getLatitude( ), Utilities.SHORT_NAME_APPOINTMENT + DASH + freePlaces + SLASH + places );
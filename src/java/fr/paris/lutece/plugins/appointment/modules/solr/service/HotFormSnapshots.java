@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import fr.paris.lutece.portal.service.util.AppLogService;
+
+/**
+ * Snapshot mode of the forms under a booking stampede.
+ *
+ * The slot changes of each form are counted over a sliding window. A form receiving more changes than the threshold is hot: its changes are no longer
+ * written one by one, the days changed are merged and published on a fixed tick from the latest state. The form goes back to the per change writes once
+ * its rate falls under half of the threshold. The rates of the forms which are not hot and received no change during two windows are evicted.
+ *
+ */
+final class HotFormSnapshots
+{
+    private final int _nThreshold;
+    private final long _lWindow;
+    private final long _lTick;
+    private final DateRangeDebouncer.RangeFlush _publish;
+    private final Map<Integer, FormRate> _mapRates = new HashMap<>( );
+    private long _lLastEviction = System.currentTimeMillis( );
+
+    /**
+     * Constructor
+     *
+     * @param nThreshold
+     *            the number of slot changes during the window making a form hot, 0 to disable the snapshot mode
+     * @param lWindow
+     *            the window in milliseconds
+     * @param lTick
+     *            the interval in milliseconds between two snapshots of a hot form
+     * @param publish
+     *            the callback publishing the days changed on a hot form
+     */
+    HotFormSnapshots( int nThreshold, long lWindow, long lTick, DateRangeDebouncer.RangeFlush publish )
+    {
+        _nThreshold = Math.max( 0, nThreshold );
+        _lWindow = Math.max( 1, lWindow );
+        _lTick = Math.max( 1, lTick );
+        _publish = publish;
+    }
+
+    /**
+     * Count a slot change of a form
+     *
+     * @param nIdForm
+     *            the form id
+     * @param date
+     *            the day of the slot
+     * @return true if the form is hot and the change is published by the next snapshot, false if the change must be written now
+     */
+    boolean add( int nIdForm, LocalDate date )
+    {
+        if ( _nThreshold == 0 )
+        {
+            return false;
+        }
+        long lNow = System.currentTimeMillis( );
+        synchronized( this )
+        {
+            evictColdRates( lNow );
+            FormRate rate = _mapRates.computeIfAbsent( nIdForm, key -> new FormRate( lNow ) );
+            rate.roll( lNow, _lWindow );
+            rate._nCount++;
+            rate._lLastChange = lNow;
+            if ( !rate._bHot && rate.getRate( lNow, _lWindow ) >= _nThreshold )
+            {
+                rate._bHot = true;
+                AppLogService.info( "Form " + nIdForm + " switched to the Solr snapshot mode" );
+                schedule( nIdForm );
+            }
+            if ( rate._bHot )
+            {
+                rate.merge( date );
+            }
+            return rate._bHot;
+        }
+    }
+
+    /**
+     * @return the number of forms whose rate is kept
+     */
+    synchronized int size( )
+    {
+        return _mapRates.size( );
+    }
+
+    /**
+     * Evict the rates of the forms which are not hot and received no change during the last two windows, at most once per window
+     *
+     * @param lNow
+     *            the current time
+     */
+    private void evictColdRates( long lNow )
+    {
+        if ( lNow - _lLastEviction < _lWindow )
+        {
+            return;
+        }
+        _lLastEviction = lNow;
+        Iterator<FormRate> iterator = _mapRates.values( ).iterator( );
+        while ( iterator.hasNext( ) )
+        {
+            FormRate rate = iterator.next( );
+            if ( !rate._bHot && lNow - rate._lLastChange >= 2 * _lWindow )
+            {
+                iterator.remove( );
+            }
+        }
+    }
+
+    private void schedule( int nIdForm )
+    {
+        IndexingScheduler.schedule( ( ) -> tick( nIdForm ), _lTick );
+    }
+
+    private void tick( int nIdForm )
+    {
+        LocalDate startingDate;
+        LocalDate endingDate;
+        synchronized( this )
+        {
+            FormRate rate = _mapRates.get( nIdForm );
+            if ( rate == null )
+            {
+                return;
+            }
+            long lNow = System.currentTimeMillis( );
+            rate.roll( lNow, _lWindow );
+            startingDate = rate._startingDate;
+            endingDate = rate._endingDate;
+            rate._startingDate = null;
+            rate._endingDate = null;
+            if ( rate.getRate( lNow, _lWindow ) * 2 < _nThreshold )
+            {
+                // The changes published by this last snapshot are followed by per change writes
+                _mapRates.remove( nIdForm );
+                AppLogService.info( "Form " + nIdForm + " switched back to the Solr per change writes" );
+            }
+            else
+            {
+                schedule( nIdForm );
+            }
+        }
+        if ( startingDate != null )
+        {
+            try
+            {
+                _publish.flush( nIdForm, startingDate, endingDate );
+            }
+            catch( RuntimeException e )
+            {
+                AppLogService.error( "Error during HotFormSnapshots publication of form " + nIdForm, e );
+            }
+        }
+    }
+
+    /**
+     * The rate of the slot changes of a form, counted over two consecutive fixed windows, and the days changed since the last snapshot
+     */
+    private static final class FormRate
+    {
+        private long _lWindowStart;
+        private long _lLastChange;
+        private int _nCount;
+        private int _nPreviousCount;
+        private boolean _bHot;
+        private LocalDate _startingDate;
+        private LocalDate _endingDate;
+
+        private FormRate( long lNow )
+        {
+            _lWindowStart = lNow;
+            _lLastChange = lNow;
+        }
+
+        private void roll( long lNow, long lWindow )
+        {
+            long lElapsed = lNow - _lWindowStart;
+            if ( lElapsed >= lWindow )
+            {
+                _nPreviousCount = lElapsed < 2 * lWindow ? _nCount : 0;
+                _nCount = 0;
+                _lWindowStart = lNow - lElapsed % lWindow;
+            }
+        }
+
+        /**
+         * @return the changes during the last window, the previous window being weighted by its part still in the last window
+         */
+        private double getRate( long lNow, long lWindow )
+        {
+            double dPreviousWeight = 1 - (double) ( lNow - _lWindowStart ) / lWindow;
+            return _nCount + _nPreviousCount * Math.max( 0, dPreviousWeight );
+        }
+
+        private void merge( LocalDate date )
+        {
+            if ( _startingDate == null || date.isBefore( _startingDate ) )
+            {
+                _startingDate = date;
+            }
+            if ( _endingDate == null || date.isAfter( _endingDate ) )
+            {
+                _endingDate = date;
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.JavaBinUpdateRequestCodec;
+import org.apache.solr.common.SolrInputDocument;
+
+import fr.paris.lutece.portal.service.util.AppLogService;
+
+/**
+ * Bulk loader of an export of the appointment documents, see {@link SolrAppointmentIndexer#exportDocuments(Path)}.
+ *
+ * The file is read as a stream and its documents are sent in batches, with a single commit at the end, so that an empty collection is seeded at the speed
+ * of the update handler without reading the appointment database.
+ *
+ */
+public final class IndexBulkLoader
+{
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private IndexBulkLoader( )
+    {
+    }
+
+    /**
+     * Load an export into a collection and commit it
+     *
+     * @param path
+     *            the export file
+     * @param solrClient
+     *            the client of the collection
+     * @param nBatchSize
+     *            the number of documents sent per request
+     * @return the number of documents loaded, a block of nested documents counting for one
+     * @throws IOException
+     * @throws SolrServerException
+     */
+    public static long load( Path path, SolrClient solrClient, int nBatchSize ) throws IOException, SolrServerException
+    {
+        List<SolrInputDocument> listBatch = new ArrayList<>( nBatchSize );
+        long [ ] lNbDocuments = {
+                0
+        };
+        try ( InputStream inputStream = new GZIPInputStream( new BufferedInputStream( Files.newInputStream( path ) ) ) )
+        {
+            new JavaBinUpdateRequestCodec( ).unmarshal( inputStream, ( document, request, nCommitWithin, bOverwrite ) -> {
+                listBatch.add( document );
+                if ( listBatch.size( ) >= nBatchSize )
+                {
+                    try
+                    {
+                        lNbDocuments [0] += send( solrClient, listBatch );
+                    }
+                    catch( IOException | SolrServerException e )
+                    {
+                        // The handler cannot throw a checked exception
+                        throw new SendException( e );
+                    }
+                }
+            } );
+        }
+        catch( SendException e )
+        {
+            e.rethrow( );
+        }
+        lNbDocuments [0] += send( solrClient, listBatch );
+        solrClient.commit( );
+        AppLogService.info( "IndexBulkLoader: " + lNbDocuments [0] + " documents of " + path + " loaded" );
+        return lNbDocuments [0];
+    }
+
+    private static int send( SolrClient solrClient, List<SolrInputDocument> listBatch ) throws IOException, SolrServerException
+    {
+        int nSize = listBatch.size( );
+        if ( nSize > 0 )
+        {
+            solrClient.add( listBatch );
+            listBatch.clear( );
+        }
+        return nSize;
+    }
+
+    /**
+     * A failed send of a batch, carried through the streaming handler
+     */
+    private static final class SendException extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        private SendException( Exception cause )
+        {
+            super( cause );
+        }
+
+        private void rethrow( ) throws IOException, SolrServerException
+        {
+            if ( getCause( ) instanceof SolrServerException )
+            {
+                throw (SolrServerException) getCause( );
+            }
+            throw (IOException) getCause( );
+        }
+    }
+}
@@ -0,0 +1,406 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.solr.client.solrj.beans.DocumentObjectBinder;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.JavaBinCodec;
+
+import fr.paris.lutece.plugins.appointment.business.category.CategoryHome;
+import fr.paris.lutece.plugins.appointment.service.FormService;
+import fr.paris.lutece.plugins.appointment.web.dto.AppointmentFormDTO;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+import fr.paris.lutece.portal.service.search.SearchItem;
+import fr.paris.lutece.portal.service.util.AppLogService;
+
+/**
+ * Dry run of the full reindex of the appointments: every document is built as by {@link SolrAppointmentIndexer#indexDocuments()}, but nothing is sent to
+ * Solr. The time spent in each phase, the bytes allocated and the size of the javabin payload are measured per form. The slot documents built by
+ * {@link SlotDocumentBuilder} are compared with the slot documents converted from the slot items.
+ *
+ */
+final class IndexProfiler
+{
+    private static final DocumentObjectBinder BINDER = new DocumentObjectBinder( );
+    private static final long KB = 1024L;
+
+    private final ThreadMXBean _threadMXBean = ManagementFactory.getThreadMXBean( );
+    private final boolean _bAllocationSupported;
+
+    /**
+     * Constructor
+     */
+    IndexProfiler( )
+    {
+        _bAllocationSupported = _threadMXBean instanceof com.sun.management.ThreadMXBean
+                && ( (com.sun.management.ThreadMXBean) _threadMXBean ).isThreadAllocatedMemorySupported( )
+                && ( (com.sun.management.ThreadMXBean) _threadMXBean ).isThreadAllocatedMemoryEnabled( );
+    }
+
+    /**
+     * Profile all the active forms
+     *
+     * @param nNbFormsReported
+     *            the number of slowest forms detailed in the report
+     * @return the report
+     */
+    String profileAllForms( int nNbFormsReported )
+    {
+        long lStart = System.nanoTime( );
+        List<AppointmentFormDTO> listForms = FormService.buildAllActiveAppointmentForm( );
+        long lListForms = System.nanoTime( ) - lStart;
+
+        List<FormProfile> listProfiles = new ArrayList<>( listForms.size( ) );
+        FormProfile total = new FormProfile( 0 );
+        for ( AppointmentFormDTO appointmentForm : listForms )
+        {
+            try
+            {
+                FormProfile profile = profileForm( appointmentForm.getIdForm( ) );
+                AppLogService.info( "IndexProfiler: " + profile );
+                listProfiles.add( profile );
+                total.add( profile );
+            }
+            catch( RuntimeException e )
+            {
+                AppLogService.error( "IndexProfiler: error building the documents of AppointmentForm" + appointmentForm.getIdForm( ), e );
+            }
+        }
+        listProfiles.sort( Comparator.comparingLong( FormProfile::getTotalTime ).reversed( ) );
+
+        StringBuilder sbReport = new StringBuilder( );
+        sbReport.append( "Dry run of " ).append( listProfiles.size( ) ).append( " forms, list of the active forms " )
+                .append( TimeUnit.NANOSECONDS.toMillis( lListForms ) ).append( " ms" ).append( StringUtils.LF );
+        sbReport.append( "Total: " ).append( total ).append( StringUtils.LF );
+        sbReport.append( "Slowest forms:" ).append( StringUtils.LF );
+        listProfiles.stream( ).limit( nNbFormsReported ).forEach( profile -> sbReport.append( profile ).append( StringUtils.LF ) );
+        return sbReport.toString( );
+    }
+
+    /**
+     * Build the documents of a form as a full reindex would, without sending them
+     *
+     * @param nIdForm
+     *            the form id
+     * @return the profile of the form
+     */
+    FormProfile profileForm( int nIdForm )
+    {
+        FormProfile profile = new FormProfile( nIdForm );
+        long lAllocatedStart = getAllocatedBytes( );
+
+        long lStart = System.nanoTime( );
+        AppointmentFormDTO appointmentForm = FormService.buildAppointmentFormWithoutReservationRule( nIdForm );
+        long lTime = System.nanoTime( );
+        profile._lFormTime = lTime - lStart;
+        if ( appointmentForm == null )
+        {
+            return profile;
+        }
+
+        lStart = lTime;
+        SlotTable table = SlotUtil.getSlotTable( appointmentForm );
+        lTime = System.nanoTime( );
+        profile._lSlotsTime = lTime - lStart;
+        profile._lNbSlots = table.size( );
+
+        // A single lookup, the documents carrying the form fields do one each
+        lStart = lTime;
+        CategoryHome.findByPrimaryKey( appointmentForm.getIdCategory( ) );
+        lTime = System.nanoTime( );
+        profile._lCategoryTime = lTime - lStart;
+
+        // The documents as built by the indexer
+        long lAllocated = getAllocatedBytes( );
+        lStart = System.nanoTime( );
+        FieldProfile fieldProfile = FieldProfile.getCurrent( );
+        SolrItem formItem = FormUtil.getFormItem( appointmentForm, FormAvailability.of( appointmentForm, table ) );
+        List<SolrItem> listDayItems = DayUtil.getDayItems( appointmentForm, table );
+        List<SolrInputDocument> listDocuments = new ArrayList<>( table.size( ) + listDayItems.size( ) + 1 );
+        if ( NestedDocuments.isEnabled( ) )
+        {
+            List<SolrItem> listItems = new ArrayList<>( table.size( ) + listDayItems.size( ) );
+            for ( int i = 0; i < table.size( ); i++ )
+            {
+                listItems.add( SlotUtil.getSlotItem( appointmentForm, table, i, fieldProfile ) );
+            }
+            listItems.addAll( listDayItems );
+            listDocuments.add( NestedDocuments.toBlock( appointmentForm.getIdForm( ), formItem, listItems ) );
+        }
+        else
+        {
+            listDocuments.add( toDocument( appointmentForm.getIdForm( ), formItem ) );
+            if ( table.size( ) > 0 )
+            {
+                SlotDocumentBuilder builder = new SlotDocumentBuilder( appointmentForm, table );
+                for ( int i = 0; i < table.size( ); i++ )
+                {
+                    SolrInputDocument document = builder.build( i );
+                    document.setField( SearchItem.FIELD_UID,
+                            DocumentRouting.getSolrUid( appointmentForm.getIdForm( ), (String) document.getFieldValue( SearchItem.FIELD_UID ) ) );
+                    listDocuments.add( document );
+                }
+            }
+            listDayItems.forEach( item -> listDocuments.add( toDocument( appointmentForm.getIdForm( ), item ) ) );
+        }
+        lTime = System.nanoTime( );
+        profile._lDocumentsTime = lTime - lStart;
+        profile._lDocumentsAllocatedBytes = getAllocatedBytesSince( lAllocated );
+        profile._lNbDocuments = table.size( ) + listDayItems.size( ) + 1L;
+
+        if ( !NestedDocuments.isEnabled( ) )
+        {
+            // The slot documents converted from the slot items, the path replaced by the direct builder, for comparison
+            lAllocated = getAllocatedBytes( );
+            lStart = System.nanoTime( );
+            for ( int i = 0; i < table.size( ); i++ )
+            {
+                toDocument( appointmentForm.getIdForm( ), SlotUtil.getSlotItem( appointmentForm, table, i, fieldProfile ) );
+            }
+            lTime = System.nanoTime( );
+            profile._lItemsTime = lTime - lStart;
+            profile._lItemsAllocatedBytes = getAllocatedBytesSince( lAllocated );
+        }
+
+        lStart = lTime;
+        profile._lPayloadBytes = getPayloadSize( listDocuments );
+        lTime = System.nanoTime( );
+        profile._lPayloadTime = lTime - lStart;
+
+        profile._lAllocatedBytes = getAllocatedBytesSince( lAllocatedStart );
+        return profile;
+    }
+
+    private static SolrInputDocument toDocument( int nIdForm, SolrItem item )
+    {
+        item.setUid( DocumentRouting.getSolrUid( nIdForm, item.getUid( ) ) );
+        return BINDER.toSolrInputDocument( item );
+    }
+
+    /**
+     * Get the size of the documents encoded in javabin, the format of the update requests of SolrJ
+     *
+     * @param listDocuments
+     *            the documents
+     * @return the size in bytes, -1 if the documents could not be encoded
+     */
+    private static long getPayloadSize( Collection<SolrInputDocument> listDocuments )
+    {
+        CountingOutputStream out = new CountingOutputStream( );
+        try ( JavaBinCodec codec = new JavaBinCodec( ) )
+        {
+            codec.marshal( listDocuments, out );
+        }
+        catch( IOException e )
+        {
+            AppLogService.error( "IndexProfiler: error encoding the documents", e );
+            return -1;
+        }
+        return out._lCount;
+    }
+
+    /**
+     * @return the bytes allocated by the current thread, -1 if the JVM does not expose them
+     */
+    private long getAllocatedBytes( )
+    {
+        if ( !_bAllocationSupported )
+        {
+            return -1;
+        }
+        return ( (com.sun.management.ThreadMXBean) _threadMXBean ).getThreadAllocatedBytes( Thread.currentThread( ).getId( ) );
+    }
+
+    /**
+     * @param lAllocatedStart
+     *            the bytes allocated by the current thread at the start of the measure, -1 if unknown
+     * @return the bytes allocated by the current thread since the start of the measure, -1 if unknown
+     */
+    private long getAllocatedBytesSince( long lAllocatedStart )
+    {
+        long lAllocated = getAllocatedBytes( );
+        return lAllocatedStart >= 0 && lAllocated >= 0 ? lAllocated - lAllocatedStart : -1;
+    }
+
+    /**
+     * Output stream counting the bytes written
+     */
+    private static final class CountingOutputStream extends OutputStream
+    {
+        private long _lCount;
+
+        @Override
+        public void write( int b )
+        {
+            _lCount++;
+        }
+
+        @Override
+        public void write( byte [ ] b, int nOff, int nLen )
+        {
+            _lCount += nLen;
+        }
+    }
+
+    /**
+     * Measures of the dry run of a form, the times are in nanoseconds
+     */
+    static final class FormProfile
+    {
+        private final int _nIdForm;
+        private long _lNbSlots;
+        private long _lNbDocuments;
+        private long _lFormTime;
+        private long _lSlotsTime;
+        private long _lCategoryTime;
+        private long _lDocumentsTime;
+        private long _lPayloadTime;
+        private long _lItemsTime = -1;
+        private long _lAllocatedBytes = -1;
+        private long _lDocumentsAllocatedBytes = -1;
+        private long _lItemsAllocatedBytes = -1;
+        private long _lPayloadBytes;
+
+        private FormProfile( int nIdForm )
+        {
+            _nIdForm = nIdForm;
+        }
+
+        private void add( FormProfile profile )
+        {
+            _lNbSlots += profile._lNbSlots;
+            _lNbDocuments += profile._lNbDocuments;
+            _lFormTime += profile._lFormTime;
+            _lSlotsTime += profile._lSlotsTime;
+            _lCategoryTime += profile._lCategoryTime;
+            _lDocumentsTime += profile._lDocumentsTime;
+            _lPayloadTime += profile._lPayloadTime;
+            _lItemsTime = addKnown( _lItemsTime, profile._lItemsTime );
+            _lAllocatedBytes = addKnown( _lAllocatedBytes, profile._lAllocatedBytes );
+            _lDocumentsAllocatedBytes = addKnown( _lDocumentsAllocatedBytes, profile._lDocumentsAllocatedBytes );
+            _lItemsAllocatedBytes = addKnown( _lItemsAllocatedBytes, profile._lItemsAllocatedBytes );
+            _lPayloadBytes += Math.max( profile._lPayloadBytes, 0 );
+        }
+
+        /**
+         * @return the form id, 0 for the total
+         */
+        int getIdForm( )
+        {
+            return _nIdForm;
+        }
+
+        /**
+         * @return the number of slots
+         */
+        long getNbSlots( )
+        {
+            return _lNbSlots;
+        }
+
+        /**
+         * @return the time spent in all the phases, in nanoseconds
+         */
+        long getTotalTime( )
+        {
+            return _lFormTime + _lSlotsTime + _lCategoryTime + _lDocumentsTime + _lPayloadTime;
+        }
+
+        /**
+         * @return the bytes allocated, -1 if unknown
+         */
+        long getAllocatedBytes( )
+        {
+            return _lAllocatedBytes;
+        }
+
+        /**
+         * @return the size of the javabin payload in bytes
+         */
+        long getPayloadBytes( )
+        {
+            return _lPayloadBytes;
+        }
+
+        @Override
+        public String toString( )
+        {
+            StringBuilder sbProfile = new StringBuilder( );
+            if ( _nIdForm > 0 )
+            {
+                sbProfile.append( "form " ).append( _nIdForm ).append( ": " );
+            }
+            sbProfile.append( _lNbSlots ).append( " slots, " ).append( _lNbDocuments ).append( " documents, " ).append( toMillis( getTotalTime( ) ) )
+                    .append( " ms (form " ).append( toMillis( _lFormTime ) ).append( " ms, slots " ).append( toMillis( _lSlotsTime ) )
+                    .append( " ms, category " ).append( toMillis( _lCategoryTime ) ).append( " ms, documents " ).append( toMillis( _lDocumentsTime ) )
+                    .append( " ms, payload " ).append( toMillis( _lPayloadTime ) ).append( " ms), " );
+            if ( _lAllocatedBytes >= 0 )
+            {
+                sbProfile.append( _lAllocatedBytes / KB ).append( " KB allocated (documents " ).append( _lDocumentsAllocatedBytes / KB ).append( " KB), " );
+            }
+            if ( _lItemsTime >= 0 )
+            {
+                sbProfile.append( "slot items path " ).append( toMillis( _lItemsTime ) ).append( " ms" );
+                if ( _lItemsAllocatedBytes >= 0 )
+                {
+                    sbProfile.append( ", " ).append( _lItemsAllocatedBytes / KB ).append( " KB allocated" );
+                }
+                sbProfile.append( ", " );
+            }
+            sbProfile.append( _lPayloadBytes / KB ).append( " KB payload" );
+            return sbProfile.toString( );
+        }
+
+        private static long addKnown( long lTotal, long lValue )
+        {
+            return lValue >= 0 ? Math.max( lTotal, 0 ) + lValue : lTotal;
+        }
+
+        private static long toMillis( long lNanos )
+        {
+            return TimeUnit.NANOSECONDS.toMillis( lNanos );
+        }
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+/**
+ * Log of the Solr operations of the indexer.
+ *
+ * The last operations are kept as structured records in a ring buffer whose capacity is set by the property <code>appointment-solr.log.capacity</code>,
+ * and summed up in running totals per operation: the memory used does not depend on the size of the index.
+ *
+ */
+final class IndexingLog
+{
+    /**
+     * The Solr operations
+     */
+    enum Operation
+    {
+        ADD,
+        DELETE_BY_ID,
+        DELETE_BY_QUERY
+    }
+
+    /** The status of an operation which failed before Solr answered */
+    static final int STATUS_FAILED = -1;
+
+    private static final String PROPERTY_CAPACITY = "appointment-solr.log.capacity";
+    private static final int DEFAULT_CAPACITY = 1000;
+    private static final IndexingLog INSTANCE = new IndexingLog( AppPropertiesService.getPropertyInt( PROPERTY_CAPACITY, DEFAULT_CAPACITY ) );
+
+    private final LogRecord [ ] _records;
+    private int _nNext;
+    private int _nSize;
+    private final long [ ] _lNbOperations = new long [ Operation.values( ).length];
+    private final long [ ] _lNbDocuments = new long [ Operation.values( ).length];
+    private final long [ ] _lNbFailures = new long [ Operation.values( ).length];
+    private final long [ ] _lLatency = new long [ Operation.values( ).length];
+    private long _lNbSkipped;
+    private long _lNbSuperseded;
+    // Documents sent successfully by the current thread, per operation
+    private final ThreadLocal<long [ ]> _threadNbDocuments = ThreadLocal.withInitial( ( ) -> new long [ Operation.values( ).length] );
+
+    /**
+     * Constructor
+     *
+     * @param nCapacity
+     *            the number of records kept
+     */
+    IndexingLog( int nCapacity )
+    {
+        _records = new LogRecord [ Math.max( 1, nCapacity )];
+    }
+
+    /**
+     * Get the log of the indexer
+     *
+     * @return the instance
+     */
+    static IndexingLog getInstance( )
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Record a Solr operation
+     *
+     * @param operation
+     *            the operation
+     * @param nIdForm
+     *            the form id
+     * @param nNbDocuments
+     *            the number of documents sent, or of uids deleted, 0 for a delete by query
+     * @param lLatency
+     *            the duration of the operation in milliseconds
+     * @param nStatus
+     *            the status of the Solr response, {@link #STATUS_FAILED} if the operation failed
+     */
+    synchronized void record( Operation operation, int nIdForm, int nNbDocuments, long lLatency, int nStatus )
+    {
+        _records [_nNext] = new LogRecord( Instant.now( ), operation, nIdForm, nNbDocuments, lLatency, nStatus );
+        _nNext = ( _nNext + 1 ) % _records.length;
+        _nSize = Math.min( _nSize + 1, _records.length );
+        int nOrdinal = operation.ordinal( );
+        _lNbOperations [nOrdinal]++;
+        _lNbDocuments [nOrdinal] += nNbDocuments;
+        _lLatency [nOrdinal] += lLatency;
+        if ( nStatus != 0 )
+        {
+            _lNbFailures [nOrdinal]++;
+        }
+        else
+        {
+            _threadNbDocuments.get( ) [nOrdinal] += nNbDocuments;
+        }
+    }
+
+    /**
+     * Get the number of documents sent successfully by the current thread since it started
+     *
+     * @param operation
+     *            the operation
+     * @return the number of documents sent, or of uids deleted
+     */
+    long getNbDocumentsOfCurrentThread( Operation operation )
+    {
+        return _threadNbDocuments.get( ) [operation.ordinal( )];
+    }
+
+    /**
+     * Count the documents not sent because they are identical to the documents last sent
+     *
+     * @param nNbDocuments
+     *            the number of documents skipped
+     */
+    synchronized void skipped( int nNbDocuments )
+    {
+        _lNbSkipped += nNbDocuments;
+    }
+
+    /**
+     * Count the documents and uids not sent because a write or a delete of their form with a higher sequence number was sent before
+     *
+     * @param nNbDocuments
+     *            the number of documents or uids dropped
+     */
+    synchronized void superseded( int nNbDocuments )
+    {
+        _lNbSuperseded += nNbDocuments;
+    }
+
+    /**
+     * Get the records kept
+     *
+     * @return the records, oldest first
+     */
+    synchronized List<LogRecord> getRecords( )
+    {
+        List<LogRecord> listRecords = new ArrayList<>( _nSize );
+        for ( int i = 0; i < _nSize; i++ )
+        {
+            listRecords.add( _records [( _nNext - _nSize + i + _records.length ) % _records.length] );
+        }
+        return listRecords;
+    }
+
+    /**
+     * Get the running totals
+     *
+     * @return the totals per operation
+     */
+    synchronized String getSummary( )
+    {
+        StringBuilder sbSummary = new StringBuilder( );
+        for ( Operation operation : Operation.values( ) )
+        {
+            int nOrdinal = operation.ordinal( );
+            sbSummary.append( operation ).append( ": " ).append( _lNbOperations [nOrdinal] ).append( " operations, " ).append( _lNbDocuments [nOrdinal] )
+                    .append( " documents, " ).append( _lNbFailures [nOrdinal] ).append( " failures, " ).append( _lLatency [nOrdinal] ).append( " ms; " );
+        }
+        return sbSummary.append( _lNbSkipped ).append( " unchanged documents skipped, " ).append( _lNbSuperseded ).append( " superseded documents dropped" )
+                .toString( );
+    }
+
+    @Override
+    public String toString( )
+    {
+        StringBuilder sbLog = new StringBuilder( getSummary( ) );
+        getRecords( ).forEach( logRecord -> sbLog.append( StringUtils.CR ).append( StringUtils.LF ).append( logRecord ) );
+        return sbLog.toString( );
+    }
+
+    /**
+     * A Solr operation
+     */
+    static final class LogRecord
+    {
+        private final Instant _timestamp;
+        private final Operation _operation;
+        private final int _nIdForm;
+        private final int _nNbDocuments;
+        private final long _lLatency;
+        private final int _nStatus;
+
+        private LogRecord( Instant timestamp, Operation operation, int nIdForm, int nNbDocuments, long lLatency, int nStatus )
+        {
+            _timestamp = timestamp;
+            _operation = operation;
+            _nIdForm = nIdForm;
+            _nNbDocuments = nNbDocuments;
+            _lLatency = lLatency;
+            _nStatus = nStatus;
+        }
+
+        /**
+         * @return the time of the record
+         */
+        Instant getTimestamp( )
+        {
+            return _timestamp;
+        }
+
+        /**
+         * @return the operation
+         */
+        Operation getOperation( )
+        {
+            return _operation;
+        }
+
+        /**
+         * @return the form id
+         */
+        int getIdForm( )
+        {
+            return _nIdForm;
+        }
+
+        /**
+         * @return the number of documents
+         */
+        int getNbDocuments( )
+        {
+            return _nNbDocuments;
+        }
+
+        /**
+         * @return the duration in milliseconds
+         */
+        long getLatency( )
+        {
+            return _lLatency;
+        }
+
+        /**
+         * @return the status of the Solr response, {@link IndexingLog#STATUS_FAILED} if the operation failed
+         */
+        int getStatus( )
+        {
+            return _nStatus;
+        }
+
+        @Override
+        public String toString( )
+        {
+            return _timestamp + " " + _operation + " form " + _nIdForm + ": " + _nNbDocuments + " documents, " + _lLatency + " ms, status " + _nStatus;
+        }
+    }
+}
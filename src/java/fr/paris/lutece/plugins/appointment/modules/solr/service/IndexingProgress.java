@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Live progress of the full reindex of the appointments
+ *
+ */
+public final class IndexingProgress
+{
+    private static volatile IndexingProgress _current;
+
+    private final int _nNbForms;
+    private final int _nNbFormsResumed;
+    private final long _lStart;
+    private volatile int _nNbFormsDone;
+    private volatile int _nNbFormsFailed;
+    private volatile long _lNbSlots;
+    private volatile int _nLastIdForm;
+    private volatile boolean _bRunning = true;
+
+    private IndexingProgress( int nNbForms, int nNbFormsResumed )
+    {
+        _nNbForms = nNbForms;
+        _nNbFormsResumed = nNbFormsResumed;
+        _lStart = System.currentTimeMillis( );
+    }
+
+    /**
+     * Start the progress of a full reindex
+     *
+     * @param nNbForms
+     *            the number of forms to index, including the ones already done by the interrupted reindex resumed
+     * @param nNbFormsResumed
+     *            the number of forms already done by the interrupted reindex resumed
+     * @return the progress
+     */
+    static IndexingProgress start( int nNbForms, int nNbFormsResumed )
+    {
+        _current = new IndexingProgress( nNbForms, nNbFormsResumed );
+        return _current;
+    }
+
+    /**
+     * Get the progress of the running or last full reindex
+     *
+     * @return the progress, null if no full reindex was started
+     */
+    public static IndexingProgress getCurrent( )
+    {
+        return _current;
+    }
+
+    /**
+     * Record an indexed form
+     *
+     * @param nIdForm
+     *            the form id
+     * @param nNbSlots
+     *            the number of slots written
+     */
+    synchronized void formDone( int nIdForm, int nNbSlots )
+    {
+        _nNbFormsDone++;
+        _lNbSlots += nNbSlots;
+        _nLastIdForm = nIdForm;
+    }
+
+    /**
+     * Record a form which could not be indexed
+     */
+    synchronized void formFailed( )
+    {
+        _nNbFormsFailed++;
+    }
+
+    /**
+     * Record the end of the full reindex
+     */
+    void stop( )
+    {
+        _bRunning = false;
+    }
+
+    /**
+     * @return true if the full reindex is running
+     */
+    public boolean isRunning( )
+    {
+        return _bRunning;
+    }
+
+    /**
+     * @return the number of forms done, including the ones done by the interrupted reindex resumed
+     */
+    public int getNbFormsDone( )
+    {
+        return _nNbFormsResumed + _nNbFormsDone;
+    }
+
+    /**
+     * @return the number of forms to index
+     */
+    public int getNbForms( )
+    {
+        return _nNbForms;
+    }
+
+    /**
+     * @return the number of forms which could not be indexed
+     */
+    public int getNbFormsFailed( )
+    {
+        return _nNbFormsFailed;
+    }
+
+    /**
+     * @return the number of slots written
+     */
+    public long getNbSlots( )
+    {
+        return _lNbSlots;
+    }
+
+    /**
+     * @return the id of the last form indexed
+     */
+    public int getLastIdForm( )
+    {
+        return _nLastIdForm;
+    }
+
+    /**
+     * Estimate the remaining time from the mean time spent per form in this run
+     *
+     * @return the estimated remaining time in milliseconds, -1 if unknown
+     */
+    public long getEstimatedRemainingTime( )
+    {
+        int nProcessed = _nNbFormsDone + _nNbFormsFailed;
+        if ( nProcessed == 0 )
+        {
+            return -1;
+        }
+        long lElapsed = System.currentTimeMillis( ) - _lStart;
+        return lElapsed * ( _nNbForms - _nNbFormsResumed - nProcessed ) / nProcessed;
+    }
+
+    @Override
+    public String toString( )
+    {
+        StringBuilder sbProgress = new StringBuilder( );
+        sbProgress.append( getNbFormsDone( ) ).append( '/' ).append( _nNbForms ).append( " forms, " ).append( _lNbSlots ).append( " slots" );
+        if ( _nNbFormsFailed > 0 )
+        {
+            sbProgress.append( ", " ).append( _nNbFormsFailed ).append( " failed" );
+        }
+        long lRemaining = getEstimatedRemainingTime( );
+        if ( _bRunning && lRemaining >= 0 )
+        {
+            sbProgress.append( ", about " ).append( TimeUnit.MILLISECONDS.toSeconds( lRemaining ) ).append( " s remaining" );
+        }
+        return sbProgress.toString( );
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import fr.paris.lutece.portal.service.init.ShutdownServiceInterface;
+import fr.paris.lutece.portal.service.init.ShutdownServiceManager;
+import fr.paris.lutece.portal.service.util.AppLogService;
+
+/**
+ * Scheduler of the delayed indexing tasks of the module (debounced periods, snapshots of the hot forms).
+ *
+ * A single thread is created on the first task and shut down with the webapp, the pending tasks being dropped.
+ *
+ */
+final class IndexingScheduler implements ShutdownServiceInterface
+{
+    private static final String NAME = "appointment-solr-scheduler";
+    private static final IndexingScheduler INSTANCE = new IndexingScheduler( );
+
+    private ScheduledExecutorService _executor;
+
+    private IndexingScheduler( )
+    {
+    }
+
+    /**
+     * Schedule a task
+     *
+     * @param task
+     *            the task
+     * @param lDelay
+     *            the delay in milliseconds
+     */
+    static void schedule( Runnable task, long lDelay )
+    {
+        ScheduledExecutorService executor = INSTANCE.getExecutor( );
+        if ( executor != null )
+        {
+            executor.schedule( task, lDelay, TimeUnit.MILLISECONDS );
+        }
+    }
+
+    private synchronized ScheduledExecutorService getExecutor( )
+    {
+        if ( _executor == null )
+        {
+            _executor = Executors.newSingleThreadScheduledExecutor( runnable -> {
+                Thread thread = new Thread( runnable, NAME );
+                thread.setDaemon( true );
+                return thread;
+            } );
+            ShutdownServiceManager.registerShutdownService( this );
+        }
+        return _executor.isShutdown( ) ? null : _executor;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getName( )
+    {
+        return NAME;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void shutdown( )
+    {
+        if ( _executor != null )
+        {
+            _executor.shutdownNow( );
+            AppLogService.info( NAME + " stopped" );
+        }
+    }
+}
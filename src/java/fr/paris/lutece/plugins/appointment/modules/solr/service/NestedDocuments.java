@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import java.util.Collection;
+
+import org.apache.solr.client.solrj.beans.DocumentObjectBinder;
+import org.apache.solr.common.SolrInputDocument;
+
+import fr.paris.lutece.plugins.search.solr.indexer.SolrIndexerService;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+import fr.paris.lutece.portal.service.search.SearchItem;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+/**
+ * Nested document layout: the slot and day summary documents of a form are indexed as child documents of the form document.
+ *
+ * The children only carry their own fields, the form fields are read from the parent with a block join query
+ * (<code>{!parent which="type:appointment"}</code>). A block is always written as a whole: any change of a slot rewrites the form with all its children,
+ * while a form change which does not affect the scheduling is an atomic update of the parent alone. The schema must declare the <code>_root_</code> and
+ * <code>_nest_path_</code> fields.
+ *
+ */
+final class NestedDocuments
+{
+    private static final String PROPERTY_ENABLE = "appointment-solr.nested.enable";
+    private static final DocumentObjectBinder BINDER = new DocumentObjectBinder( );
+
+    /**
+     * Private constructor - this class does not need to be instantiated
+     */
+    private NestedDocuments( )
+    {
+    }
+
+    /**
+     * Check if the nested document layout is enabled
+     *
+     * @return true if the slots are indexed as children of their form
+     */
+    static boolean isEnabled( )
+    {
+        return AppPropertiesService.getPropertyBoolean( PROPERTY_ENABLE, false );
+    }
+
+    /**
+     * Build the block of a form: the form document with its children. The uids are prefixed with the webapp name, as done by
+     * {@link SolrIndexerService#write(SolrItem, StringBuilder)} for the flat documents, and with the route key of the form if the documents are routed.
+     *
+     * @param nIdForm
+     *            the form id
+     * @param formItem
+     *            the form item
+     * @param listChildItems
+     *            the slot and day summary items of the form
+     * @return the form document with its children
+     */
+    static SolrInputDocument toBlock( int nIdForm, SolrItem formItem, Collection<SolrItem> listChildItems )
+    {
+        SolrInputDocument document = toDocument( nIdForm, formItem );
+        for ( SolrItem childItem : listChildItems )
+        {
+            document.addChildDocument( toDocument( nIdForm, childItem ) );
+        }
+        return document;
+    }
+
+    /**
+     * Build the document of an item, with the uid it has in Solr. The item is left unchanged.
+     *
+     * @param nIdForm
+     *            the form id
+     * @param item
+     *            the item
+     * @return the document
+     */
+    private static SolrInputDocument toDocument( int nIdForm, SolrItem item )
+    {
+        SolrInputDocument document = BINDER.toSolrInputDocument( item );
+        document.setField( SearchItem.FIELD_UID, DocumentRouting.getSolrUid( nIdForm, item.getUid( ) ) );
+        return document;
+    }
+}
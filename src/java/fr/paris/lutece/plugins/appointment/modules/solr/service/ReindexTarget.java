@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Target of a targeted reindex, parsed from the resource id given to {@link SolrAppointmentIndexer#getDocuments(String)}: a form, a period of a form or
+ * a slot.
+ *
+ */
+final class ReindexTarget
+{
+    /**
+     * The kind of target
+     */
+    enum Type
+    {
+        FORM,
+        RANGE,
+        SLOT
+    }
+
+    private static final Pattern PATTERN_FORM_ID = Pattern.compile( "\\d+" );
+    private static final Pattern PATTERN_FORM_RANGE_ID = Pattern.compile( "(\\d+):(\\d{4}-\\d{2}-\\d{2}):(\\d{4}-\\d{2}-\\d{2})" );
+    private static final Pattern PATTERN_SLOT_UID = Pattern.compile( "F(\\d+)D(\\d{8}T\\d{6})" );
+
+    private final Type _type;
+    private final int _nIdForm;
+    private final LocalDate _startingDate;
+    private final LocalDate _endingDate;
+    private final LocalDateTime _startingDateTime;
+
+    private ReindexTarget( Type type, int nIdForm, LocalDate startingDate, LocalDate endingDate, LocalDateTime startingDateTime )
+    {
+        _type = type;
+        _nIdForm = nIdForm;
+        _startingDate = startingDate;
+        _endingDate = endingDate;
+        _startingDateTime = startingDateTime;
+    }
+
+    /**
+     * Parse a resource id
+     *
+     * @param strId
+     *            the resource id: a form id (<code>12</code>), a form id and a period (<code>12:2024-03-01:2024-03-31</code>) or a slot uid
+     *            (<code>F12D20240301T093000</code>, possibly within a Solr uid)
+     * @return the target, null if the id is not valid
+     */
+    static ReindexTarget parse( String strId )
+    {
+        String strTrimmedId = StringUtils.trimToEmpty( strId );
+        try
+        {
+            if ( PATTERN_FORM_ID.matcher( strTrimmedId ).matches( ) )
+            {
+                return new ReindexTarget( Type.FORM, Integer.parseInt( strTrimmedId ), null, null, null );
+            }
+            Matcher matcherRange = PATTERN_FORM_RANGE_ID.matcher( strTrimmedId );
+            if ( matcherRange.matches( ) )
+            {
+                return new ReindexTarget( Type.RANGE, Integer.parseInt( matcherRange.group( 1 ) ), LocalDate.parse( matcherRange.group( 2 ) ),
+                        LocalDate.parse( matcherRange.group( 3 ) ), null );
+            }
+            Matcher matcherSlot = PATTERN_SLOT_UID.matcher( strTrimmedId );
+            if ( matcherSlot.find( ) )
+            {
+                return new ReindexTarget( Type.SLOT, Integer.parseInt( matcherSlot.group( 1 ) ), null, null,
+                        LocalDateTime.parse( matcherSlot.group( 2 ), Utilities.SLOT_SOLR_ID_DATE_FORMATTER ) );
+            }
+        }
+        catch( NumberFormatException | DateTimeParseException e )
+        {
+            // An id out of range or an invalid date
+            return null;
+        }
+        return null;
+    }
+
+    /**
+     * @return the kind of target
+     */
+    Type getType( )
+    {
+        return _type;
+    }
+
+    /**
+     * @return the form id
+     */
+    int getIdForm( )
+    {
+        return _nIdForm;
+    }
+
+    /**
+     * @return the first day of the period, for a {@link Type#RANGE}
+     */
+    LocalDate getStartingDate( )
+    {
+        return _startingDate;
+    }
+
+    /**
+     * @return the last day of the period, for a {@link Type#RANGE}
+     */
+    LocalDate getEndingDate( )
+    {
+        return _endingDate;
+    }
+
+    /**
+     * @return the starting date time of the slot, for a {@link Type#SLOT}
+     */
+    LocalDateTime getStartingDateTime( )
+    {
+        return _startingDateTime;
+    }
+}
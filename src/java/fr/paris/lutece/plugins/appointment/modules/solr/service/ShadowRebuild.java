@@ -0,0 +1,306 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.impl.HttpSolrClient;
+import org.apache.solr.client.solrj.request.CollectionAdminRequest;
+
+import fr.paris.lutece.plugins.search.solr.business.SolrServerService;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+/**
+ * Blue/green full rebuild of the appointment documents.
+ *
+ * The appointment documents are written to and searched through a SolrCloud alias pointing to one of two collections dedicated to them, and not to the
+ * core of the site. A full rebuild writes into the other collection, the shadow, emptied first and written without commit within, then commits it and
+ * points the alias to it. The users search the live collection during the whole rebuild. The writes of the other threads keep going to the alias, and
+ * their forms are recorded so that the indexer replays them into the shadow before the swap, then into the new live collection after it.
+ *
+ * The writes of the thread running the rebuild are sent to the shadow collection.
+ *
+ */
+final class ShadowRebuild
+{
+    private static final String PROPERTY_ENABLE = "appointment-solr.rebuild.shadow.enable";
+    private static final String PROPERTY_SOLR_URL = "appointment-solr.rebuild.shadow.solrUrl";
+    private static final String PROPERTY_ALIAS = "appointment-solr.rebuild.shadow.alias";
+    private static final String PROPERTY_COLLECTIONS = "appointment-solr.rebuild.shadow.collections";
+    private static final String PROPERTY_COMMIT_WITHIN = "appointment-solr.rebuild.shadow.commitWithin";
+    private static final int DEFAULT_COMMIT_WITHIN = -1;
+    private static final String SEPARATOR = ",";
+    private static final String QUERY_ALL = "*:*";
+    private static final ThreadLocal<ShadowRebuild> CURRENT = new ThreadLocal<>( );
+
+    private static volatile ShadowRebuild _running;
+    private static SolrClient _liveClient;
+
+    private final String _strAlias;
+    private final String _strShadowCollection;
+    private final int _nCommitWithin;
+    private final SolrClient _adminClient;
+    private final SolrClient _shadowClient;
+    private final Set<Integer> _setChangedForms = ConcurrentHashMap.newKeySet( );
+
+    private ShadowRebuild( String strAlias, String strShadowCollection, int nCommitWithin, SolrClient adminClient, SolrClient shadowClient )
+    {
+        _strAlias = strAlias;
+        _strShadowCollection = strShadowCollection;
+        _nCommitWithin = nCommitWithin;
+        _adminClient = adminClient;
+        _shadowClient = shadowClient;
+    }
+
+    /**
+     * Check if the full rebuilds are written into a shadow collection
+     *
+     * @return true if the blue/green rebuild is enabled
+     */
+    static boolean isEnabled( )
+    {
+        return AppPropertiesService.getPropertyBoolean( PROPERTY_ENABLE, false );
+    }
+
+    /**
+     * Get the client of the live documents: the alias in the blue/green mode, else the core of the site
+     *
+     * @return the client
+     */
+    static synchronized SolrClient getLiveClient( )
+    {
+        if ( !isEnabled( ) )
+        {
+            return SolrServerService.getInstance( ).getSolrServer( );
+        }
+        if ( _liveClient == null )
+        {
+            String strSolrUrl = getSolrUrl( );
+            String strAlias = getAlias( );
+            if ( strSolrUrl.isEmpty( ) || strAlias.isEmpty( ) )
+            {
+                throw new IllegalStateException( "The blue/green rebuild needs a Solr url and an alias" );
+            }
+            _liveClient = new HttpSolrClient.Builder( strSolrUrl + "/" + strAlias ).build( );
+        }
+        return _liveClient;
+    }
+
+    /**
+     * Start a rebuild: the collection the alias does not point to is emptied, and the writes of the current thread are sent to it from now on
+     *
+     * @return the rebuild
+     * @throws IOException
+     *             if the rebuild is not configured or Solr is unavailable
+     * @throws SolrServerException
+     */
+    static ShadowRebuild start( ) throws IOException, SolrServerException
+    {
+        String strSolrUrl = getSolrUrl( );
+        String strAlias = getAlias( );
+        String [ ] collections = StringUtils.stripAll( StringUtils.split( AppPropertiesService.getProperty( PROPERTY_COLLECTIONS, StringUtils.EMPTY ),
+                SEPARATOR ) );
+        if ( strSolrUrl.isEmpty( ) || strAlias.isEmpty( ) || collections.length != 2 || collections [0].equals( collections [1] ) )
+        {
+            throw new IOException( "The blue/green rebuild needs a Solr url, an alias and two collections" );
+        }
+        return start( new HttpSolrClient.Builder( strSolrUrl ).build( ), strAlias, collections,
+                AppPropertiesService.getPropertyInt( PROPERTY_COMMIT_WITHIN, DEFAULT_COMMIT_WITHIN ),
+                strCollection -> new HttpSolrClient.Builder( strSolrUrl + "/" + strCollection ).build( ) );
+    }
+
+    /**
+     * Start a rebuild with the given clients
+     *
+     * @param adminClient
+     *            the client of the collections API, closed with the rebuild
+     * @param strAlias
+     *            the alias
+     * @param collections
+     *            the two collections
+     * @param nCommitWithin
+     *            the commit within of the writes into the shadow collection
+     * @param clientFactory
+     *            the factory of the client of a collection
+     * @return the rebuild
+     * @throws IOException
+     * @throws SolrServerException
+     */
+    static ShadowRebuild start( SolrClient adminClient, String strAlias, String [ ] collections, int nCommitWithin,
+            Function<String, SolrClient> clientFactory ) throws IOException, SolrServerException
+    {
+        ShadowRebuild rebuild = null;
+        try
+        {
+            String strLiveCollection = new CollectionAdminRequest.ListAliases( ).process( adminClient ).getAliases( ).get( strAlias );
+            String strShadowCollection = collections [0].equals( strLiveCollection ) ? collections [1] : collections [0];
+            rebuild = new ShadowRebuild( strAlias, strShadowCollection, nCommitWithin, adminClient, clientFactory.apply( strShadowCollection ) );
+            rebuild._shadowClient.deleteByQuery( QUERY_ALL );
+            rebuild._shadowClient.commit( );
+            AppLogService.info( "Blue/green rebuild of the appointments into " + strShadowCollection + ", alias " + strAlias + " on " + strLiveCollection );
+        }
+        catch( SolrServerException | IOException | RuntimeException e )
+        {
+            if ( rebuild != null )
+            {
+                rebuild.close( );
+            }
+            else
+            {
+                adminClient.close( );
+            }
+            throw e;
+        }
+        _running = rebuild;
+        CURRENT.set( rebuild );
+        return rebuild;
+    }
+
+    /**
+     * Get the rebuild whose writes are sent by the current thread
+     *
+     * @return the rebuild, or null if the writes of the current thread are sent to the live collection
+     */
+    static ShadowRebuild getCurrent( )
+    {
+        return CURRENT.get( );
+    }
+
+    /**
+     * Record a write of a form sent to the live collection while a rebuild is running
+     *
+     * @param nIdForm
+     *            the form id
+     */
+    static void changed( int nIdForm )
+    {
+        ShadowRebuild rebuild = _running;
+        if ( rebuild != null && CURRENT.get( ) != rebuild )
+        {
+            rebuild._setChangedForms.add( nIdForm );
+        }
+    }
+
+    /**
+     * @return the client of the shadow collection
+     */
+    SolrClient getClient( )
+    {
+        return _shadowClient;
+    }
+
+    /**
+     * @return the commit within of the writes into the shadow collection, -1 for none
+     */
+    int getCommitWithin( )
+    {
+        return _nCommitWithin;
+    }
+
+    /**
+     * @return the name of the shadow collection
+     */
+    String getShadowCollection( )
+    {
+        return _strShadowCollection;
+    }
+
+    /**
+     * Get and forget the forms written to the live collection since the last call
+     *
+     * @return the form ids
+     */
+    Set<Integer> drainChangedForms( )
+    {
+        Set<Integer> setForms = new HashSet<>( _setChangedForms );
+        _setChangedForms.removeAll( setForms );
+        return setForms;
+    }
+
+    /**
+     * Commit the shadow collection and point the alias to it. The writes of the current thread are sent to the alias from now on.
+     *
+     * @throws IOException
+     * @throws SolrServerException
+     */
+    void swap( ) throws IOException, SolrServerException
+    {
+        _shadowClient.commit( );
+        CollectionAdminRequest.createAlias( _strAlias, _strShadowCollection ).process( _adminClient );
+        CURRENT.remove( );
+        AppLogService.info( "Alias " + _strAlias + " of the appointments swapped to " + _strShadowCollection );
+    }
+
+    /**
+     * End the rebuild: the writes of the other threads are no longer recorded and the clients are closed
+     */
+    void close( )
+    {
+        if ( _running == this )
+        {
+            _running = null;
+        }
+        if ( CURRENT.get( ) == this )
+        {
+            CURRENT.remove( );
+        }
+        try
+        {
+            _shadowClient.close( );
+            _adminClient.close( );
+        }
+        catch( IOException e )
+        {
+            AppLogService.error( "Error closing the Solr clients of the blue/green rebuild", e );
+        }
+    }
+
+    private static String getSolrUrl( )
+    {
+        return StringUtils.removeEnd( AppPropertiesService.getProperty( PROPERTY_SOLR_URL, StringUtils.EMPTY ).trim( ), "/" );
+    }
+
+    private static String getAlias( )
+    {
+        return AppPropertiesService.getProperty( PROPERTY_ALIAS, StringUtils.EMPTY ).trim( );
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import fr.paris.lutece.plugins.appointment.business.slot.Slot;
+import fr.paris.lutece.plugins.appointment.service.SlotService;
+import fr.paris.lutece.plugins.appointment.service.WeekDefinitionService;
+import fr.paris.lutece.plugins.appointment.web.dto.AppointmentFormDTO;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+/**
+ * Cache of the slot calendar of the forms.
+ *
+ * The calendar of a form is built once for the whole period displayed on the calendar FO, without the min time before an appointment, and the slots
+ * requested are copied from it. The calendar is dropped when the week definitions, the reservation rules or the form change, while the booking events
+ * patch the places of their slot. The least recently used calendars are dropped first when the memory cap is reached, and the time to live bounds the
+ * staleness of a change not notified. The cache is bypassed with the outbox, whose events may come from other nodes.
+ *
+ */
+final class SlotCalendarCache
+{
+    private static final String PROPERTY_ENABLE = "appointment-solr.calendar.cache.enable";
+    private static final String PROPERTY_MAX_BYTES = "appointment-solr.calendar.cache.maxBytes";
+    private static final String PROPERTY_TIME_TO_LIVE = "appointment-solr.calendar.cache.timeToLive";
+    private static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+    private static final long DEFAULT_TIME_TO_LIVE = 600000L;
+    private static final SlotCalendarCache INSTANCE = new SlotCalendarCache( AppPropertiesService.getPropertyLong( PROPERTY_MAX_BYTES, DEFAULT_MAX_BYTES ),
+            AppPropertiesService.getPropertyLong( PROPERTY_TIME_TO_LIVE, DEFAULT_TIME_TO_LIVE ) );
+
+    private final long _lMaxBytes;
+    private final long _lTimeToLive;
+    private final Map<Integer, Calendar> _mapCalendars = new LinkedHashMap<>( 16, 0.75f, true );
+    // Invalidation times by form, oldest first
+    private final Map<Integer, Long> _mapInvalidated = new LinkedHashMap<>( );
+    private long _lBytes;
+
+    /**
+     * Constructor
+     *
+     * @param lMaxBytes
+     *            the maximum size in bytes of the calendars kept
+     * @param lTimeToLive
+     *            the time to live of a calendar in milliseconds
+     */
+    SlotCalendarCache( long lMaxBytes, long lTimeToLive )
+    {
+        _lMaxBytes = lMaxBytes;
+        _lTimeToLive = lTimeToLive;
+    }
+
+    /**
+     * Get the cache of the slot calendars
+     *
+     * @return the instance
+     */
+    static SlotCalendarCache getInstance( )
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Check if the slot calendars are cached
+     *
+     * @return true if the cache is enabled and the outbox is not
+     */
+    static boolean isEnabled( )
+    {
+        return AppPropertiesService.getPropertyBoolean( PROPERTY_ENABLE, false ) && !SolrAppointmentOutboxService.isEnabled( );
+    }
+
+    /**
+     * Get the table of the slots of a form between two dates, clipped to the period displayed on the calendar FO
+     *
+     * @param appointmentForm
+     *            the appointment form
+     * @param startingDate
+     *            the starting date, null for the start of the display
+     * @param endingDate
+     *            the ending date (included), null for the end of the display
+     * @return the table of the slots
+     */
+    SlotTable getSlotTable( AppointmentFormDTO appointmentForm, LocalDate startingDate, LocalDate endingDate )
+    {
+        int nIdForm = appointmentForm.getIdForm( );
+        LocalDate startingDateOfDisplay = SlotUtil.getStartingDateOfDisplay( appointmentForm );
+        LocalDate endingDateOfDisplay = SlotUtil.getEndingDateOfDisplay( appointmentForm, startingDateOfDisplay );
+        LocalDate startingDateOfTable = startingDate != null && startingDate.isAfter( startingDateOfDisplay ) ? startingDate : startingDateOfDisplay;
+        LocalDate endingDateOfTable = endingDate != null && endingDate.isBefore( endingDateOfDisplay ) ? endingDate : endingDateOfDisplay;
+        if ( startingDateOfTable.isAfter( endingDateOfTable ) )
+        {
+            return SlotTable.of( nIdForm, new ArrayList<>( ) );
+        }
+        LocalDateTime dateTimeBeforeAppointment = appointmentForm.getMinTimeBeforeAppointment( ) != 0
+                ? LocalDateTime.now( ).plusHours( appointmentForm.getMinTimeBeforeAppointment( ) )
+                : null;
+
+        SlotTable table = get( nIdForm, startingDateOfTable, endingDateOfTable, dateTimeBeforeAppointment );
+        if ( table != null )
+        {
+            return table;
+        }
+        long lBuildStart = System.nanoTime( );
+        SlotTable calendar = SlotTable.of( nIdForm, SlotService.buildListSlot( nIdForm, WeekDefinitionService.findAllWeekDefinition( nIdForm ),
+                startingDateOfDisplay, endingDateOfDisplay ) );
+        table = slice( calendar, startingDateOfTable, endingDateOfTable, dateTimeBeforeAppointment );
+        put( nIdForm, startingDateOfDisplay, endingDateOfDisplay, calendar, lBuildStart );
+        return table;
+    }
+
+    /**
+     * Get the slots of a cached calendar
+     *
+     * @param nIdForm
+     *            the form id
+     * @param startingDate
+     *            the first day
+     * @param endingDate
+     *            the last day
+     * @param dateTimeBeforeAppointment
+     *            the date time the slots must start after, null for all the slots
+     * @return a copy of the slots, or null if the period is not cached
+     */
+    synchronized SlotTable get( int nIdForm, LocalDate startingDate, LocalDate endingDate, LocalDateTime dateTimeBeforeAppointment )
+    {
+        Calendar calendar = _mapCalendars.get( nIdForm );
+        if ( calendar == null )
+        {
+            return null;
+        }
+        if ( System.currentTimeMillis( ) - calendar._lCreated > _lTimeToLive )
+        {
+            remove( nIdForm );
+            return null;
+        }
+        if ( startingDate.isBefore( calendar._startingDate ) || endingDate.isAfter( calendar._endingDate ) )
+        {
+            return null;
+        }
+        return slice( calendar._table, startingDate, endingDate, dateTimeBeforeAppointment );
+    }
+
+    /**
+     * Cache the calendar of a form, unless it was invalidated or patched while it was built
+     *
+     * @param nIdForm
+     *            the form id
+     * @param startingDate
+     *            the first day of the calendar
+     * @param endingDate
+     *            the last day of the calendar
+     * @param table
+     *            the slots of the calendar, owned by the cache from now on
+     * @param lBuildStart
+     *            the value of {@link System#nanoTime()} before the calendar was built
+     */
+    synchronized void put( int nIdForm, LocalDate startingDate, LocalDate endingDate, SlotTable table, long lBuildStart )
+    {
+        long lNow = System.nanoTime( );
+        pruneInvalidated( lNow );
+        // The invalidations this old are forgotten, so are the builds that started before them
+        if ( lNow - lBuildStart > TimeUnit.MILLISECONDS.toNanos( _lTimeToLive ) )
+        {
+            return;
+        }
+        Long lInvalidated = _mapInvalidated.get( nIdForm );
+        if ( lInvalidated != null && lInvalidated - lBuildStart >= 0 )
+        {
+            return;
+        }
+        long lSize = table.getMemorySize( );
+        if ( lSize > _lMaxBytes )
+        {
+            return;
+        }
+        remove( nIdForm );
+        _mapCalendars.put( nIdForm, new Calendar( startingDate, endingDate, table, System.currentTimeMillis( ) ) );
+        _lBytes += lSize;
+        Iterator<Map.Entry<Integer, Calendar>> iterator = _mapCalendars.entrySet( ).iterator( );
+        while ( _lBytes > _lMaxBytes && iterator.hasNext( ) )
+        {
+            // Least recently used first
+            _lBytes -= iterator.next( ).getValue( )._table.getMemorySize( );
+            iterator.remove( );
+        }
+    }
+
+    /**
+     * Update the places of a slot received with a booking event. The calendar of the form is dropped if the slot does not match one of its slots.
+     *
+     * @param slot
+     *            the slot
+     */
+    synchronized void patch( Slot slot )
+    {
+        int nIdForm = slot.getIdForm( );
+        Calendar calendar = _mapCalendars.get( nIdForm );
+        if ( calendar != null )
+        {
+            int nIndex = calendar._table.indexOf( slot.getStartingDateTime( ) );
+            if ( nIndex >= 0 && calendar._table.getEndingDateTime( nIndex ).equals( slot.getEndingDateTime( ) ) )
+            {
+                calendar._table.set( nIndex, slot );
+                return;
+            }
+        }
+        // A calendar being built may have read the slot before its change
+        invalidate( nIdForm );
+    }
+
+    /**
+     * Drop the calendar of a form
+     *
+     * @param nIdForm
+     *            the form id
+     */
+    synchronized void invalidate( int nIdForm )
+    {
+        remove( nIdForm );
+        long lNow = System.nanoTime( );
+        _mapInvalidated.remove( nIdForm );
+        _mapInvalidated.put( nIdForm, lNow );
+        pruneInvalidated( lNow );
+    }
+
+    /**
+     * Get the number of the invalidations kept
+     *
+     * @return the number of forms
+     */
+    synchronized int getInvalidatedCount( )
+    {
+        return _mapInvalidated.size( );
+    }
+
+    /**
+     * Forget the invalidations older than the time to live
+     *
+     * @param lNow
+     *            the current value of {@link System#nanoTime()}
+     */
+    private void pruneInvalidated( long lNow )
+    {
+        long lTimeToLive = TimeUnit.MILLISECONDS.toNanos( _lTimeToLive );
+        Iterator<Long> iterator = _mapInvalidated.values( ).iterator( );
+        while ( iterator.hasNext( ) && lNow - iterator.next( ) > lTimeToLive )
+        {
+            iterator.remove( );
+        }
+    }
+
+    private void remove( int nIdForm )
+    {
+        Calendar calendar = _mapCalendars.remove( nIdForm );
+        if ( calendar != null )
+        {
+            _lBytes -= calendar._table.getMemorySize( );
+        }
+    }
+
+    /**
+     * Copy the slots of a calendar between two days
+     *
+     * @param table
+     *            the slots of the calendar
+     * @param startingDate
+     *            the first day
+     * @param endingDate
+     *            the last day
+     * @param dateTimeBeforeAppointment
+     *            the date time the slots must start after, null for all the slots
+     * @return the copy of the slots
+     */
+    private static SlotTable slice( SlotTable table, LocalDate startingDate, LocalDate endingDate, LocalDateTime dateTimeBeforeAppointment )
+    {
+        int nFromIndex = table.getFirstIndexOfDay( startingDate );
+        if ( dateTimeBeforeAppointment != null )
+        {
+            nFromIndex = Math.max( nFromIndex, table.getFirstIndexAfter( dateTimeBeforeAppointment ) );
+        }
+        int nToIndex = table.getFirstIndexOfDay( endingDate.plusDays( 1 ) );
+        return table.copy( Math.min( nFromIndex, nToIndex ), nToIndex );
+    }
+
+    /**
+     * The cached calendar of a form
+     */
+    private static final class Calendar
+    {
+        private final LocalDate _startingDate;
+        private final LocalDate _endingDate;
+        private final SlotTable _table;
+        private final long _lCreated;
+
+        private Calendar( LocalDate startingDate, LocalDate endingDate, SlotTable table, long lCreated )
+        {
+            _startingDate = startingDate;
+            _endingDate = endingDate;
+            _table = table;
+            _lCreated = lCreated;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.solr.client.solrj.beans.DocumentObjectBinder;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.SolrInputField;
+
+import fr.paris.lutece.plugins.appointment.web.dto.AppointmentFormDTO;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+import fr.paris.lutece.portal.service.search.SearchItem;
+
+/**
+ * Builder of the slot documents of a form, writing them straight into Solr input documents.
+ *
+ * The first slot is built by {@link SlotUtil#getSlotItem(AppointmentFormDTO, SlotTable, int)}: its fields which do not depend on the slot are shared by
+ * all the documents built, the uid and url prefixes are computed once for the form, the date strings once per day and the geoloc fields once per number of
+ * places. The documents built have the same fields and values as the converted slot items, their uid is not prefixed with the webapp name.
+ *
+ */
+final class SlotDocumentBuilder
+{
+    private static final DocumentObjectBinder BINDER = new DocumentObjectBinder( );
+    private static final String FIELD_URL = "url";
+    private static final String FIELD_DATE = "date";
+    private static final String FIELD_HIE_DATE = "hie_date";
+    private static final String PLACEHOLDER = "STARTINGDATETIME";
+    private static final long MINUTES_PER_DAY = 1440L;
+    private static final int MINUTES_PER_HOUR = 60;
+    private static final String SECONDS = "00";
+
+    private final AppointmentFormDTO _appointmentForm;
+    private final SlotTable _table;
+    private final List<SolrInputField> _listSharedFields = new ArrayList<>( );
+    private final int _nNbFields;
+    private final String _strUidPrefix;
+    private final String _strUidSuffix;
+    private final String _strUrlPrefix;
+    private final String _strUrlSuffix;
+    private final boolean _bDayOfWeek;
+    private final boolean _bMinuteOfDay;
+    private final boolean _bGeoloc;
+    private final Map<Long, List<SolrInputField>> _mapGeolocFields = new HashMap<>( );
+
+    private long _lDay = Long.MIN_VALUE;
+    private String _strDayUid;
+    private String _strDayIso;
+    private String _strHieDate;
+    private Long _lDayOfWeek;
+
+    /**
+     * Constructor
+     *
+     * @param appointmentForm
+     *            the appointment form
+     * @param table
+     *            the slots of the form, not empty
+     */
+    SlotDocumentBuilder( AppointmentFormDTO appointmentForm, SlotTable table )
+    {
+        _appointmentForm = appointmentForm;
+        _table = table;
+        FieldProfile profile = FieldProfile.getCurrent( );
+        _bGeoloc = SlotUtil.hasSlotGeoloc( appointmentForm, profile );
+
+        SolrInputDocument template = BINDER.toSolrInputDocument( SlotUtil.getSlotItem( appointmentForm, table, 0, profile ) );
+        _nNbFields = template.size( );
+        _bDayOfWeek = template.containsKey( SlotUtil.FIELD_DAY_OF_WEEK );
+        _bMinuteOfDay = template.containsKey( SlotUtil.FIELD_MINUTE_OF_DAY );
+        for ( String strName : new String [ ] {
+                SearchItem.FIELD_UID, FIELD_URL, FIELD_DATE, FIELD_HIE_DATE, SlotUtil.FIELD_ENABLED, SlotUtil.FIELD_NB_FREE_PLACES, SlotUtil.FIELD_NB_PLACES,
+                SlotUtil.FIELD_DAY_OF_WEEK, SlotUtil.FIELD_MINUTE_OF_DAY, SlotUtil.FIELD_NB_CONSECUTIVES_SLOTS
+        } )
+        {
+            template.removeField( strName );
+        }
+        if ( _bGeoloc )
+        {
+            getGeolocFields( table.getNbPotentialRemainingPlaces( 0 ), table.getMaxCapacity( 0 ) ).forEach( field -> template.removeField( field.getName( ) ) );
+        }
+        for ( SolrInputField field : template )
+        {
+            if ( field.getValue( ) != null )
+            {
+                _listSharedFields.add( field );
+            }
+        }
+
+        String strSlotUid = SlotUtil.getSlotUid( appointmentForm.getIdForm( ), table.getStartingDateTime( 0 ) );
+        _strUidPrefix = strSlotUid.substring( 0, strSlotUid.indexOf( 'D' ) + 1 );
+        _strUidSuffix = Utilities.buildResourceUid( StringUtils.EMPTY, Utilities.RESOURCE_TYPE_SLOT );
+        String strUrl = SlotUtil.getSlotUrl( appointmentForm.getIdForm( ), PLACEHOLDER );
+        int nPlaceholder = strUrl.indexOf( PLACEHOLDER );
+        _strUrlPrefix = strUrl.substring( 0, nPlaceholder );
+        _strUrlSuffix = strUrl.substring( nPlaceholder + PLACEHOLDER.length( ) );
+    }
+
+    /**
+     * Build the document of a slot
+     *
+     * @param nIndex
+     *            the row of the slot in the table
+     * @return the document, with a uid not prefixed with the webapp name
+     */
+    SolrInputDocument build( int nIndex )
+    {
+        long lMinutes = _table.getStartingMinutes( nIndex );
+        long lDay = Math.floorDiv( lMinutes, MINUTES_PER_DAY );
+        if ( lDay != _lDay )
+        {
+            // The slots are sorted, the strings of a day are computed once
+            LocalDate date = LocalDate.ofEpochDay( lDay );
+            _lDay = lDay;
+            _strDayUid = date.format( Utilities.DAY_SOLR_ID_DATE_FORMATTER );
+            _strDayIso = date.toString( );
+            _strHieDate = date.format( Utilities.HIE_DATE_FORMATTER );
+            _lDayOfWeek = Long.valueOf( date.getDayOfWeek( ).getValue( ) );
+        }
+        int nMinuteOfDay = (int) Math.floorMod( lMinutes, MINUTES_PER_DAY );
+        String strHour = twoDigits( nMinuteOfDay / MINUTES_PER_HOUR );
+        String strMinute = twoDigits( nMinuteOfDay % MINUTES_PER_HOUR );
+        int nNbPotentialRemainingPlaces = _table.getNbPotentialRemainingPlaces( nIndex );
+        int nMaxCapacity = _table.getMaxCapacity( nIndex );
+
+        SolrInputDocument document = new SolrInputDocument( new LinkedHashMap<>( _nNbFields * 2 ) );
+        // The shared fields are never modified
+        _listSharedFields.forEach( field -> document.put( field.getName( ), field ) );
+        document.setField( SearchItem.FIELD_UID, _strUidPrefix + _strDayUid + 'T' + strHour + strMinute + SECONDS + _strUidSuffix );
+        document.setField( FIELD_URL, _strUrlPrefix + _strDayIso + 'T' + strHour + ':' + strMinute + _strUrlSuffix );
+        document.setField( FIELD_DATE, Timestamp.valueOf( _table.getStartingDateTime( nIndex ) ) );
+        document.setField( FIELD_HIE_DATE, _strHieDate );
+        document.setField( SlotUtil.FIELD_ENABLED, String.valueOf( _table.isOpen( nIndex ) ) );
+        document.setField( SlotUtil.FIELD_NB_FREE_PLACES, Long.valueOf( nNbPotentialRemainingPlaces ) );
+        document.setField( SlotUtil.FIELD_NB_PLACES, Long.valueOf( nMaxCapacity ) );
+        if ( _bDayOfWeek )
+        {
+            document.setField( SlotUtil.FIELD_DAY_OF_WEEK, _lDayOfWeek );
+        }
+        if ( _bMinuteOfDay )
+        {
+            document.setField( SlotUtil.FIELD_MINUTE_OF_DAY, Long.valueOf( nMinuteOfDay ) );
+        }
+        document.setField( SlotUtil.FIELD_NB_CONSECUTIVES_SLOTS, SlotUtil.getNbConsecutiveSlots( _appointmentForm, _table, nIndex ) );
+        if ( _bGeoloc )
+        {
+            getGeolocFields( nNbPotentialRemainingPlaces, nMaxCapacity ).forEach( field -> document.put( field.getName( ), field ) );
+        }
+        return document;
+    }
+
+    /**
+     * Get the geoloc fields of the slots with a number of places, whose label carries the places
+     *
+     * @param nNbPotentialRemainingPlaces
+     *            the free places of the slot
+     * @param nMaxCapacity
+     *            the places of the slot
+     * @return the geoloc fields
+     */
+    private List<SolrInputField> getGeolocFields( int nNbPotentialRemainingPlaces, int nMaxCapacity )
+    {
+        return _mapGeolocFields.computeIfAbsent( ( (long) nNbPotentialRemainingPlaces << Integer.SIZE ) | ( nMaxCapacity & 0xffffffffL ), key -> {
+            SolrItem item = new SolrItem( );
+            SlotUtil.addSlotGeoloc( item, _appointmentForm, nNbPotentialRemainingPlaces, nMaxCapacity );
+            List<SolrInputField> listFields = new ArrayList<>( );
+            for ( SolrInputField field : BINDER.toSolrInputDocument( item ) )
+            {
+                if ( field.getValue( ) != null )
+                {
+                    listFields.add( field );
+                }
+            }
+            return listFields;
+        } );
+    }
+
+    private static String twoDigits( int nValue )
+    {
+        return nValue < 10 ? "0" + nValue : Integer.toString( nValue );
+    }
+}
@@ -0,0 +1,391 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import fr.paris.lutece.plugins.appointment.business.slot.Slot;
+
+/**
+ * Compact table of the slots of a form, used by the index computations instead of the list of {@link Slot} entities.
+ *
+ * The slots are sorted by starting date time and stored column by column in primitive arrays: starting and ending minute (counted from the epoch, local
+ * time), capacity, potential remaining places and open flag. The index of the first slot of each day is kept, so that the slots of a day are a range of
+ * rows. The number of consecutive free slots is computed for all the rows in a single backward pass.
+ *
+ */
+final class SlotTable
+{
+    private static final int SECONDS_PER_MINUTE = 60;
+    private static final long MINUTES_PER_DAY = 1440L;
+
+    private final int _nIdForm;
+    private final int _nSize;
+    private final long [ ] _lStartingMinutes;
+    private final long [ ] _lEndingMinutes;
+    private final int [ ] _nMaxCapacities;
+    private final int [ ] _nRemainingPlaces;
+    private final boolean [ ] _bOpen;
+    private long _lFirstDay;
+    private int [ ] _nDayOffsets;
+    private int [ ] _nConsecutiveSlots;
+
+    private SlotTable( int nIdForm, List<Slot> listSlots )
+    {
+        this( nIdForm, new long [ listSlots.size( )], new long [ listSlots.size( )], new int [ listSlots.size( )], new int [ listSlots.size( )],
+                new boolean [ listSlots.size( )] );
+        for ( int i = 0; i < _nSize; i++ )
+        {
+            Slot slot = listSlots.get( i );
+            _lStartingMinutes [i] = toMinutes( slot.getStartingDateTime( ) );
+            setRow( i, slot );
+        }
+        indexDays( );
+    }
+
+    private SlotTable( int nIdForm, long [ ] lStartingMinutes, long [ ] lEndingMinutes, int [ ] nMaxCapacities, int [ ] nRemainingPlaces, boolean [ ] bOpen )
+    {
+        _nIdForm = nIdForm;
+        _nSize = lStartingMinutes.length;
+        _lStartingMinutes = lStartingMinutes;
+        _lEndingMinutes = lEndingMinutes;
+        _nMaxCapacities = nMaxCapacities;
+        _nRemainingPlaces = nRemainingPlaces;
+        _bOpen = bOpen;
+        _nDayOffsets = new int [ ] {
+                0
+        };
+    }
+
+    /**
+     * Index the first row of each day, the rows being sorted
+     */
+    private void indexDays( )
+    {
+        if ( _nSize == 0 )
+        {
+            return;
+        }
+        _lFirstDay = Math.floorDiv( _lStartingMinutes [0], MINUTES_PER_DAY );
+        int nNbDays = (int) ( Math.floorDiv( _lStartingMinutes [_nSize - 1], MINUTES_PER_DAY ) - _lFirstDay + 1 );
+        _nDayOffsets = new int [ nNbDays + 1];
+        int nRow = 0;
+        for ( int nDay = 0; nDay < nNbDays; nDay++ )
+        {
+            _nDayOffsets [nDay] = nRow;
+            while ( nRow < _nSize && Math.floorDiv( _lStartingMinutes [nRow], MINUTES_PER_DAY ) - _lFirstDay == nDay )
+            {
+                nRow++;
+            }
+        }
+        _nDayOffsets [nNbDays] = _nSize;
+    }
+
+    /**
+     * Build the table of the slots of a form. This is the boundary where the {@link Slot} entities are converted.
+     *
+     * @param nIdForm
+     *            the form id
+     * @param listSlots
+     *            the slots of the form
+     * @return the table
+     */
+    static SlotTable of( int nIdForm, List<Slot> listSlots )
+    {
+        List<Slot> listSortedSlots = new ArrayList<>( listSlots );
+        listSortedSlots.sort( Comparator.comparing( Slot::getStartingDateTime ) );
+        return new SlotTable( nIdForm, listSortedSlots );
+    }
+
+    /**
+     * Copy a range of rows into a new table
+     *
+     * @param nFromIndex
+     *            the first row, included
+     * @param nToIndex
+     *            the last row, excluded
+     * @return the table of the rows
+     */
+    SlotTable copy( int nFromIndex, int nToIndex )
+    {
+        SlotTable table = new SlotTable( _nIdForm, Arrays.copyOfRange( _lStartingMinutes, nFromIndex, nToIndex ),
+                Arrays.copyOfRange( _lEndingMinutes, nFromIndex, nToIndex ), Arrays.copyOfRange( _nMaxCapacities, nFromIndex, nToIndex ),
+                Arrays.copyOfRange( _nRemainingPlaces, nFromIndex, nToIndex ), Arrays.copyOfRange( _bOpen, nFromIndex, nToIndex ) );
+        table.indexDays( );
+        return table;
+    }
+
+    /**
+     * @return the approximate size in bytes of the table
+     */
+    long getMemorySize( )
+    {
+        return 64L + _nSize * ( 2L * Long.BYTES + 3L * Integer.BYTES + 1L ) + (long) _nDayOffsets.length * Integer.BYTES;
+    }
+
+    /**
+     * @return the form id
+     */
+    int getIdForm( )
+    {
+        return _nIdForm;
+    }
+
+    /**
+     * @return the number of slots
+     */
+    int size( )
+    {
+        return _nSize;
+    }
+
+    /**
+     * Find the row of the slot starting at a date time
+     *
+     * @param startingDateTime
+     *            the starting date time
+     * @return the row, or (-(insertion point) - 1) if there is no such slot
+     */
+    int indexOf( LocalDateTime startingDateTime )
+    {
+        return Arrays.binarySearch( _lStartingMinutes, toMinutes( startingDateTime ) );
+    }
+
+    /**
+     * Get the row of the first slot starting after a date time
+     *
+     * @param dateTime
+     *            the date time
+     * @return the row of the first slot starting strictly after the date time, or the number of slots if there is none
+     */
+    int getFirstIndexAfter( LocalDateTime dateTime )
+    {
+        long lSeconds = dateTime.toEpochSecond( ZoneOffset.UTC );
+        int nLow = 0;
+        int nHigh = _nSize;
+        while ( nLow < nHigh )
+        {
+            int nMiddle = ( nLow + nHigh ) >>> 1;
+            if ( _lStartingMinutes [nMiddle] * SECONDS_PER_MINUTE > lSeconds )
+            {
+                nHigh = nMiddle;
+            }
+            else
+            {
+                nLow = nMiddle + 1;
+            }
+        }
+        return nLow;
+    }
+
+    /**
+     * Get the row of the first slot of a day
+     *
+     * @param date
+     *            the day
+     * @return the row of the first slot of the day, or of the next day with slots
+     */
+    int getFirstIndexOfDay( LocalDate date )
+    {
+        long lDay = date.toEpochDay( ) - _lFirstDay;
+        if ( lDay <= 0 )
+        {
+            return 0;
+        }
+        if ( lDay >= _nDayOffsets.length )
+        {
+            return _nSize;
+        }
+        return _nDayOffsets [(int) lDay];
+    }
+
+    /**
+     * Replace the values of a row by the values of a slot starting at the same date time, for example a slot received with an event
+     *
+     * @param nIndex
+     *            the row
+     * @param slot
+     *            the slot
+     */
+    void set( int nIndex, Slot slot )
+    {
+        setRow( nIndex, slot );
+        _nConsecutiveSlots = null;
+    }
+
+    /**
+     * @param nIndex
+     *            the row
+     * @return the starting date time of the slot
+     */
+    LocalDateTime getStartingDateTime( int nIndex )
+    {
+        return toDateTime( _lStartingMinutes [nIndex] );
+    }
+
+    /**
+     * @param nIndex
+     *            the row
+     * @return the starting date time of the slot, in minutes since the epoch of the local time line
+     */
+    long getStartingMinutes( int nIndex )
+    {
+        return _lStartingMinutes [nIndex];
+    }
+
+    /**
+     * @param nIndex
+     *            the row
+     * @return the ending date time of the slot
+     */
+    LocalDateTime getEndingDateTime( int nIndex )
+    {
+        return toDateTime( _lEndingMinutes [nIndex] );
+    }
+
+    /**
+     * @param nIndex
+     *            the row
+     * @return the maximum capacity of the slot
+     */
+    int getMaxCapacity( int nIndex )
+    {
+        return _nMaxCapacities [nIndex];
+    }
+
+    /**
+     * @param nIndex
+     *            the row
+     * @return the potential remaining places of the slot
+     */
+    int getNbPotentialRemainingPlaces( int nIndex )
+    {
+        return _nRemainingPlaces [nIndex];
+    }
+
+    /**
+     * @param nIndex
+     *            the row
+     * @return true if the slot is open
+     */
+    boolean isOpen( int nIndex )
+    {
+        return _bOpen [nIndex];
+    }
+
+    /**
+     * Get the number of consecutive slots with free places starting with a slot: 0 if the slot has no free place, else 1 plus the number of the following
+     * contiguous slots which are open and have free places
+     *
+     * @param nIndex
+     *            the row
+     * @return the number of consecutive slots
+     */
+    int getNbConsecutiveSlots( int nIndex )
+    {
+        if ( _nConsecutiveSlots == null )
+        {
+            computeConsecutiveSlots( );
+        }
+        return _nRemainingPlaces [nIndex] > 0 ? 1 + _nConsecutiveSlots [nIndex] : 0;
+    }
+
+    /**
+     * @return the sum of the free places of the slots
+     */
+    long getFreePlaces( )
+    {
+        long lFreePlaces = 0;
+        for ( int i = 0; i < _nSize; i++ )
+        {
+            lFreePlaces += Math.max( 0, _nRemainingPlaces [i] );
+        }
+        return lFreePlaces;
+    }
+
+    /**
+     * @return the sum of the capacities of the slots
+     */
+    long getPlaces( )
+    {
+        long lPlaces = 0;
+        for ( int i = 0; i < _nSize; i++ )
+        {
+            lPlaces += _nMaxCapacities [i];
+        }
+        return lPlaces;
+    }
+
+    /**
+     * Compute, for each row, the number of contiguous following slots which are open and have free places. The following slot of a row is the one starting
+     * when it ends, it is always after the row since the slots are sorted.
+     */
+    private void computeConsecutiveSlots( )
+    {
+        int [ ] nFollowing = new int [ _nSize];
+        for ( int i = _nSize - 1; i >= 0; i-- )
+        {
+            int nNext = Arrays.binarySearch( _lStartingMinutes, _lEndingMinutes [i] );
+            if ( nNext > i && _nRemainingPlaces [nNext] > 0 && _bOpen [nNext] )
+            {
+                nFollowing [i] = 1 + nFollowing [nNext];
+            }
+        }
+        _nConsecutiveSlots = nFollowing;
+    }
+
+    private void setRow( int nIndex, Slot slot )
+    {
+        _lEndingMinutes [nIndex] = toMinutes( slot.getEndingDateTime( ) );
+        _nMaxCapacities [nIndex] = slot.getMaxCapacity( );
+        _nRemainingPlaces [nIndex] = slot.getNbPotentialRemainingPlaces( );
+        _bOpen [nIndex] = slot.getIsOpen( );
+    }
+
+    private static long toMinutes( LocalDateTime dateTime )
+    {
+        return Math.floorDiv( dateTime.toEpochSecond( ZoneOffset.UTC ), SECONDS_PER_MINUTE );
+    }
+
+    private static LocalDateTime toDateTime( long lMinutes )
+    {
+        return LocalDateTime.ofEpochSecond( lMinutes * SECONDS_PER_MINUTE, 0, ZoneOffset.UTC );
+    }
+}
@@ -44,15 +44,16 @@ import fr.paris.lutece.util.url.UrlItem;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
 
+import java.sql.Timestamp;
 import java.time.DayOfWeek;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
 import java.time.temporal.TemporalField;
 import java.time.temporal.WeekFields;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 /**
@@ -68,8 +69,6 @@ public final class SlotUtil
     private static final String ENABLED = "enabled";
     private static final String SLOT_NB_FREE_PLACES = "slot_nb_free_places";
     private static final String SLOT_NB_PLACES = "slot_nb_places";
-    private static final String DAY_OF_WEEK = "day_of_week";
-    private static final String MINUTE_OF_DAY = "minute_of_day";
     private static final String NB_CONSECUTIVES_SLOTS = "nb_consecutives_slots";
     private static final String APPOINTMENT_MULTISLOTS = "appointment_multislots";
     private static final String MAX_CONSECUTIVES_SLOTS = "max_consecutives_slots";
@@ -78,6 +77,15 @@ public final class SlotUtil
     private static final String APPOINTMENT_SLOT = "appointmentslot";
     private static final String VIEW_FORM = "getViewAppointmentForm";
 
+    static final String DAY_OF_WEEK = "day_of_week";
+    static final String MINUTE_OF_DAY = "minute_of_day";
+    static final String FIELD_NB_FREE_PLACES = SLOT_NB_FREE_PLACES + "_long";
+    static final String FIELD_ENABLED = ENABLED + "_string";
+    static final String FIELD_NB_CONSECUTIVES_SLOTS = NB_CONSECUTIVES_SLOTS + "_long";
+    static final String FIELD_NB_PLACES = SLOT_NB_PLACES + "_long";
+    static final String FIELD_DAY_OF_WEEK = DAY_OF_WEEK + "_long";
+    static final String FIELD_MINUTE_OF_DAY = MINUTE_OF_DAY + "_long";
+
     private static final String PARAMETER_STARTING_DATETIME = "starting_date_time";
     private static final String PARAMETER_ANCHOR = "anchor";
     private static final String VALUE_ANCHOR = "step3";
@@ -98,8 +106,22 @@ public final class SlotUtil
      */
     public static String getSlotUid( Slot slot )
     {
-        String strSlotDateFormatted = slot.getStartingDateTime( ).format( Utilities.SLOT_SOLR_ID_DATE_FORMATTER );
-        return "F" + slot.getIdForm( ) + "D" + strSlotDateFormatted;
+        return getSlotUid( slot.getIdForm( ), slot.getStartingDateTime( ) );
+    }
+
+    /**
+     * Generate a unique ID for solr from the form id and the slot starting date time
+     * 
+     * @param nIdForm
+     *            the form id
+     * @param startingDateTime
+     *            the starting date time of the slot
+     * @return the unique ID
+     */
+    public static String getSlotUid( int nIdForm, LocalDateTime startingDateTime )
+    {
+        String strSlotDateFormatted = startingDateTime.format( Utilities.SLOT_SOLR_ID_DATE_FORMATTER );
+        return "F" + nIdForm + "D" + strSlotDateFormatted;
     }
 
     /**
@@ -110,12 +132,40 @@ public final class SlotUtil
      * @return the url with all the parameters
      */
     public static String getSlotUrl( Slot slot )
+    {
+        return getSlotUrl( slot.getIdForm( ), slot.getStartingDateTime( ) );
+    }
+
+    /**
+     * Get the slot url to call directly rdv v2 with the good parameters
+     * 
+     * @param nIdForm
+     *            the form id
+     * @param startingDateTime
+     *            the starting date time of the slot
+     * @return the url with all the parameters
+     */
+    public static String getSlotUrl( int nIdForm, LocalDateTime startingDateTime )
+    {
+        return getSlotUrl( nIdForm, startingDateTime.toString( ) );
+    }
+
+    /**
+     * Get the slot url to call directly rdv v2 with the good parameters
+     * 
+     * @param nIdForm
+     *            the form id
+     * @param strStartingDateTime
+     *            the starting date time of the slot in the ISO-8601 format
+     * @return the url with all the parameters
+     */
+    static String getSlotUrl( int nIdForm, String strStartingDateTime )
     {
         UrlItem url = new UrlItem( SolrIndexerService.getBaseUrl( ) );
         url.addParameter( Utilities.PARAMETER_XPAGE, Utilities.XPAGE_APPOINTMENT );
         url.addParameter( Utilities.PARAMETER_VIEW, VIEW_FORM );
-        url.addParameter( FormUtil.PARAMETER_ID_FORM, slot.getIdForm( ) );
-        url.addParameter( PARAMETER_STARTING_DATETIME, slot.getStartingDateTime( ).toString( ) );
+        url.addParameter( FormUtil.PARAMETER_ID_FORM, nIdForm );
+        url.addParameter( PARAMETER_STARTING_DATETIME, strStartingDateTime );
         url.addParameter( PARAMETER_ANCHOR, VALUE_ANCHOR );
         return url.getUrl( );
     }
@@ -127,52 +177,168 @@ public final class SlotUtil
      *            the Appointment Form
      * @param slot
      *            the slot
+     * @param allSlots
+     *            all the slots of the form
      * @return the slot Item
      */
     public static SolrItem getSlotItem( AppointmentFormDTO appointmentForm, Slot slot, List<Slot> allSlots )
     {
+        return getSlotItem( appointmentForm, toSlotTable( slot, allSlots ), 0, FieldProfile.getCurrent( ) );
+    }
+
+    /**
+     * Build and return the slot Item for Solr
+     * 
+     * @param appointmentForm
+     *            the Appointment Form
+     * @param table
+     *            the slots of the form
+     * @param nIndex
+     *            the row of the slot in the table
+     * @param profile
+     *            the optional fields written
+     * @return the slot Item
+     */
+    static SolrItem getSlotItem( AppointmentFormDTO appointmentForm, SlotTable table, int nIndex, FieldProfile profile )
+    {
+        LocalDateTime startingDateTime = table.getStartingDateTime( nIndex );
+        int nNbPotentialRemainingPlaces = table.getNbPotentialRemainingPlaces( nIndex );
+        int nMaxCapacity = table.getMaxCapacity( nIndex );
         // the item
-        SolrItem item = FormUtil.getDefaultFormItem( appointmentForm );
-        item.setUid( Utilities.buildResourceUid( getSlotUid( slot ), Utilities.RESOURCE_TYPE_SLOT ) );
+        SolrItem item = FormUtil.getChildBaseItem( appointmentForm, profile );
+        item.setUid( Utilities.buildResourceUid( getSlotUid( table.getIdForm( ), startingDateTime ), Utilities.RESOURCE_TYPE_SLOT ) );
         item.addDynamicFieldNotAnalysed( UID_FORM, FormUtil.getFormUid( appointmentForm.getIdForm( ) ) );
-        item.setUrl( getSlotUrl( slot ) );
-        item.addDynamicFieldNotAnalysed( URL_FORM, FormUtil.getFormUrl( appointmentForm.getIdForm( ) ) );
-        item.setDate( slot.getStartingTimestampDate( ) );
+        item.setUrl( getSlotUrl( table.getIdForm( ), startingDateTime ) );
+        if ( profile.isEnabled( URL_FORM ) )
+        {
+            item.addDynamicFieldNotAnalysed( URL_FORM, FormUtil.getFormUrl( appointmentForm.getIdForm( ) ) );
+        }
+        item.setDate( Timestamp.valueOf( startingDateTime ) );
         item.setType( Utilities.SHORT_NAME_SLOT );
-        if ( StringUtils.isNotEmpty( appointmentForm.getAddress( ) ) && appointmentForm.getLongitude( ) != null && appointmentForm.getLatitude( ) != null )
-        {
-            item.addDynamicFieldGeoloc( APPOINTMENT_SLOT, appointmentForm.getAddress( ), appointmentForm.getLongitude( ), appointmentForm.getLatitude( ),
-                    "appointmentslot-" + slot.getNbPotentialRemainingPlaces( ) + "/" + slot.getMaxCapacity( ) );
-        }
-        item.addDynamicFieldNotAnalysed( DAY_OPEN, String.valueOf( Boolean.TRUE ) );
-        item.addDynamicFieldNotAnalysed( ENABLED, String.valueOf( slot.getIsOpen( ) ) );
-        item.addDynamicField( SLOT_NB_FREE_PLACES, Long.valueOf( slot.getNbPotentialRemainingPlaces( ) ) );
-        item.addDynamicField( SLOT_NB_PLACES, Long.valueOf( slot.getMaxCapacity( ) ) );
-        item.addDynamicField( DAY_OF_WEEK, Long.valueOf( slot.getStartingDateTime( ).getDayOfWeek( ).getValue( ) ) );
-        item.addDynamicField( MINUTE_OF_DAY,
-                ChronoUnit.MINUTES.between( slot.getStartingDateTime( ).toLocalDate( ).atStartOfDay( ), slot.getStartingDateTime( ) ) );
-
-        long consecutiveSlots = calculateConsecutiveSlots(slot, allSlots);
-        item.addDynamicField( APPOINTMENT_MULTISLOTS, Boolean.toString( appointmentForm.getIsMultislotAppointment( ) ) );
-        if (appointmentForm.getIsMultislotAppointment()) {
-            item.addDynamicField(MAX_CONSECUTIVES_SLOTS, Long.valueOf(appointmentForm.getNbConsecutiveSlots()));
-            if (consecutiveSlots <= appointmentForm.getNbConsecutiveSlots()) {
-                item.addDynamicField(NB_CONSECUTIVES_SLOTS, consecutiveSlots);
-            }
-            else
-            {
-                item.addDynamicField(NB_CONSECUTIVES_SLOTS, (long) appointmentForm.getNbConsecutiveSlots());
+        if ( hasSlotGeoloc( appointmentForm, profile ) )
+        {
+            addSlotGeoloc( item, appointmentForm, nNbPotentialRemainingPlaces, nMaxCapacity );
+        }
+        if ( profile.isEnabled( DAY_OPEN ) )
+        {
+            item.addDynamicFieldNotAnalysed( DAY_OPEN, String.valueOf( Boolean.TRUE ) );
+        }
+        item.addDynamicFieldNotAnalysed( ENABLED, String.valueOf( table.isOpen( nIndex ) ) );
+        item.addDynamicField( SLOT_NB_FREE_PLACES, Long.valueOf( nNbPotentialRemainingPlaces ) );
+        item.addDynamicField( SLOT_NB_PLACES, Long.valueOf( nMaxCapacity ) );
+        if ( profile.isEnabled( DAY_OF_WEEK ) )
+        {
+            item.addDynamicField( DAY_OF_WEEK, Long.valueOf( startingDateTime.getDayOfWeek( ).getValue( ) ) );
+        }
+        if ( profile.isEnabled( MINUTE_OF_DAY ) )
+        {
+            item.addDynamicField( MINUTE_OF_DAY, ChronoUnit.MINUTES.between( startingDateTime.toLocalDate( ).atStartOfDay( ), startingDateTime ) );
+        }
+
+        if ( profile.isEnabled( APPOINTMENT_MULTISLOTS ) )
+        {
+            item.addDynamicField( APPOINTMENT_MULTISLOTS, Boolean.toString( appointmentForm.getIsMultislotAppointment( ) ) );
+        }
+        if ( profile.isEnabled( MAX_CONSECUTIVES_SLOTS ) )
+        {
+            if (appointmentForm.getIsMultislotAppointment()) {
+                item.addDynamicField(MAX_CONSECUTIVES_SLOTS, Long.valueOf(appointmentForm.getNbConsecutiveSlots()));
+            } else {
+                item.addDynamicField(MAX_CONSECUTIVES_SLOTS, 1L);
             }
-        } else {
-            item.addDynamicField(NB_CONSECUTIVES_SLOTS, 1L);
-            item.addDynamicField(MAX_CONSECUTIVES_SLOTS, 1L);
         }
+        item.addDynamicField( NB_CONSECUTIVES_SLOTS, getNbConsecutiveSlots( appointmentForm, table, nIndex ) );
 
         // Date Hierarchy
-        item.setHieDate( slot.getStartingDateTime( ).toLocalDate( ).format( Utilities.HIE_DATE_FORMATTER ) );
+        item.setHieDate( startingDateTime.toLocalDate( ).format( Utilities.HIE_DATE_FORMATTER ) );
         return item;
     }
 
+    /**
+     * Check if the slot documents of a form carry a geoloc field. In the nested document layout the address is read from the parent form document.
+     * 
+     * @param appointmentForm
+     *            the appointment form
+     * @param profile
+     *            the optional fields written
+     * @return true if the slot documents carry a geoloc field
+     */
+    static boolean hasSlotGeoloc( AppointmentFormDTO appointmentForm, FieldProfile profile )
+    {
+        return !NestedDocuments.isEnabled( ) && profile.isEnabled( FieldProfile.SLOT_GEOLOC ) && StringUtils.isNotEmpty( appointmentForm.getAddress( ) )
+                && appointmentForm.getLongitude( ) != null && appointmentForm.getLatitude( ) != null;
+    }
+
+    /**
+     * Add the geoloc field of a slot, labelled with its places
+     * 
+     * @param item
+     *            the item
+     * @param appointmentForm
+     *            the appointment form
+     * @param nNbPotentialRemainingPlaces
+     *            the free places of the slot
+     * @param nMaxCapacity
+     *            the places of the slot
+     */
+    static void addSlotGeoloc( SolrItem item, AppointmentFormDTO appointmentForm, int nNbPotentialRemainingPlaces, int nMaxCapacity )
+    {
+        item.addDynamicFieldGeoloc( APPOINTMENT_SLOT, appointmentForm.getAddress( ), appointmentForm.getLongitude( ), appointmentForm.getLatitude( ),
+                "appointmentslot-" + nNbPotentialRemainingPlaces + "/" + nMaxCapacity );
+    }
+
+    /**
+     * Get the number of consecutive slots which can be booked from a slot, bounded by the maximum number of consecutive slots of the form
+     * 
+     * @param appointmentForm
+     *            the Appointment Form
+     * @param table
+     *            the slots of the form
+     * @param nIndex
+     *            the row of the slot in the table
+     * @return the number of consecutive slots
+     */
+    static long getNbConsecutiveSlots( AppointmentFormDTO appointmentForm, SlotTable table, int nIndex )
+    {
+        if ( !appointmentForm.getIsMultislotAppointment( ) )
+        {
+            return 1L;
+        }
+        return Math.min( table.getNbConsecutiveSlots( nIndex ), appointmentForm.getNbConsecutiveSlots( ) );
+    }
+
+    /**
+     * Get the table of all the slots of a form
+     * 
+     * @param appointmentForm
+     *            the appointment form
+     * @return the table of the slots
+     */
+    static SlotTable getSlotTable( AppointmentFormDTO appointmentForm )
+    {
+        return getSlotTable( appointmentForm, null, null );
+    }
+
+    /**
+     * Get the table of the slots of a form between two dates, clipped to the period displayed on the calendar FO
+     * 
+     * @param appointmentForm
+     *            the appointment form
+     * @param startingDate
+     *            the starting date, null for the start of the display
+     * @param endingDate
+     *            the ending date (included), null for the end of the display
+     * @return the table of the slots
+     */
+    static SlotTable getSlotTable( AppointmentFormDTO appointmentForm, LocalDate startingDate, LocalDate endingDate )
+    {
+        if ( SlotCalendarCache.isEnabled( ) )
+        {
+            return SlotCalendarCache.getInstance( ).getSlotTable( appointmentForm, startingDate, endingDate );
+        }
+        return SlotTable.of( appointmentForm.getIdForm( ), getSlots( appointmentForm, startingDate, endingDate ) );
+    }
+
     /**
      * Get all the slots of a form by calling the method buildListSlot of the plugin RDV
      * 
@@ -182,13 +348,102 @@ public final class SlotUtil
      */
     public static List<Slot> getAllSlots( AppointmentFormDTO appointmentForm )
     {
-        // Get the nb weeks to display
-        int nNbWeeksToDisplay = appointmentForm.getNbWeeksToDisplay( );
+        return getSlots( appointmentForm, null, null );
+    }
+
+    /**
+     * Get the slots of a form between two dates, clipped to the period displayed on the calendar FO
+     * 
+     * @param appointmentForm
+     *            the appointment form
+     * @param startingDate
+     *            the starting date, null for the start of the display
+     * @param endingDate
+     *            the ending date (included), null for the end of the display
+     * @return the slots of the form in the period
+     */
+    public static List<Slot> getSlots( AppointmentFormDTO appointmentForm, LocalDate startingDate, LocalDate endingDate )
+    {
+        LocalDate [ ] period = getDisplayedPeriod( appointmentForm, startingDate, endingDate );
+        if ( period == null )
+        {
+            return new ArrayList<>( );
+        }
+        List<Slot> listSlots = SlotService.buildListSlot( appointmentForm.getIdForm( ),
+                WeekDefinitionService.findAllWeekDefinition( appointmentForm.getIdForm( ) ), period [0], period [1] );
+        // Get the min time from now before a user can take an appointment (in hours)
+        // Filter the list of slots
+        if ( CollectionUtils.isNotEmpty( listSlots ) && appointmentForm.getMinTimeBeforeAppointment( ) != 0 )
+        {
+            LocalDateTime dateTimeBeforeAppointment = LocalDateTime.now( ).plusHours( appointmentForm.getMinTimeBeforeAppointment( ) );
+            listSlots = listSlots.stream( ).filter( s -> s.getStartingDateTime( ).isAfter( dateTimeBeforeAppointment ) ).collect( Collectors.toList( ) );
+        }
+
+        return listSlots;
+    }
+
+    /**
+     * Clip a period to the period displayed on the calendar FO
+     * 
+     * @param appointmentForm
+     *            the appointment form
+     * @param startingDate
+     *            the starting date, null for the start of the display
+     * @param endingDate
+     *            the ending date (included), null for the end of the display
+     * @return the first and the last day of the clipped period, null if the period is not displayed
+     */
+    static LocalDate [ ] getDisplayedPeriod( AppointmentFormDTO appointmentForm, LocalDate startingDate, LocalDate endingDate )
+    {
+        LocalDate startingDateOfDisplay = getStartingDateOfDisplay( appointmentForm );
+        LocalDate endingDateOfDisplay = getEndingDateOfDisplay( appointmentForm, startingDateOfDisplay );
+        if ( startingDate != null && startingDate.isAfter( startingDateOfDisplay ) )
+        {
+            startingDateOfDisplay = startingDate;
+        }
+        if ( endingDate != null && endingDate.isBefore( endingDateOfDisplay ) )
+        {
+            endingDateOfDisplay = endingDate;
+        }
+        if ( startingDateOfDisplay.isAfter( endingDateOfDisplay ) )
+        {
+            return null;
+        }
+        return new LocalDate [ ] {
+                startingDateOfDisplay, endingDateOfDisplay
+        };
+    }
+
+    /**
+     * Get the first day displayed on the calendar FO
+     * 
+     * @param appointmentForm
+     *            the appointment form
+     * @return the starting date of display
+     */
+    public static LocalDate getStartingDateOfDisplay( AppointmentFormDTO appointmentForm )
+    {
         LocalDate startingDateOfDisplay = LocalDate.now( );
         if ( appointmentForm.getDateStartValidity( ) != null && startingDateOfDisplay.isBefore( appointmentForm.getDateStartValidity( ).toLocalDate( ) ) )
         {
             startingDateOfDisplay = appointmentForm.getDateStartValidity( ).toLocalDate( );
         }
+        return startingDateOfDisplay;
+    }
+
+    /**
+     * Get the last day displayed on the calendar FO
+     * 
+     * @param appointmentForm
+     *            the appointment form
+     * @param startingDateOfDisplay
+     *            the starting date of display
+     * @return the ending date of display
+     */
+    public static LocalDate getEndingDateOfDisplay( AppointmentFormDTO appointmentForm, LocalDate startingDateOfDisplay )
+    {
+        // Get the nb weeks to display
+        int nNbWeeksToDisplay = appointmentForm.getNbWeeksToDisplay( );
         // Calculate the ending date of display with the nb weeks to display
         // since today
         // We calculate the number of weeks including the current week, so it
@@ -205,46 +460,56 @@ public final class SlotUtil
         {
             endingDateOfDisplay = endingValidityDate;
         }
-        List<Slot> listSlots = SlotService.buildListSlot( appointmentForm.getIdForm( ),
-                WeekDefinitionService.findAllWeekDefinition( appointmentForm.getIdForm( ) ), startingDateOfDisplay, endingDateOfDisplay );
-        // Get the min time from now before a user can take an appointment (in hours)
-        // Filter the list of slots
-        if ( CollectionUtils.isNotEmpty( listSlots ) && appointmentForm.getMinTimeBeforeAppointment( ) != 0 )
-        {
-            LocalDateTime dateTimeBeforeAppointment = LocalDateTime.now( ).plusHours( appointmentForm.getMinTimeBeforeAppointment( ) );
-            listSlots = listSlots.stream( ).filter( s -> s.getStartingDateTime( ).isAfter( dateTimeBeforeAppointment ) ).collect( Collectors.toList( ) );
-        }
-
-        return listSlots;
+        return endingDateOfDisplay;
     }
 
+    /**
+     * Calculate the number of consecutive slots which can be booked from a slot. The list is walked once per consecutive slot, the indexer uses
+     * {@link SlotTable#getNbConsecutiveSlots(int)} for all the slots of a form.
+     * 
+     * @param slot
+     *            the slot
+     * @param allSlots
+     *            all the slots of the form
+     * @return the number of consecutive slots
+     */
     public static int calculateConsecutiveSlots( Slot slot, List<Slot> allSlots )
     {
-        if ( slot.getNbPotentialRemainingPlaces( ) <= 0 )
-        {
-            return 0;
-        }
-        AtomicInteger consecutiveSlots = new AtomicInteger( 1 );
-        doCalculateConsecutiveSlots( slot, allSlots, consecutiveSlots );
-        return consecutiveSlots.get( );
+        return toSlotTable( slot, allSlots ).getNbConsecutiveSlots( 0 );
     }
 
-    private static void doCalculateConsecutiveSlots( Slot slot, List<Slot> allSlots, AtomicInteger consecutiveSlots )
+    /**
+     * Build the table of a slot followed by the contiguous slots which are open and have free places, without sorting all the slots of the form
+     * 
+     * @param slot
+     *            the slot
+     * @param allSlots
+     *            all the slots of the form
+     * @return the table of the slots, the given slot being the first one
+     */
+    private static SlotTable toSlotTable( Slot slot, List<Slot> allSlots )
     {
-        for ( Slot nextSlot : allSlots )
+        List<Slot> listSlots = new ArrayList<>( );
+        listSlots.add( slot );
+        Slot lastSlot = slot;
+        boolean bFound = slot.getNbPotentialRemainingPlaces( ) > 0;
+        while ( bFound )
         {
-            if ( Objects.equals( slot.getEndingDateTime( ), nextSlot.getStartingDateTime( ) ) )
+            bFound = false;
+            for ( Slot nextSlot : allSlots )
             {
-                if ( nextSlot.getNbPotentialRemainingPlaces( ) > 0 && nextSlot.getIsOpen( ) )
-                {
-                    consecutiveSlots.addAndGet( 1 );
-                    doCalculateConsecutiveSlots( nextSlot, allSlots, consecutiveSlots );
-                }
-                else
+                if ( Objects.equals( lastSlot.getEndingDateTime( ), nextSlot.getStartingDateTime( ) ) )
                 {
+                    if ( nextSlot.getNbPotentialRemainingPlaces( ) > 0 && nextSlot.getIsOpen( ) )
+                    {
+                        listSlots.add( nextSlot );
+                        lastSlot = nextSlot;
+                        bFound = true;
+                    }
                     break;
                 }
             }
         }
+        return SlotTable.of( slot.getIdForm( ), listSlots );
     }
 }
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+
+import org.apache.commons.lang3.StringUtils;
+
+import fr.paris.lutece.portal.service.daemon.Daemon;
+import fr.paris.lutece.portal.service.spring.SpringContextService;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+/**
+ * Daemon exporting the documents of all the appointment forms to a new file of the export directory, see
+ * {@link SolrAppointmentIndexer#exportDocuments(Path)}. Meant to be run on demand from the daemons administration; nothing is exported while the export
+ * directory is not set.
+ *
+ */
+public class SolrAppointmentExportDaemon extends Daemon
+{
+    private static final String PROPERTY_EXPORT_DIRECTORY = "appointment-solr.export.directory";
+    private static final String EXPORT_FILE_PREFIX = "appointment-solr-export-";
+    private static final String EXPORT_FILE_EXTENSION = ".javabin.gz";
+
+    @Override
+    public void run( )
+    {
+        String strDirectory = AppPropertiesService.getProperty( PROPERTY_EXPORT_DIRECTORY );
+        if ( StringUtils.isBlank( strDirectory ) )
+        {
+            AppLogService.error( "SolrAppointmentExportDaemon: the property " + PROPERTY_EXPORT_DIRECTORY + " is not set, nothing exported" );
+            setLastRunLogs( "The export directory is not set" );
+            return;
+        }
+        Path directory = Paths.get( strDirectory.trim( ) );
+        if ( !Files.isDirectory( directory ) )
+        {
+            AppLogService.error( "SolrAppointmentExportDaemon: the export directory " + directory + " does not exist" );
+            setLastRunLogs( "The export directory " + directory + " does not exist" );
+            return;
+        }
+        Path path = directory.resolve( EXPORT_FILE_PREFIX + LocalDateTime.now( ).format( Utilities.SLOT_SOLR_ID_DATE_FORMATTER ) + EXPORT_FILE_EXTENSION );
+        SolrAppointmentIndexer indexer = SpringContextService.getBean( SolrAppointmentIndexer.BEAN_NAME );
+        try
+        {
+            long lNbDocuments = indexer.exportDocuments( path );
+            AppLogService.info( "SolrAppointmentExportDaemon: " + lNbDocuments + " documents exported to " + path );
+            setLastRunLogs( lNbDocuments + " documents exported to " + path );
+        }
+        catch( IOException e )
+        {
+            AppLogService.error( "Error during SolrAppointmentExportDaemon, export to " + path, e );
+            setLastRunLogs( "Error exporting to " + path + ": " + e.getMessage( ) );
+        }
+    }
+}
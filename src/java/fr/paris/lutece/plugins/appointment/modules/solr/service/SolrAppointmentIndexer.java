@@ -33,22 +33,57 @@
  */
 package fr.paris.lutece.plugins.appointment.modules.solr.service;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.beans.DocumentObjectBinder;
+import org.apache.solr.client.solrj.request.JavaBinUpdateRequestCodec;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.client.solrj.response.FacetField;
+import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.client.solrj.response.UpdateResponse;
 import org.apache.solr.client.solrj.util.ClientUtils;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.CursorMarkParams;
+import org.apache.solr.common.params.ShardParams;
+import org.apache.solr.common.util.NamedList;
 import fr.paris.lutece.plugins.appointment.business.slot.Slot;
+import fr.paris.lutece.plugins.appointment.modules.solr.business.IndexCheckpoint;
+import fr.paris.lutece.plugins.appointment.modules.solr.business.IndexCheckpointHome;
 import fr.paris.lutece.plugins.appointment.service.FormService;
 import fr.paris.lutece.plugins.appointment.web.dto.AppointmentFormDTO;
-import fr.paris.lutece.plugins.search.solr.business.SolrServerService;
 import fr.paris.lutece.plugins.search.solr.business.field.Field;
 import fr.paris.lutece.plugins.search.solr.indexer.SolrIndexer;
 import fr.paris.lutece.plugins.search.solr.indexer.SolrIndexerService;
@@ -68,25 +103,413 @@ public class SolrAppointmentIndexer implements SolrIndexer
 
     public static final String BEAN_NAME = "appointment-solr.solrAppointmentIndexer";
 
+    private static final String PROPERTY_REINDEX_RESUME = "appointment-solr.reindex.resume";
+    private static final String PROPERTY_REINDEX_PROGRESS_INTERVAL = "appointment-solr.reindex.progressLogInterval";
+    private static final int DEFAULT_REINDEX_PROGRESS_INTERVAL = 50;
+    private static final String PROPERTY_REINDEX_NEAR_TERM_FIRST = "appointment-solr.reindex.nearTermFirst.enable";
+    private static final String PROPERTY_REINDEX_NEAR_TERM_HORIZONS = "appointment-solr.reindex.nearTermFirst.horizons";
+    private static final String DEFAULT_REINDEX_NEAR_TERM_HORIZONS = "2,14";
+    private static final String PROPERTY_FORM_METADATA_FAST_PATH = "appointment-solr.formMetadata.fastPath.enable";
+    private static final String SET = "set";
+    static final int COMMIT_WITHIN = 1000;
+    private static final int MAX_SHADOW_REPLAY_ROUNDS = 5;
+    private static final int ROWS_UIDS = 1000;
+    private static final String FIELD_DATE = "date";
+    private static final String FACETS = "facets";
+    private static final String FACET_FREE_PLACES = "free";
+    private static final String FACET_PLACES = "places";
+    private static final String JSON_FACET = "json.facet";
+    private static final String JSON_FACET_PLACES = "{" + FACET_FREE_PLACES + ":'sum(max(" + SlotUtil.FIELD_NB_FREE_PLACES + ",0))'," + FACET_PLACES
+            + ":'sum(slot_nb_places_long)'}";
+
+    private static final DocumentObjectBinder BINDER = new DocumentObjectBinder( );
+
     private static ConcurrentMap<String, Object> _lockIndexer = new ConcurrentHashMap<>( );
 
+    /**
+     * {@inheritDoc}
+     * 
+     * The forms are indexed in the order of their ids and the status of each form is recorded. If the previous full reindex did not complete, the forms it
+     * already indexed are skipped. The run stops when Solr becomes unavailable, so that the next one resumes from there.
+     * 
+     * In the near term first mode, the slots of all the forms are indexed horizon by horizon (by default the next two days, then the next two weeks, then
+     * the rest of the display period), so that the most time-sensitive availability is searchable first.
+     * 
+     * In the blue/green mode, the documents live in their own collections behind an alias, not in the core of the site. They are written into a shadow
+     * collection which replaces the live one once complete, see {@link ShadowRebuild}.
+     */
     @Override
     public List<String> indexDocuments( )
+    {
+        if ( ShadowRebuild.isEnabled( ) )
+        {
+            return rebuildIntoShadow( );
+        }
+        return indexAllForms( AppPropertiesService.getPropertyBoolean( PROPERTY_REINDEX_RESUME, true ) );
+    }
+
+    /**
+     * Index all the active forms
+     * 
+     * @param bResume
+     *            true to skip the forms already indexed by an interrupted full reindex
+     * @return the errors
+     */
+    private List<String> indexAllForms( boolean bResume )
+    {
+        return indexAllForms( FormService.buildAllActiveAppointmentForm( ), bResume, SolrIndexerService.getSbLogs( ) );
+    }
+
+    /**
+     * Index the given forms
+     * 
+     * @param collectionForms
+     *            the active forms
+     * @param bResume
+     *            true to skip the forms already indexed by an interrupted full reindex
+     * @param sbLogs
+     *            the logs
+     * @return the errors
+     */
+    List<String> indexAllForms( Collection<AppointmentFormDTO> collectionForms, boolean bResume, StringBuilder sbLogs )
+    {
+        List<String> errors = new ArrayList<>( );
+        // The index may have been emptied before the full reindex
+        SolrDocumentFingerprints.getInstance( ).clear( );
+        List<AppointmentFormDTO> listForms = new ArrayList<>( collectionForms );
+        listForms.sort( Comparator.comparingInt( AppointmentFormDTO::getIdForm ) );
+        Map<Integer, IndexCheckpoint> mapCheckpoints = bResume ? IndexCheckpointHome.findAll( ) : new HashMap<>( );
+        if ( mapCheckpoints.isEmpty( ) )
+        {
+            IndexCheckpointHome.removeAll( );
+        }
+        List<AppointmentFormDTO> listFormsToIndex = new ArrayList<>( );
+        for ( AppointmentFormDTO appointmentForm : listForms )
+        {
+            IndexCheckpoint checkpoint = mapCheckpoints.get( appointmentForm.getIdForm( ) );
+            if ( checkpoint == null || !checkpoint.isDone( ) )
+            {
+                listFormsToIndex.add( appointmentForm );
+            }
+        }
+        int nNbFormsResumed = listForms.size( ) - listFormsToIndex.size( );
+        if ( nNbFormsResumed > 0 )
+        {
+            sbLogs.append( "Resuming the interrupted reindex of the appointments, " ).append( nNbFormsResumed )
+                    .append( " forms already indexed" ).append( StringUtils.CR ).append( StringUtils.LF );
+        }
+        IndexingProgress progress = IndexingProgress.start( listForms.size( ), nNbFormsResumed );
+        boolean bInterrupted;
+        try
+        {
+            // A block of nested documents is written as a whole, it can not be written period by period
+            if ( AppPropertiesService.getPropertyBoolean( PROPERTY_REINDEX_NEAR_TERM_FIRST, false ) && !NestedDocuments.isEnabled( ) )
+            {
+                bInterrupted = indexNearTermFirst( listFormsToIndex, progress, errors, sbLogs );
+            }
+            else
+            {
+                bInterrupted = indexFormByForm( listFormsToIndex, progress, errors, sbLogs );
+            }
+        }
+        finally
+        {
+            progress.stop( );
+        }
+        if ( !bInterrupted && progress.getNbFormsFailed( ) == 0 )
+        {
+            // Completed: the next full reindex starts from the first form
+            IndexCheckpointHome.removeAll( );
+        }
+        sbLogs.append( "Appointments: " ).append( progress ).append( StringUtils.CR ).append( StringUtils.LF );
+        sbLogs.append( "Appointments Solr operations: " ).append( IndexingLog.getInstance( ).getSummary( ) ).append( StringUtils.CR )
+                .append( StringUtils.LF );
+        return errors;
+    }
+
+    /**
+     * Rebuild all the documents into the shadow collection, replay the forms changed meanwhile, then swap the alias. The live collection is left untouched
+     * if the rebuild does not complete without errors.
+     * 
+     * @return the errors
+     */
+    private List<String> rebuildIntoShadow( )
     {
         List<String> errors = new ArrayList<>( );
-        for ( AppointmentFormDTO appointmentForm : FormService.buildAllActiveAppointmentForm( ) )
+        StringBuilder sbLogs = SolrIndexerService.getSbLogs( );
+        ShadowRebuild rebuild;
+        try
+        {
+            rebuild = ShadowRebuild.start( );
+        }
+        catch( IOException | SolrServerException | RuntimeException e )
+        {
+            AppLogService.error( "Error starting the blue/green rebuild of the appointments", e );
+            errors.add( e.toString( ) );
+            return errors;
+        }
+        try
+        {
+            // A shadow collection is always rebuilt from the first form
+            errors.addAll( indexAllForms( FormService.buildAllActiveAppointmentForm( ), false, sbLogs ) );
+            IndexCheckpointHome.removeAll( );
+            if ( !errors.isEmpty( ) )
+            {
+                sbLogs.append( "Appointments: blue/green rebuild incomplete, the alias is not swapped" ).append( StringUtils.CR ).append( StringUtils.LF );
+                return errors;
+            }
+            // The forms changed during the rebuild, then during the previous replay
+            for ( int nRound = 0; nRound < MAX_SHADOW_REPLAY_ROUNDS; nRound++ )
+            {
+                Set<Integer> setForms = rebuild.drainChangedForms( );
+                if ( setForms.isEmpty( ) )
+                {
+                    break;
+                }
+                for ( Integer nIdForm : setForms )
+                {
+                    reindexForm( nIdForm, sbLogs );
+                }
+            }
+            rebuild.swap( );
+            sbLogs.append( "Appointments: alias swapped to the rebuilt collection " ).append( rebuild.getShadowCollection( ) ).append( StringUtils.CR )
+                    .append( StringUtils.LF );
+        }
+        catch( IOException | SolrServerException | RuntimeException e )
+        {
+            AppLogService.error( "Error during the blue/green rebuild of the appointments, the alias is not swapped", e );
+            errors.add( e.toString( ) );
+            return errors;
+        }
+        finally
+        {
+            rebuild.close( );
+        }
+        // The caches describe the previous collection
+        SolrDocumentFingerprints.getInstance( ).clear( );
+        FormService.buildAllActiveAppointmentForm( ).forEach( form -> SolrAvailabilityService.getInstance( ).invalidateForm( form.getIdForm( ) ) );
+        // The changes written to the previous collection after the last replay
+        for ( Integer nIdForm : rebuild.drainChangedForms( ) )
+        {
+            try
+            {
+                reindexForm( nIdForm, sbLogs );
+            }
+            catch( IOException | SolrServerException e )
+            {
+                AppLogService.error( "Error reindexing AppointmentForm" + nIdForm + " after the blue/green rebuild", e );
+                SolrReplayBuffer.getInstance( ).markFormDirty( nIdForm );
+            }
+        }
+        return errors;
+    }
+
+    /**
+     * Export the documents of all the active forms, as the indexer writes them, to a gzipped javabin file which {@link IndexBulkLoader} loads into Solr.
+     * The forms are read once from the database and the documents of one form at a time are held in memory. The documents are stamped with the current
+     * number of the write sequence, which is not advanced: the export is not a write.
+     * 
+     * @param path
+     *            the file
+     * @return the number of documents exported, a block of nested documents counting for one
+     * @throws IOException
+     */
+    public long exportDocuments( Path path ) throws IOException
+    {
+        List<AppointmentFormDTO> listForms = new ArrayList<>( FormService.buildAllActiveAppointmentForm( ) );
+        listForms.sort( Comparator.comparingInt( AppointmentFormDTO::getIdForm ) );
+        AtomicLong lNbDocuments = new AtomicLong( );
+        UpdateRequest request = new UpdateRequest( );
+        // The documents of a form are built when the codec reaches them
+        request.setDocIterator( listForms.stream( ).flatMap( appointmentForm -> {
+            List<SolrInputDocument> listDocuments = getFormDocuments( appointmentForm );
+            lNbDocuments.addAndGet( listDocuments.size( ) );
+            return listDocuments.stream( );
+        } ).iterator( ) );
+        try ( OutputStream outputStream = new GZIPOutputStream( new BufferedOutputStream( Files.newOutputStream( path ) ) ) )
+        {
+            new JavaBinUpdateRequestCodec( ).marshal( request, outputStream );
+        }
+        return lNbDocuments.get( );
+    }
+
+    /**
+     * Build all the documents of a form as they are written by a full reindex
+     * 
+     * @param appointmentForm
+     *            the appointment form
+     * @return the documents, stamped
+     */
+    private static List<SolrInputDocument> getFormDocuments( AppointmentFormDTO appointmentForm )
+    {
+        int nIdForm = appointmentForm.getIdForm( );
+        long lSequence = WriteSequence.getInstance( ).current( );
+        SlotTable table = SlotUtil.getSlotTable( appointmentForm );
+        if ( NestedDocuments.isEnabled( ) )
+        {
+            return Collections.singletonList( getBlock( appointmentForm, table, lSequence ) );
+        }
+        List<SolrInputDocument> listDocuments = new ArrayList<>( );
+        listDocuments.add( BINDER.toSolrInputDocument( FormUtil.getFormItem( appointmentForm, FormAvailability.of( appointmentForm, table ) ) ) );
+        listDocuments.addAll( getSlotAndDayDocuments( appointmentForm, table ) );
+        listDocuments.forEach( document -> stamp( document, nIdForm, lSequence ) );
+        return listDocuments;
+    }
+
+    /**
+     * Index the forms one after the other with all their slots
+     * 
+     * @param listForms
+     *            the forms to index
+     * @param progress
+     *            the progress
+     * @param errors
+     *            the errors
+     * @param sbLogs
+     *            the logs
+     * @return true if the reindex was interrupted because Solr is unavailable
+     */
+    private boolean indexFormByForm( List<AppointmentFormDTO> listForms, IndexingProgress progress, List<String> errors, StringBuilder sbLogs )
+    {
+        int nProgressLogInterval = AppPropertiesService.getPropertyInt( PROPERTY_REINDEX_PROGRESS_INTERVAL, DEFAULT_REINDEX_PROGRESS_INTERVAL );
+        for ( AppointmentFormDTO appointmentForm : listForms )
         {
             try
             {
-                writeFormAndListSlots( appointmentForm );
+                int nNbSlots = writeFormAndListSlots( appointmentForm, sbLogs );
+                IndexCheckpointHome.store( appointmentForm.getIdForm( ), IndexCheckpoint.STATUS_DONE, nNbSlots );
+                progress.formDone( appointmentForm.getIdForm( ), nNbSlots );
+            }
+            catch( SolrUnavailableException e )
+            {
+                AppLogService.error( "Solr unavailable, reindex of the appointments interrupted before AppointmentForm" + appointmentForm.getIdForm( ), e );
+                errors.add( e.toString( ) );
+                return true;
             }
             catch( IOException e )
             {
                 AppLogService.error( "Error indexing AppointmentForm" + appointmentForm.getIdForm( ), e );
                 errors.add( e.toString( ) );
+                IndexCheckpointHome.store( appointmentForm.getIdForm( ), IndexCheckpoint.STATUS_FAILED, 0 );
+                progress.formFailed( );
             }
+            logProgress( progress, nProgressLogInterval, sbLogs );
+        }
+        return false;
+    }
+
+    /**
+     * Index the slots of all the forms horizon by horizon. The form documents are written on each pass with the places counted so far, a form is recorded
+     * as done after the last pass.
+     * 
+     * @param listForms
+     *            the forms to index
+     * @param progress
+     *            the progress
+     * @param errors
+     *            the errors
+     * @param sbLogs
+     *            the logs
+     * @return true if the reindex was interrupted because Solr is unavailable
+     */
+    private boolean indexNearTermFirst( List<AppointmentFormDTO> listForms, IndexingProgress progress, List<String> errors, StringBuilder sbLogs )
+    {
+        int nProgressLogInterval = AppPropertiesService.getPropertyInt( PROPERTY_REINDEX_PROGRESS_INTERVAL, DEFAULT_REINDEX_PROGRESS_INTERVAL );
+        Map<Integer, FormAvailability> mapAvailabilities = new HashMap<>( );
+        List<AppointmentFormDTO> listFormsPending = new ArrayList<>( listForms );
+        for ( LocalDate [ ] pass : getNearTermPasses( LocalDate.now( ) ) )
+        {
+            LocalDate startingDate = pass [0];
+            LocalDate endingDate = pass [1];
+            boolean bLastPass = endingDate == null;
+            Iterator<AppointmentFormDTO> iterator = listFormsPending.iterator( );
+            while ( iterator.hasNext( ) )
+            {
+                AppointmentFormDTO appointmentForm = iterator.next( );
+                FormAvailability availability = mapAvailabilities.computeIfAbsent( appointmentForm.getIdForm( ), id -> new FormAvailability( ) );
+                try
+                {
+                    writeFormAndRangeOfSlots( appointmentForm, startingDate, endingDate, availability, bLastPass );
+                    if ( bLastPass )
+                    {
+                        IndexCheckpointHome.store( appointmentForm.getIdForm( ), IndexCheckpoint.STATUS_DONE, availability.getNbSlots( ) );
+                        progress.formDone( appointmentForm.getIdForm( ), availability.getNbSlots( ) );
+                        logProgress( progress, nProgressLogInterval, sbLogs );
+                    }
+                }
+                catch( SolrUnavailableException e )
+                {
+                    AppLogService.error( "Solr unavailable, reindex of the appointments interrupted before AppointmentForm" + appointmentForm.getIdForm( ), e );
+                    errors.add( e.toString( ) );
+                    return true;
+                }
+                catch( IOException e )
+                {
+                    AppLogService.error( "Error indexing AppointmentForm" + appointmentForm.getIdForm( ), e );
+                    errors.add( e.toString( ) );
+                    IndexCheckpointHome.store( appointmentForm.getIdForm( ), IndexCheckpoint.STATUS_FAILED, 0 );
+                    progress.formFailed( );
+                    iterator.remove( );
+                }
+            }
+            sbLogs.append( "Appointments: slots until " ).append( bLastPass ? "the end of the display" : endingDate )
+                    .append( " indexed" ).append( StringUtils.CR ).append( StringUtils.LF );
+        }
+        return false;
+    }
+
+    /**
+     * Get the periods of the passes of the near term first reindex, one per horizon. The first period starts at the start of the display and the last one
+     * ends at the end of the display, these bounds being null.
+     * 
+     * @param today
+     *            the current day
+     * @return the first and the last day of each period, in ascending order
+     */
+    static List<LocalDate [ ]> getNearTermPasses( LocalDate today )
+    {
+        List<LocalDate> listBounds = getNearTermHorizons( today );
+        List<LocalDate [ ]> listPasses = new ArrayList<>( listBounds.size( ) + 1 );
+        for ( int nPass = 0; nPass <= listBounds.size( ); nPass++ )
+        {
+            LocalDate startingDate = nPass == 0 ? null : listBounds.get( nPass - 1 );
+            LocalDate endingDate = nPass == listBounds.size( ) ? null : listBounds.get( nPass ).minusDays( 1 );
+            listPasses.add( new LocalDate [ ] {
+                    startingDate, endingDate
+            } );
+        }
+        return listPasses;
+    }
+
+    /**
+     * Get the first day of each near term horizon after the first one
+     * 
+     * @param today
+     *            the current day
+     * @return the bounds of the horizons, in ascending order
+     */
+    static List<LocalDate> getNearTermHorizons( LocalDate today )
+    {
+        List<LocalDate> listBounds = new ArrayList<>( );
+        String strHorizons = AppPropertiesService.getProperty( PROPERTY_REINDEX_NEAR_TERM_HORIZONS, DEFAULT_REINDEX_NEAR_TERM_HORIZONS );
+        for ( String strDays : strHorizons.split( "," ) )
+        {
+            int nDays = NumberUtils.toInt( strDays.trim( ), 0 );
+            LocalDate bound = today.plusDays( nDays );
+            if ( nDays > 0 && ( listBounds.isEmpty( ) || bound.isAfter( listBounds.get( listBounds.size( ) - 1 ) ) ) )
+            {
+                listBounds.add( bound );
+            }
+        }
+        return listBounds;
+    }
+
+    private void logProgress( IndexingProgress progress, int nProgressLogInterval, StringBuilder sbLogs )
+    {
+        if ( nProgressLogInterval > 0 && ( progress.getNbFormsDone( ) + progress.getNbFormsFailed( ) ) % nProgressLogInterval == 0 )
+        {
+            sbLogs.append( "Appointments: " ).append( progress ).append( StringUtils.CR ).append( StringUtils.LF );
         }
-        return errors;
     }
 
     @Override
@@ -103,10 +526,15 @@ public class SolrAppointmentIndexer implements SolrIndexer
                 stringBuilder.append( '_' ).append( Utilities.SHORT_NAME_APPOINTMENT );
             }
             else
-            {
-                AppLogService.error( "SolrAppointmentIndexer, unknown resourceType: " + strResourceType );
-                return null;
-            }
+                if ( Utilities.RESOURCE_TYPE_DAY.equals( strResourceType ) )
+                {
+                    stringBuilder.append( '_' ).append( Utilities.SHORT_NAME_DAY );
+                }
+                else
+                {
+                    AppLogService.error( "SolrAppointmentIndexer, unknown resourceType: " + strResourceType );
+                    return null;
+                }
         return stringBuilder.toString( );
     }
 
@@ -119,15 +547,119 @@ public class SolrAppointmentIndexer implements SolrIndexer
     @Override
     public String getDescription( )
     {
+        IndexingProgress progress = IndexingProgress.getCurrent( );
+        if ( progress != null && progress.isRunning( ) )
+        {
+            return Utilities.APPOINTMENT_DESCRIPTION + " - indexing: " + progress;
+        }
         return Utilities.APPOINTMENT_DESCRIPTION;
     }
 
+    /**
+     * {@inheritDoc}
+     * 
+     * Targeted reindex of the documents of a resource, see {@link ReindexTarget#parse(String)} for the resource ids:
+     * <ul>
+     * <li>a form id, e.g. <code>12</code>: the form is reindexed with all its slots</li>
+     * <li>a form id and a period, e.g. <code>12:2024-03-01:2024-03-31</code>: the slots of the period are reindexed with the aggregates of the form</li>
+     * <li>a slot uid, e.g. <code>F12D20240301T093000</code>, as found in the Solr uids: the slot is reindexed with its form</li>
+     * </ul>
+     * The reindex is a side effect of the call: the documents are written, and the stale ones deleted, by the indexer itself through the write sequence of
+     * the form, which the caller cannot do. The returned list is therefore always empty, so that the caller writes nothing. The number of documents
+     * written and deleted, or the unknown resource id, is reported in the logs of the indexing.
+     */
     @Override
-    public List<SolrItem> getDocuments( String arg0 )
+    public List<SolrItem> getDocuments( String strIdDocument )
+    {
+        StringBuilder sbLogs = SolrIndexerService.getSbLogs( );
+        return getDocuments( strIdDocument, sbLogs != null ? sbLogs : new StringBuilder( ) );
+    }
+
+    /**
+     * Targeted reindex of the documents of a resource
+     * 
+     * @param strIdDocument
+     *            the resource id
+     * @param sbLogs
+     *            the logs of the indexing
+     * @return an empty list, the documents are written by the indexer
+     */
+    List<SolrItem> getDocuments( String strIdDocument, StringBuilder sbLogs )
     {
+        IndexingLog log = IndexingLog.getInstance( );
+        long lNbAdded = log.getNbDocumentsOfCurrentThread( IndexingLog.Operation.ADD );
+        long lNbDeleted = log.getNbDocumentsOfCurrentThread( IndexingLog.Operation.DELETE_BY_ID );
+        try
+        {
+            ReindexTarget target = ReindexTarget.parse( strIdDocument );
+            if ( target == null )
+            {
+                AppLogService.error( "SolrAppointmentIndexer, unknown resource id: " + strIdDocument );
+                sbLogs.append( "Appointments: unknown resource id " ).append( strIdDocument ).append( ", nothing reindexed" ).append( StringUtils.CR )
+                        .append( StringUtils.LF );
+                return new ArrayList<>( );
+            }
+            if ( target.getType( ) == ReindexTarget.Type.FORM )
+            {
+                reindexForm( target.getIdForm( ), sbLogs );
+            }
+            else
+                if ( target.getType( ) == ReindexTarget.Type.RANGE )
+                {
+                    reindexFormRange( target.getIdForm( ), target.getStartingDate( ), target.getEndingDate( ), sbLogs );
+                }
+                else
+                {
+                    reindexSlot( target.getIdForm( ), target.getStartingDateTime( ), sbLogs );
+                }
+        }
+        catch( IOException | SolrServerException e )
+        {
+            AppLogService.error( "Error during the targeted reindex of the appointment resource " + strIdDocument, e );
+            sbLogs.append( "Error during the targeted reindex of " ).append( strIdDocument ).append( ": " ).append( e.getMessage( ) )
+                    .append( StringUtils.CR ).append( StringUtils.LF );
+        }
+        // The caller is given no document to write, the count tells what the reindex wrote itself
+        sbLogs.append( "Appointments: targeted reindex of " ).append( strIdDocument ).append( ", " )
+                .append( log.getNbDocumentsOfCurrentThread( IndexingLog.Operation.ADD ) - lNbAdded ).append( " documents written and " )
+                .append( log.getNbDocumentsOfCurrentThread( IndexingLog.Operation.DELETE_BY_ID ) - lNbDeleted )
+                .append( " deleted by the indexer, none returned" ).append( StringUtils.CR ).append( StringUtils.LF );
         return new ArrayList<>( );
     }
 
+    /**
+     * Reindex a slot with the aggregates of its form. A slot which is no longer generated is removed with the other stale documents of its day.
+     * 
+     * @param nIdForm
+     *            The id of the Form
+     * @param startingDateTime
+     *            the starting date time of the slot
+     * @param sbLogs
+     *            the logs
+     * @throws SolrServerException
+     * @throws IOException
+     */
+    private void reindexSlot( int nIdForm, LocalDateTime startingDateTime, StringBuilder sbLogs ) throws SolrServerException, IOException
+    {
+        AppointmentFormDTO appointmentForm = FormService.buildAppointmentFormWithoutReservationRule( nIdForm );
+        if ( appointmentForm != null )
+        {
+            LocalDate date = startingDateTime.toLocalDate( );
+            long lSequence = WriteSequence.getInstance( ).next( );
+            for ( Slot slot : SlotUtil.getSlots( appointmentForm, date, date ) )
+            {
+                if ( startingDateTime.equals( slot.getStartingDateTime( ) ) )
+                {
+                    writeSlotAndForm( new SequencedSlot( slot, lSequence ), sbLogs, null );
+                    return;
+                }
+            }
+            reindexFormRange( nIdForm, date, date, sbLogs );
+            return;
+        }
+        reindexForm( nIdForm, null, sbLogs );
+    }
+
     @Override
     public String getName( )
     {
@@ -137,7 +669,7 @@ public class SolrAppointmentIndexer implements SolrIndexer
     @Override
     public List<String> getResourcesName( )
     {
-        return new ArrayList<>( );
+        return Arrays.asList( Utilities.RESOURCE_TYPE_APPOINTMENT, Utilities.RESOURCE_TYPE_SLOT );
     }
 
     @Override
@@ -157,11 +689,12 @@ public class SolrAppointmentIndexer implements SolrIndexer
      * 
      * @param appointmentForm
      *            the appointment form
+     * @return the number of slots written
      * @throws IOException
      */
-    public void writeFormAndListSlots( AppointmentFormDTO appointmentForm ) throws IOException
+    public int writeFormAndListSlots( AppointmentFormDTO appointmentForm ) throws IOException
     {
-        writeFormAndListSlots( appointmentForm, SolrIndexerService.getSbLogs( ) );
+        return writeFormAndListSlots( appointmentForm, SolrIndexerService.getSbLogs( ) );
     }
 
     /**
@@ -171,21 +704,65 @@ public class SolrAppointmentIndexer implements SolrIndexer
      *            the Appointment Form
      * @param sbLogs
      *            the logs
+     * @return the number of slots written
+     * @throws IOException
+     */
+    public int writeFormAndListSlots( AppointmentFormDTO appointmentForm, StringBuilder sbLogs ) throws IOException
+    {
+        Object lock = getLock( Utilities.buildResourceUid( Integer.toString( appointmentForm.getIdForm( ) ), Utilities.RESOURCE_TYPE_APPOINTMENT ) );
+        synchronized( lock )
+        {
+            long lSequence = WriteSequence.getInstance( ).next( );
+            SlotTable table = SlotUtil.getSlotTable( appointmentForm );
+            if ( NestedDocuments.isEnabled( ) )
+            {
+                writeBlock( appointmentForm, table, lSequence );
+            }
+            else
+            {
+                write( FormUtil.getFormItem( appointmentForm, FormAvailability.of( appointmentForm, table ) ), appointmentForm.getIdForm( ), lSequence );
+                writeDocuments( getSlotAndDayDocuments( appointmentForm, table ), appointmentForm.getIdForm( ), lSequence );
+            }
+            if ( isFormMetadataFastPathEnabled( ) )
+            {
+                FormIndexSnapshot.put( appointmentForm.getIdForm( ), FormIndexSnapshot.build( appointmentForm ) );
+            }
+            return table.size( );
+        }
+    }
+
+    /**
+     * Write the slots of a form between two dates, then the form with the places counted so far
+     * 
+     * @param appointmentForm
+     *            the appointment form
+     * @param startingDate
+     *            the starting date, null for the start of the display
+     * @param endingDate
+     *            the ending date (included), null for the end of the display
+     * @param availability
+     *            the availability of the slots of the previous periods, updated with this period
+     * @param bLastPeriod
+     *            true if this is the last period of the form
      * @throws IOException
      */
-    public void writeFormAndListSlots( AppointmentFormDTO appointmentForm, StringBuilder sbLogs ) throws IOException
+    private void writeFormAndRangeOfSlots( AppointmentFormDTO appointmentForm, LocalDate startingDate, LocalDate endingDate, FormAvailability availability,
+            boolean bLastPeriod ) throws IOException
     {
         Object lock = getLock( Utilities.buildResourceUid( Integer.toString( appointmentForm.getIdForm( ) ), Utilities.RESOURCE_TYPE_APPOINTMENT ) );
         synchronized( lock )
         {
-            List<Slot> listAllSlots = SlotUtil.getAllSlots( appointmentForm );
-            SolrIndexerService.write( FormUtil.getFormItem( appointmentForm, listAllSlots ), sbLogs );
-            List<SolrItem> listItems = new ArrayList<>( );
-            for ( Slot appointmentSlot : listAllSlots )
+            // The periods start on a day boundary, the consecutive slots of a day are always in the same period
+            long lSequence = WriteSequence.getInstance( ).next( );
+            SlotTable table = SlotUtil.getSlotTable( appointmentForm, startingDate, endingDate );
+            List<SolrInputDocument> listDocuments = getSlotAndDayDocuments( appointmentForm, table );
+            availability.add( appointmentForm, table );
+            writeDocuments( listDocuments, appointmentForm.getIdForm( ), lSequence );
+            write( FormUtil.getFormItem( appointmentForm, availability ), appointmentForm.getIdForm( ), lSequence );
+            if ( bLastPeriod && isFormMetadataFastPathEnabled( ) )
             {
-                listItems.add( SlotUtil.getSlotItem( appointmentForm, appointmentSlot, listAllSlots ) );
+                FormIndexSnapshot.put( appointmentForm.getIdForm( ), FormIndexSnapshot.build( appointmentForm ) );
             }
-            SolrIndexerService.write( listItems, sbLogs );
         }
     }
 
@@ -214,7 +791,8 @@ public class SolrAppointmentIndexer implements SolrIndexer
     }
 
     /**
-     * Write / update the slot and the related form (for the number of available places) in solr
+     * Write / update the slot and the related form (for the number of available places) in solr. The slots are written with a sequence number taken now,
+     * they must have been read just before.
      * 
      * @param nIdSlot
      *            The id of the slot
@@ -224,61 +802,111 @@ public class SolrAppointmentIndexer implements SolrIndexer
      */
     public void writeSlotAndForm( Slot slot, StringBuilder sbLogs, Queue<Slot> listSlotToIndex ) throws IOException
     {
+        long lSequence = WriteSequence.getInstance( ).next( );
+        Queue<SequencedSlot> queueSlots = null;
+        if ( listSlotToIndex != null )
+        {
+            queueSlots = new ArrayDeque<>( listSlotToIndex.size( ) );
+            while ( !listSlotToIndex.isEmpty( ) )
+            {
+                queueSlots.add( new SequencedSlot( listSlotToIndex.poll( ), lSequence ) );
+            }
+        }
+        writeSlotAndForm( new SequencedSlot( slot, lSequence ), sbLogs, queueSlots );
+    }
+
+    /**
+     * Write / update the slots and the related form (for the number of available places) in solr. Each slot received is written with the sequence number
+     * taken before it was read; the documents computed from several slots, the form, the day summaries and the slots before them on the same day, with the
+     * lowest number of the slots received.
+     * 
+     * @param sequencedSlot
+     *            the slot
+     * @param sbLogs
+     *            the logs
+     * @param queueSlots
+     *            the other slots of the form received, may be null
+     * @throws IOException
+     */
+    void writeSlotAndForm( SequencedSlot sequencedSlot, StringBuilder sbLogs, Queue<SequencedSlot> queueSlots ) throws IOException
+    {
+        Slot slot = sequencedSlot.getSlot( );
         Object lock = getLock( SlotUtil.getSlotUid( slot ) );
         synchronized( lock )
         {
-            Set<Slot> listSlotAdded = new HashSet<>( );
-            Set<SolrItem> listItems = new HashSet<>( );
             AppointmentFormDTO appointmentForm = FormService.buildAppointmentFormWithoutReservationRule( slot.getIdForm( ) );
             if ( appointmentForm.getIsActive( ) )
             {
-
-                List<Slot> listAllSlots = SlotUtil.getAllSlots( appointmentForm );
-                if ( listAllSlots.stream( ).anyMatch( p -> p.getStartingDateTime( ).equals( slot.getStartingDateTime( ) ) ) )
+                long lSequence = sequencedSlot.getSequence( );
+                SlotTable table = SlotUtil.getSlotTable( appointmentForm );
+                // The rows to write: the changed slots and the slots before them on the same day, whose consecutive slots may have changed
+                BitSet rows = new BitSet( table.size( ) );
+                Map<Integer, Long> mapRowSequences = new HashMap<>( );
+                Set<LocalDate> setDays = new HashSet<>( );
+                int nIndex = table.indexOf( slot.getStartingDateTime( ) );
+                if ( nIndex >= 0 )
                 {
-                    listItems.add( SlotUtil.getSlotItem( appointmentForm, slot, listAllSlots ) );
+                    table.set( nIndex, slot );
+                    mapRowSequences.put( nIndex, sequencedSlot.getSequence( ) );
+                    rows.set( table.getFirstIndexOfDay( slot.getDate( ) ), nIndex + 1 );
+                    setDays.add( slot.getDate( ) );
                 }
-                if ( listSlotToIndex != null )
+                else
                 {
-
-                    while ( !listSlotToIndex.isEmpty( ) )
+                    rows.set( table.getFirstIndexOfDay( slot.getDate( ) ), -nIndex - 1 );
+                }
+                if ( queueSlots != null )
+                {
+                    while ( !queueSlots.isEmpty( ) )
                     {
-
-                        Slot slt = listSlotToIndex.poll( );
-                        if ( listAllSlots.stream( ).anyMatch( p -> p.getStartingDateTime( ).equals( slt.getStartingDateTime( ) ) ) )
+                        SequencedSlot sequencedSlt = queueSlots.poll( );
+                        Slot slt = sequencedSlt.getSlot( );
+                        int nIndexSlt = table.indexOf( slt.getStartingDateTime( ) );
+                        Long lRowSequence = mapRowSequences.get( nIndexSlt );
+                        if ( nIndexSlt >= 0 && ( lRowSequence == null || sequencedSlt.getSequence( ) > lRowSequence ) )
                         {
-                            SolrItem item = SlotUtil.getSlotItem( appointmentForm, slt, listAllSlots );
-                            listItems.removeIf( p -> p.getUid( ).equals( item.getUid( ) ) );
-                            listItems.add( item );
-                            listAllSlots.removeIf( p -> p.getStartingDateTime( ).isEqual( slt.getStartingDateTime( ) ) );
-                            listAllSlots.add( slt );
-                            listSlotAdded.add( slt );
+                            // The slot received may be more recent than the generated one, and than the same slot received before it
+                            table.set( nIndexSlt, slt );
+                            mapRowSequences.put( nIndexSlt, sequencedSlt.getSequence( ) );
+                            lSequence = Math.min( lSequence, sequencedSlt.getSequence( ) );
+                            rows.set( table.getFirstIndexOfDay( slt.getDate( ) ), nIndexSlt + 1 );
+                            setDays.add( slt.getDate( ) );
                         }
                     }
                 }
-
-                for ( Slot otherSlot : listAllSlots )
+                if ( NestedDocuments.isEnabled( ) )
                 {
-                    if ( ( otherSlot.getDate( ).equals( slot.getDate( ) ) && otherSlot.getStartingDateTime( ).isBefore( slot.getStartingDateTime( ) ) )
-                            || listSlotAdded.stream( ).anyMatch( slt -> slt.getDate( ).equals( otherSlot.getDate( ) )
-                                    && otherSlot.getStartingDateTime( ).isBefore( slt.getStartingDateTime( ) ) ) )
-                    {
-                        SolrItem item = SlotUtil.getSlotItem( appointmentForm, otherSlot, listAllSlots );
-                        listItems.removeIf( p -> p.getUid( ).equals( item.getUid( ) ) );
-                        listItems.add( item );
-                    }
+                    // The block of the form is rewritten with the slots received
+                    writeBlock( appointmentForm, table, lSequence );
                 }
-                if ( !listItems.isEmpty( ) )
+                else if ( !rows.isEmpty( ) )
                 {
-                    SolrIndexerService.write( FormUtil.getFormItem( appointmentForm, listAllSlots ), sbLogs );
-                    SolrIndexerService.write( listItems, sbLogs );
+                    List<SolrInputDocument> listDocuments = new ArrayList<>( rows.cardinality( ) + setDays.size( ) );
+                    List<Long> listSequences = new ArrayList<>( rows.cardinality( ) + setDays.size( ) );
+                    SlotDocumentBuilder builder = new SlotDocumentBuilder( appointmentForm, table );
+                    for ( int i = rows.nextSetBit( 0 ); i >= 0; i = rows.nextSetBit( i + 1 ) )
+                    {
+                        listDocuments.add( builder.build( i ) );
+                        listSequences.add( mapRowSequences.getOrDefault( i, lSequence ) );
+                    }
+                    for ( LocalDate date : setDays )
+                    {
+                        SolrItem dayItem = DayUtil.getDayItem( appointmentForm, table, date );
+                        if ( dayItem != null )
+                        {
+                            listDocuments.add( BINDER.toSolrInputDocument( dayItem ) );
+                            listSequences.add( lSequence );
+                        }
+                    }
+                    write( FormUtil.getFormItem( appointmentForm, FormAvailability.of( appointmentForm, table ) ), appointmentForm.getIdForm( ), lSequence );
+                    writeDocuments( listDocuments, listSequences, appointmentForm.getIdForm( ) );
                 }
             }
         }
     }
 
     /**
-     * Delete the Appointment Form and all the related slots in Solr
+     * Delete the Appointment Form and all the related slots in Solr, then write them again if the form is still active
      * 
      * @param nIdForm
      *            The id of the Form
@@ -287,28 +915,478 @@ public class SolrAppointmentIndexer implements SolrIndexer
      * @throws SolrServerException
      * @throws IOException
      */
-    public void deleteFormAndListSlots( int nIdForm, StringBuilder sbLogs ) throws SolrServerException, IOException
+    public void reindexForm( int nIdForm, StringBuilder sbLogs ) throws SolrServerException, IOException
     {
-        Object lock = getLock( Utilities.buildResourceUid( Integer.toString( nIdForm ), Utilities.RESOURCE_TYPE_APPOINTMENT ) );
-        synchronized( lock )
-        {
-            // Remove all indexed values of this site
-            StringBuffer sbAppointmentFormUidEscaped = new StringBuffer( ClientUtils.escapeQueryChars( SolrIndexerService.getWebAppName( ) ) );
-            sbAppointmentFormUidEscaped.append( Utilities.UNDERSCORE )
-                    .append( getResourceUid( Integer.toString( nIdForm ), Utilities.RESOURCE_TYPE_APPOINTMENT ) );
-            StringBuffer sbQuery = new StringBuffer( SearchItem.FIELD_UID ).append( ":" ).append( sbAppointmentFormUidEscaped ).append( " OR uid_form_string:" )
-                    .append( sbAppointmentFormUidEscaped );
-            sbLogs.append( "Delete by query: " ).append( sbQuery ).append( StringUtils.CR ).append( StringUtils.LF );
-            UpdateResponse update = SolrServerService.getInstance( ).getSolrServer( ).deleteByQuery( sbQuery.toString( ), 1000 );
-            sbLogs.append( "Server response: " ).append( update ).append( StringUtils.CR ).append( StringUtils.LF );
-        }
+        reindexForm( nIdForm, FormService.buildAppointmentFormWithoutReservationRule( nIdForm ), sbLogs );
     }
 
     /**
-     * Delete the slot in solr
+     * Reindex a form whose documents diverge from the database. The fingerprints of its documents are forgotten first, since they do not describe the
+     * documents in Solr any more.
      * 
-     * @param slot
-     *            The slot to delete
+     * @param nIdForm
+     *            The id of the Form
+     * @param sbLogs
+     *            the logs
+     * @throws SolrServerException
+     * @throws IOException
+     */
+    void repairForm( int nIdForm, StringBuilder sbLogs ) throws SolrServerException, IOException
+    {
+        AppointmentFormDTO appointmentForm = FormService.buildAppointmentFormWithoutReservationRule( nIdForm );
+        SolrDocumentFingerprints fingerprints = SolrDocumentFingerprints.getInstance( );
+        fingerprints.remove( FormUtil.getFormDocumentUid( nIdForm ) );
+        getIndexedSlotUids( nIdForm ).forEach( fingerprints::remove );
+        if ( appointmentForm != null )
+        {
+            SlotTable table = SlotUtil.getSlotTable( appointmentForm );
+            for ( int i = 0; i < table.size( ); i++ )
+            {
+                fingerprints.remove( DocumentRouting.getSolrUid( nIdForm,
+                        Utilities.buildResourceUid( SlotUtil.getSlotUid( nIdForm, table.getStartingDateTime( i ) ), Utilities.RESOURCE_TYPE_SLOT ) ) );
+                fingerprints.remove( DocumentRouting.getSolrUid( nIdForm,
+                        Utilities.buildResourceUid( DayUtil.getDayUid( nIdForm, table.getStartingDateTime( i ).toLocalDate( ) ), Utilities.RESOURCE_TYPE_DAY ) ) );
+            }
+        }
+        reindexForm( nIdForm, appointmentForm, sbLogs );
+    }
+
+    private void reindexForm( int nIdForm, AppointmentFormDTO appointmentForm, StringBuilder sbLogs ) throws SolrServerException, IOException
+    {
+        if ( appointmentForm != null && appointmentForm.getIsActive( ) && SolrDocumentFingerprints.isEnabled( ) )
+        {
+            // Only the changed slots are written, the slots which disappeared are deleted by id
+            Object lock = getLock( Utilities.buildResourceUid( Integer.toString( nIdForm ), Utilities.RESOURCE_TYPE_APPOINTMENT ) );
+            synchronized( lock )
+            {
+                long lSequence = WriteSequence.getInstance( ).next( );
+                Set<String> setStaleUids = new HashSet<>( getIndexedSlotUids( nIdForm ) );
+                SlotTable table = SlotUtil.getSlotTable( appointmentForm );
+                List<SolrInputDocument> listDocuments = getSlotAndDayDocuments( appointmentForm, table );
+                listDocuments.forEach( document -> setStaleUids.remove( getPrefixedUid( document, nIdForm ) ) );
+                if ( !setStaleUids.isEmpty( ) )
+                {
+                    deleteById( new ArrayList<>( setStaleUids ), nIdForm, lSequence );
+                }
+                write( FormUtil.getFormItem( appointmentForm, FormAvailability.of( appointmentForm, table ) ), appointmentForm.getIdForm( ), lSequence );
+                writeDocuments( listDocuments, appointmentForm.getIdForm( ), lSequence );
+                if ( isFormMetadataFastPathEnabled( ) )
+                {
+                    FormIndexSnapshot.put( nIdForm, FormIndexSnapshot.build( appointmentForm ) );
+                }
+            }
+            return;
+        }
+        if ( appointmentForm != null && appointmentForm.getIsActive( ) && NestedDocuments.isEnabled( ) )
+        {
+            // The new block replaces the previous one with all its children
+            writeFormAndListSlots( appointmentForm, sbLogs );
+            return;
+        }
+        deleteFormAndListSlots( nIdForm, sbLogs );
+        if ( appointmentForm != null && appointmentForm.getIsActive( ) )
+        {
+            writeFormAndListSlots( appointmentForm, sbLogs );
+        }
+    }
+
+    /**
+     * Reindex a form whose attributes changed, but whose slots did not. If no scheduling attribute of the form changed since it was last written with all its
+     * slots, the changed form fields are pushed with atomic updates to the form document and to the existing slot documents, without regenerating the slots.
+     * In the nested document layout only the form document carries these fields. Otherwise the form is fully reindexed.
+     * 
+     * @param nIdForm
+     *            The id of the Form
+     * @param sbLogs
+     *            the logs
+     * @throws SolrServerException
+     * @throws IOException
+     */
+    public void reindexFormMetadata( int nIdForm, StringBuilder sbLogs ) throws SolrServerException, IOException
+    {
+        AppointmentFormDTO appointmentForm = FormService.buildAppointmentFormWithoutReservationRule( nIdForm );
+        FormIndexSnapshot previous = FormIndexSnapshot.get( nIdForm );
+        if ( !isFormMetadataFastPathEnabled( ) || appointmentForm == null || previous == null )
+        {
+            reindexForm( nIdForm, appointmentForm, sbLogs );
+            return;
+        }
+        FormIndexSnapshot current = FormIndexSnapshot.build( appointmentForm );
+        if ( !current.hasSameScheduling( previous ) )
+        {
+            reindexForm( nIdForm, appointmentForm, sbLogs );
+            return;
+        }
+        Object lock = getLock( Utilities.buildResourceUid( Integer.toString( nIdForm ), Utilities.RESOURCE_TYPE_APPOINTMENT ) );
+        synchronized( lock )
+        {
+            Map<String, Object> mapChangedFields = current.getChangedFields( previous );
+            if ( !mapChangedFields.isEmpty( ) )
+            {
+                long lSequence = WriteSequence.getInstance( ).next( );
+                List<String> listUids = NestedDocuments.isEnabled( ) ? new ArrayList<>( ) : getIndexedSlotUids( nIdForm );
+                listUids.add( FormUtil.getFormDocumentUid( nIdForm ) );
+                // The updated documents keep the digest of their new values, so that they are still found in sync with the database
+                Map<String, Long> mapDigests = getExpectedDigests( appointmentForm );
+                List<SolrInputDocument> listDocuments = new ArrayList<>( listUids.size( ) );
+                for ( String strUid : listUids )
+                {
+                    SolrInputDocument document = new SolrInputDocument( );
+                    document.addField( SearchItem.FIELD_UID, strUid );
+                    for ( Map.Entry<String, Object> field : mapChangedFields.entrySet( ) )
+                    {
+                        document.addField( field.getKey( ), Collections.singletonMap( SET, field.getValue( ) ) );
+                    }
+                    Long lDigest = mapDigests.get( strUid );
+                    if ( lDigest != null )
+                    {
+                        document.addField( Utilities.FIELD_DIGEST, Collections.singletonMap( SET, lDigest ) );
+                    }
+                    document.addField( Utilities.FIELD_SEQUENCE, Collections.singletonMap( SET, lSequence ) );
+                    listDocuments.add( document );
+                }
+                sbLogs.append( "Atomic update of " ).append( mapChangedFields.keySet( ) ).append( " on " ).append( listDocuments.size( ) )
+                        .append( " documents of form " ).append( nIdForm ).append( StringUtils.CR ).append( StringUtils.LF );
+                try
+                {
+                    add( listDocuments, nIdForm );
+                }
+                finally
+                {
+                    SolrAvailabilityService.getInstance( ).invalidateForm( nIdForm );
+                }
+            }
+            FormIndexSnapshot.put( nIdForm, current );
+        }
+    }
+
+    /**
+     * Reindex the slots of a form between two dates, clipped to the period displayed on the calendar FO, and refresh the aggregates of the form. The slots
+     * of the period which are no longer generated are deleted. In the nested document layout the whole block of the form is rewritten.
+     * 
+     * @param nIdForm
+     *            The id of the Form
+     * @param startingDate
+     *            the first day of the period
+     * @param endingDate
+     *            the last day of the period
+     * @param sbLogs
+     *            the logs
+     * @throws SolrServerException
+     * @throws IOException
+     */
+    public void reindexFormRange( int nIdForm, LocalDate startingDate, LocalDate endingDate, StringBuilder sbLogs ) throws SolrServerException, IOException
+    {
+        AppointmentFormDTO appointmentForm = FormService.buildAppointmentFormWithoutReservationRule( nIdForm );
+        if ( appointmentForm == null || !appointmentForm.getIsActive( ) || NestedDocuments.isEnabled( ) )
+        {
+            reindexForm( nIdForm, appointmentForm, sbLogs );
+            return;
+        }
+        LocalDate startingDateOfDisplay = SlotUtil.getStartingDateOfDisplay( appointmentForm );
+        LocalDate endingDateOfDisplay = SlotUtil.getEndingDateOfDisplay( appointmentForm, startingDateOfDisplay );
+        LocalDate startingDateOfRange = startingDate.isAfter( startingDateOfDisplay ) ? startingDate : startingDateOfDisplay;
+        LocalDate endingDateOfRange = endingDate.isBefore( endingDateOfDisplay ) ? endingDate : endingDateOfDisplay;
+        if ( startingDateOfRange.isAfter( endingDateOfRange ) )
+        {
+            return;
+        }
+        Object lock = getLock( Utilities.buildResourceUid( Integer.toString( nIdForm ), Utilities.RESOURCE_TYPE_APPOINTMENT ) );
+        synchronized( lock )
+        {
+            String strRangeQuery = FIELD_DATE + ":[" + toSolrDate( startingDateOfRange ) + " TO " + toSolrDate( endingDateOfRange.plusDays( 1 ) ) + "}";
+            long lSequence = WriteSequence.getInstance( ).next( );
+            SlotTable table = SlotUtil.getSlotTable( appointmentForm, startingDateOfRange, endingDateOfRange );
+            Set<String> setStaleUids = new HashSet<>( getIndexedSlotUids( nIdForm, strRangeQuery ) );
+            List<SolrInputDocument> listDocuments = getSlotAndDayDocuments( appointmentForm, table );
+            listDocuments.forEach( document -> setStaleUids.remove( getPrefixedUid( document, nIdForm ) ) );
+            FormAvailability availability = FormAvailability.of( appointmentForm, table );
+            if ( !setStaleUids.isEmpty( ) )
+            {
+                deleteById( new ArrayList<>( setStaleUids ), nIdForm, lSequence );
+            }
+            writeDocuments( listDocuments, appointmentForm.getIdForm( ), lSequence );
+
+            // The aggregates of the slots outside of the period are read from the index
+            SolrQuery query = new SolrQuery( Utilities.FIELD_UID_FORM + ":" + ClientUtils.escapeQueryChars( FormUtil.getFormUid( nIdForm ) ) );
+            query.addFilterQuery( SearchItem.FIELD_TYPE + ":" + ClientUtils.escapeQueryChars( Utilities.SHORT_NAME_SLOT ) );
+            query.addFilterQuery( getDisplayedSlotsQuery( appointmentForm, startingDateOfDisplay, endingDateOfDisplay ) );
+            query.addFilterQuery( "-" + strRangeQuery );
+            query.setRows( 0 );
+            query.set( JSON_FACET, JSON_FACET_PLACES );
+            DocumentRouting.setRoute( query, nIdForm );
+            NamedList<?> facets = (NamedList<?>) query( query ).getResponse( ).get( FACETS );
+            if ( facets != null )
+            {
+                availability.addPlaces( getLong( facets.get( FACET_FREE_PLACES ) ), getLong( facets.get( FACET_PLACES ) ) );
+            }
+            if ( availability.getNextSlotDateTime( ) == null || startingDateOfRange.isAfter( startingDateOfDisplay ) )
+            {
+                // An available slot before the period, or after it when there is none in the period, is read from the index
+                query.addFilterQuery( SlotUtil.FIELD_NB_FREE_PLACES + ":[1 TO *]" );
+                query.addFilterQuery( SlotUtil.FIELD_ENABLED + ":" + Boolean.TRUE );
+                query.remove( JSON_FACET );
+                query.setRows( 1 );
+                query.setSort( FIELD_DATE, SolrQuery.ORDER.asc );
+                query.setFields( FIELD_DATE, SlotUtil.FIELD_NB_CONSECUTIVES_SLOTS );
+                SolrDocumentList listResults = query( query ).getResults( );
+                if ( !listResults.isEmpty( ) && listResults.get( 0 ).getFieldValue( FIELD_DATE ) instanceof Date )
+                {
+                    Date date = (Date) listResults.get( 0 ).getFieldValue( FIELD_DATE );
+                    availability.offerNextSlot( LocalDateTime.ofInstant( date.toInstant( ), ZoneId.systemDefault( ) ),
+                            getLong( listResults.get( 0 ).getFieldValue( SlotUtil.FIELD_NB_CONSECUTIVES_SLOTS ) ) );
+                }
+            }
+            write( FormUtil.getFormItem( appointmentForm, availability ), appointmentForm.getIdForm( ), lSequence );
+        }
+    }
+
+    /**
+     * Get the filter on the slot documents displayed on the calendar FO, the same slots as {@link SlotUtil#getAllSlots(AppointmentFormDTO)}
+     * 
+     * @param appointmentForm
+     *            the appointment form
+     * @param startingDateOfDisplay
+     *            the first day displayed
+     * @param endingDateOfDisplay
+     *            the last day displayed
+     * @return the filter query
+     */
+    private static String getDisplayedSlotsQuery( AppointmentFormDTO appointmentForm, LocalDate startingDateOfDisplay, LocalDate endingDateOfDisplay )
+    {
+        StringBuilder sbQuery = new StringBuilder( FIELD_DATE ).append( ":[" ).append( toSolrDate( startingDateOfDisplay ) ).append( " TO " )
+                .append( toSolrDate( endingDateOfDisplay.plusDays( 1 ) ) ).append( '}' );
+        if ( appointmentForm.getMinTimeBeforeAppointment( ) != 0 )
+        {
+            LocalDateTime dateTimeBeforeAppointment = LocalDateTime.now( ).plusHours( appointmentForm.getMinTimeBeforeAppointment( ) );
+            sbQuery.append( " AND " ).append( FIELD_DATE ).append( ":{" ).append( toSolrDate( dateTimeBeforeAppointment ) ).append( " TO *]" );
+        }
+        return sbQuery.toString( );
+    }
+
+    /**
+     * Check if the documents of a form in Solr are the ones the form would be indexed with now. The digest stored on each document is compared with the
+     * digest of the expected document, and the displayed slot documents which are not expected any more are looked for.
+     * 
+     * @param appointmentForm
+     *            the appointment form
+     * @return true if the documents of the form are up to date
+     * @throws SolrServerException
+     * @throws IOException
+     */
+    boolean isFormInSync( AppointmentFormDTO appointmentForm ) throws SolrServerException, IOException
+    {
+        LocalDate startingDateOfDisplay = SlotUtil.getStartingDateOfDisplay( appointmentForm );
+        LocalDate endingDateOfDisplay = SlotUtil.getEndingDateOfDisplay( appointmentForm, startingDateOfDisplay );
+        String strFormUid = FormUtil.getFormUid( appointmentForm.getIdForm( ) );
+        String strFormDocumentUid = FormUtil.getFormDocumentUid( appointmentForm.getIdForm( ) );
+
+        Map<String, Long> mapExpectedDigests = getExpectedDigests( appointmentForm );
+
+        // The day summaries are dated at the start of the day, the displayed ones are those of the displayed days
+        String strDisplayedDaysQuery = SearchItem.FIELD_TYPE + ":" + ClientUtils.escapeQueryChars( Utilities.SHORT_NAME_DAY ) + " AND " + FIELD_DATE + ":["
+                + toSolrDate( startingDateOfDisplay ) + " TO " + toSolrDate( endingDateOfDisplay.plusDays( 1 ) ) + "}";
+        SolrQuery query = new SolrQuery( SearchItem.FIELD_UID + ":" + ClientUtils.escapeQueryChars( strFormDocumentUid ) + " OR (" + Utilities.FIELD_UID_FORM + ":"
+                + ClientUtils.escapeQueryChars( strFormUid ) + " AND ((" + getDisplayedSlotsQuery( appointmentForm, startingDateOfDisplay, endingDateOfDisplay )
+                + ") OR (" + strDisplayedDaysQuery + ")))" );
+        query.setFields( SearchItem.FIELD_UID, Utilities.FIELD_DIGEST );
+        query.setRows( ROWS_UIDS );
+        DocumentRouting.setRoute( query, appointmentForm.getIdForm( ) );
+        query.setSort( SearchItem.FIELD_UID, SolrQuery.ORDER.asc );
+        String strCursorMark = CursorMarkParams.CURSOR_MARK_START;
+        int nNbMatching = 0;
+        while ( true )
+        {
+            query.set( CursorMarkParams.CURSOR_MARK_PARAM, strCursorMark );
+            QueryResponse response = query( query );
+            for ( SolrDocument document : response.getResults( ) )
+            {
+                // A displayed slot which is not expected any more, or a document written with other values
+                Long lExpectedDigest = mapExpectedDigests.get( (String) document.getFieldValue( SearchItem.FIELD_UID ) );
+                Object digest = document.getFieldValue( Utilities.FIELD_DIGEST );
+                if ( lExpectedDigest == null || digest == null || getLong( digest ) != lExpectedDigest )
+                {
+                    return false;
+                }
+                nNbMatching++;
+            }
+            String strNextCursorMark = response.getNextCursorMark( );
+            if ( strCursorMark.equals( strNextCursorMark ) )
+            {
+                break;
+            }
+            strCursorMark = strNextCursorMark;
+        }
+        // Every expected document must be there
+        return nNbMatching == mapExpectedDigests.size( );
+    }
+
+    /**
+     * Get the digests of the documents a form would be indexed with now
+     * 
+     * @param appointmentForm
+     *            the appointment form
+     * @return the digests by prefixed uid of the form document, the slot documents and the day summaries
+     */
+    private static Map<String, Long> getExpectedDigests( AppointmentFormDTO appointmentForm )
+    {
+        Map<String, Long> mapExpectedDigests = new HashMap<>( );
+        SlotTable table = SlotUtil.getSlotTable( appointmentForm );
+        for ( SolrInputDocument document : getSlotAndDayDocuments( appointmentForm, table ) )
+        {
+            mapExpectedDigests.put( getPrefixedUid( document, appointmentForm.getIdForm( ) ), SolrDocumentFingerprints.fingerprint( document ) );
+        }
+        mapExpectedDigests.put( FormUtil.getFormDocumentUid( appointmentForm.getIdForm( ) ),
+                SolrDocumentFingerprints.fingerprint( FormUtil.getFormItem( appointmentForm, FormAvailability.of( appointmentForm, table ) ) ) );
+        return mapExpectedDigests;
+    }
+
+    /**
+     * Delete the documents of the forms which are in Solr but not active any more
+     * 
+     * @param collectionIdActiveForms
+     *            the ids of the active forms
+     * @param sbLogs
+     *            the logs
+     * @return the number of forms deleted
+     * @throws SolrServerException
+     * @throws IOException
+     */
+    int deleteOrphanForms( Collection<Integer> collectionIdActiveForms, StringBuilder sbLogs ) throws SolrServerException, IOException
+    {
+        SolrQuery query = new SolrQuery( "*:*" );
+        query.setRows( 0 );
+        query.setFacet( true );
+        query.addFacetField( Utilities.FIELD_UID_FORM );
+        query.setFacetPrefix( SolrIndexerService.getWebAppName( ) + Utilities.UNDERSCORE );
+        query.setFacetLimit( -1 );
+        query.setFacetMinCount( 1 );
+        List<Integer> listIdOrphanForms = getOrphanFormIds( query( query ).getFacetField( Utilities.FIELD_UID_FORM ), collectionIdActiveForms );
+        for ( int nIdForm : listIdOrphanForms )
+        {
+            deleteFormAndListSlots( nIdForm, sbLogs );
+        }
+        return listIdOrphanForms.size( );
+    }
+
+    /**
+     * Get the forms of the webapp which have documents in Solr but are not active any more
+     * 
+     * @param facetField
+     *            the facet of the form uids of the documents
+     * @param collectionIdActiveForms
+     *            the ids of the active forms
+     * @return the ids of the orphan forms
+     */
+    static List<Integer> getOrphanFormIds( FacetField facetField, Collection<Integer> collectionIdActiveForms )
+    {
+        List<Integer> listIdOrphanForms = new ArrayList<>( );
+        if ( facetField == null || facetField.getValues( ) == null )
+        {
+            return listIdOrphanForms;
+        }
+        Set<String> setActiveFormUids = new HashSet<>( );
+        collectionIdActiveForms.forEach( nIdForm -> setActiveFormUids.add( FormUtil.getFormUid( nIdForm ) ) );
+        String strPrefix = SolrIndexerService.getWebAppName( ) + Utilities.UNDERSCORE;
+        String strSuffix = Utilities.UNDERSCORE + Utilities.SHORT_NAME_APPOINTMENT;
+        for ( FacetField.Count count : facetField.getValues( ) )
+        {
+            String strFormUid = count.getName( );
+            if ( !setActiveFormUids.contains( strFormUid ) && strFormUid.startsWith( strPrefix ) && strFormUid.endsWith( strSuffix ) )
+            {
+                int nIdForm = NumberUtils.toInt( strFormUid.substring( strPrefix.length( ), strFormUid.length( ) - strSuffix.length( ) ), -1 );
+                if ( nIdForm > 0 )
+                {
+                    listIdOrphanForms.add( nIdForm );
+                }
+            }
+        }
+        return listIdOrphanForms;
+    }
+
+    /**
+     * Get the uids of the slot and day summary documents of a form currently in Solr
+     * 
+     * @param nIdForm
+     *            The id of the Form
+     * @return the uids
+     * @throws SolrServerException
+     * @throws IOException
+     */
+    List<String> getIndexedSlotUids( int nIdForm ) throws SolrServerException, IOException
+    {
+        return getIndexedSlotUids( nIdForm, null );
+    }
+
+    /**
+     * Get the uids of the slot and day summary documents of a form currently in Solr
+     * 
+     * @param nIdForm
+     *            The id of the Form
+     * @param strFilterQuery
+     *            an additional filter on the slot documents, may be null
+     * @return the uids
+     * @throws SolrServerException
+     * @throws IOException
+     */
+    List<String> getIndexedSlotUids( int nIdForm, String strFilterQuery ) throws SolrServerException, IOException
+    {
+        List<String> listUids = new ArrayList<>( );
+        SolrQuery query = new SolrQuery( Utilities.FIELD_UID_FORM + ":" + ClientUtils.escapeQueryChars( FormUtil.getFormUid( nIdForm ) ) );
+        if ( strFilterQuery != null )
+        {
+            query.addFilterQuery( strFilterQuery );
+        }
+        query.setFields( SearchItem.FIELD_UID );
+        query.setRows( ROWS_UIDS );
+        DocumentRouting.setRoute( query, nIdForm );
+        query.setSort( SearchItem.FIELD_UID, SolrQuery.ORDER.asc );
+        String strCursorMark = CursorMarkParams.CURSOR_MARK_START;
+        while ( true )
+        {
+            query.set( CursorMarkParams.CURSOR_MARK_PARAM, strCursorMark );
+            QueryResponse response = query( query );
+            for ( SolrDocument document : response.getResults( ) )
+            {
+                listUids.add( (String) document.getFieldValue( SearchItem.FIELD_UID ) );
+            }
+            String strNextCursorMark = response.getNextCursorMark( );
+            if ( strCursorMark.equals( strNextCursorMark ) )
+            {
+                return listUids;
+            }
+            strCursorMark = strNextCursorMark;
+        }
+    }
+
+    /**
+     * Delete the Appointment Form and all the related slots in Solr
+     * 
+     * @param nIdForm
+     *            The id of the Form
+     * @param sbLogs
+     *            the logs
+     * @throws SolrServerException
+     * @throws IOException
+     */
+    public void deleteFormAndListSlots( int nIdForm, StringBuilder sbLogs ) throws SolrServerException, IOException
+    {
+        Object lock = getLock( Utilities.buildResourceUid( Integer.toString( nIdForm ), Utilities.RESOURCE_TYPE_APPOINTMENT ) );
+        synchronized( lock )
+        {
+            // Remove all indexed values of this site
+            String strQuery = SearchItem.FIELD_UID + ":" + ClientUtils.escapeQueryChars( FormUtil.getFormDocumentUid( nIdForm ) ) + " OR "
+                    + Utilities.FIELD_UID_FORM + ":" + ClientUtils.escapeQueryChars( FormUtil.getFormUid( nIdForm ) );
+            deleteByQuery( strQuery, nIdForm, WriteSequence.getInstance( ).next( ) );
+            FormIndexSnapshot.remove( nIdForm );
+        }
+    }
+
+    /**
+     * Delete the slot in solr. In the nested document layout the block of the form is rewritten without the slot.
+     * 
+     * @param slot
+     *            The slot to delete
      * @param sbLogs
      *            the logs
      * @throws SolrServerException
@@ -316,16 +1394,507 @@ public class SolrAppointmentIndexer implements SolrIndexer
      */
     public void deleteSlot( Slot slot, StringBuilder sbLogs ) throws SolrServerException, IOException
     {
+        if ( NestedDocuments.isEnabled( ) )
+        {
+            reindexForm( slot.getIdForm( ), sbLogs );
+            return;
+        }
         Object lock = getLock( SlotUtil.getSlotUid( slot ) );
         synchronized( lock )
         {
-            StringBuffer sbSlotUidEscaped = new StringBuffer( ClientUtils.escapeQueryChars( SolrIndexerService.getWebAppName( ) ) )
-                    .append( Utilities.UNDERSCORE ).append( getResourceUid( SlotUtil.getSlotUid( slot ), Utilities.RESOURCE_TYPE_SLOT ) );
-            StringBuffer sbQuery = new StringBuffer( SearchItem.FIELD_UID ).append( ":" ).append( sbSlotUidEscaped );
-            sbLogs.append( "Delete by query: " ).append( sbQuery ).append( StringUtils.CR ).append( StringUtils.LF );
-            UpdateResponse update = SolrServerService.getInstance( ).getSolrServer( ).deleteByQuery( sbQuery.toString( ), 1000 );
-            sbLogs.append( "Server response: " ).append( update ).append( StringUtils.CR ).append( StringUtils.LF );
+            deleteById( Collections.singletonList( DocumentRouting.getSolrUid( slot.getIdForm( ),
+                    getResourceUid( SlotUtil.getSlotUid( slot ), Utilities.RESOURCE_TYPE_SLOT ) ) ), slot.getIdForm( ),
+                    WriteSequence.getInstance( ).next( ) );
+        }
+    }
+
+    /**
+     * Write the item to Solr through the circuit breaker. The item is not written if it is identical to the document last sent.
+     * 
+     * @param item
+     *            the item
+     * @param nIdForm
+     *            the form id
+     * @param lSequence
+     *            the sequence number taken before the state of the form was read
+     * @throws IOException
+     *             if Solr is unavailable or the write failed
+     */
+    private void write( SolrItem item, int nIdForm, long lSequence ) throws IOException
+    {
+        writeDocuments( Collections.singletonList( BINDER.toSolrInputDocument( item ) ), nIdForm, lSequence );
+    }
+
+    /**
+     * Build the documents of the slots and of the day summaries of a form
+     * 
+     * @param appointmentForm
+     *            the appointment form
+     * @param table
+     *            the slots of the form
+     * @return the documents, with uids not prefixed with the webapp name
+     */
+    private static List<SolrInputDocument> getSlotAndDayDocuments( AppointmentFormDTO appointmentForm, SlotTable table )
+    {
+        List<SolrItem> listDayItems = DayUtil.getDayItems( appointmentForm, table );
+        List<SolrInputDocument> listDocuments = new ArrayList<>( table.size( ) + listDayItems.size( ) );
+        if ( table.size( ) > 0 )
+        {
+            SlotDocumentBuilder builder = new SlotDocumentBuilder( appointmentForm, table );
+            for ( int i = 0; i < table.size( ); i++ )
+            {
+                listDocuments.add( builder.build( i ) );
+            }
+        }
+        listDayItems.forEach( item -> listDocuments.add( BINDER.toSolrInputDocument( item ) ) );
+        return listDocuments;
+    }
+
+    /**
+     * Get the Solr uid of a document whose uid is not prefixed yet
+     * 
+     * @param document
+     *            the document
+     * @param nIdForm
+     *            the form id
+     * @return the uid prefixed with the webapp name, and with the route key of the form if the documents are routed
+     */
+    private static String getPrefixedUid( SolrInputDocument document, int nIdForm )
+    {
+        return DocumentRouting.getSolrUid( nIdForm, (String) document.getFieldValue( SearchItem.FIELD_UID ) );
+    }
+
+    /**
+     * Write the documents to Solr through the circuit breaker: the digest and the sequence number are stamped, the uid is prefixed with the webapp name
+     * and the documents identical to the ones last sent are skipped.
+     * 
+     * @param listDocuments
+     *            the documents, with uids not prefixed with the webapp name
+     * @param nIdForm
+     *            the form id
+     * @param lSequence
+     *            the sequence number taken before the state of the form was read
+     * @throws IOException
+     *             if Solr is unavailable or the write failed
+     */
+    private void writeDocuments( Collection<SolrInputDocument> listDocuments, int nIdForm, long lSequence ) throws IOException
+    {
+        writeDocuments( listDocuments, Collections.nCopies( listDocuments.size( ), lSequence ), nIdForm );
+    }
+
+    /**
+     * Write the documents to Solr through the circuit breaker: the digest and the sequence number are stamped, the uid is prefixed with the webapp name
+     * and the documents identical to the ones last sent are skipped.
+     * 
+     * @param listDocuments
+     *            the documents, with uids not prefixed with the webapp name
+     * @param listSequences
+     *            the sequence numbers of the documents, in the same order: each one taken before the state the document was built from was read
+     * @param nIdForm
+     *            the form id
+     * @throws IOException
+     *             if Solr is unavailable or the write failed
+     */
+    private void writeDocuments( Collection<SolrInputDocument> listDocuments, List<Long> listSequences, int nIdForm ) throws IOException
+    {
+        // The fingerprints describe the live collection
+        boolean bFingerprints = SolrDocumentFingerprints.isEnabled( ) && ShadowRebuild.getCurrent( ) == null;
+        SolrDocumentFingerprints fingerprints = SolrDocumentFingerprints.getInstance( );
+        List<SolrInputDocument> listDocumentsToWrite = new ArrayList<>( listDocuments.size( ) );
+        Map<String, Long> mapFingerprints = new HashMap<>( );
+        Iterator<Long> iteratorSequences = listSequences.iterator( );
+        for ( SolrInputDocument document : listDocuments )
+        {
+            long lFingerprint = stamp( document, nIdForm, iteratorSequences.next( ) );
+            String strUid = (String) document.getFieldValue( SearchItem.FIELD_UID );
+            if ( !bFingerprints || !fingerprints.isUnchanged( strUid, lFingerprint ) )
+            {
+                listDocumentsToWrite.add( document );
+                mapFingerprints.put( strUid, lFingerprint );
+            }
+        }
+        if ( listDocumentsToWrite.size( ) < listDocuments.size( ) )
+        {
+            IndexingLog.getInstance( ).skipped( listDocuments.size( ) - listDocumentsToWrite.size( ) );
+        }
+        if ( listDocumentsToWrite.isEmpty( ) )
+        {
+            return;
+        }
+        List<SolrInputDocument> listSent;
+        try
+        {
+            listSent = add( listDocumentsToWrite, nIdForm );
+        }
+        catch( SolrServerException e )
+        {
+            throw new IOException( e );
+        }
+        finally
+        {
+            SolrAvailabilityService.getInstance( ).invalidate( nIdForm, getDays( listDocumentsToWrite ) );
+        }
+        if ( bFingerprints )
+        {
+            // The superseded documents were not sent
+            for ( SolrInputDocument document : listSent )
+            {
+                String strUid = (String) document.getFieldValue( SearchItem.FIELD_UID );
+                fingerprints.put( strUid, nIdForm, mapFingerprints.get( strUid ) );
+            }
+        }
+    }
+
+    /**
+     * Write the form with all its slots and day summaries as a block of nested documents through the circuit breaker. The block replaces the previous one.
+     * 
+     * @param appointmentForm
+     *            the appointment form
+     * @param table
+     *            the slots of the form
+     * @param lSequence
+     *            the sequence number taken before the state of the form was read
+     * @throws IOException
+     *             if Solr is unavailable or the write failed
+     */
+    private void writeBlock( AppointmentFormDTO appointmentForm, SlotTable table, long lSequence ) throws IOException
+    {
+        try
+        {
+            add( Collections.singletonList( getBlock( appointmentForm, table, lSequence ) ), appointmentForm.getIdForm( ) );
+        }
+        catch( SolrServerException e )
+        {
+            throw new IOException( e );
+        }
+        finally
+        {
+            SolrAvailabilityService.getInstance( ).invalidateForm( appointmentForm.getIdForm( ) );
+        }
+    }
+
+    /**
+     * Build the block of nested documents of a form with all its slots and day summaries, stamped with their digest and the sequence number
+     * 
+     * @param appointmentForm
+     *            the appointment form
+     * @param table
+     *            the slots of the form
+     * @param lSequence
+     *            the sequence number taken before the state of the form was read
+     * @return the block
+     */
+    private static SolrInputDocument getBlock( AppointmentFormDTO appointmentForm, SlotTable table, long lSequence )
+    {
+        SolrItem formItem = FormUtil.getFormItem( appointmentForm, FormAvailability.of( appointmentForm, table ) );
+        List<SolrItem> listChildItems = new ArrayList<>( table.size( ) );
+        FieldProfile profile = FieldProfile.getCurrent( );
+        for ( int i = 0; i < table.size( ); i++ )
+        {
+            listChildItems.add( SlotUtil.getSlotItem( appointmentForm, table, i, profile ) );
+        }
+        listChildItems.addAll( DayUtil.getDayItems( appointmentForm, table ) );
+        stampDigest( formItem );
+        listChildItems.forEach( SolrAppointmentIndexer::stampDigest );
+        formItem.addDynamicField( Utilities.FIELD_SEQUENCE_NAME, lSequence );
+        listChildItems.forEach( item -> item.addDynamicField( Utilities.FIELD_SEQUENCE_NAME, lSequence ) );
+        return NestedDocuments.toBlock( appointmentForm.getIdForm( ), formItem, listChildItems );
+    }
+
+    /**
+     * Stamp a document as it is sent to Solr: its digest, its uid prefixed with the webapp name and the sequence number
+     * 
+     * @param document
+     *            the document, with a uid not prefixed with the webapp name
+     * @param nIdForm
+     *            the form id
+     * @param lSequence
+     *            the sequence number taken before the state of the form was read
+     * @return the digest
+     */
+    private static long stamp( SolrInputDocument document, int nIdForm, long lSequence )
+    {
+        long lFingerprint = SolrDocumentFingerprints.fingerprint( document );
+        document.setField( Utilities.FIELD_DIGEST, lFingerprint );
+        document.setField( SearchItem.FIELD_UID, getPrefixedUid( document, nIdForm ) );
+        document.setField( Utilities.FIELD_SEQUENCE, lSequence );
+        return lFingerprint;
+    }
+
+    /**
+     * Send the documents to Solr through the circuit breaker. The documents superseded by a write or a delete of the form with a higher sequence number
+     * are dropped.
+     * 
+     * @param listDocuments
+     *            the documents
+     * @param nIdForm
+     *            the form id
+     * @return the documents sent
+     * @throws SolrServerException
+     * @throws IOException
+     *             if Solr is unavailable or the update failed
+     */
+    private List<SolrInputDocument> add( Collection<SolrInputDocument> listDocuments, int nIdForm ) throws SolrServerException, IOException
+    {
+        checkCircuit( );
+        ShadowRebuild.changed( nIdForm );
+        WriteSequence sequence = WriteSequence.getInstance( );
+        synchronized( sequence.getLock( nIdForm ) )
+        {
+            // The shadow collection is only written by the rebuild, in order
+            List<SolrInputDocument> listAccepted = ShadowRebuild.getCurrent( ) != null ? new ArrayList<>( listDocuments )
+                    : sequence.accept( nIdForm, listDocuments );
+            if ( listAccepted.size( ) < listDocuments.size( ) )
+            {
+                IndexingLog.getInstance( ).superseded( listDocuments.size( ) - listAccepted.size( ) );
+            }
+            if ( listAccepted.isEmpty( ) )
+            {
+                return listAccepted;
+            }
+            long lStart = System.currentTimeMillis( );
+            UpdateResponse update;
+            try
+            {
+                update = getSolrClient( ).add( listAccepted, getCommitWithin( ) );
+            }
+            catch( SolrServerException | IOException | RuntimeException e )
+            {
+                SolrCircuitBreaker.getInstance( ).recordFailure( );
+                record( IndexingLog.Operation.ADD, nIdForm, listAccepted.size( ), lStart, IndexingLog.STATUS_FAILED );
+                throw e;
+            }
+            SolrCircuitBreaker.getInstance( ).recordSuccess( );
+            record( IndexingLog.Operation.ADD, nIdForm, listAccepted.size( ), lStart, update.getStatus( ) );
+            return listAccepted;
+        }
+    }
+
+    /**
+     * Delete the documents by uid through the circuit breaker
+     * 
+     * @param listUids
+     *            the uids
+     * @param nIdForm
+     *            the form id
+     * @param lSequence
+     *            the sequence number taken before the state of the form was read, the uids written since with a higher number are not deleted
+     * @throws SolrServerException
+     * @throws IOException
+     *             if Solr is unavailable or the delete failed
+     */
+    private void deleteById( List<String> listUids, int nIdForm, long lSequence ) throws SolrServerException, IOException
+    {
+        checkCircuit( );
+        ShadowRebuild.changed( nIdForm );
+        WriteSequence sequence = WriteSequence.getInstance( );
+        synchronized( sequence.getLock( nIdForm ) )
+        {
+            List<String> listAccepted = ShadowRebuild.getCurrent( ) != null ? listUids : sequence.acceptDelete( nIdForm, listUids, lSequence );
+            if ( listAccepted.size( ) < listUids.size( ) )
+            {
+                IndexingLog.getInstance( ).superseded( listUids.size( ) - listAccepted.size( ) );
+            }
+            if ( listAccepted.isEmpty( ) )
+            {
+                return;
+            }
+            long lStart = System.currentTimeMillis( );
+            UpdateResponse update;
+            try
+            {
+                update = getSolrClient( ).deleteById( listAccepted, getCommitWithin( ) );
+            }
+            catch( SolrServerException | IOException | RuntimeException e )
+            {
+                SolrCircuitBreaker.getInstance( ).recordFailure( );
+                record( IndexingLog.Operation.DELETE_BY_ID, nIdForm, listAccepted.size( ), lStart, IndexingLog.STATUS_FAILED );
+                throw e;
+            }
+            finally
+            {
+                SolrAvailabilityService.getInstance( ).invalidateForm( nIdForm );
+            }
+            SolrCircuitBreaker.getInstance( ).recordSuccess( );
+            listAccepted.forEach( SolrDocumentFingerprints.getInstance( )::remove );
+            record( IndexingLog.Operation.DELETE_BY_ID, nIdForm, listAccepted.size( ), lStart, update.getStatus( ) );
+        }
+    }
+
+    /**
+     * Query Solr through the circuit breaker
+     * 
+     * @param query
+     *            the query
+     * @return the response
+     * @throws SolrServerException
+     * @throws IOException
+     *             if Solr is unavailable or the query failed
+     */
+    private QueryResponse query( SolrQuery query ) throws SolrServerException, IOException
+    {
+        checkCircuit( );
+        QueryResponse response;
+        try
+        {
+            response = getSolrClient( ).query( query );
+        }
+        catch( SolrServerException | IOException | RuntimeException e )
+        {
+            SolrCircuitBreaker.getInstance( ).recordFailure( );
+            throw e;
         }
+        SolrCircuitBreaker.getInstance( ).recordSuccess( );
+        return response;
+    }
+
+    /**
+     * Delete the documents matching the query through the circuit breaker
+     * 
+     * @param strQuery
+     *            the query
+     * @param nIdForm
+     *            the form id
+     * @param lSequence
+     *            the sequence number of the delete, the writes of the form with a lower number are dropped afterwards
+     * @throws SolrServerException
+     * @throws IOException
+     *             if Solr is unavailable or the delete failed
+     */
+    private void deleteByQuery( String strQuery, int nIdForm, long lSequence ) throws SolrServerException, IOException
+    {
+        checkCircuit( );
+        long lStart = System.currentTimeMillis( );
+        UpdateRequest request = new UpdateRequest( );
+        request.deleteByQuery( strQuery );
+        request.setCommitWithin( getCommitWithin( ) );
+        String strRoute = DocumentRouting.getRoute( nIdForm );
+        if ( strRoute != null )
+        {
+            // The documents of the form are on the shard of its route
+            request.setParam( ShardParams._ROUTE_, strRoute );
+        }
+        ShadowRebuild.changed( nIdForm );
+        WriteSequence sequence = WriteSequence.getInstance( );
+        UpdateResponse update;
+        synchronized( sequence.getLock( nIdForm ) )
+        {
+            try
+            {
+                update = request.process( getSolrClient( ) );
+            }
+            catch( SolrServerException | IOException | RuntimeException e )
+            {
+                SolrCircuitBreaker.getInstance( ).recordFailure( );
+                record( IndexingLog.Operation.DELETE_BY_QUERY, nIdForm, 0, lStart, IndexingLog.STATUS_FAILED );
+                throw e;
+            }
+            finally
+            {
+                SolrAvailabilityService.getInstance( ).invalidateForm( nIdForm );
+            }
+            if ( ShadowRebuild.getCurrent( ) == null )
+            {
+                sequence.deleteForm( nIdForm, lSequence );
+            }
+        }
+        SolrCircuitBreaker.getInstance( ).recordSuccess( );
+        // The deleted documents are unknown, they belong to the form
+        SolrDocumentFingerprints.getInstance( ).removeForm( nIdForm );
+        record( IndexingLog.Operation.DELETE_BY_QUERY, nIdForm, 0, lStart, update.getStatus( ) );
+    }
+
+    /**
+     * Get the days of the slot and day summary documents
+     * 
+     * @param listDocuments
+     *            the documents
+     * @return the days
+     */
+    private static Set<LocalDate> getDays( Collection<SolrInputDocument> listDocuments )
+    {
+        Set<LocalDate> setDays = new HashSet<>( );
+        for ( SolrInputDocument document : listDocuments )
+        {
+            Object date = document.getFieldValue( FIELD_DATE );
+            if ( date instanceof Date )
+            {
+                setDays.add( ( (Date) date ).toInstant( ).atZone( ZoneId.systemDefault( ) ).toLocalDate( ) );
+            }
+        }
+        return setDays;
+    }
+
+    private static void record( IndexingLog.Operation operation, int nIdForm, int nNbDocuments, long lStart, int nStatus )
+    {
+        IndexingLog.getInstance( ).record( operation, nIdForm, nNbDocuments, System.currentTimeMillis( ) - lStart, nStatus );
+    }
+
+    /**
+     * Store the digest of the indexed fields of the item in the item, so that the documents in Solr can be checked against the database
+     * 
+     * @param item
+     *            the item
+     * @return the digest
+     */
+    private static long stampDigest( SolrItem item )
+    {
+        long lDigest = SolrDocumentFingerprints.fingerprint( item );
+        item.addDynamicField( Utilities.FIELD_DIGEST_NAME, lDigest );
+        return lDigest;
+    }
+
+    /**
+     * Fail fast when the circuit breaker refuses the Solr calls. On a circuit which is not closed, only the thread holding the probe goes through.
+     * 
+     * @throws IOException
+     *             if the circuit is open
+     */
+    private static void checkCircuit( ) throws IOException
+    {
+        SolrCircuitBreaker breaker = SolrCircuitBreaker.getInstance( );
+        if ( breaker.getState( ) != SolrCircuitBreaker.State.CLOSED && !breaker.holdsProbe( ) && !breaker.allowRequest( ) )
+        {
+            throw new SolrUnavailableException( );
+        }
+    }
+
+    /**
+     * @return the client of the shadow collection during a blue/green rebuild by the current thread, else the client of the live documents
+     */
+    static SolrClient getSolrClient( )
+    {
+        ShadowRebuild rebuild = ShadowRebuild.getCurrent( );
+        return rebuild != null ? rebuild.getClient( ) : ShadowRebuild.getLiveClient( );
+    }
+
+    /**
+     * @return the commit within of the writes of the current thread
+     */
+    private static int getCommitWithin( )
+    {
+        ShadowRebuild rebuild = ShadowRebuild.getCurrent( );
+        return rebuild != null ? rebuild.getCommitWithin( ) : COMMIT_WITHIN;
+    }
+
+    private static String toSolrDate( LocalDate date )
+    {
+        return toSolrDate( date.atStartOfDay( ) );
+    }
+
+    private static String toSolrDate( LocalDateTime dateTime )
+    {
+        return DateTimeFormatter.ISO_INSTANT.format( dateTime.atZone( ZoneId.systemDefault( ) ).toInstant( ) );
+    }
+
+    private static long getLong( Object value )
+    {
+        return value instanceof Number ? ( (Number) value ).longValue( ) : 0L;
+    }
+
+    private static boolean isFormMetadataFastPathEnabled( )
+    {
+        return AppPropertiesService.getPropertyBoolean( PROPERTY_FORM_METADATA_FAST_PATH, false );
     }
 
     private static synchronized Object getLock( String key )
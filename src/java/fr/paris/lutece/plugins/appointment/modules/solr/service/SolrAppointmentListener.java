@@ -34,8 +34,11 @@
 package fr.paris.lutece.plugins.appointment.modules.solr.service;
 
 import java.io.IOException;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.ArrayDeque;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
@@ -50,14 +53,13 @@ import fr.paris.lutece.plugins.appointment.business.planning.WeekDefinition;
 import fr.paris.lutece.plugins.appointment.business.rule.ReservationRule;
 import fr.paris.lutece.plugins.appointment.business.slot.Slot;
 import fr.paris.lutece.plugins.appointment.service.AppointmentExecutorService;
-import fr.paris.lutece.plugins.appointment.service.FormService;
 import fr.paris.lutece.plugins.appointment.service.ReservationRuleService;
 import fr.paris.lutece.plugins.appointment.service.SlotService;
 import fr.paris.lutece.plugins.appointment.service.listeners.IFormListener;
 import fr.paris.lutece.plugins.appointment.service.listeners.ISlotListener;
 import fr.paris.lutece.plugins.appointment.service.listeners.IWeekDefinitionListener;
-import fr.paris.lutece.plugins.appointment.web.dto.AppointmentFormDTO;
 import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
 
 /**
  * Appointment listeners for Solr
@@ -67,12 +69,33 @@ import fr.paris.lutece.portal.service.util.AppLogService;
  */
 public class SolrAppointmentListener implements IFormListener, ISlotListener, IWeekDefinitionListener
 {
+    private static final String PROPERTY_WEEK_CHANGE_QUIET_PERIOD = "appointment-solr.weekChange.quietPeriod";
+    private static final String PROPERTY_WEEK_CHANGE_MAX_DELAY = "appointment-solr.weekChange.maxDelay";
+    private static final int DEFAULT_WEEK_CHANGE_QUIET_PERIOD = 2000;
+    private static final int DEFAULT_WEEK_CHANGE_MAX_DELAY = 30000;
+    private static final String PROPERTY_HOT_FORM_THRESHOLD = "appointment-solr.hotForm.threshold";
+    private static final String PROPERTY_HOT_FORM_WINDOW = "appointment-solr.hotForm.window";
+    private static final String PROPERTY_HOT_FORM_TICK = "appointment-solr.hotForm.tick";
+    private static final int DEFAULT_HOT_FORM_THRESHOLD = 0;
+    private static final int DEFAULT_HOT_FORM_WINDOW = 10000;
+    private static final int DEFAULT_HOT_FORM_TICK = 2000;
+
     private static ConcurrentMap<Integer, AtomicBoolean> _lockIndexerIsRuning = new ConcurrentHashMap<>( );
     private static ConcurrentMap<Integer, AtomicBoolean> _lockIndexToLunch = new ConcurrentHashMap<>( );
-    private static Queue<Slot> _queueSlotToIndex = new ConcurrentLinkedQueue<>( );
+    private static ConcurrentMap<Integer, AtomicBoolean> _lockSlotsToReindex = new ConcurrentHashMap<>( );
+    private static ConcurrentMap<Integer, AtomicBoolean> _lockMetadataToReindex = new ConcurrentHashMap<>( );
+    private static ConcurrentMap<Integer, LocalDate [ ]> _mapRangeToReindex = new ConcurrentHashMap<>( );
+    private static Queue<SequencedSlot> _queueSlotToIndex = new ConcurrentLinkedQueue<>( );
     private static AtomicBoolean _bIndexIsRunning = new AtomicBoolean( false );
     @Inject
     private SolrAppointmentIndexer _solrAppointmentIndexer;
+    private final DateRangeDebouncer _weekChangeDebouncer = new DateRangeDebouncer(
+            AppPropertiesService.getPropertyInt( PROPERTY_WEEK_CHANGE_QUIET_PERIOD, DEFAULT_WEEK_CHANGE_QUIET_PERIOD ),
+            AppPropertiesService.getPropertyInt( PROPERTY_WEEK_CHANGE_MAX_DELAY, DEFAULT_WEEK_CHANGE_MAX_DELAY ), this::reindexWeekChange );
+    private final HotFormSnapshots _hotFormSnapshots = new HotFormSnapshots(
+            AppPropertiesService.getPropertyInt( PROPERTY_HOT_FORM_THRESHOLD, DEFAULT_HOT_FORM_THRESHOLD ),
+            AppPropertiesService.getPropertyInt( PROPERTY_HOT_FORM_WINDOW, DEFAULT_HOT_FORM_WINDOW ),
+            AppPropertiesService.getPropertyInt( PROPERTY_HOT_FORM_TICK, DEFAULT_HOT_FORM_TICK ), this::reindexFormRange );
 
     /**
      * Reindex the form and the slots in solr
@@ -81,9 +104,88 @@ public class SolrAppointmentListener implements IFormListener, ISlotListener, IW
      *            the form id
      */
     private void reindexForm( final int nIdForm )
+    {
+        if ( !deferReindexForm( nIdForm, ( ) -> SolrAppointmentOutboxService.enqueue( nIdForm, true ) ) )
+        {
+            getSlotsToReindexLock( nIdForm ).set( true );
+            launchReindexForm( nIdForm );
+        }
+    }
+
+    /**
+     * Reindex the form in solr after a change of its attributes only, so that the slots may not need to be regenerated
+     * 
+     * @param nIdForm
+     *            the form id
+     */
+    private void reindexFormMetadata( final int nIdForm )
+    {
+        if ( !deferReindexForm( nIdForm, ( ) -> SolrAppointmentOutboxService.enqueueMetadata( nIdForm ) ) )
+        {
+            getMetadataToReindexLock( nIdForm ).set( true );
+            launchReindexForm( nIdForm );
+        }
+    }
+
+    /**
+     * Reindex the slots of the form between two dates, and the form aggregates, in solr. The periods requested while a reindex of the form is running are
+     * merged.
+     * 
+     * @param nIdForm
+     *            the form id
+     * @param startingDate
+     *            the first day of the period
+     * @param endingDate
+     *            the last day of the period
+     */
+    private void reindexFormRange( final int nIdForm, LocalDate startingDate, LocalDate endingDate )
+    {
+        if ( !deferReindexForm( nIdForm, ( ) -> SolrAppointmentOutboxService.enqueueRange( nIdForm, startingDate, endingDate ) ) )
+        {
+            _mapRangeToReindex.merge( nIdForm, new LocalDate [ ] {
+                    startingDate, endingDate
+            }, SolrAppointmentListener::mergeRanges );
+            launchReindexForm( nIdForm );
+        }
+    }
+
+    /**
+     * Hand the reindex of the form over to the cluster outbox, or to the replay buffer while Solr is unavailable
+     * 
+     * @param nIdForm
+     *            the form id
+     * @param enqueue
+     *            the recording of the change in the outbox, with its kind
+     * @return true if the reindex is deferred, false if it must be done by this node now
+     */
+    private static boolean deferReindexForm( int nIdForm, Runnable enqueue )
+    {
+        if ( SolrAppointmentOutboxService.isEnabled( ) )
+        {
+            enqueue.run( );
+            return true;
+        }
+        if ( SolrCircuitBreaker.getInstance( ).isOpen( ) )
+        {
+            SolrReplayBuffer.getInstance( ).markFormDirty( nIdForm );
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Launch the reindex of the form if it is not running. The requests received while it runs are coalesced and processed by the running task: a full
+     * reindex supersedes the periods and the attributes.
+     * 
+     * @param nIdForm
+     *            the form id
+     */
+    private void launchReindexForm( final int nIdForm )
     {
         AtomicBoolean bIndexIsRunning = getIndexRuningLock( nIdForm );
         AtomicBoolean bIndexToLunch = getIndexToLunchLock( nIdForm );
+        AtomicBoolean bSlotsToReindex = getSlotsToReindexLock( nIdForm );
+        AtomicBoolean bMetadataToReindex = getMetadataToReindexLock( nIdForm );
         bIndexToLunch.set( true );
         if ( bIndexIsRunning.compareAndSet( false, true ) )
         {
@@ -95,17 +197,27 @@ public class SolrAppointmentListener implements IFormListener, ISlotListener, IW
                     sbLogs = new StringBuilder( );
                     while ( bIndexToLunch.compareAndSet( true, false ) )
                     {
-                        AppointmentFormDTO appointmentForm = FormService.buildAppointmentFormWithoutReservationRule( nIdForm );
-                        _solrAppointmentIndexer.deleteFormAndListSlots( nIdForm, sbLogs );
-                        if ( appointmentForm.getIsActive( ) )
+                        LocalDate [ ] range = _mapRangeToReindex.remove( nIdForm );
+                        boolean bMetadata = bMetadataToReindex.getAndSet( false );
+                        if ( bSlotsToReindex.getAndSet( false ) )
+                        {
+                            _solrAppointmentIndexer.reindexForm( nIdForm, sbLogs );
+                            continue;
+                        }
+                        if ( range != null )
+                        {
+                            _solrAppointmentIndexer.reindexFormRange( nIdForm, range [0], range [1], sbLogs );
+                        }
+                        if ( bMetadata )
                         {
-                            _solrAppointmentIndexer.writeFormAndListSlots( appointmentForm, sbLogs );
+                            _solrAppointmentIndexer.reindexFormMetadata( nIdForm, sbLogs );
                         }
                     }
                 }
                 catch( IOException | SolrServerException e )
                 {
                     AppLogService.error( "Error during SolrAppointmentListener reindexForm: " + sbLogs, e );
+                    SolrReplayBuffer.getInstance( ).markFormDirty( nIdForm );
                 }
                 finally
                 {
@@ -115,34 +227,67 @@ public class SolrAppointmentListener implements IFormListener, ISlotListener, IW
         }
     }
 
+    private static LocalDate [ ] mergeRanges( LocalDate [ ] range, LocalDate [ ] other )
+    {
+        return new LocalDate [ ] {
+                range [0].isBefore( other [0] ) ? range [0] : other [0], range [1].isAfter( other [1] ) ? range [1] : other [1]
+        };
+    }
+
     /**
      * Reindex the slot (and the related form to have the good number of available places) in solr
      * 
-     * @param nIdSlot
-     *            the slot id
+     * @param sequencedSlot
+     *            the slot, with the sequence number taken before it was read
      */
-    private void reindexSlot( Slot slot )
+    private void reindexSlot( SequencedSlot sequencedSlot )
     {
+        Slot slot = sequencedSlot.getSlot( );
+        if ( SolrAppointmentOutboxService.isEnabled( ) )
+        {
+            SolrAppointmentOutboxService.enqueueSlot( slot );
+            return;
+        }
+        if ( SolrCircuitBreaker.getInstance( ).isOpen( ) )
+        {
+            SolrReplayBuffer.getInstance( ).markSlotDirty( slot );
+            return;
+        }
         if ( _bIndexIsRunning.compareAndSet( false, true ) )
         {
 
             AppointmentExecutorService.INSTANCE.execute( ( ) -> {
 
                 StringBuilder sbLogs = new StringBuilder( );
+                // The queued slots of the same form are written with the slot, the slots of the other forms stay queued
+                Queue<SequencedSlot> queueSlots = new ArrayDeque<>( );
+                Iterator<SequencedSlot> iterator = _queueSlotToIndex.iterator( );
+                while ( iterator.hasNext( ) )
+                {
+                    SequencedSlot slotQueued = iterator.next( );
+                    if ( slotQueued.getSlot( ).getIdForm( ) == slot.getIdForm( ) )
+                    {
+                        queueSlots.add( slotQueued );
+                        iterator.remove( );
+                    }
+                }
                 try
                 {
-                    _solrAppointmentIndexer.writeSlotAndForm( slot, sbLogs, _queueSlotToIndex );
+                    _solrAppointmentIndexer.writeSlotAndForm( sequencedSlot, sbLogs, queueSlots );
                 }
                 catch( IOException e )
                 {
                     AppLogService.error( "Error during SolrAppointmentListener reindexSlot: " + sbLogs, e );
+                    // The queued slots drained with the failed write are lost, all of them belong to the form: replay the whole form
+                    SolrReplayBuffer.getInstance( ).markFormDirty( slot.getIdForm( ) );
                 }
                 finally
                 {
                     _bIndexIsRunning.set( false );
-                    if ( !_queueSlotToIndex.isEmpty( ) )
+                    SequencedSlot slotQueued = _queueSlotToIndex.poll( );
+                    if ( slotQueued != null )
                     {
-                        reindexSlot( _queueSlotToIndex.poll( ) );
+                        reindexSlot( slotQueued );
                     }
                 }
             } );
@@ -150,7 +295,7 @@ public class SolrAppointmentListener implements IFormListener, ISlotListener, IW
         else
         {
 
-            _queueSlotToIndex.add( slot );
+            _queueSlotToIndex.add( sequencedSlot );
         }
 
     }
@@ -163,6 +308,18 @@ public class SolrAppointmentListener implements IFormListener, ISlotListener, IW
      */
     private void deleteForm( int nIdForm )
     {
+        if ( SolrAppointmentOutboxService.isEnabled( ) )
+        {
+            // The reindex of a form which is no longer active only deletes its documents
+            SolrAppointmentOutboxService.enqueue( nIdForm, true );
+            return;
+        }
+        if ( SolrCircuitBreaker.getInstance( ).isOpen( ) )
+        {
+            // The replay deletes the documents of a form which is no longer active
+            SolrReplayBuffer.getInstance( ).markFormDirty( nIdForm );
+            return;
+        }
         StringBuilder sbLogs = new StringBuilder( );
         try
         {
@@ -171,6 +328,7 @@ public class SolrAppointmentListener implements IFormListener, ISlotListener, IW
         catch( IOException | SolrServerException e )
         {
             AppLogService.error( "Error during SolrAppointmentListener deleteForm: " + sbLogs, e );
+            SolrReplayBuffer.getInstance( ).markFormDirty( nIdForm );
         }
     }
 
@@ -186,11 +344,30 @@ public class SolrAppointmentListener implements IFormListener, ISlotListener, IW
         return _lockIndexToLunch.get( nkey );
     }
 
+    private static synchronized AtomicBoolean getSlotsToReindexLock( int nkey )
+    {
+        _lockSlotsToReindex.putIfAbsent( nkey, new AtomicBoolean( false ) );
+        return _lockSlotsToReindex.get( nkey );
+    }
+
+    private static synchronized AtomicBoolean getMetadataToReindexLock( int nkey )
+    {
+        _lockMetadataToReindex.putIfAbsent( nkey, new AtomicBoolean( false ) );
+        return _lockMetadataToReindex.get( nkey );
+    }
+
     @Override
     public void notifySlotChange( int nIdSlot )
     {
+        // Taken before the slot is read, the slot is written with it even if it is queued
+        long lSequence = WriteSequence.getInstance( ).next( );
         Slot slot = SlotService.findSlotById( nIdSlot );
-        reindexSlot( slot );
+        SlotCalendarCache.getInstance( ).patch( slot );
+        // The changes of a hot form are published by its next snapshot
+        if ( !_hotFormSnapshots.add( slot.getIdForm( ), slot.getDate( ) ) )
+        {
+            reindexSlot( new SequencedSlot( slot, lSequence ) );
+        }
     }
 
     @Override
@@ -202,20 +379,22 @@ public class SolrAppointmentListener implements IFormListener, ISlotListener, IW
     @Override
     public void notifySlotRemoval( Slot slot )
     {
+        SlotCalendarCache.getInstance( ).invalidate( slot.getIdForm( ) );
         if ( FormUtil.isPeriodValidToIndex( slot.getIdForm( ), slot.getDate( ), slot.getDate( ) ) )
         {
-            reindexForm( slot.getIdForm( ) );
+            reindexFormRange( slot.getIdForm( ), slot.getDate( ), slot.getDate( ) );
         }
     }
 
     @Override
     public void notifySlotEndingTimeHasChanged( int nIdSlot, int nIdFom, LocalDateTime endingDateTime )
     {
+        SlotCalendarCache.getInstance( ).invalidate( nIdFom );
 
         if ( FormUtil.isPeriodValidToIndex( nIdFom, endingDateTime.toLocalDate( ), endingDateTime.toLocalDate( ) ) )
         {
 
-            reindexForm( nIdFom );
+            reindexFormRange( nIdFom, endingDateTime.toLocalDate( ), endingDateTime.toLocalDate( ) );
         }
 
     }
@@ -223,18 +402,21 @@ public class SolrAppointmentListener implements IFormListener, ISlotListener, IW
     @Override
     public void notifyFormChange( int nIdForm )
     {
-        reindexForm( nIdForm );
+        SlotCalendarCache.getInstance( ).invalidate( nIdForm );
+        reindexFormMetadata( nIdForm );
     }
 
     @Override
     public void notifyFormCreation( int nIdForm )
     {
+        SlotCalendarCache.getInstance( ).invalidate( nIdForm );
         reindexForm( nIdForm );
     }
 
     @Override
     public void notifyFormRemoval( int nIdForm )
     {
+        SlotCalendarCache.getInstance( ).invalidate( nIdForm );
         deleteForm( nIdForm );
     }
 
@@ -243,11 +425,14 @@ public class SolrAppointmentListener implements IFormListener, ISlotListener, IW
     {
 
         ReservationRule rule = ReservationRuleService.findReservationRuleById( week.getIdReservationRule( ) );
-        if ( FormUtil.isPeriodValidToIndex( rule.getIdForm( ), week.getDateOfApply( ), week.getEndingDateOfApply( ) ) )
+        if ( rule == null )
         {
-
-            reindexForm( rule.getIdForm( ) );
+            AppLogService.info( "SolrAppointmentListener: reservation rule " + week.getIdReservationRule( ) + " not found, week change not indexed" );
+            return;
         }
+        int nIdForm = rule.getIdForm( );
+        SlotCalendarCache.getInstance( ).invalidate( nIdForm );
+        _weekChangeDebouncer.add( nIdForm, week.getDateOfApply( ), week.getEndingDateOfApply( ) );
 
     }
 
@@ -261,14 +446,34 @@ public class SolrAppointmentListener implements IFormListener, ISlotListener, IW
     @Override
     public void notifyListWeeksChanged( int nIdForm, List<WeekDefinition> listWeek )
     {
+        SlotCalendarCache.getInstance( ).invalidate( nIdForm );
 
         WeekDefinition weekWithDateMin = listWeek.stream( ).min( Comparator.comparing( WeekDefinition::getDateOfApply ) ).orElse( null );
         WeekDefinition weekWithDateMax = listWeek.stream( ).max( Comparator.comparing( WeekDefinition::getEndingDateOfApply ) ).orElse( null );
-        if ( weekWithDateMin != null && weekWithDateMax != null
-                && FormUtil.isPeriodValidToIndex( nIdForm, weekWithDateMin.getDateOfApply( ), weekWithDateMax.getEndingDateOfApply( ) ) )
+        if ( weekWithDateMin != null && weekWithDateMax != null )
         {
 
-            reindexForm( nIdForm );
+            _weekChangeDebouncer.add( nIdForm, weekWithDateMin.getDateOfApply( ), weekWithDateMax.getEndingDateOfApply( ) );
+        }
+    }
+
+    /**
+     * Reindex the period of the form merged from a burst of week definition changes, if it is displayed on the calendar FO
+     * 
+     * @param nIdForm
+     *            the form id
+     * @param startingDate
+     *            the first day of the period
+     * @param endingDate
+     *            the last day of the period
+     */
+    private void reindexWeekChange( int nIdForm, LocalDate startingDate, LocalDate endingDate )
+    {
+        // Dropped again in case the calendar was built before the changes were committed
+        SlotCalendarCache.getInstance( ).invalidate( nIdForm );
+        if ( FormUtil.isPeriodValidToIndex( nIdForm, startingDate, endingDate ) )
+        {
+            reindexFormRange( nIdForm, startingDate, endingDate );
         }
     }
 
@@ -0,0 +1,371 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.solr.client.solrj.SolrServerException;
+
+import fr.paris.lutece.plugins.appointment.business.slot.Slot;
+import fr.paris.lutece.plugins.appointment.modules.solr.business.IndexOutboxEntry;
+import fr.paris.lutece.plugins.appointment.modules.solr.business.IndexOutboxHome;
+import fr.paris.lutece.plugins.appointment.service.AppointmentExecutorService;
+import fr.paris.lutece.plugins.appointment.service.FormService;
+import fr.paris.lutece.plugins.appointment.service.SlotService;
+import fr.paris.lutece.plugins.appointment.web.dto.AppointmentFormDTO;
+import fr.paris.lutece.portal.service.spring.SpringContextService;
+import fr.paris.lutece.portal.service.util.AppException;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+/**
+ * Cluster-aware dispatch of the index work.
+ *
+ * The listener callbacks fire on the node which handled the change: instead of indexing locally, the change is recorded in a shared outbox table where the
+ * changes of a form are coalesced in a single entry, with the ids of its changed slots. The index work of a form is then claimed by exactly one processing at
+ * a time, on one node; the claim is a lease, so that the work of a node which died is taken over by another one.
+ *
+ */
+public final class SolrAppointmentOutboxService
+{
+    private static final String PROPERTY_CLUSTER_ENABLE = "appointment-solr.cluster.enable";
+    private static final String PROPERTY_NODE_ID = "appointment-solr.cluster.nodeId";
+    private static final String PROPERTY_CLAIM_DURATION = "appointment-solr.cluster.claimDuration";
+    private static final int DEFAULT_CLAIM_DURATION = 300000;
+    private static final int MAX_ROUNDS = 10;
+
+    private static final boolean CLUSTER_ENABLED = AppPropertiesService.getPropertyBoolean( PROPERTY_CLUSTER_ENABLE, false );
+    private static final String NODE_ID = AppPropertiesService.getProperty( PROPERTY_NODE_ID, buildNodeId( ) );
+
+    private static ConcurrentMap<Integer, AtomicBoolean> _mapLocalRunning = new ConcurrentHashMap<>( );
+    private static AtomicLong _lClaimCounter = new AtomicLong( );
+
+    /**
+     * Private constructor - this class does not need to be instantiated
+     */
+    private SolrAppointmentOutboxService( )
+    {
+    }
+
+    /**
+     * Check if the cluster dispatch mode is enabled
+     *
+     * @return true if the index work goes through the shared outbox
+     */
+    public static boolean isEnabled( )
+    {
+        return CLUSTER_ENABLED;
+    }
+
+    /**
+     * Get the id of this node
+     *
+     * @return the node id
+     */
+    public static String getNodeId( )
+    {
+        return NODE_ID;
+    }
+
+    /**
+     * Record a change of a form in the outbox and try to process it on this node
+     *
+     * @param nIdForm
+     *            the form id
+     * @param bFull
+     *            true if the whole form must be deleted and reindexed, false if its current state must be written
+     */
+    public static void enqueue( int nIdForm, boolean bFull )
+    {
+        record( nIdForm, ( ) -> IndexOutboxHome.enqueue( nIdForm, bFull ) );
+    }
+
+    /**
+     * Record a change of the attributes of a form in the outbox and try to process it on this node: the form document is updated without its slots
+     *
+     * @param nIdForm
+     *            the form id
+     */
+    public static void enqueueMetadata( int nIdForm )
+    {
+        record( nIdForm, ( ) -> IndexOutboxHome.enqueueMetadata( nIdForm ) );
+    }
+
+    /**
+     * Record a change of the slots of a form between two dates in the outbox and try to process it on this node: the period is reindexed with the
+     * aggregates of the form
+     *
+     * @param nIdForm
+     *            the form id
+     * @param startingDate
+     *            the first day of the period
+     * @param endingDate
+     *            the last day of the period
+     */
+    public static void enqueueRange( int nIdForm, LocalDate startingDate, LocalDate endingDate )
+    {
+        record( nIdForm, ( ) -> IndexOutboxHome.enqueueRange( nIdForm, startingDate, endingDate ) );
+    }
+
+    private static void record( int nIdForm, Runnable enqueue )
+    {
+        try
+        {
+            enqueue.run( );
+        }
+        catch( AppException e )
+        {
+            AppLogService.error( "Error during SolrAppointmentOutboxService enqueue of form " + nIdForm, e );
+            return;
+        }
+        launch( nIdForm );
+    }
+
+    /**
+     * Record a change of a slot in the outbox and try to process it on this node: the slot is written with the aggregates of its form
+     *
+     * @param slot
+     *            the slot
+     */
+    public static void enqueueSlot( Slot slot )
+    {
+        try
+        {
+            IndexOutboxHome.enqueueSlot( slot.getIdForm( ), slot.getIdSlot( ) );
+        }
+        catch( AppException e )
+        {
+            AppLogService.error( "Error during SolrAppointmentOutboxService enqueue of slot " + slot.getIdSlot( ), e );
+            return;
+        }
+        launch( slot.getIdForm( ) );
+    }
+
+    /**
+     * Process the work of a form in the executor, unless it is processed by this node
+     *
+     * @param nIdForm
+     *            the form id
+     */
+    private static void launch( int nIdForm )
+    {
+        AtomicBoolean bRunning = getLocalRunning( nIdForm );
+        if ( bRunning.compareAndSet( false, true ) )
+        {
+            AppointmentExecutorService.INSTANCE.execute( ( ) -> {
+                try
+                {
+                    process( nIdForm );
+                }
+                finally
+                {
+                    bRunning.set( false );
+                }
+            } );
+        }
+    }
+
+    /**
+     * Process the pending work of a form if it can be claimed. The work is processed again while the form keeps changing during the processing. The caller
+     * holds the local running flag of the form.
+     *
+     * @param nIdForm
+     *            the form id
+     */
+    private static void process( int nIdForm )
+    {
+        SolrAppointmentIndexer indexer = SpringContextService.getBean( SolrAppointmentIndexer.BEAN_NAME );
+        long lClaimDuration = AppPropertiesService.getPropertyInt( PROPERTY_CLAIM_DURATION, DEFAULT_CLAIM_DURATION );
+        // Each processing claims with its own id, a claim of this node is not taken over by another processing of this node
+        String strClaimId = NODE_ID + Utilities.UNDERSCORE + _lClaimCounter.incrementAndGet( );
+        StringBuilder sbLogs = new StringBuilder( );
+        try
+        {
+            for ( int nRound = 0; nRound < MAX_ROUNDS; nRound++ )
+            {
+                IndexOutboxEntry entry = IndexOutboxHome.claim( nIdForm, strClaimId, lClaimDuration );
+                if ( entry == null )
+                {
+                    // No more work, or claimed by another processing
+                    return;
+                }
+                try
+                {
+                    processEntry( indexer, entry, sbLogs );
+                }
+                catch( IOException | SolrServerException e )
+                {
+                    AppLogService.error( "Error during SolrAppointmentOutboxService process of form " + nIdForm + ": " + sbLogs, e );
+                    // The slots taken are lost, the form is reindexed
+                    IndexOutboxHome.enqueue( nIdForm, true );
+                    IndexOutboxHome.release( nIdForm, strClaimId );
+                    return;
+                }
+                if ( IndexOutboxHome.complete( entry, strClaimId ) )
+                {
+                    return;
+                }
+            }
+            // The form keeps changing, let the daemon take it over later
+            IndexOutboxHome.release( nIdForm, strClaimId );
+        }
+        catch( AppException e )
+        {
+            AppLogService.error( "Error during SolrAppointmentOutboxService process of form " + nIdForm, e );
+        }
+    }
+
+    /**
+     * Process the work which is not claimed, including the work claimed by nodes whose claim expired
+     *
+     * @param nMax
+     *            the maximum number of forms to process
+     * @return the number of forms examined
+     */
+    public static int processPending( int nMax )
+    {
+        int nCount = 0;
+        for ( Integer nIdForm : IndexOutboxHome.getPendingFormIds( nMax ) )
+        {
+            // The work of a form processed by an executor task of this node is left to it
+            AtomicBoolean bRunning = getLocalRunning( nIdForm );
+            if ( bRunning.compareAndSet( false, true ) )
+            {
+                try
+                {
+                    process( nIdForm );
+                }
+                finally
+                {
+                    bRunning.set( false );
+                }
+            }
+            nCount++;
+        }
+        return nCount;
+    }
+
+    /**
+     * Process a claimed entry according to the kinds of its changes: the whole form is reindexed, or its changed period, attributes and slots are written
+     *
+     * @param indexer
+     *            the indexer
+     * @param entry
+     *            the entry
+     * @param sbLogs
+     *            the logs
+     * @throws IOException
+     * @throws SolrServerException
+     */
+    private static void processEntry( SolrAppointmentIndexer indexer, IndexOutboxEntry entry, StringBuilder sbLogs ) throws IOException, SolrServerException
+    {
+        int nIdForm = entry.getIdForm( );
+        if ( entry.isFull( ) )
+        {
+            IndexOutboxHome.clearSlots( nIdForm );
+            indexer.reindexForm( nIdForm, sbLogs );
+            return;
+        }
+        boolean bRange = entry.getDateRangeStart( ) != null && entry.getDateRangeEnd( ) != null;
+        if ( bRange )
+        {
+            indexer.reindexFormRange( nIdForm, entry.getDateRangeStart( ), entry.getDateRangeEnd( ), sbLogs );
+        }
+        if ( entry.isMetadata( ) )
+        {
+            indexer.reindexFormMetadata( nIdForm, sbLogs );
+        }
+        List<Integer> listIdSlots = IndexOutboxHome.takeSlotIds( nIdForm );
+        if ( listIdSlots.isEmpty( ) )
+        {
+            if ( bRange || entry.isMetadata( ) )
+            {
+                return;
+            }
+            // No slot recorded with the change
+            AppointmentFormDTO appointmentForm = FormService.buildAppointmentFormWithoutReservationRule( nIdForm );
+            if ( appointmentForm != null && appointmentForm.getIsActive( ) )
+            {
+                indexer.writeFormAndListSlots( appointmentForm, sbLogs );
+            }
+            return;
+        }
+        // The slots are read after they were taken, a removed slot is handled by the reindex of its period
+        long lSequence = WriteSequence.getInstance( ).next( );
+        Queue<SequencedSlot> queueSlots = new ArrayDeque<>( );
+        for ( Integer nIdSlot : listIdSlots )
+        {
+            Slot slot = SlotService.findSlotById( nIdSlot );
+            if ( slot != null )
+            {
+                queueSlots.add( new SequencedSlot( slot, lSequence ) );
+            }
+        }
+        SequencedSlot slot = queueSlots.poll( );
+        if ( slot != null )
+        {
+            indexer.writeSlotAndForm( slot, sbLogs, queueSlots );
+        }
+    }
+
+    private static AtomicBoolean getLocalRunning( int nIdForm )
+    {
+        return _mapLocalRunning.computeIfAbsent( nIdForm, k -> new AtomicBoolean( false ) );
+    }
+
+    private static String buildNodeId( )
+    {
+        String strHost;
+        try
+        {
+            strHost = InetAddress.getLocalHost( ).getHostName( );
+        }
+        catch( UnknownHostException e )
+        {
+            strHost = "node";
+        }
+        return strHost + Utilities.UNDERSCORE + UUID.randomUUID( ).toString( ).substring( 0, 8 );
+    }
+}
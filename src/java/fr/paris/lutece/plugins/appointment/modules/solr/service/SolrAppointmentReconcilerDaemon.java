@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.apache.solr.client.solrj.SolrServerException;
+
+import fr.paris.lutece.plugins.appointment.service.FormService;
+import fr.paris.lutece.plugins.appointment.web.dto.AppointmentFormDTO;
+import fr.paris.lutece.portal.service.daemon.Daemon;
+import fr.paris.lutece.portal.service.spring.SpringContextService;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+/**
+ * Daemon reconciling the index with the database. On each run a batch of forms is checked, in turn, against the digests stored on their documents, and only
+ * the forms whose documents diverge are reindexed. When all the forms have been checked, the documents of the forms which are not active any more are
+ * deleted and a new cycle begins.
+ *
+ */
+public class SolrAppointmentReconcilerDaemon extends Daemon
+{
+    private static final String PROPERTY_BATCH_SIZE = "appointment-solr.reconciler.batchSize";
+    private static final int DEFAULT_BATCH_SIZE = 20;
+
+    private static int _nLastIdForm;
+
+    @Override
+    public void run( )
+    {
+        IndexingProgress progress = IndexingProgress.getCurrent( );
+        if ( progress != null && progress.isRunning( ) )
+        {
+            setLastRunLogs( "Full reindex running" );
+            return;
+        }
+        if ( SolrCircuitBreaker.getInstance( ).isOpen( ) )
+        {
+            setLastRunLogs( "Solr is unavailable" );
+            return;
+        }
+
+        SolrAppointmentIndexer indexer = SpringContextService.getBean( SolrAppointmentIndexer.BEAN_NAME );
+        List<AppointmentFormDTO> listForms = new ArrayList<>( FormService.buildAllActiveAppointmentForm( ) );
+        listForms.sort( Comparator.comparingInt( AppointmentFormDTO::getIdForm ) );
+        List<AppointmentFormDTO> listBatch = listForms.stream( ).filter( f -> f.getIdForm( ) > _nLastIdForm )
+                .limit( AppPropertiesService.getPropertyInt( PROPERTY_BATCH_SIZE, DEFAULT_BATCH_SIZE ) ).collect( Collectors.toList( ) );
+        StringBuilder sbLogs = new StringBuilder( );
+        Thread thread = Thread.currentThread( );
+        int nPriority = thread.getPriority( );
+        thread.setPriority( Thread.MIN_PRIORITY );
+        try
+        {
+            if ( listBatch.isEmpty( ) )
+            {
+                // End of the cycle
+                _nLastIdForm = 0;
+                int nNbDeleted = indexer.deleteOrphanForms( listForms.stream( ).map( AppointmentFormDTO::getIdForm ).collect( Collectors.toList( ) ), sbLogs );
+                setLastRunLogs( "Cycle completed, " + nNbDeleted + " inactive forms removed from the index" );
+                return;
+            }
+            int nNbRepaired = 0;
+            for ( AppointmentFormDTO appointmentForm : listBatch )
+            {
+                if ( !indexer.isFormInSync( appointmentForm ) )
+                {
+                    repair( indexer, appointmentForm.getIdForm( ), sbLogs );
+                    nNbRepaired++;
+                }
+                _nLastIdForm = appointmentForm.getIdForm( );
+            }
+            setLastRunLogs( listBatch.size( ) + " forms checked until form " + _nLastIdForm + ", " + nNbRepaired + " forms reindexed" );
+        }
+        catch( IOException | SolrServerException e )
+        {
+            AppLogService.error( "Error during SolrAppointmentReconcilerDaemon after form " + _nLastIdForm + ": " + sbLogs, e );
+            setLastRunLogs( "Error after form " + _nLastIdForm + ": " + e.getMessage( ) );
+        }
+        finally
+        {
+            thread.setPriority( nPriority );
+        }
+    }
+
+    /**
+     * Reindex a form whose documents diverge from the database
+     *
+     * @param indexer
+     *            the indexer
+     * @param nIdForm
+     *            the form id
+     * @param sbLogs
+     *            the logs
+     * @throws IOException
+     * @throws SolrServerException
+     */
+    private static void repair( SolrAppointmentIndexer indexer, int nIdForm, StringBuilder sbLogs ) throws IOException, SolrServerException
+    {
+        AppLogService.info( "SolrAppointmentReconcilerDaemon: the documents of form " + nIdForm + " diverge from the database, reindexing" );
+        if ( SolrAppointmentOutboxService.isEnabled( ) )
+        {
+            SolrAppointmentOutboxService.enqueue( nIdForm, true );
+        }
+        else
+        {
+            indexer.repairForm( nIdForm, sbLogs );
+        }
+    }
+}
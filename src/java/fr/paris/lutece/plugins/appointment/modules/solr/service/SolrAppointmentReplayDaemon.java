@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+
+import org.apache.solr.client.solrj.SolrServerException;
+
+import fr.paris.lutece.plugins.appointment.business.slot.Slot;
+import fr.paris.lutece.plugins.appointment.modules.solr.service.SolrReplayBuffer.DirtyForm;
+import fr.paris.lutece.plugins.appointment.service.SlotService;
+import fr.paris.lutece.portal.service.daemon.Daemon;
+import fr.paris.lutece.portal.service.spring.SpringContextService;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+/**
+ * Daemon replaying the index work buffered while Solr was unavailable. At most a batch of dirty forms is replayed on each run, so that a recovering Solr is
+ * not flooded.
+ *
+ */
+public class SolrAppointmentReplayDaemon extends Daemon
+{
+    private static final String PROPERTY_BATCH_SIZE = "appointment-solr.replay.batchSize";
+    private static final int DEFAULT_BATCH_SIZE = 20;
+
+    @Override
+    public void run( )
+    {
+        SolrReplayBuffer buffer = SolrReplayBuffer.getInstance( );
+        if ( buffer.isEmpty( ) )
+        {
+            setLastRunLogs( "Nothing to replay" );
+            return;
+        }
+        if ( !SolrCircuitBreaker.getInstance( ).allowRequest( ) )
+        {
+            setLastRunLogs( "Solr is unavailable, " + buffer.size( ) + " forms waiting" );
+            return;
+        }
+
+        SolrAppointmentIndexer indexer = SpringContextService.getBean( SolrAppointmentIndexer.BEAN_NAME );
+        StringBuilder sbLogs = new StringBuilder( );
+        if ( buffer.pollOverflow( ) )
+        {
+            List<String> listErrors = indexer.indexDocuments( );
+            setLastRunLogs( "Full reindex after replay buffer overflow, " + listErrors.size( ) + " errors" );
+            return;
+        }
+
+        List<DirtyForm> listDirtyForms = buffer.poll( AppPropertiesService.getPropertyInt( PROPERTY_BATCH_SIZE, DEFAULT_BATCH_SIZE ) );
+        int nReplayed = 0;
+        Iterator<DirtyForm> iterator = listDirtyForms.iterator( );
+        while ( iterator.hasNext( ) )
+        {
+            DirtyForm dirtyForm = iterator.next( );
+            try
+            {
+                replay( indexer, dirtyForm, sbLogs );
+                nReplayed++;
+            }
+            catch( IOException | SolrServerException e )
+            {
+                AppLogService.error( "Error during SolrAppointmentReplayDaemon replay of form " + dirtyForm.getIdForm( ) + ": " + sbLogs, e );
+                // Give back the failed form and the remaining ones
+                buffer.markFormDirty( dirtyForm.getIdForm( ) );
+                iterator.forEachRemaining( d -> requeue( buffer, d ) );
+                break;
+            }
+        }
+        setLastRunLogs( nReplayed + " forms replayed, " + buffer.size( ) + " forms waiting" );
+    }
+
+    /**
+     * Replay the index work of a dirty form
+     *
+     * @param indexer
+     *            the indexer
+     * @param dirtyForm
+     *            the dirty form
+     * @param sbLogs
+     *            the logs
+     * @throws IOException
+     * @throws SolrServerException
+     */
+    private static void replay( SolrAppointmentIndexer indexer, DirtyForm dirtyForm, StringBuilder sbLogs ) throws IOException, SolrServerException
+    {
+        if ( dirtyForm.isFull( ) )
+        {
+            indexer.reindexForm( dirtyForm.getIdForm( ), sbLogs );
+            return;
+        }
+        // Nearest slots first
+        Queue<SequencedSlot> queueSlots = new PriorityQueue<>( Comparator.comparing( sequencedSlot -> sequencedSlot.getSlot( ).getStartingDateTime( ) ) );
+        long lSequence = WriteSequence.getInstance( ).next( );
+        for ( Slot slot : dirtyForm.getSlots( ) )
+        {
+            // The buffered slot may be outdated, reload it when it is persisted
+            Slot slotCurrent = slot.getIdSlot( ) > 0 ? SlotService.findSlotById( slot.getIdSlot( ) ) : null;
+            queueSlots.add( new SequencedSlot( slotCurrent != null ? slotCurrent : slot, lSequence ) );
+        }
+        SequencedSlot slot = queueSlots.poll( );
+        if ( slot != null )
+        {
+            indexer.writeSlotAndForm( slot, sbLogs, queueSlots );
+        }
+    }
+
+    private static void requeue( SolrReplayBuffer buffer, DirtyForm dirtyForm )
+    {
+        if ( dirtyForm.isFull( ) )
+        {
+            buffer.markFormDirty( dirtyForm.getIdForm( ) );
+        }
+        else
+        {
+            dirtyForm.getSlots( ).forEach( buffer::markSlotDirty );
+        }
+    }
+}
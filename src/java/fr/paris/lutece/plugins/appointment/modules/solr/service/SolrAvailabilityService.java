@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.util.ClientUtils;
+import org.apache.solr.common.SolrDocument;
+
+import fr.paris.lutece.portal.service.search.SearchItem;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+/**
+ * Search of the available slots of a form in the indexed slot documents, with a cache of the results.
+ *
+ * The cache is invalidated by the writes of {@link SolrAppointmentIndexer}, per form and per day.
+ *
+ */
+public final class SolrAvailabilityService
+{
+    private static final String PROPERTY_CACHE_ENABLE = "appointment-solr.availability.cache.enable";
+    private static final String PROPERTY_CACHE_MAX_ENTRIES_PER_FORM = "appointment-solr.availability.cache.maxEntriesPerForm";
+    private static final String PROPERTY_CACHE_TIME_TO_LIVE = "appointment-solr.availability.cache.timeToLive";
+    private static final String PROPERTY_MAX_ROWS = "appointment-solr.availability.maxRows";
+    private static final int DEFAULT_CACHE_MAX_ENTRIES_PER_FORM = 100;
+    private static final int DEFAULT_CACHE_TIME_TO_LIVE = 60000;
+    private static final int DEFAULT_MAX_ROWS = 1000;
+    private static final int MINUTES_PER_DAY = 1440;
+    private static final String FIELD_DATE = "date";
+    private static final String FIELD_URL = "url";
+    private static final String KEY_SEPARATOR = "|";
+
+    private static final SolrAvailabilityService INSTANCE = new SolrAvailabilityService( );
+
+    private final AvailabilityCache _cache = new AvailabilityCache(
+            AppPropertiesService.getPropertyInt( PROPERTY_CACHE_MAX_ENTRIES_PER_FORM, DEFAULT_CACHE_MAX_ENTRIES_PER_FORM ),
+            AppPropertiesService.getPropertyInt( PROPERTY_CACHE_TIME_TO_LIVE, DEFAULT_CACHE_TIME_TO_LIVE ), 2L * SolrAppointmentIndexer.COMMIT_WITHIN );
+
+    /**
+     * Private constructor
+     */
+    private SolrAvailabilityService( )
+    {
+    }
+
+    /**
+     * Get the service
+     *
+     * @return the instance
+     */
+    public static SolrAvailabilityService getInstance( )
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Find the available slots of a form
+     *
+     * @param query
+     *            the criteria
+     * @return the slots, sorted by starting date time, which can not be modified
+     * @throws SolrServerException
+     * @throws IOException
+     */
+    public List<AvailableSlot> findAvailableSlots( AvailabilityQuery query ) throws SolrServerException, IOException
+    {
+        FieldProfile profile = FieldProfile.getCurrent( );
+        SolrQuery solrQuery = buildSolrQuery( query, profile );
+        // The criteria on the disabled optional fields are checked on the results
+        boolean bFilterDayOfWeek = !query.getDaysOfWeek( ).isEmpty( ) && !profile.isEnabled( SlotUtil.DAY_OF_WEEK );
+        boolean bFilterMinuteOfDay = hasMinuteOfDayCriteria( query ) && !profile.isEnabled( SlotUtil.MINUTE_OF_DAY );
+        String strKey = solrQuery.toQueryString( ) + KEY_SEPARATOR + ( bFilterDayOfWeek ? query.getDaysOfWeek( ) : "" ) + KEY_SEPARATOR
+                + ( bFilterMinuteOfDay ? query.getMinMinuteOfDay( ) + "-" + query.getMaxMinuteOfDay( ) : "" );
+        boolean bCache = AppPropertiesService.getPropertyBoolean( PROPERTY_CACHE_ENABLE, true );
+        if ( bCache )
+        {
+            List<AvailableSlot> listSlots = _cache.get( query.getIdForm( ), strKey );
+            if ( listSlots != null )
+            {
+                return listSlots;
+            }
+        }
+
+        long lSearchStart = System.currentTimeMillis( );
+        List<AvailableSlot> listSlots = new ArrayList<>( );
+        for ( SolrDocument document : ShadowRebuild.getLiveClient( ).query( solrQuery ).getResults( ) )
+        {
+            LocalDateTime startingDateTime = ( (Date) document.getFieldValue( FIELD_DATE ) ).toInstant( ).atZone( ZoneId.systemDefault( ) ).toLocalDateTime( );
+            int nMinuteOfDay = startingDateTime.getHour( ) * 60 + startingDateTime.getMinute( );
+            if ( ( !bFilterDayOfWeek || query.getDaysOfWeek( ).contains( startingDateTime.getDayOfWeek( ).getValue( ) ) )
+                    && ( !bFilterMinuteOfDay || ( nMinuteOfDay >= query.getMinMinuteOfDay( ) && nMinuteOfDay <= query.getMaxMinuteOfDay( ) ) ) )
+            {
+                listSlots.add( new AvailableSlot( (String) document.getFieldValue( SearchItem.FIELD_UID ), startingDateTime,
+                        getInt( document.getFieldValue( SlotUtil.FIELD_NB_FREE_PLACES ) ), getInt( document.getFieldValue( SlotUtil.FIELD_NB_PLACES ) ),
+                        getInt( document.getFieldValue( SlotUtil.FIELD_NB_CONSECUTIVES_SLOTS ) ), (String) document.getFieldValue( FIELD_URL ) ) );
+            }
+        }
+        listSlots = Collections.unmodifiableList( listSlots );
+        if ( bCache )
+        {
+            _cache.put( query.getIdForm( ), strKey, query.getStartingDate( ), query.getEndingDate( ), listSlots, lSearchStart );
+        }
+        return listSlots;
+    }
+
+    /**
+     * Drop the cached results of a form covering the days written
+     *
+     * @param nIdForm
+     *            the form id
+     * @param collectionDays
+     *            the days of the slots written
+     */
+    void invalidate( int nIdForm, Collection<LocalDate> collectionDays )
+    {
+        _cache.invalidate( nIdForm, collectionDays );
+    }
+
+    /**
+     * Drop all the cached results of a form
+     *
+     * @param nIdForm
+     *            the form id
+     */
+    void invalidateForm( int nIdForm )
+    {
+        _cache.invalidateForm( nIdForm );
+    }
+
+    private static SolrQuery buildSolrQuery( AvailabilityQuery query, FieldProfile profile )
+    {
+        SolrQuery solrQuery = new SolrQuery( Utilities.FIELD_UID_FORM + ":" + ClientUtils.escapeQueryChars( FormUtil.getFormUid( query.getIdForm( ) ) ) );
+        solrQuery.addFilterQuery( SearchItem.FIELD_TYPE + ":" + ClientUtils.escapeQueryChars( Utilities.SHORT_NAME_SLOT ) );
+        solrQuery.addFilterQuery( FIELD_DATE + ":[" + toSolrDate( query.getStartingDate( ) ) + " TO " + toSolrDate( query.getEndingDate( ).plusDays( 1 ) ) + "}" );
+        solrQuery.addFilterQuery( SlotUtil.FIELD_ENABLED + ":" + Boolean.TRUE );
+        solrQuery.addFilterQuery( SlotUtil.FIELD_NB_FREE_PLACES + ":[" + Math.max( 1, query.getMinFreePlaces( ) ) + " TO *]" );
+        if ( query.getMinConsecutiveSlots( ) > 1 )
+        {
+            solrQuery.addFilterQuery( SlotUtil.FIELD_NB_CONSECUTIVES_SLOTS + ":[" + query.getMinConsecutiveSlots( ) + " TO *]" );
+        }
+        if ( !query.getDaysOfWeek( ).isEmpty( ) && profile.isEnabled( SlotUtil.DAY_OF_WEEK ) )
+        {
+            solrQuery.addFilterQuery( SlotUtil.FIELD_DAY_OF_WEEK + ":("
+                    + query.getDaysOfWeek( ).stream( ).sorted( ).map( String::valueOf ).collect( Collectors.joining( " OR " ) ) + ")" );
+        }
+        if ( hasMinuteOfDayCriteria( query ) && profile.isEnabled( SlotUtil.MINUTE_OF_DAY ) )
+        {
+            solrQuery.addFilterQuery( SlotUtil.FIELD_MINUTE_OF_DAY + ":[" + query.getMinMinuteOfDay( ) + " TO " + query.getMaxMinuteOfDay( ) + "]" );
+        }
+        solrQuery.setFields( SearchItem.FIELD_UID, FIELD_DATE, FIELD_URL, SlotUtil.FIELD_NB_FREE_PLACES, SlotUtil.FIELD_NB_PLACES,
+                SlotUtil.FIELD_NB_CONSECUTIVES_SLOTS );
+        solrQuery.addSort( FIELD_DATE, SolrQuery.ORDER.asc );
+        solrQuery.setRows( AppPropertiesService.getPropertyInt( PROPERTY_MAX_ROWS, DEFAULT_MAX_ROWS ) );
+        DocumentRouting.setRoute( solrQuery, query.getIdForm( ) );
+        return solrQuery;
+    }
+
+    private static boolean hasMinuteOfDayCriteria( AvailabilityQuery query )
+    {
+        return query.getMinMinuteOfDay( ) > 0 || query.getMaxMinuteOfDay( ) < MINUTES_PER_DAY - 1;
+    }
+
+    private static String toSolrDate( LocalDate date )
+    {
+        return DateTimeFormatter.ISO_INSTANT.format( date.atStartOfDay( ZoneId.systemDefault( ) ).toInstant( ) );
+    }
+
+    private static int getInt( Object value )
+    {
+        return value instanceof Number ? ( (Number) value ).intValue( ) : 0;
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+/**
+ * Circuit breaker guarding the Solr calls of the appointment indexer.
+ *
+ * After a number of consecutive failures the circuit opens and the Solr calls are refused immediately, so that the executor threads are not blocked on I/O
+ * until the client times out. Once the open delay has elapsed a single probe call is allowed (half-open state): its success closes the circuit, its failure
+ * opens it again. The probe is held by the thread it was granted to, so that the calls of a single unit of work (a query then a write) go through together
+ * while the other threads are refused.
+ *
+ */
+public final class SolrCircuitBreaker
+{
+    /**
+     * States of the circuit
+     */
+    public enum State
+    {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private static final String PROPERTY_FAILURE_THRESHOLD = "appointment-solr.circuitBreaker.failureThreshold";
+    private static final String PROPERTY_OPEN_DELAY = "appointment-solr.circuitBreaker.openDelay";
+    private static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    private static final int DEFAULT_OPEN_DELAY = 30000;
+
+    private static final SolrCircuitBreaker INSTANCE = new SolrCircuitBreaker( AppPropertiesService.getPropertyInt( PROPERTY_FAILURE_THRESHOLD,
+            DEFAULT_FAILURE_THRESHOLD ), AppPropertiesService.getPropertyInt( PROPERTY_OPEN_DELAY, DEFAULT_OPEN_DELAY ) );
+
+    private final int _nFailureThreshold;
+    private final long _lOpenDelay;
+    private final AtomicReference<State> _state = new AtomicReference<>( State.CLOSED );
+    private final AtomicInteger _nConsecutiveFailures = new AtomicInteger( 0 );
+    private final AtomicLong _lOpenedAt = new AtomicLong( 0 );
+    private final AtomicReference<Thread> _probe = new AtomicReference<>( );
+
+    /**
+     * Constructor
+     *
+     * @param nFailureThreshold
+     *            the number of consecutive failures opening the circuit
+     * @param lOpenDelay
+     *            the delay (in milliseconds) before a probe call is allowed on an open circuit
+     */
+    SolrCircuitBreaker( int nFailureThreshold, long lOpenDelay )
+    {
+        _nFailureThreshold = Math.max( 1, nFailureThreshold );
+        _lOpenDelay = Math.max( 0, lOpenDelay );
+    }
+
+    /**
+     * Get the circuit breaker of the module
+     *
+     * @return the circuit breaker
+     */
+    public static SolrCircuitBreaker getInstance( )
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Check if a Solr call may be issued now. On an open circuit whose delay has elapsed, the first caller is allowed as a probe and the circuit becomes
+     * half-open. Another probe is allowed if the previous one did not report back within the delay.
+     *
+     * @return true if the call may be issued
+     */
+    public boolean allowRequest( )
+    {
+        long lNow = System.currentTimeMillis( );
+        long lOpenedAt = _lOpenedAt.get( );
+        switch( _state.get( ) )
+        {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if ( lNow - lOpenedAt >= _lOpenDelay && _state.compareAndSet( State.OPEN, State.HALF_OPEN ) )
+                {
+                    _lOpenedAt.set( lNow );
+                    _probe.set( Thread.currentThread( ) );
+                    return true;
+                }
+                return false;
+            default:
+                // A probe which did not report back within the delay is considered lost
+                if ( lNow - lOpenedAt >= _lOpenDelay && _lOpenedAt.compareAndSet( lOpenedAt, lNow ) )
+                {
+                    _probe.set( Thread.currentThread( ) );
+                    return true;
+                }
+                return false;
+        }
+    }
+
+    /**
+     * Check if the current thread holds the probe of a half-open circuit
+     *
+     * @return true if the probe was granted to the current thread and did not report back yet
+     */
+    public boolean holdsProbe( )
+    {
+        return _state.get( ) == State.HALF_OPEN && _probe.get( ) == Thread.currentThread( );
+    }
+
+    /**
+     * Check if the circuit currently refuses the Solr calls, without consuming the probe call
+     *
+     * @return true if the circuit is not closed
+     */
+    public boolean isOpen( )
+    {
+        return _state.get( ) != State.CLOSED;
+    }
+
+    /**
+     * Record a successful Solr call
+     */
+    public void recordSuccess( )
+    {
+        _nConsecutiveFailures.set( 0 );
+        _probe.set( null );
+        if ( _state.getAndSet( State.CLOSED ) != State.CLOSED )
+        {
+            AppLogService.info( "SolrCircuitBreaker: Solr is available again, circuit closed" );
+        }
+    }
+
+    /**
+     * Record a failed Solr call
+     */
+    public void recordFailure( )
+    {
+        int nFailures = _nConsecutiveFailures.incrementAndGet( );
+        State state = _state.get( );
+        if ( state == State.HALF_OPEN || ( state == State.CLOSED && nFailures >= _nFailureThreshold ) )
+        {
+            _lOpenedAt.set( System.currentTimeMillis( ) );
+            _probe.set( null );
+            _state.set( State.OPEN );
+            AppLogService.error( "SolrCircuitBreaker: " + nFailures + " consecutive Solr failures, circuit opened for " + _lOpenDelay + " ms" );
+        }
+    }
+
+    /**
+     * Get the current state of the circuit
+     *
+     * @return the state
+     */
+    public State getState( )
+    {
+        return _state.get( );
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.solr.client.solrj.beans.DocumentObjectBinder;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.SolrInputField;
+
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+/**
+ * Fingerprints of the documents last sent to Solr, used to skip the writes of unchanged documents.
+ *
+ * A fingerprint is a 64-bit hash of the indexed fields of a document. The table is keyed by a 64-bit hash of the document uid and held in three primitive
+ * arrays with open addressing, the third one holding the form of the document, so that an entry costs 20 bytes whatever the length of the uid. When the
+ * table reaches its maximum size it is cleared: the next writes are then sent again, which is always safe.
+ *
+ */
+final class SolrDocumentFingerprints
+{
+    private static final String PROPERTY_ENABLE = "appointment-solr.fingerprints.enable";
+    private static final String PROPERTY_MAX_ENTRIES = "appointment-solr.fingerprints.maxEntries";
+    private static final int DEFAULT_MAX_ENTRIES = 1000000;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final long EMPTY = 0L;
+    private static final int NO_FORM = -1;
+
+    private static final DocumentObjectBinder BINDER = new DocumentObjectBinder( );
+    private static final SolrDocumentFingerprints INSTANCE = new SolrDocumentFingerprints( AppPropertiesService.getPropertyInt( PROPERTY_MAX_ENTRIES,
+            DEFAULT_MAX_ENTRIES ) );
+
+    private final int _nMaxEntries;
+    private long [ ] _keys;
+    private long [ ] _values;
+    private int [ ] _forms;
+    private int _nSize;
+
+    /**
+     * Constructor
+     *
+     * @param nMaxEntries
+     *            the maximum number of fingerprints kept
+     */
+    SolrDocumentFingerprints( int nMaxEntries )
+    {
+        _nMaxEntries = Math.max( 1, nMaxEntries );
+        _keys = new long [ INITIAL_CAPACITY];
+        _values = new long [ INITIAL_CAPACITY];
+        _forms = new int [ INITIAL_CAPACITY];
+    }
+
+    /**
+     * Get the fingerprints of the module
+     *
+     * @return the fingerprints
+     */
+    static SolrDocumentFingerprints getInstance( )
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Check if the writes of unchanged documents are skipped. They are never skipped in cluster mode, where the other nodes write to the same documents, nor
+     * in the nested document layout, where a block is always written as a whole.
+     *
+     * @return true if the fingerprints are used
+     */
+    static boolean isEnabled( )
+    {
+        return AppPropertiesService.getPropertyBoolean( PROPERTY_ENABLE, false ) && !SolrAppointmentOutboxService.isEnabled( )
+                && !NestedDocuments.isEnabled( );
+    }
+
+    /**
+     * Compute the fingerprint of the indexed fields of an item
+     *
+     * @param item
+     *            the item
+     * @return the fingerprint
+     */
+    static long fingerprint( SolrItem item )
+    {
+        return fingerprint( BINDER.toSolrInputDocument( item ) );
+    }
+
+    /**
+     * Compute the fingerprint of the indexed fields of a document
+     *
+     * @param document
+     *            the document
+     * @return the fingerprint
+     */
+    static long fingerprint( SolrInputDocument document )
+    {
+        Map<String, Object> mapFields = new TreeMap<>( );
+        for ( SolrInputField field : document )
+        {
+            if ( field.getValue( ) != null )
+            {
+                mapFields.put( field.getName( ), field.getValue( ) );
+            }
+        }
+        long lHash = FNV_OFFSET_BASIS;
+        for ( Map.Entry<String, Object> field : mapFields.entrySet( ) )
+        {
+            lHash = hash( lHash, field.getKey( ) );
+            Object value = field.getValue( );
+            if ( value instanceof Collection )
+            {
+                for ( Object element : (Collection<?>) value )
+                {
+                    lHash = hash( lHash, String.valueOf( element ) );
+                }
+            }
+            else
+            {
+                lHash = hash( lHash, String.valueOf( value ) );
+            }
+        }
+        return lHash;
+    }
+
+    /**
+     * Check if the fingerprint is the one of the document last sent with this uid
+     *
+     * @param strUid
+     *            the Solr uid of the document
+     * @param lFingerprint
+     *            the fingerprint of the document to send
+     * @return true if the document is unchanged
+     */
+    synchronized boolean isUnchanged( String strUid, long lFingerprint )
+    {
+        int nIndex = indexOf( key( strUid ) );
+        return _keys [nIndex] != EMPTY && _values [nIndex] == lFingerprint;
+    }
+
+    /**
+     * Record the fingerprint of a document sent to Solr
+     *
+     * @param strUid
+     *            the Solr uid of the document
+     * @param nIdForm
+     *            the form of the document
+     * @param lFingerprint
+     *            the fingerprint of the document
+     */
+    synchronized void put( String strUid, int nIdForm, long lFingerprint )
+    {
+        long lKey = key( strUid );
+        int nIndex = indexOf( lKey );
+        if ( _keys [nIndex] == EMPTY )
+        {
+            if ( _nSize >= _nMaxEntries )
+            {
+                AppLogService.info( "SolrDocumentFingerprints: more than " + _nMaxEntries + " documents, fingerprints cleared" );
+                clear( );
+            }
+            else
+                if ( ( _nSize + 1 ) * 2 > _keys.length )
+                {
+                    resize( _keys.length * 2 );
+                }
+            nIndex = indexOf( lKey );
+            _keys [nIndex] = lKey;
+            _nSize++;
+        }
+        _values [nIndex] = lFingerprint;
+        _forms [nIndex] = nIdForm;
+    }
+
+    /**
+     * Forget the fingerprint of a document deleted from Solr
+     *
+     * @param strUid
+     *            the Solr uid of the document
+     */
+    synchronized void remove( String strUid )
+    {
+        int nIndex = indexOf( key( strUid ) );
+        if ( _keys [nIndex] == EMPTY )
+        {
+            return;
+        }
+        _keys [nIndex] = EMPTY;
+        _nSize--;
+        // Reinsert the following entries of the cluster so that the probing stays correct
+        int nMask = _keys.length - 1;
+        for ( int i = ( nIndex + 1 ) & nMask; _keys [i] != EMPTY; i = ( i + 1 ) & nMask )
+        {
+            long lKey = _keys [i];
+            long lValue = _values [i];
+            int nForm = _forms [i];
+            _keys [i] = EMPTY;
+            int nNewIndex = indexOf( lKey );
+            _keys [nNewIndex] = lKey;
+            _values [nNewIndex] = lValue;
+            _forms [nNewIndex] = nForm;
+        }
+    }
+
+    /**
+     * Forget the fingerprints of the documents of a form, for example when they were deleted by query
+     *
+     * @param nIdForm
+     *            the form id
+     */
+    synchronized void removeForm( int nIdForm )
+    {
+        rehash( _keys.length, nIdForm );
+    }
+
+    /**
+     * Forget all the fingerprints
+     */
+    synchronized void clear( )
+    {
+        Arrays.fill( _keys, EMPTY );
+        _nSize = 0;
+    }
+
+    /**
+     * @return the number of fingerprints kept
+     */
+    synchronized int size( )
+    {
+        return _nSize;
+    }
+
+    private int indexOf( long lKey )
+    {
+        int nMask = _keys.length - 1;
+        int nIndex = (int) ( lKey ^ ( lKey >>> 32 ) ) & nMask;
+        while ( _keys [nIndex] != EMPTY && _keys [nIndex] != lKey )
+        {
+            nIndex = ( nIndex + 1 ) & nMask;
+        }
+        return nIndex;
+    }
+
+    private void resize( int nCapacity )
+    {
+        rehash( nCapacity, NO_FORM );
+    }
+
+    /**
+     * Rebuild the table with a new capacity, dropping the entries of a form
+     *
+     * @param nCapacity
+     *            the capacity
+     * @param nIdFormRemoved
+     *            the form whose entries are dropped, NO_FORM to keep all the entries
+     */
+    private void rehash( int nCapacity, int nIdFormRemoved )
+    {
+        long [ ] oldKeys = _keys;
+        long [ ] oldValues = _values;
+        int [ ] oldForms = _forms;
+        _keys = new long [ nCapacity];
+        _values = new long [ nCapacity];
+        _forms = new int [ nCapacity];
+        _nSize = 0;
+        for ( int i = 0; i < oldKeys.length; i++ )
+        {
+            if ( oldKeys [i] != EMPTY && oldForms [i] != nIdFormRemoved )
+            {
+                int nIndex = indexOf( oldKeys [i] );
+                _keys [nIndex] = oldKeys [i];
+                _values [nIndex] = oldValues [i];
+                _forms [nIndex] = oldForms [i];
+                _nSize++;
+            }
+        }
+    }
+
+    private static long key( String strUid )
+    {
+        long lKey = hash( FNV_OFFSET_BASIS, strUid );
+        // 0 marks the empty entries
+        return lKey == EMPTY ? 1L : lKey;
+    }
+
+    private static long hash( long lHash, String strValue )
+    {
+        long lResult = lHash;
+        for ( byte b : strValue.getBytes( StandardCharsets.UTF_8 ) )
+        {
+            lResult ^= b & 0xff;
+            lResult *= FNV_PRIME;
+        }
+        // Separator, so that ("ab", "c") and ("a", "bc") differ
+        lResult ^= 0xff;
+        lResult *= FNV_PRIME;
+        return lResult;
+    }
+}
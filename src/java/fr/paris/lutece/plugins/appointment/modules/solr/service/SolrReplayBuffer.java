@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import fr.paris.lutece.plugins.appointment.business.slot.Slot;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+/**
+ * Bounded buffer of the forms and slots whose indexation could not be done because Solr was unavailable.
+ *
+ * The events are coalesced per form: a form is either fully dirty (it must be reindexed) or has a bounded set of dirty slots. When a form collects too many
+ * dirty slots it becomes fully dirty, and when too many forms are dirty the buffer overflows and a full reindex is required.
+ *
+ */
+public final class SolrReplayBuffer
+{
+    private static final String PROPERTY_MAX_FORMS = "appointment-solr.replay.maxForms";
+    private static final String PROPERTY_MAX_SLOTS_PER_FORM = "appointment-solr.replay.maxSlotsPerForm";
+    private static final int DEFAULT_MAX_FORMS = 1000;
+    private static final int DEFAULT_MAX_SLOTS_PER_FORM = 50;
+
+    private static final SolrReplayBuffer INSTANCE = new SolrReplayBuffer( AppPropertiesService.getPropertyInt( PROPERTY_MAX_FORMS, DEFAULT_MAX_FORMS ),
+            AppPropertiesService.getPropertyInt( PROPERTY_MAX_SLOTS_PER_FORM, DEFAULT_MAX_SLOTS_PER_FORM ) );
+
+    private final int _nMaxForms;
+    private final int _nMaxSlotsPerForm;
+    private final Map<Integer, DirtyForm> _mapDirtyForms = new LinkedHashMap<>( );
+    private boolean _bOverflow;
+
+    /**
+     * Constructor
+     *
+     * @param nMaxForms
+     *            the maximum number of dirty forms
+     * @param nMaxSlotsPerForm
+     *            the maximum number of dirty slots kept for a form
+     */
+    SolrReplayBuffer( int nMaxForms, int nMaxSlotsPerForm )
+    {
+        _nMaxForms = Math.max( 1, nMaxForms );
+        _nMaxSlotsPerForm = Math.max( 1, nMaxSlotsPerForm );
+    }
+
+    /**
+     * Get the replay buffer of the module
+     *
+     * @return the replay buffer
+     */
+    public static SolrReplayBuffer getInstance( )
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Mark the whole form as dirty
+     *
+     * @param nIdForm
+     *            the form id
+     */
+    public synchronized void markFormDirty( int nIdForm )
+    {
+        DirtyForm dirtyForm = getOrCreate( nIdForm );
+        if ( dirtyForm != null )
+        {
+            dirtyForm.setFull( );
+        }
+    }
+
+    /**
+     * Mark a slot as dirty. The previous pending event for the same slot is replaced.
+     *
+     * @param slot
+     *            the slot
+     */
+    public synchronized void markSlotDirty( Slot slot )
+    {
+        DirtyForm dirtyForm = getOrCreate( slot.getIdForm( ) );
+        if ( dirtyForm != null && !dirtyForm.isFull( ) )
+        {
+            dirtyForm._mapSlots.put( slot.getStartingDateTime( ), slot );
+            if ( dirtyForm._mapSlots.size( ) > _nMaxSlotsPerForm )
+            {
+                dirtyForm.setFull( );
+            }
+        }
+    }
+
+    /**
+     * Take at most nMax dirty forms out of the buffer, nearest term first: the fully dirty forms, whose near term slots are stale too, then the forms by
+     * their earliest dirty slot. The order of arrival breaks the ties.
+     *
+     * @param nMax
+     *            the maximum number of forms to take
+     * @return the dirty forms
+     */
+    public synchronized List<DirtyForm> poll( int nMax )
+    {
+        List<DirtyForm> listDirtyForms = new ArrayList<>( _mapDirtyForms.values( ) );
+        listDirtyForms.sort( Comparator.comparing( DirtyForm::getEarliestStartingDateTime ) );
+        if ( listDirtyForms.size( ) > nMax )
+        {
+            listDirtyForms = new ArrayList<>( listDirtyForms.subList( 0, Math.max( 0, nMax ) ) );
+        }
+        listDirtyForms.forEach( d -> _mapDirtyForms.remove( d.getIdForm( ) ) );
+        return listDirtyForms;
+    }
+
+    /**
+     * Check and reset the overflow flag
+     *
+     * @return true if the buffer overflowed since the last call, meaning a full reindex is required
+     */
+    public synchronized boolean pollOverflow( )
+    {
+        boolean bOverflow = _bOverflow;
+        _bOverflow = false;
+        return bOverflow;
+    }
+
+    /**
+     * Check if there is something to replay
+     *
+     * @return true if the buffer is empty and did not overflow
+     */
+    public synchronized boolean isEmpty( )
+    {
+        return _mapDirtyForms.isEmpty( ) && !_bOverflow;
+    }
+
+    /**
+     * Get the number of dirty forms
+     *
+     * @return the number of dirty forms
+     */
+    public synchronized int size( )
+    {
+        return _mapDirtyForms.size( );
+    }
+
+    private DirtyForm getOrCreate( int nIdForm )
+    {
+        DirtyForm dirtyForm = _mapDirtyForms.get( nIdForm );
+        if ( dirtyForm == null )
+        {
+            if ( _mapDirtyForms.size( ) >= _nMaxForms )
+            {
+                if ( !_bOverflow )
+                {
+                    AppLogService.error( "SolrReplayBuffer: more than " + _nMaxForms + " dirty forms, a full reindex will be done" );
+                }
+                // Every form will be reindexed, the individual entries are useless
+                _mapDirtyForms.clear( );
+                _bOverflow = true;
+                return null;
+            }
+            if ( _bOverflow )
+            {
+                return null;
+            }
+            dirtyForm = new DirtyForm( nIdForm );
+            _mapDirtyForms.put( nIdForm, dirtyForm );
+        }
+        return dirtyForm;
+    }
+
+    /**
+     * A form with pending index work
+     */
+    public static final class DirtyForm
+    {
+        private final int _nIdForm;
+        private boolean _bFull;
+        private final Map<LocalDateTime, Slot> _mapSlots = new LinkedHashMap<>( );
+
+        private DirtyForm( int nIdForm )
+        {
+            _nIdForm = nIdForm;
+        }
+
+        private void setFull( )
+        {
+            _bFull = true;
+            _mapSlots.clear( );
+        }
+
+        /**
+         * @return the form id
+         */
+        public int getIdForm( )
+        {
+            return _nIdForm;
+        }
+
+        /**
+         * @return true if the whole form must be reindexed
+         */
+        public boolean isFull( )
+        {
+            return _bFull;
+        }
+
+        /**
+         * @return the starting date time of the earliest dirty slot, {@link LocalDateTime#MIN} if the whole form must be reindexed
+         */
+        LocalDateTime getEarliestStartingDateTime( )
+        {
+            return _bFull ? LocalDateTime.MIN : _mapSlots.keySet( ).stream( ).min( Comparator.naturalOrder( ) ).orElse( LocalDateTime.MAX );
+        }
+
+        /**
+         * @return the dirty slots, empty if the whole form must be reindexed
+         */
+        public Collection<Slot> getSlots( )
+        {
+            return _mapSlots.values( );
+        }
+    }
+}
@@ -51,8 +51,10 @@ public final class Utilities
     public static final String APPOINTMENT_VERSION = "1.0.0";
     public static final String RESOURCE_TYPE_APPOINTMENT = "appointment";
     public static final String RESOURCE_TYPE_SLOT = "slot";
+    public static final String RESOURCE_TYPE_DAY = "day";
     public static final String SHORT_NAME_APPOINTMENT = "appointment";
     public static final String SHORT_NAME_SLOT = "appointment-slot";
+    public static final String SHORT_NAME_DAY = "appointment-day";
     public static final String PROPERTY_INDEXER_ENABLE = "appointment-solr.indexer.enable";
 
     public static final String PARAMETER_XPAGE = "page";
@@ -60,8 +62,14 @@ public final class Utilities
     public static final String PARAMETER_VIEW = "view";
 
     public static final String UNDERSCORE = "_";
+    public static final String FIELD_UID_FORM = "uid_form_string";
+    public static final String FIELD_DIGEST_NAME = "appointment_digest";
+    public static final String FIELD_DIGEST = FIELD_DIGEST_NAME + "_long";
+    public static final String FIELD_SEQUENCE_NAME = "appointment_sequence";
+    public static final String FIELD_SEQUENCE = FIELD_SEQUENCE_NAME + "_long";
 
     public static final DateTimeFormatter SLOT_SOLR_ID_DATE_FORMATTER = DateTimeFormatter.ofPattern( "yyyyMMdd'T'HHmmss" );
+    public static final DateTimeFormatter DAY_SOLR_ID_DATE_FORMATTER = DateTimeFormatter.ofPattern( "yyyyMMdd" );
     public static final String FORMAT_HIE_DATE = "yyyy/MM/dd";
     public static final DateTimeFormatter HIE_DATE_FORMATTER = DateTimeFormatter.ofPattern( FORMAT_HIE_DATE );
 
@@ -94,10 +102,15 @@ public final class Utilities
                 stringBuilder.append( '_' ).append( Utilities.SHORT_NAME_APPOINTMENT );
             }
             else
-            {
-                AppLogService.error( "SolrAppointmentIndexer, unknown resourceType: " + strResourceType );
-                return null;
-            }
+                if ( Utilities.RESOURCE_TYPE_DAY.equals( strResourceType ) )
+                {
+                    stringBuilder.append( '_' ).append( Utilities.SHORT_NAME_DAY );
+                }
+                else
+                {
+                    AppLogService.error( "SolrAppointmentIndexer, unknown resourceType: " + strResourceType );
+                    return null;
+                }
         return stringBuilder.toString( );
     }
 }
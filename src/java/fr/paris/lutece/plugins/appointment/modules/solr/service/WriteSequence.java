@@ -0,0 +1,378 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.apache.solr.common.SolrInputDocument;
+
+import fr.paris.lutece.plugins.appointment.modules.solr.business.IndexSequenceHome;
+import fr.paris.lutece.portal.service.search.SearchItem;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+/**
+ * Change sequence of the documents of the forms, so that a write built from an older state of a form cannot overwrite a newer one.
+ *
+ * A sequence number is taken before the state of a form is read, and stamped on the documents written from it. The numbers are increasing across all
+ * the forms, so that a number can be taken before the form of the state read is known, and follow the clock so that they keep increasing after a restart.
+ * In cluster mode the last number taken is shared by the nodes through the database, so that the numbers keep increasing across the nodes whatever their
+ * clocks; otherwise the webapp is the single writer of its documents. The writes of a form are sent one at a time, and the documents whose
+ * uid was already written or deleted with a higher number are dropped. The numbers written are kept for the time set by the property
+ * <code>appointment-solr.sequence.horizon</code>, and the forms without any number kept are forgotten; an older write is left to Solr, which rejects it
+ * when its update chain checks the sequence field with a <code>DocBasedVersionConstraintsProcessorFactory</code>.
+ *
+ */
+final class WriteSequence
+{
+    private static final String PROPERTY_HORIZON = "appointment-solr.sequence.horizon";
+    private static final long DEFAULT_HORIZON = 60000L;
+    private static final long NUMBERS_PER_MILLISECOND = 1000L;
+    private static final long PRUNE_INTERVAL = 1000L;
+    private static final int NB_LOCKS = 256;
+    private static final WriteSequence INSTANCE = new WriteSequence( AppPropertiesService.getPropertyLong( PROPERTY_HORIZON, DEFAULT_HORIZON ),
+            SolrAppointmentOutboxService.isEnabled( ) ? new DatabaseSequence( ) : null );
+
+    private final long _lHorizon;
+    private final SharedSequence _sharedSequence;
+    private final AtomicLong _lLast = new AtomicLong( );
+    private final AtomicLong _lNextEviction = new AtomicLong( );
+    private final ConcurrentMap<Integer, FormSequence> _mapForms = new ConcurrentHashMap<>( );
+    private final Object [ ] _locks = new Object [ NB_LOCKS];
+
+    /**
+     * Constructor of the sequence of a single writer
+     *
+     * @param lHorizon
+     *            the time in milliseconds the numbers written are kept
+     */
+    WriteSequence( long lHorizon )
+    {
+        this( lHorizon, null );
+    }
+
+    /**
+     * Constructor
+     *
+     * @param lHorizon
+     *            the time in milliseconds the numbers written are kept
+     * @param sharedSequence
+     *            the sequence shared by the writers, null for a single writer
+     */
+    WriteSequence( long lHorizon, SharedSequence sharedSequence )
+    {
+        _lHorizon = lHorizon;
+        _sharedSequence = sharedSequence;
+        for ( int i = 0; i < NB_LOCKS; i++ )
+        {
+            _locks [i] = new Object( );
+        }
+    }
+
+    /**
+     * Get the change sequence of the documents
+     *
+     * @return the instance
+     */
+    static WriteSequence getInstance( )
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Take the next number, before reading the state of a form
+     *
+     * @return the number
+     */
+    long next( )
+    {
+        long lClock = System.currentTimeMillis( ) * NUMBERS_PER_MILLISECOND;
+        if ( _sharedSequence != null )
+        {
+            long lNext = _sharedSequence.next( lClock );
+            _lLast.accumulateAndGet( lNext, Math::max );
+            return lNext;
+        }
+        return _lLast.updateAndGet( lLast -> Math.max( lLast + 1, lClock ) );
+    }
+
+    /**
+     * Get a number without taking it, for documents read now but not written through the sequence: it is higher than or equal to the numbers already taken
+     * and lower than the numbers taken from now on
+     *
+     * @return the number
+     */
+    long current( )
+    {
+        if ( _sharedSequence != null )
+        {
+            return Math.max( _lLast.get( ), _sharedSequence.current( ) );
+        }
+        return Math.max( _lLast.get( ), System.currentTimeMillis( ) * NUMBERS_PER_MILLISECOND - 1 );
+    }
+
+    /**
+     * Get the lock held while a write of a form is checked and sent, so that the writes of a form reach Solr in the order they are checked. A lock may be
+     * shared by several forms.
+     *
+     * @param nIdForm
+     *            the form id
+     * @return the lock
+     */
+    Object getLock( int nIdForm )
+    {
+        return _locks [Math.floorMod( nIdForm, NB_LOCKS )];
+    }
+
+    /**
+     * Keep the documents which are not superseded by a write or a delete with a higher number, and record their number. The caller holds the lock of the
+     * form.
+     *
+     * @param nIdForm
+     *            the form id
+     * @param listDocuments
+     *            the documents, with a prefixed uid and a sequence field
+     * @return the documents to send
+     */
+    List<SolrInputDocument> accept( int nIdForm, Collection<SolrInputDocument> listDocuments )
+    {
+        List<SolrInputDocument> listAccepted = new ArrayList<>( listDocuments.size( ) );
+        update( nIdForm, formSequence -> {
+            for ( SolrInputDocument document : listDocuments )
+            {
+                Long lSequence = getSequence( document );
+                if ( lSequence == null || formSequence.accept( (String) document.getFieldValue( SearchItem.FIELD_UID ), lSequence ) )
+                {
+                    listAccepted.add( document );
+                }
+            }
+        } );
+        return listAccepted;
+    }
+
+    /**
+     * Keep the uids to delete which are not superseded by a write with a higher number, and record the number. The caller holds the lock of the form.
+     *
+     * @param nIdForm
+     *            the form id
+     * @param listUids
+     *            the prefixed uids
+     * @param lSequence
+     *            the number of the delete
+     * @return the uids to delete
+     */
+    List<String> acceptDelete( int nIdForm, Collection<String> listUids, long lSequence )
+    {
+        List<String> listAccepted = new ArrayList<>( listUids.size( ) );
+        update( nIdForm, formSequence -> {
+            for ( String strUid : listUids )
+            {
+                if ( formSequence.accept( strUid, lSequence ) )
+                {
+                    listAccepted.add( strUid );
+                }
+            }
+        } );
+        return listAccepted;
+    }
+
+    /**
+     * Record the delete of all the documents of a form: the writes with a lower number are dropped
+     *
+     * @param nIdForm
+     *            the form id
+     * @param lSequence
+     *            the number of the delete
+     */
+    void deleteForm( int nIdForm, long lSequence )
+    {
+        update( nIdForm, formSequence -> {
+            formSequence._mapUids.clear( );
+            formSequence._lFloor = Math.max( formSequence._lFloor, lSequence );
+        } );
+    }
+
+    /**
+     * Get the number of forms whose numbers are kept
+     *
+     * @return the number of forms
+     */
+    int getFormCount( )
+    {
+        return _mapForms.size( );
+    }
+
+    /**
+     * Get the sequence number stamped on a document
+     *
+     * @param document
+     *            the document
+     * @return the number, or null if the document has none
+     */
+    static Long getSequence( SolrInputDocument document )
+    {
+        Object value = document.getFieldValue( Utilities.FIELD_SEQUENCE );
+        if ( value instanceof Map )
+        {
+            // Atomic update
+            value = ( (Map<?, ?>) value ).values( ).stream( ).findFirst( ).orElse( null );
+        }
+        return value instanceof Number ? ( (Number) value ).longValue( ) : null;
+    }
+
+    /**
+     * Update the numbers of a form, atomically with the eviction of the idle forms. The forms without any number kept are evicted once per horizon.
+     *
+     * @param nIdForm
+     *            the form id
+     * @param updater
+     *            the update of the numbers of the form
+     */
+    private void update( int nIdForm, Consumer<FormSequence> updater )
+    {
+        long lNow = System.currentTimeMillis( );
+        long lMinimum = ( lNow - _lHorizon ) * NUMBERS_PER_MILLISECOND;
+        _mapForms.compute( nIdForm, ( key, formSequence ) -> {
+            FormSequence updated = formSequence != null ? formSequence : new FormSequence( );
+            updated.prune( lMinimum, getPruneInterval( ) );
+            updater.accept( updated );
+            return updated;
+        } );
+        long lNextEviction = _lNextEviction.get( );
+        if ( lNow >= lNextEviction && _lNextEviction.compareAndSet( lNextEviction, lNow + _lHorizon ) )
+        {
+            for ( Integer nIdIdleForm : _mapForms.keySet( ) )
+            {
+                _mapForms.computeIfPresent( nIdIdleForm, ( key, formSequence ) -> {
+                    formSequence.prune( lMinimum, getPruneInterval( ) );
+                    return formSequence.isIdle( lMinimum ) ? null : formSequence;
+                } );
+            }
+        }
+    }
+
+    private long getPruneInterval( )
+    {
+        return Math.min( PRUNE_INTERVAL, _lHorizon ) * NUMBERS_PER_MILLISECOND;
+    }
+
+    /**
+     * The last number taken, shared by the writers of the documents
+     */
+    interface SharedSequence
+    {
+        /**
+         * Take the next number
+         *
+         * @param lMinimum
+         *            the lowest number to take
+         * @return the number, higher than all the numbers taken before by any writer
+         */
+        long next( long lMinimum );
+
+        /**
+         * @return the last number taken by any writer
+         */
+        long current( );
+    }
+
+    /**
+     * The sequence shared by the nodes of a cluster through the database
+     */
+    private static final class DatabaseSequence implements SharedSequence
+    {
+        @Override
+        public long next( long lMinimum )
+        {
+            return IndexSequenceHome.next( lMinimum );
+        }
+
+        @Override
+        public long current( )
+        {
+            return IndexSequenceHome.current( );
+        }
+    }
+
+    /**
+     * The numbers of a form: the last delete of the form and the last written per uid
+     */
+    private static final class FormSequence
+    {
+        private long _lFloor;
+        private long _lNextPrune;
+        private final Map<String, Long> _mapUids = new HashMap<>( );
+
+        private boolean accept( String strUid, long lSequence )
+        {
+            Long lWritten = _mapUids.get( strUid );
+            if ( lSequence < _lFloor || ( lWritten != null && lSequence < lWritten ) )
+            {
+                return false;
+            }
+            _mapUids.put( strUid, lSequence );
+            return true;
+        }
+
+        /**
+         * Forget the numbers lower than the minimum, whatever the order they were written in. The numbers are scanned at most once per prune interval.
+         *
+         * @param lMinimum
+         *            the lowest number kept
+         * @param lInterval
+         *            the prune interval, in numbers
+         */
+        private void prune( long lMinimum, long lInterval )
+        {
+            if ( lMinimum < _lNextPrune )
+            {
+                return;
+            }
+            _mapUids.values( ).removeIf( lSequence -> lSequence < lMinimum );
+            _lNextPrune = lMinimum + lInterval;
+        }
+
+        private boolean isIdle( long lMinimum )
+        {
+            return _mapUids.isEmpty( ) && _lFloor < lMinimum;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+--
+-- Structure for table appointment_solr_outbox
+--
+CREATE TABLE appointment_solr_outbox (
+	id_form INT NOT NULL,
+	reindex_full SMALLINT DEFAULT 0 NOT NULL,
+	reindex_metadata SMALLINT DEFAULT 0 NOT NULL,
+	range_start DATE NULL,
+	range_end DATE NULL,
+	version INT DEFAULT 0 NOT NULL,
+	date_change TIMESTAMP NULL,
+	claimed_by VARCHAR(255) NULL,
+	claimed_until TIMESTAMP NULL,
+	PRIMARY KEY (id_form)
+);
+CREATE INDEX idx_appointment_solr_outbox_date_change ON appointment_solr_outbox (date_change);
+
+--
+-- Structure for table appointment_solr_outbox_slot
+--
+CREATE TABLE appointment_solr_outbox_slot (
+	id_form INT NOT NULL,
+	id_slot INT NOT NULL,
+	PRIMARY KEY (id_form, id_slot)
+);
+
+--
+-- Structure for table appointment_solr_checkpoint
+--
+CREATE TABLE appointment_solr_checkpoint (
+	id_form INT NOT NULL,
+	status VARCHAR(20) NOT NULL,
+	nb_slots INT DEFAULT 0 NOT NULL,
+	date_status TIMESTAMP NULL,
+	PRIMARY KEY (id_form)
+);
+
+--
+-- Structure for table appointment_solr_sequence
+--
+CREATE TABLE appointment_solr_sequence (
+	id_sequence INT NOT NULL,
+	last_value BIGINT DEFAULT 0 NOT NULL,
+	PRIMARY KEY (id_sequence)
+);
+INSERT INTO appointment_solr_sequence ( id_sequence, last_value ) VALUES ( 1, 0 );
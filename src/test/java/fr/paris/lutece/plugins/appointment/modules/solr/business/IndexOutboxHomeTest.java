@@ -0,0 +1,342 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.business;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import fr.paris.lutece.portal.service.plugin.Plugin;
+import fr.paris.lutece.portal.service.util.AppException;
+import fr.paris.lutece.test.LuteceTestCase;
+
+public class IndexOutboxHomeTest extends LuteceTestCase
+{
+    private static final String NODE_ID = "node_1";
+    private static final long CLAIM_DURATION = 60000L;
+
+    /**
+     * Outbox held in memory, with the semantics of the queries of {@link IndexOutboxDAO}
+     */
+    private static final class MemoryIndexOutboxDAO implements IIndexOutboxDAO
+    {
+        private final Map<Integer, IndexOutboxEntry> _mapEntries = new TreeMap<>( );
+        private final Map<Integer, Set<Integer>> _mapSlots = new TreeMap<>( );
+        private Runnable _beforeStoreChange;
+        private boolean _bUnavailable;
+
+        private void checkAvailable( )
+        {
+            if ( _bUnavailable )
+            {
+                throw new AppException( "Database unavailable" );
+            }
+        }
+
+        private static IndexOutboxEntry copy( IndexOutboxEntry entry )
+        {
+            IndexOutboxEntry copy = new IndexOutboxEntry( );
+            copy.setIdForm( entry.getIdForm( ) );
+            copy.setFull( entry.isFull( ) );
+            copy.setMetadata( entry.isMetadata( ) );
+            copy.setDateRangeStart( entry.getDateRangeStart( ) );
+            copy.setDateRangeEnd( entry.getDateRangeEnd( ) );
+            copy.setVersion( entry.getVersion( ) );
+            copy.setDateChange( entry.getDateChange( ) );
+            copy.setClaimedBy( entry.getClaimedBy( ) );
+            copy.setDateClaimedUntil( entry.getDateClaimedUntil( ) );
+            return copy;
+        }
+
+        @Override
+        public void insert( IndexOutboxEntry entry, Plugin plugin )
+        {
+            checkAvailable( );
+            if ( _mapEntries.containsKey( entry.getIdForm( ) ) )
+            {
+                throw new AppException( "Duplicate key" );
+            }
+            IndexOutboxEntry inserted = copy( entry );
+            inserted.setVersion( 0 );
+            _mapEntries.put( entry.getIdForm( ), inserted );
+        }
+
+        @Override
+        public int storeChange( IndexOutboxEntry change, Plugin plugin )
+        {
+            checkAvailable( );
+            if ( _beforeStoreChange != null )
+            {
+                Runnable beforeStoreChange = _beforeStoreChange;
+                _beforeStoreChange = null;
+                beforeStoreChange.run( );
+            }
+            IndexOutboxEntry entry = _mapEntries.get( change.getIdForm( ) );
+            if ( entry == null )
+            {
+                return 0;
+            }
+            entry.setFull( entry.isFull( ) || change.isFull( ) );
+            entry.setMetadata( entry.isMetadata( ) || change.isMetadata( ) );
+            if ( change.getDateRangeStart( ) != null && change.getDateRangeEnd( ) != null )
+            {
+                if ( entry.getDateRangeStart( ) == null || entry.getDateRangeStart( ).isAfter( change.getDateRangeStart( ) ) )
+                {
+                    entry.setDateRangeStart( change.getDateRangeStart( ) );
+                }
+                if ( entry.getDateRangeEnd( ) == null || entry.getDateRangeEnd( ).isBefore( change.getDateRangeEnd( ) ) )
+                {
+                    entry.setDateRangeEnd( change.getDateRangeEnd( ) );
+                }
+            }
+            entry.setVersion( entry.getVersion( ) + 1 );
+            entry.setDateChange( change.getDateChange( ) );
+            return 1;
+        }
+
+        @Override
+        public IndexOutboxEntry load( int nIdForm, Plugin plugin )
+        {
+            IndexOutboxEntry entry = _mapEntries.get( nIdForm );
+            return entry != null ? copy( entry ) : null;
+        }
+
+        @Override
+        public List<Integer> selectPendingFormIds( Timestamp dateNow, int nMax, Plugin plugin )
+        {
+            return _mapEntries.values( ).stream( )
+                    .filter( entry -> entry.getClaimedBy( ) == null || entry.getDateClaimedUntil( ).before( dateNow ) )
+                    .sorted( Comparator.comparing( IndexOutboxEntry::getDateChange ) ).limit( nMax ).map( IndexOutboxEntry::getIdForm )
+                    .collect( Collectors.toList( ) );
+        }
+
+        @Override
+        public List<Integer> selectOrphanSlotFormIds( Plugin plugin )
+        {
+            return _mapSlots.keySet( ).stream( ).filter( nIdForm -> !_mapEntries.containsKey( nIdForm ) ).collect( Collectors.toList( ) );
+        }
+
+        @Override
+        public void claim( int nIdForm, String strNodeId, Timestamp dateNow, Timestamp dateClaimedUntil, Plugin plugin )
+        {
+            IndexOutboxEntry entry = _mapEntries.get( nIdForm );
+            if ( entry != null && ( entry.getClaimedBy( ) == null || entry.getDateClaimedUntil( ).before( dateNow ) ) )
+            {
+                entry.setClaimedBy( strNodeId );
+                entry.setDateClaimedUntil( dateClaimedUntil );
+            }
+        }
+
+        @Override
+        public void release( int nIdForm, String strNodeId, Plugin plugin )
+        {
+            IndexOutboxEntry entry = _mapEntries.get( nIdForm );
+            if ( entry != null && strNodeId.equals( entry.getClaimedBy( ) ) )
+            {
+                entry.setClaimedBy( null );
+                entry.setDateClaimedUntil( null );
+            }
+        }
+
+        @Override
+        public void delete( int nIdForm, int nVersion, Plugin plugin )
+        {
+            IndexOutboxEntry entry = _mapEntries.get( nIdForm );
+            if ( entry != null && entry.getVersion( ) == nVersion )
+            {
+                _mapEntries.remove( nIdForm );
+            }
+        }
+
+        @Override
+        public void insertSlot( int nIdForm, int nIdSlot, Plugin plugin )
+        {
+            checkAvailable( );
+            if ( !_mapSlots.computeIfAbsent( nIdForm, k -> new TreeSet<>( ) ).add( nIdSlot ) )
+            {
+                throw new AppException( "Duplicate key" );
+            }
+        }
+
+        @Override
+        public List<Integer> selectSlotIds( int nIdForm, Plugin plugin )
+        {
+            return new ArrayList<>( _mapSlots.getOrDefault( nIdForm, Collections.emptySet( ) ) );
+        }
+
+        @Override
+        public void deleteSlot( int nIdForm, int nIdSlot, Plugin plugin )
+        {
+            Set<Integer> setSlots = _mapSlots.get( nIdForm );
+            if ( setSlots != null && setSlots.remove( nIdSlot ) && setSlots.isEmpty( ) )
+            {
+                _mapSlots.remove( nIdForm );
+            }
+        }
+
+        @Override
+        public void deleteSlots( int nIdForm, Plugin plugin )
+        {
+            _mapSlots.remove( nIdForm );
+        }
+    }
+
+    private MemoryIndexOutboxDAO _dao;
+
+    @Override
+    protected void setUp( ) throws Exception
+    {
+        super.setUp( );
+        _dao = new MemoryIndexOutboxDAO( );
+        IndexOutboxHome.setDAO( _dao );
+    }
+
+    public void testCoalescing( )
+    {
+        IndexOutboxHome.enqueueSlot( 1, 10 );
+        IndexOutboxHome.enqueueSlot( 1, 11 );
+        IndexOutboxHome.enqueueSlot( 1, 10 );
+        IndexOutboxHome.enqueue( 2, false );
+
+        // A single entry per form, whose version counts the changes
+        IndexOutboxEntry entry = IndexOutboxHome.findByPrimaryKey( 1 );
+        assertEquals( 2, entry.getVersion( ) );
+        assertFalse( entry.isFull( ) );
+        assertEquals( Arrays.asList( 1, 2 ), IndexOutboxHome.getPendingFormIds( 10 ) );
+
+        // A full reindex supersedes the changes of the slots
+        IndexOutboxHome.enqueue( 1, true );
+        assertTrue( IndexOutboxHome.findByPrimaryKey( 1 ).isFull( ) );
+        IndexOutboxHome.enqueue( 1, false );
+        assertTrue( IndexOutboxHome.findByPrimaryKey( 1 ).isFull( ) );
+
+        assertEquals( Arrays.asList( 10, 11 ), IndexOutboxHome.takeSlotIds( 1 ) );
+        assertTrue( IndexOutboxHome.takeSlotIds( 1 ).isEmpty( ) );
+    }
+
+    public void testChangeKindsAreMerged( )
+    {
+        LocalDate day = LocalDate.of( 2030, 1, 7 );
+        IndexOutboxHome.enqueueRange( 1, day.plusDays( 2 ), day.plusDays( 3 ) );
+        IndexOutboxHome.enqueueMetadata( 1 );
+        IndexOutboxHome.enqueueRange( 1, day, day.plusDays( 1 ) );
+        IndexOutboxHome.enqueue( 1, false );
+
+        IndexOutboxEntry entry = IndexOutboxHome.findByPrimaryKey( 1 );
+        assertFalse( entry.isFull( ) );
+        assertTrue( entry.isMetadata( ) );
+        assertEquals( day, entry.getDateRangeStart( ) );
+        assertEquals( day.plusDays( 3 ), entry.getDateRangeEnd( ) );
+
+        // The kinds are kept when the entry is inserted again
+        IndexOutboxHome.complete( IndexOutboxHome.claim( 1, NODE_ID, CLAIM_DURATION ), NODE_ID );
+        IndexOutboxHome.enqueueMetadata( 1 );
+        entry = IndexOutboxHome.findByPrimaryKey( 1 );
+        assertTrue( entry.isMetadata( ) );
+        assertNull( entry.getDateRangeStart( ) );
+    }
+
+    public void testEnqueueDuringProcessing( )
+    {
+        IndexOutboxHome.enqueue( 1, false );
+        IndexOutboxEntry entry = IndexOutboxHome.claim( 1, NODE_ID, CLAIM_DURATION );
+        assertNotNull( entry );
+        assertNull( IndexOutboxHome.claim( 1, "node_2", CLAIM_DURATION ) );
+
+        // Changed again while it is processed: the entry is kept and released
+        IndexOutboxHome.enqueue( 1, false );
+        assertFalse( IndexOutboxHome.complete( entry, NODE_ID ) );
+        assertNull( IndexOutboxHome.findByPrimaryKey( 1 ).getClaimedBy( ) );
+        assertEquals( Collections.singletonList( 1 ), IndexOutboxHome.getPendingFormIds( 10 ) );
+
+        IndexOutboxEntry entryAgain = IndexOutboxHome.claim( 1, NODE_ID, CLAIM_DURATION );
+        assertTrue( IndexOutboxHome.complete( entryAgain, NODE_ID ) );
+        assertNull( IndexOutboxHome.findByPrimaryKey( 1 ) );
+    }
+
+    public void testEnqueueDuringComplete( )
+    {
+        IndexOutboxHome.enqueue( 1, false );
+        IndexOutboxEntry entry = IndexOutboxHome.claim( 1, NODE_ID, CLAIM_DURATION );
+        boolean [ ] bCompleted = {
+                false
+        };
+        // The entry is completed between the start of the enqueue and its update
+        _dao._beforeStoreChange = ( ) -> bCompleted [0] = IndexOutboxHome.complete( entry, NODE_ID );
+
+        IndexOutboxHome.enqueue( 1, true );
+
+        assertTrue( bCompleted [0] );
+        IndexOutboxEntry entryNew = IndexOutboxHome.findByPrimaryKey( 1 );
+        assertNotNull( entryNew );
+        assertTrue( entryNew.isFull( ) );
+        assertNull( entryNew.getClaimedBy( ) );
+    }
+
+    public void testOrphanSlotsArePending( )
+    {
+        // The slot is recorded but the change of its form is lost
+        _dao.insertSlot( 1, 10, null );
+
+        assertEquals( Collections.singletonList( 1 ), IndexOutboxHome.getPendingFormIds( 10 ) );
+        IndexOutboxEntry entry = IndexOutboxHome.claim( 1, NODE_ID, CLAIM_DURATION );
+        assertNotNull( entry );
+        assertEquals( Collections.singletonList( 10 ), IndexOutboxHome.takeSlotIds( 1 ) );
+        assertTrue( IndexOutboxHome.complete( entry, NODE_ID ) );
+        assertTrue( IndexOutboxHome.getPendingFormIds( 10 ).isEmpty( ) );
+    }
+
+    public void testEnqueueFailure( )
+    {
+        _dao._bUnavailable = true;
+        try
+        {
+            IndexOutboxHome.enqueue( 1, false );
+            fail( "The change must not be lost silently" );
+        }
+        catch( AppException e )
+        {
+            // Reported to the caller
+        }
+    }
+}
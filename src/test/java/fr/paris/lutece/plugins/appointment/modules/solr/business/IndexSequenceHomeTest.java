@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.business;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fr.paris.lutece.portal.service.plugin.Plugin;
+import fr.paris.lutece.test.LuteceTestCase;
+
+public class IndexSequenceHomeTest extends LuteceTestCase
+{
+    /**
+     * Sequence kept in memory, whose last number can be taken by another node between a load and a store
+     */
+    private static final class MemoryIndexSequenceDAO implements IIndexSequenceDAO
+    {
+        private long _lLast;
+        private final AtomicInteger _nConcurrentTakes = new AtomicInteger( );
+
+        @Override
+        public synchronized long load( Plugin plugin )
+        {
+            return _lLast;
+        }
+
+        @Override
+        public synchronized int store( long lExpected, long lValue, Plugin plugin )
+        {
+            if ( _nConcurrentTakes.getAndDecrement( ) > 0 )
+            {
+                _lLast++;
+            }
+            if ( _lLast != lExpected )
+            {
+                return 0;
+            }
+            _lLast = lValue;
+            return 1;
+        }
+    }
+
+    private MemoryIndexSequenceDAO _dao;
+
+    @Override
+    protected void setUp( ) throws Exception
+    {
+        super.setUp( );
+        _dao = new MemoryIndexSequenceDAO( );
+        IndexSequenceHome.setDAO( _dao );
+    }
+
+    public void testNextIsIncreasing( )
+    {
+        assertEquals( 1000L, IndexSequenceHome.next( 1000L ) );
+        // The minimum of a node whose clock is behind
+        assertEquals( 1001L, IndexSequenceHome.next( 500L ) );
+        assertEquals( 1001L, IndexSequenceHome.current( ) );
+        assertEquals( 2000L, IndexSequenceHome.next( 2000L ) );
+    }
+
+    public void testNextAfterConcurrentTakes( )
+    {
+        IndexSequenceHome.next( 1000L );
+        _dao._nConcurrentTakes.set( 2 );
+        // The numbers taken meanwhile by another node are not taken again
+        assertEquals( 1003L, IndexSequenceHome.next( 0L ) );
+        assertEquals( 1003L, IndexSequenceHome.current( ) );
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.business;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import fr.paris.lutece.portal.service.plugin.Plugin;
+
+/**
+ * Checkpoints held in memory, for the tests of the full reindex
+ */
+public final class MemoryIndexCheckpointDAO implements IIndexCheckpointDAO
+{
+    private final Map<Integer, IndexCheckpoint> _mapCheckpoints = new TreeMap<>( );
+
+    /**
+     * Use a new DAO in memory for the checkpoints
+     *
+     * @return the DAO
+     */
+    public static MemoryIndexCheckpointDAO install( )
+    {
+        MemoryIndexCheckpointDAO dao = new MemoryIndexCheckpointDAO( );
+        IndexCheckpointHome.setDAO( dao );
+        return dao;
+    }
+
+    @Override
+    public synchronized void insert( IndexCheckpoint checkpoint, Plugin plugin )
+    {
+        _mapCheckpoints.put( checkpoint.getIdForm( ), checkpoint );
+    }
+
+    @Override
+    public synchronized void delete( int nIdForm, Plugin plugin )
+    {
+        _mapCheckpoints.remove( nIdForm );
+    }
+
+    @Override
+    public synchronized void deleteAll( Plugin plugin )
+    {
+        _mapCheckpoints.clear( );
+    }
+
+    @Override
+    public synchronized List<IndexCheckpoint> selectAll( Plugin plugin )
+    {
+        return new ArrayList<>( _mapCheckpoints.values( ) );
+    }
+}
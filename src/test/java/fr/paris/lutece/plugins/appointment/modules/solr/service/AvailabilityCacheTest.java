@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.List;
+
+import fr.paris.lutece.test.LuteceTestCase;
+
+public class AvailabilityCacheTest extends LuteceTestCase
+{
+    private static final LocalDate MONDAY = LocalDate.of( 2030, 1, 7 );
+
+    public void testInvalidationPerDay( )
+    {
+        AvailabilityCache cache = new AvailabilityCache( 10, 60000, 0 );
+        List<AvailableSlot> listSlots = Collections.emptyList( );
+        long lStart = System.currentTimeMillis( );
+        cache.put( 1, "week1", MONDAY, MONDAY.plusDays( 6 ), listSlots, lStart );
+        cache.put( 1, "week2", MONDAY.plusWeeks( 1 ), MONDAY.plusWeeks( 1 ).plusDays( 6 ), listSlots, lStart );
+        cache.put( 2, "week1", MONDAY, MONDAY.plusDays( 6 ), listSlots, lStart );
+        assertSame( listSlots, cache.get( 1, "week1" ) );
+
+        cache.invalidate( 1, Collections.singleton( MONDAY.plusDays( 3 ) ) );
+        assertNull( cache.get( 1, "week1" ) );
+        assertSame( listSlots, cache.get( 1, "week2" ) );
+        assertSame( listSlots, cache.get( 2, "week1" ) );
+
+        cache.invalidateForm( 2 );
+        assertNull( cache.get( 2, "week1" ) );
+    }
+
+    public void testSearchDuringWriteIsNotCached( )
+    {
+        AvailabilityCache cache = new AvailabilityCache( 10, 60000, 60000 );
+        cache.invalidate( 1, Collections.singleton( MONDAY ) );
+        // The write may not be visible in Solr yet
+        cache.put( 1, "week1", MONDAY, MONDAY.plusDays( 6 ), Collections.emptyList( ), System.currentTimeMillis( ) );
+        assertNull( cache.get( 1, "week1" ) );
+        cache.put( 1, "week2", MONDAY.plusWeeks( 1 ), MONDAY.plusWeeks( 1 ).plusDays( 6 ), Collections.emptyList( ), System.currentTimeMillis( ) );
+        assertNotNull( cache.get( 1, "week2" ) );
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import fr.paris.lutece.test.LuteceTestCase;
+
+public class DateRangeDebouncerTest extends LuteceTestCase
+{
+    public void testBurstIsMerged( ) throws InterruptedException
+    {
+        List<LocalDate [ ]> listFlushes = Collections.synchronizedList( new ArrayList<>( ) );
+        CountDownLatch latch = new CountDownLatch( 1 );
+        DateRangeDebouncer debouncer = new DateRangeDebouncer( 100, 10000, ( nIdForm, startingDate, endingDate ) -> {
+            listFlushes.add( new LocalDate [ ] {
+                    startingDate, endingDate
+            } );
+            latch.countDown( );
+        } );
+
+        LocalDate monday = LocalDate.of( 2030, 1, 7 );
+        debouncer.add( 1, monday.plusWeeks( 2 ), monday.plusWeeks( 2 ).plusDays( 6 ) );
+        debouncer.add( 1, monday, monday.plusDays( 6 ) );
+        debouncer.add( 1, monday.plusWeeks( 1 ), monday.plusWeeks( 1 ).plusDays( 6 ) );
+
+        assertTrue( latch.await( 2, TimeUnit.SECONDS ) );
+        Thread.sleep( 150 );
+        assertEquals( 1, listFlushes.size( ) );
+        assertEquals( monday, listFlushes.get( 0 ) [0] );
+        assertEquals( monday.plusWeeks( 2 ).plusDays( 6 ), listFlushes.get( 0 ) [1] );
+    }
+
+    public void testNoQuietPeriod( )
+    {
+        List<Integer> listFlushes = new ArrayList<>( );
+        DateRangeDebouncer debouncer = new DateRangeDebouncer( 0, 0, ( nIdForm, startingDate, endingDate ) -> listFlushes.add( nIdForm ) );
+        debouncer.add( 1, LocalDate.now( ), LocalDate.now( ) );
+        debouncer.add( 2, LocalDate.now( ), LocalDate.now( ) );
+        assertEquals( 2, listFlushes.size( ) );
+    }
+}
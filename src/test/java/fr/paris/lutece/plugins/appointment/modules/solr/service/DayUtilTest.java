@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.solr.client.solrj.beans.DocumentObjectBinder;
+import org.apache.solr.common.SolrInputDocument;
+
+import fr.paris.lutece.plugins.appointment.business.slot.Slot;
+import fr.paris.lutece.plugins.appointment.web.dto.AppointmentFormDTO;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+import fr.paris.lutece.portal.service.search.SearchItem;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+import fr.paris.lutece.test.LuteceTestCase;
+
+public class DayUtilTest extends LuteceTestCase
+{
+    private static final String PROPERTY_DAY_SUMMARY_ENABLE = "appointment-solr.daySummary.enable";
+    private static final DocumentObjectBinder BINDER = new DocumentObjectBinder( );
+    // A monday
+    private static final LocalDate DAY1 = LocalDate.of( 2030, 1, 7 );
+    private static final LocalDate DAY3 = DAY1.plusDays( 2 );
+    private static final LocalDate DAY4 = DAY1.plusDays( 3 );
+
+    private static Slot slot( LocalDateTime start, int nMaxCapacity, int nRemainingPlaces, boolean bOpen )
+    {
+        Slot slot = new Slot( );
+        slot.setIdForm( 1 );
+        slot.setStartingDateTime( start );
+        slot.setEndingDateTime( start.plusHours( 1 ) );
+        slot.setMaxCapacity( nMaxCapacity );
+        slot.setNbPotentialRemainingPlaces( nRemainingPlaces );
+        slot.setIsOpen( bOpen );
+        return slot;
+    }
+
+    private static AppointmentFormDTO form( )
+    {
+        AppointmentFormDTO form = new AppointmentFormDTO( );
+        form.setIdForm( 1 );
+        form.setTitle( "Form 1" );
+        form.setIsActive( true );
+        form.setIsMultislotAppointment( true );
+        form.setNbConsecutiveSlots( 2 );
+        return form;
+    }
+
+    private static SlotTable table( )
+    {
+        List<Slot> listSlots = new ArrayList<>( );
+        // Unsorted on purpose
+        listSlots.add( slot( DAY3.atTime( 9, 0 ), 3, 1, true ) );
+        listSlots.add( slot( DAY1.atTime( 10, 0 ), 2, 2, true ) );
+        listSlots.add( slot( DAY1.atTime( 9, 0 ), 2, 1, true ) );
+        listSlots.add( slot( DAY1.atTime( 11, 0 ), 2, 0, true ) );
+        listSlots.add( slot( DAY1.atTime( 12, 0 ), 2, 2, true ) );
+        // Closed, its places are not the first free ones of the day
+        listSlots.add( slot( DAY3.atTime( 7, 0 ), 2, 2, false ) );
+        listSlots.add( slot( DAY3.atTime( 10, 0 ), 2, -1, true ) );
+        listSlots.add( slot( DAY4.atTime( 7, 30 ), 1, 0, true ) );
+        return SlotTable.of( 1, listSlots );
+    }
+
+    private static SolrInputDocument document( SolrItem item )
+    {
+        return BINDER.toSolrInputDocument( item );
+    }
+
+    @Override
+    protected void setUp( ) throws Exception
+    {
+        super.setUp( );
+        AppPropertiesService.putProperty( PROPERTY_DAY_SUMMARY_ENABLE, "true" );
+    }
+
+    @Override
+    protected void tearDown( ) throws Exception
+    {
+        AppPropertiesService.putProperty( PROPERTY_DAY_SUMMARY_ENABLE, "false" );
+        super.tearDown( );
+    }
+
+    public void testDaySummaries( )
+    {
+        List<SolrItem> listItems = DayUtil.getDayItems( form( ), table( ) );
+        // One summary per day with slots, in the order of the days
+        assertEquals( 3, listItems.size( ) );
+
+        SolrInputDocument day1 = document( listItems.get( 0 ) );
+        assertEquals( "F1D20300107_appointment-day", day1.getFieldValue( SearchItem.FIELD_UID ) );
+        assertEquals( Utilities.SHORT_NAME_DAY, day1.getFieldValue( SearchItem.FIELD_TYPE ) );
+        assertEquals( Timestamp.valueOf( DAY1.atStartOfDay( ) ), day1.getFieldValue( "date" ) );
+        assertEquals( "2030/01/07", day1.getFieldValue( "hie_date" ) );
+        assertEquals( FormUtil.getFormUid( 1 ), day1.getFieldValue( "uid_form_string" ) );
+        assertEquals( 5L, day1.getFieldValue( "day_nb_free_places_long" ) );
+        assertEquals( 8L, day1.getFieldValue( "day_nb_places_long" ) );
+        assertEquals( 4L, day1.getFieldValue( "day_nb_slots_long" ) );
+        assertEquals( 9L * 60, day1.getFieldValue( "day_first_free_minute_of_day_long" ) );
+        // Two consecutive free slots, within the number of consecutive slots a user can take
+        assertEquals( 2L, day1.getFieldValue( "day_max_consecutives_free_slots_long" ) );
+        assertEquals( 1L, day1.getFieldValue( "day_of_week_long" ) );
+
+        // The negative remaining places are not counted, the closed slot is not the first free one
+        SolrInputDocument day3 = document( listItems.get( 1 ) );
+        assertEquals( "F1D20300109_appointment-day", day3.getFieldValue( SearchItem.FIELD_UID ) );
+        assertEquals( "2030/01/09", day3.getFieldValue( "hie_date" ) );
+        assertEquals( 3L, day3.getFieldValue( "day_nb_free_places_long" ) );
+        assertEquals( 7L, day3.getFieldValue( "day_nb_places_long" ) );
+        assertEquals( 3L, day3.getFieldValue( "day_nb_slots_long" ) );
+        assertEquals( 9L * 60, day3.getFieldValue( "day_first_free_minute_of_day_long" ) );
+        assertEquals( 3L, day3.getFieldValue( "day_of_week_long" ) );
+
+        // A full day has no first free slot
+        SolrInputDocument day4 = document( listItems.get( 2 ) );
+        assertEquals( "F1D20300110_appointment-day", day4.getFieldValue( SearchItem.FIELD_UID ) );
+        assertEquals( 0L, day4.getFieldValue( "day_nb_free_places_long" ) );
+        assertEquals( 1L, day4.getFieldValue( "day_nb_places_long" ) );
+        assertEquals( 0L, day4.getFieldValue( "day_max_consecutives_free_slots_long" ) );
+        assertNull( day4.getFieldValue( "day_first_free_minute_of_day_long" ) );
+    }
+
+    public void testDayWithoutSlots( )
+    {
+        assertNull( DayUtil.getDayItem( form( ), table( ), DAY1.plusDays( 1 ) ) );
+        assertNotNull( DayUtil.getDayItem( form( ), table( ), DAY4 ) );
+    }
+
+    public void testDisabled( )
+    {
+        AppPropertiesService.putProperty( PROPERTY_DAY_SUMMARY_ENABLE, "false" );
+        assertTrue( DayUtil.getDayItems( form( ), table( ) ).isEmpty( ) );
+        assertNull( DayUtil.getDayItem( form( ), table( ), DAY1 ) );
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.common.params.ShardParams;
+
+import fr.paris.lutece.plugins.search.solr.indexer.SolrIndexerService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+import fr.paris.lutece.test.LuteceTestCase;
+
+public class DocumentRoutingTest extends LuteceTestCase
+{
+    private static final String PROPERTY_ENABLE = "appointment-solr.routing.enable";
+
+    public void testNotRouted( )
+    {
+        AppPropertiesService.putProperty( PROPERTY_ENABLE, "false" );
+        assertNull( DocumentRouting.getRoute( 12 ) );
+        assertEquals( SolrIndexerService.getWebAppName( ) + "_F12D20240301T093000_slot", DocumentRouting.getSolrUid( 12, "F12D20240301T093000_slot" ) );
+        SolrQuery query = new SolrQuery( "*:*" );
+        DocumentRouting.setRoute( query, 12 );
+        assertNull( query.get( ShardParams._ROUTE_ ) );
+    }
+
+    public void testRoutedPerForm( )
+    {
+        AppPropertiesService.putProperty( PROPERTY_ENABLE, "true" );
+        try
+        {
+            assertEquals( "F12!", DocumentRouting.getRoute( 12 ) );
+            // The documents of a form share the route key of the form, the form uid is unchanged
+            assertEquals( "F12!" + SolrIndexerService.getWebAppName( ) + "_F12D20240301T093000_slot",
+                    DocumentRouting.getSolrUid( 12, "F12D20240301T093000_slot" ) );
+            assertEquals( "F12!" + SolrIndexerService.getWebAppName( ) + "_12_appointment", FormUtil.getFormDocumentUid( 12 ) );
+            assertEquals( SolrIndexerService.getWebAppName( ) + "_12_appointment", FormUtil.getFormUid( 12 ) );
+            SolrQuery query = new SolrQuery( "*:*" );
+            DocumentRouting.setRoute( query, 12 );
+            assertEquals( "F12!", query.get( ShardParams._ROUTE_ ) );
+        }
+        finally
+        {
+            AppPropertiesService.putProperty( PROPERTY_ENABLE, "false" );
+        }
+    }
+}
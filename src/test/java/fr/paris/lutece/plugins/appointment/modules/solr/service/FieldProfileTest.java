@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import org.apache.commons.lang3.StringUtils;
+
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+import fr.paris.lutece.test.LuteceTestCase;
+
+public class FieldProfileTest extends LuteceTestCase
+{
+    private static final String PROPERTY_DISABLED_FIELDS = "appointment-solr.fields.disabled";
+
+    @Override
+    protected void tearDown( ) throws Exception
+    {
+        AppPropertiesService.putProperty( PROPERTY_DISABLED_FIELDS, StringUtils.EMPTY );
+        super.tearDown( );
+    }
+
+    public void testParsing( )
+    {
+        assertTrue( FieldProfile.of( StringUtils.EMPTY ).isEnabled( SlotUtil.DAY_OF_WEEK ) );
+
+        // The blank entries are ignored and the names are trimmed
+        FieldProfile profile = FieldProfile.of( " day_of_week ,, ,\tminute_of_day\t," );
+        assertFalse( profile.isEnabled( SlotUtil.DAY_OF_WEEK ) );
+        assertFalse( profile.isEnabled( SlotUtil.MINUTE_OF_DAY ) );
+        assertTrue( profile.isEnabled( FieldProfile.CATEGORIE ) );
+        assertTrue( profile.isEnabled( StringUtils.EMPTY ) );
+        // The names are exact
+        assertTrue( FieldProfile.of( "day_of_week_long,Day_Of_Week" ).isEnabled( SlotUtil.DAY_OF_WEEK ) );
+    }
+
+    public void testReload( )
+    {
+        AppPropertiesService.putProperty( PROPERTY_DISABLED_FIELDS, SlotUtil.DAY_OF_WEEK );
+        FieldProfile profile = FieldProfile.getCurrent( );
+        assertFalse( profile.isEnabled( SlotUtil.DAY_OF_WEEK ) );
+        // Parsed once per value of the property
+        assertSame( profile, FieldProfile.getCurrent( ) );
+
+        AppPropertiesService.putProperty( PROPERTY_DISABLED_FIELDS, SlotUtil.MINUTE_OF_DAY );
+        FieldProfile reloaded = FieldProfile.getCurrent( );
+        assertNotSame( profile, reloaded );
+        assertTrue( reloaded.isEnabled( SlotUtil.DAY_OF_WEEK ) );
+        assertFalse( reloaded.isEnabled( SlotUtil.MINUTE_OF_DAY ) );
+        // A profile resolved for a pass is not changed by a reload
+        assertFalse( profile.isEnabled( SlotUtil.DAY_OF_WEEK ) );
+    }
+
+    public void testCategoryLookup( )
+    {
+        assertTrue( FormUtil.isCategoryNeeded( FieldProfile.of( StringUtils.EMPTY ) ) );
+        // Needed as long as one of the fields of the category is written
+        assertTrue( FormUtil.isCategoryNeeded( FieldProfile.of( FieldProfile.CATEGORIE ) ) );
+        assertTrue( FormUtil.isCategoryNeeded( FieldProfile.of( "form_id_category" ) ) );
+        assertFalse( FormUtil.isCategoryNeeded( FieldProfile.of( " categorie , form_id_category " ) ) );
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import fr.paris.lutece.plugins.appointment.business.slot.Slot;
+import fr.paris.lutece.plugins.appointment.web.dto.AppointmentFormDTO;
+import fr.paris.lutece.test.LuteceTestCase;
+
+public class FormAvailabilityTest extends LuteceTestCase
+{
+    private static final LocalDate DAY1 = LocalDate.of( 2030, 1, 7 );
+    private static final LocalDate DAY2 = DAY1.plusDays( 1 );
+    private static final LocalDate DAY3 = DAY1.plusDays( 2 );
+    private static final String FIELD_NEXT_SLOT = "appointment_next_slot_string";
+    private static final String FIELD_NEXT_SLOT_TIME = "appointment_next_slot_time_long";
+    private static final String FIELD_NEXT_SLOT_NB_CONSECUTIVES_SLOTS = "appointment_next_slot_nb_consecutives_slots_long";
+
+    private static Slot slot( LocalDateTime start, int nRemainingPlaces )
+    {
+        Slot slot = new Slot( );
+        slot.setIdForm( 1 );
+        slot.setStartingDateTime( start );
+        slot.setEndingDateTime( start.plusHours( 1 ) );
+        slot.setMaxCapacity( 2 );
+        slot.setNbPotentialRemainingPlaces( nRemainingPlaces );
+        slot.setIsOpen( true );
+        return slot;
+    }
+
+    public void testRangeAggregates( )
+    {
+        AppointmentFormDTO form = new AppointmentFormDTO( );
+        List<Slot> listBefore = new ArrayList<>( );
+        listBefore.add( slot( DAY1.atTime( 9, 0 ), 0 ) );
+        listBefore.add( slot( DAY1.atTime( 10, 0 ), -1 ) );
+        List<Slot> listRange = new ArrayList<>( );
+        listRange.add( slot( DAY2.atTime( 9, 0 ), 0 ) );
+        listRange.add( slot( DAY2.atTime( 10, 0 ), 2 ) );
+        List<Slot> listAfter = new ArrayList<>( );
+        listAfter.add( slot( DAY3.atTime( 9, 0 ), 1 ) );
+
+        // The period regenerated, plus the aggregates of the slots outside of it as read from the index
+        assertSameAvailability( form, listBefore, listRange, listAfter );
+    }
+
+    public void testRangeAggregatesWithNextSlotOutsideOfTheRange( )
+    {
+        AppointmentFormDTO form = new AppointmentFormDTO( );
+        List<Slot> listBefore = new ArrayList<>( );
+        listBefore.add( slot( DAY1.atTime( 9, 0 ), 1 ) );
+        List<Slot> listRange = new ArrayList<>( );
+        listRange.add( slot( DAY2.atTime( 9, 0 ), 0 ) );
+        List<Slot> listAfter = new ArrayList<>( );
+        listAfter.add( slot( DAY3.atTime( 9, 0 ), 2 ) );
+
+        FormAvailability availability = assertSameAvailability( form, listBefore, listRange, listAfter );
+        assertEquals( DAY1.atTime( 9, 0 ), availability.getNextSlotDateTime( ) );
+        assertEquals( 3, availability.getFreePlaces( ) );
+        assertEquals( 6, availability.getPlaces( ) );
+        assertEquals( 1, availability.getNbSlots( ) );
+    }
+
+    public void testNextSlot( )
+    {
+        AppointmentFormDTO form = new AppointmentFormDTO( );
+        form.setIsMultislotAppointment( true );
+        form.setNbConsecutiveSlots( 2 );
+        List<Slot> listSlots = new ArrayList<>( );
+        Slot closedSlot = slot( DAY1.atTime( 9, 0 ), 2 );
+        closedSlot.setIsOpen( false );
+        listSlots.add( closedSlot );
+        listSlots.add( slot( DAY1.atTime( 10, 0 ), 0 ) );
+        listSlots.add( slot( DAY2.atTime( 9, 0 ), 1 ) );
+        listSlots.add( slot( DAY2.atTime( 10, 0 ), 1 ) );
+        listSlots.add( slot( DAY2.atTime( 11, 0 ), 1 ) );
+
+        // The closed and full slots are skipped, the consecutive slots are capped by the form
+        FormAvailability availability = FormAvailability.of( form, SlotTable.of( 1, listSlots ) );
+        assertEquals( DAY2.atTime( 9, 0 ), availability.getNextSlotDateTime( ) );
+        assertEquals( 2, availability.getNextSlotNbConsecutiveSlots( ) );
+
+        Map<String, Object> mapFields = FormUtil.getFormItem( form, availability ).getDynamicFields( );
+        assertEquals( Timestamp.valueOf( DAY2.atTime( 9, 0 ) ).getTime( ), mapFields.get( FIELD_NEXT_SLOT_TIME ) );
+        assertEquals( DAY2.atTime( 9, 0 ).toString( ), mapFields.get( FIELD_NEXT_SLOT ) );
+        assertEquals( 2L, mapFields.get( FIELD_NEXT_SLOT_NB_CONSECUTIVES_SLOTS ) );
+
+        // An earlier slot read elsewhere replaces it
+        availability.offerNextSlot( DAY1.atTime( 8, 0 ), 1 );
+        assertEquals( DAY1.atTime( 8, 0 ), availability.getNextSlotDateTime( ) );
+        assertEquals( 1, availability.getNextSlotNbConsecutiveSlots( ) );
+        availability.offerNextSlot( DAY3.atTime( 8, 0 ), 2 );
+        assertEquals( DAY1.atTime( 8, 0 ), availability.getNextSlotDateTime( ) );
+    }
+
+    public void testNoNextSlot( )
+    {
+        AppointmentFormDTO form = new AppointmentFormDTO( );
+        List<Slot> listSlots = new ArrayList<>( );
+        listSlots.add( slot( DAY1.atTime( 9, 0 ), 0 ) );
+
+        FormAvailability availability = FormAvailability.of( form, SlotTable.of( 1, listSlots ) );
+        assertNull( availability.getNextSlotDateTime( ) );
+        // The forms without available slot have no value, they are sorted last
+        Map<String, Object> mapFields = FormUtil.getFormItem( form, availability ).getDynamicFields( );
+        assertFalse( mapFields.containsKey( FIELD_NEXT_SLOT_TIME ) );
+        assertFalse( mapFields.containsKey( FIELD_NEXT_SLOT ) );
+        assertFalse( mapFields.containsKey( FIELD_NEXT_SLOT_NB_CONSECUTIVES_SLOTS ) );
+    }
+
+    private static FormAvailability assertSameAvailability( AppointmentFormDTO form, List<Slot> listBefore, List<Slot> listRange, List<Slot> listAfter )
+    {
+        List<Slot> listAll = new ArrayList<>( listBefore );
+        listAll.addAll( listRange );
+        listAll.addAll( listAfter );
+        FormAvailability expected = FormAvailability.of( form, SlotTable.of( 1, listAll ) );
+
+        FormAvailability availability = FormAvailability.of( form, SlotTable.of( 1, listRange ) );
+        for ( List<Slot> listOutside : Arrays.asList( listBefore, listAfter ) )
+        {
+            SlotTable outside = SlotTable.of( 1, listOutside );
+            availability.addPlaces( outside.getFreePlaces( ), outside.getPlaces( ) );
+            FormAvailability nextOutside = FormAvailability.of( form, outside );
+            if ( nextOutside.getNextSlotDateTime( ) != null )
+            {
+                availability.offerNextSlot( nextOutside.getNextSlotDateTime( ), nextOutside.getNextSlotNbConsecutiveSlots( ) );
+            }
+        }
+
+        assertEquals( expected.getFreePlaces( ), availability.getFreePlaces( ) );
+        assertEquals( expected.getPlaces( ), availability.getPlaces( ) );
+        assertEquals( expected.getNextSlotDateTime( ), availability.getNextSlotDateTime( ) );
+        assertEquals( expected.getNextSlotNbConsecutiveSlots( ), availability.getNextSlotNbConsecutiveSlots( ) );
+        return availability;
+    }
+}
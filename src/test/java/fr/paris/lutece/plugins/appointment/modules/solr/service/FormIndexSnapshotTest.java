@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import java.util.Map;
+
+import fr.paris.lutece.plugins.appointment.web.dto.AppointmentFormDTO;
+import fr.paris.lutece.test.LuteceTestCase;
+
+public class FormIndexSnapshotTest extends LuteceTestCase
+{
+    private static final String FIELD_TITLE = "title";
+    private static final String FIELD_SUMMARY = "summary";
+
+    public void testMetadataChangeKeepsScheduling( )
+    {
+        AppointmentFormDTO form = newForm( );
+        FormIndexSnapshot previous = FormIndexSnapshot.build( form );
+        form.setTitle( "Passport renewal" );
+        form.setDescription( null );
+        FormIndexSnapshot current = FormIndexSnapshot.build( form );
+
+        assertTrue( current.hasSameScheduling( previous ) );
+        Map<String, Object> mapChangedFields = current.getChangedFields( previous );
+        assertEquals( "Passport renewal", mapChangedFields.get( FIELD_TITLE ) );
+        // A removed field is sent as null to be unset
+        assertTrue( mapChangedFields.containsKey( FIELD_SUMMARY ) );
+        assertNull( mapChangedFields.get( FIELD_SUMMARY ) );
+    }
+
+    public void testUnchangedForm( )
+    {
+        FormIndexSnapshot previous = FormIndexSnapshot.build( newForm( ) );
+        FormIndexSnapshot current = FormIndexSnapshot.build( newForm( ) );
+
+        assertTrue( current.hasSameScheduling( previous ) );
+        assertTrue( current.getChangedFields( previous ).isEmpty( ) );
+    }
+
+    public void testSchedulingChange( )
+    {
+        AppointmentFormDTO form = newForm( );
+        FormIndexSnapshot previous = FormIndexSnapshot.build( form );
+        form.setNbWeeksToDisplay( 4 );
+        assertFalse( FormIndexSnapshot.build( form ).hasSameScheduling( previous ) );
+
+        form = newForm( );
+        form.setAddress( "2 place de l'Hotel de Ville" );
+        assertFalse( FormIndexSnapshot.build( form ).hasSameScheduling( previous ) );
+    }
+
+    public void testSnapshotOfTheForm( )
+    {
+        FormIndexSnapshot snapshot = FormIndexSnapshot.build( newForm( ) );
+        FormIndexSnapshot.put( 42, snapshot );
+        assertSame( snapshot, FormIndexSnapshot.get( 42 ) );
+        FormIndexSnapshot.remove( 42 );
+        assertNull( FormIndexSnapshot.get( 42 ) );
+    }
+
+    private static AppointmentFormDTO newForm( )
+    {
+        AppointmentFormDTO form = new AppointmentFormDTO( );
+        form.setIdForm( 42 );
+        form.setTitle( "Passport" );
+        form.setDescription( "Passport appointments" );
+        form.setIsActive( true );
+        form.setNbWeeksToDisplay( 2 );
+        return form;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import fr.paris.lutece.test.LuteceTestCase;
+
+public class HotFormSnapshotsTest extends LuteceTestCase
+{
+    public void testHotFormIsPublishedOnTick( ) throws InterruptedException
+    {
+        List<LocalDate [ ]> listSnapshots = Collections.synchronizedList( new ArrayList<>( ) );
+        CountDownLatch latch = new CountDownLatch( 1 );
+        HotFormSnapshots snapshots = new HotFormSnapshots( 3, 60000, 100, ( nIdForm, startingDate, endingDate ) -> {
+            listSnapshots.add( new LocalDate [ ] {
+                    startingDate, endingDate
+            } );
+            latch.countDown( );
+        } );
+
+        LocalDate monday = LocalDate.of( 2030, 1, 7 );
+        assertFalse( snapshots.add( 1, monday ) );
+        assertFalse( snapshots.add( 1, monday ) );
+        assertTrue( snapshots.add( 1, monday.plusDays( 2 ) ) );
+        assertTrue( snapshots.add( 1, monday.plusDays( 1 ) ) );
+        assertFalse( snapshots.add( 2, monday ) );
+
+        assertTrue( latch.await( 2, TimeUnit.SECONDS ) );
+        Thread.sleep( 250 );
+        // The ticks without changes publish nothing
+        assertEquals( 1, listSnapshots.size( ) );
+        assertEquals( monday.plusDays( 1 ), listSnapshots.get( 0 ) [0] );
+        assertEquals( monday.plusDays( 2 ), listSnapshots.get( 0 ) [1] );
+    }
+
+    public void testDisabled( )
+    {
+        HotFormSnapshots snapshots = new HotFormSnapshots( 0, 60000, 100, ( nIdForm, startingDate, endingDate ) -> fail( ) );
+        for ( int i = 0; i < 100; i++ )
+        {
+            assertFalse( snapshots.add( 1, LocalDate.now( ) ) );
+        }
+    }
+
+    public void testColdRatesAreEvicted( ) throws InterruptedException
+    {
+        HotFormSnapshots snapshots = new HotFormSnapshots( 1000, 50, 100, ( nIdForm, startingDate, endingDate ) -> fail( ) );
+        for ( int i = 0; i < 100; i++ )
+        {
+            assertFalse( snapshots.add( i, LocalDate.now( ) ) );
+        }
+        assertEquals( 100, snapshots.size( ) );
+        Thread.sleep( 150 );
+        // The next change evicts the forms without change during two windows
+        assertFalse( snapshots.add( 1000, LocalDate.now( ) ) );
+        assertEquals( 1, snapshots.size( ) );
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.request.JavaBinUpdateRequestCodec;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.UpdateParams;
+import org.apache.solr.common.util.NamedList;
+
+import fr.paris.lutece.portal.service.search.SearchItem;
+import fr.paris.lutece.test.LuteceTestCase;
+
+public class IndexBulkLoaderTest extends LuteceTestCase
+{
+    public void testLoadInBatches( ) throws Exception
+    {
+        List<SolrInputDocument> listDocuments = new ArrayList<>( );
+        for ( int i = 0; i < 5; i++ )
+        {
+            SolrInputDocument document = new SolrInputDocument( );
+            document.setField( SearchItem.FIELD_UID, "F1D" + i );
+            listDocuments.add( document );
+        }
+        Path path = Files.createTempFile( "appointment-solr-export", ".javabin.gz" );
+        try
+        {
+            UpdateRequest request = new UpdateRequest( );
+            request.setDocIterator( listDocuments.iterator( ) );
+            try ( OutputStream outputStream = new GZIPOutputStream( Files.newOutputStream( path ) ) )
+            {
+                new JavaBinUpdateRequestCodec( ).marshal( request, outputStream );
+            }
+
+            List<Integer> listBatchSizes = new ArrayList<>( );
+            List<String> listUids = new ArrayList<>( );
+            int [ ] nCommits = {
+                    0
+            };
+            SolrClient solrClient = new SolrClient( )
+            {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                public NamedList<Object> request( SolrRequest solrRequest, String strCollection )
+                {
+                    UpdateRequest updateRequest = (UpdateRequest) solrRequest;
+                    if ( updateRequest.getDocuments( ) != null )
+                    {
+                        listBatchSizes.add( updateRequest.getDocuments( ).size( ) );
+                        updateRequest.getDocuments( ).forEach( document -> listUids.add( (String) document.getFieldValue( SearchItem.FIELD_UID ) ) );
+                    }
+                    if ( updateRequest.getParams( ) != null && updateRequest.getParams( ).getBool( UpdateParams.COMMIT, false ) )
+                    {
+                        nCommits [0]++;
+                    }
+                    return new NamedList<>( );
+                }
+
+                @Override
+                public void close( )
+                {
+                }
+            };
+
+            assertEquals( 5, IndexBulkLoader.load( path, solrClient, 2 ) );
+            assertEquals( Arrays.asList( 2, 2, 1 ), listBatchSizes );
+            assertEquals( Arrays.asList( "F1D0", "F1D1", "F1D2", "F1D3", "F1D4" ), listUids );
+            assertEquals( 1, nCommits [0] );
+        }
+        finally
+        {
+            Files.delete( path );
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import java.util.List;
+
+import fr.paris.lutece.test.LuteceTestCase;
+
+public class IndexingLogTest extends LuteceTestCase
+{
+    public void testRecordsAreBounded( )
+    {
+        IndexingLog log = new IndexingLog( 3 );
+        for ( int nIdForm = 1; nIdForm <= 5; nIdForm++ )
+        {
+            log.record( IndexingLog.Operation.ADD, nIdForm, 10, 2, 0 );
+        }
+        log.record( IndexingLog.Operation.DELETE_BY_ID, 6, 1, 1, IndexingLog.STATUS_FAILED );
+        log.skipped( 7 );
+
+        List<IndexingLog.LogRecord> listRecords = log.getRecords( );
+        assertEquals( 3, listRecords.size( ) );
+        assertEquals( 4, listRecords.get( 0 ).getIdForm( ) );
+        assertEquals( 6, listRecords.get( 2 ).getIdForm( ) );
+        assertEquals( IndexingLog.STATUS_FAILED, listRecords.get( 2 ).getStatus( ) );
+        assertTrue( log.getSummary( ).contains( "ADD: 5 operations, 50 documents, 0 failures, 10 ms" ) );
+        assertTrue( log.getSummary( ).contains( "DELETE_BY_ID: 1 operations, 1 documents, 1 failures" ) );
+        assertTrue( log.getSummary( ).endsWith( "7 unchanged documents skipped, 0 superseded documents dropped" ) );
+    }
+
+    public void testDocumentsOfCurrentThread( ) throws InterruptedException
+    {
+        IndexingLog log = new IndexingLog( 3 );
+        log.record( IndexingLog.Operation.ADD, 1, 10, 2, 0 );
+        log.record( IndexingLog.Operation.ADD, 1, 5, 2, IndexingLog.STATUS_FAILED );
+        log.record( IndexingLog.Operation.DELETE_BY_ID, 1, 2, 1, 0 );
+        Thread thread = new Thread( ( ) -> log.record( IndexingLog.Operation.ADD, 2, 20, 2, 0 ) );
+        thread.start( );
+        thread.join( );
+
+        // The failed operations and the operations of the other threads are not counted
+        assertEquals( 10, log.getNbDocumentsOfCurrentThread( IndexingLog.Operation.ADD ) );
+        assertEquals( 2, log.getNbDocumentsOfCurrentThread( IndexingLog.Operation.DELETE_BY_ID ) );
+        assertTrue( log.getSummary( ).contains( "ADD: 3 operations, 35 documents, 1 failures" ) );
+    }
+}
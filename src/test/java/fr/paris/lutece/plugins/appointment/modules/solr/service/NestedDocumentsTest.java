@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.solr.common.SolrInputDocument;
+
+import fr.paris.lutece.plugins.search.solr.indexer.SolrIndexerService;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrItem;
+import fr.paris.lutece.portal.service.search.SearchItem;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+import fr.paris.lutece.test.LuteceTestCase;
+
+public class NestedDocumentsTest extends LuteceTestCase
+{
+    private static final String PROPERTY_ROUTING_ENABLE = "appointment-solr.routing.enable";
+    private static final String FORM_UID = "12_appointment";
+    private static final String SLOT_UID = "F12D20240301T093000_appointment-slot";
+    private static final String DAY_UID = "F12D20240301_appointment-day";
+
+    private static SolrItem item( String strUid, String strType )
+    {
+        SolrItem item = new SolrItem( );
+        item.setUid( strUid );
+        item.setType( strType );
+        return item;
+    }
+
+    @Override
+    protected void tearDown( ) throws Exception
+    {
+        AppPropertiesService.putProperty( PROPERTY_ROUTING_ENABLE, "false" );
+        super.tearDown( );
+    }
+
+    public void testBlock( )
+    {
+        SolrItem formItem = item( FORM_UID, Utilities.SHORT_NAME_APPOINTMENT );
+        List<SolrItem> listChildItems = Arrays.asList( item( SLOT_UID, Utilities.SHORT_NAME_SLOT ), item( DAY_UID, Utilities.SHORT_NAME_DAY ) );
+        String strPrefix = SolrIndexerService.getWebAppName( ) + Utilities.UNDERSCORE;
+
+        SolrInputDocument block = NestedDocuments.toBlock( 12, formItem, listChildItems );
+        assertEquals( strPrefix + FORM_UID, block.getFieldValue( SearchItem.FIELD_UID ) );
+        assertEquals( Utilities.SHORT_NAME_APPOINTMENT, block.getFieldValue( SearchItem.FIELD_TYPE ) );
+        // The children are the slot and day documents, in their order, without children of their own
+        List<SolrInputDocument> listChildren = block.getChildDocuments( );
+        assertEquals( 2, listChildren.size( ) );
+        assertEquals( strPrefix + SLOT_UID, listChildren.get( 0 ).getFieldValue( SearchItem.FIELD_UID ) );
+        assertEquals( Utilities.SHORT_NAME_SLOT, listChildren.get( 0 ).getFieldValue( SearchItem.FIELD_TYPE ) );
+        assertEquals( strPrefix + DAY_UID, listChildren.get( 1 ).getFieldValue( SearchItem.FIELD_UID ) );
+        assertFalse( listChildren.get( 0 ).hasChildDocuments( ) );
+
+        // The items are not modified, a block built again has the same uids
+        assertEquals( FORM_UID, formItem.getUid( ) );
+        assertEquals( SLOT_UID, listChildItems.get( 0 ).getUid( ) );
+        SolrInputDocument again = NestedDocuments.toBlock( 12, formItem, listChildItems );
+        assertEquals( strPrefix + FORM_UID, again.getFieldValue( SearchItem.FIELD_UID ) );
+        assertEquals( strPrefix + SLOT_UID, again.getChildDocuments( ).get( 0 ).getFieldValue( SearchItem.FIELD_UID ) );
+    }
+
+    public void testRoutedBlock( )
+    {
+        AppPropertiesService.putProperty( PROPERTY_ROUTING_ENABLE, "true" );
+        SolrItem formItem = item( FORM_UID, Utilities.SHORT_NAME_APPOINTMENT );
+        String strPrefix = "F12!" + SolrIndexerService.getWebAppName( ) + Utilities.UNDERSCORE;
+
+        // The parent and its children share the route key of the form
+        SolrInputDocument block = NestedDocuments.toBlock( 12, formItem, Arrays.asList( item( SLOT_UID, Utilities.SHORT_NAME_SLOT ) ) );
+        assertEquals( strPrefix + FORM_UID, block.getFieldValue( SearchItem.FIELD_UID ) );
+        assertEquals( strPrefix + SLOT_UID, block.getChildDocuments( ).get( 0 ).getFieldValue( SearchItem.FIELD_UID ) );
+        assertEquals( FORM_UID, formItem.getUid( ) );
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+import fr.paris.lutece.test.LuteceTestCase;
+
+public class ReindexTargetTest extends LuteceTestCase
+{
+    public void testForm( )
+    {
+        ReindexTarget target = ReindexTarget.parse( " 12 " );
+        assertEquals( ReindexTarget.Type.FORM, target.getType( ) );
+        assertEquals( 12, target.getIdForm( ) );
+    }
+
+    public void testRange( )
+    {
+        ReindexTarget target = ReindexTarget.parse( "12:2024-03-01:2024-03-31" );
+        assertEquals( ReindexTarget.Type.RANGE, target.getType( ) );
+        assertEquals( 12, target.getIdForm( ) );
+        assertEquals( LocalDate.of( 2024, 3, 1 ), target.getStartingDate( ) );
+        assertEquals( LocalDate.of( 2024, 3, 31 ), target.getEndingDate( ) );
+    }
+
+    public void testSlot( )
+    {
+        LocalDateTime startingDateTime = LocalDateTime.of( 2024, 3, 1, 9, 30 );
+        for ( String strId : new String [ ] {
+                "F12D20240301T093000", "site_F12D20240301T093000_slot"
+        } )
+        {
+            ReindexTarget target = ReindexTarget.parse( strId );
+            assertEquals( ReindexTarget.Type.SLOT, target.getType( ) );
+            assertEquals( 12, target.getIdForm( ) );
+            assertEquals( startingDateTime, target.getStartingDateTime( ) );
+        }
+        assertEquals( "F12D20240301T093000", SlotUtil.getSlotUid( 12, startingDateTime ) );
+    }
+
+    public void testInvalid( )
+    {
+        assertNull( ReindexTarget.parse( null ) );
+        assertNull( ReindexTarget.parse( "" ) );
+        assertNull( ReindexTarget.parse( "form12" ) );
+        assertNull( ReindexTarget.parse( "12:2024-03-01" ) );
+        assertNull( ReindexTarget.parse( "12:2024-02-30:2024-03-31" ) );
+        assertNull( ReindexTarget.parse( "99999999999" ) );
+        assertNull( ReindexTarget.parse( "F12D20241301T093000" ) );
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.params.CollectionParams;
+import org.apache.solr.common.params.CoreAdminParams;
+import org.apache.solr.common.params.UpdateParams;
+import org.apache.solr.common.util.NamedList;
+
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+import fr.paris.lutece.test.LuteceTestCase;
+
+public class ShadowRebuildTest extends LuteceTestCase
+{
+    private static final String PROPERTY_ENABLE = "appointment-solr.rebuild.shadow.enable";
+    private static final String PROPERTY_SOLR_URL = "appointment-solr.rebuild.shadow.solrUrl";
+    private static final String PROPERTY_ALIAS = "appointment-solr.rebuild.shadow.alias";
+    private static final String ALIAS = "appointment";
+    private static final String COLLECTION_BLUE = "appointment_blue";
+    private static final String COLLECTION_GREEN = "appointment_green";
+
+    /**
+     * Client recording the requests it receives
+     */
+    private static final class RecordingClient extends SolrClient
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> _listRequests = new ArrayList<>( );
+        private final Map<String, String> _mapAliases = new HashMap<>( );
+
+        @Override
+        public NamedList<Object> request( SolrRequest solrRequest, String strCollection )
+        {
+            NamedList<Object> response = new NamedList<>( );
+            if ( solrRequest instanceof UpdateRequest )
+            {
+                UpdateRequest updateRequest = (UpdateRequest) solrRequest;
+                if ( updateRequest.getDeleteQuery( ) != null )
+                {
+                    _listRequests.add( "delete " + String.join( " ", updateRequest.getDeleteQuery( ) ) );
+                }
+                if ( updateRequest.getParams( ) != null && updateRequest.getParams( ).getBool( UpdateParams.COMMIT, false ) )
+                {
+                    _listRequests.add( "commit" );
+                }
+                return response;
+            }
+            String strAction = solrRequest.getParams( ).get( CoreAdminParams.ACTION );
+            if ( CollectionParams.CollectionAction.LISTALIASES.toLower( ).equalsIgnoreCase( strAction ) )
+            {
+                response.add( "aliases", new HashMap<>( _mapAliases ) );
+            }
+            else
+                if ( CollectionParams.CollectionAction.CREATEALIAS.toLower( ).equalsIgnoreCase( strAction ) )
+                {
+                    String strAlias = solrRequest.getParams( ).get( CoreAdminParams.NAME );
+                    String strCollections = solrRequest.getParams( ).get( "collections" );
+                    _mapAliases.put( strAlias, strCollections );
+                    _listRequests.add( "alias " + strAlias + " " + strCollections );
+                }
+            return response;
+        }
+
+        @Override
+        public void close( )
+        {
+        }
+    }
+
+    @Override
+    protected void setUp( ) throws Exception
+    {
+        super.setUp( );
+        AppPropertiesService.putProperty( PROPERTY_ENABLE, "true" );
+        AppPropertiesService.putProperty( PROPERTY_SOLR_URL, "http://localhost:8983/solr/" );
+        AppPropertiesService.putProperty( PROPERTY_ALIAS, ALIAS );
+    }
+
+    @Override
+    protected void tearDown( ) throws Exception
+    {
+        AppPropertiesService.putProperty( PROPERTY_ENABLE, "false" );
+        super.tearDown( );
+    }
+
+    public void testSwap( ) throws Exception
+    {
+        RecordingClient adminClient = new RecordingClient( );
+        adminClient._mapAliases.put( ALIAS, COLLECTION_BLUE );
+        RecordingClient shadowClient = new RecordingClient( );
+        List<String> listCreated = new ArrayList<>( );
+
+        ShadowRebuild rebuild = ShadowRebuild.start( adminClient, ALIAS, new String [ ] {
+                COLLECTION_BLUE, COLLECTION_GREEN
+        }, -1, strCollection -> {
+            listCreated.add( strCollection );
+            return shadowClient;
+        } );
+        try
+        {
+            // The collection the alias does not point to is emptied and receives the writes of the rebuild
+            assertEquals( Collections.singletonList( COLLECTION_GREEN ), listCreated );
+            assertEquals( COLLECTION_GREEN, rebuild.getShadowCollection( ) );
+            assertEquals( Arrays.asList( "delete *:*", "commit" ), shadowClient._listRequests );
+            assertSame( rebuild, ShadowRebuild.getCurrent( ) );
+            assertSame( shadowClient, SolrAppointmentIndexer.getSolrClient( ) );
+
+            rebuild.swap( );
+            assertEquals( Arrays.asList( "delete *:*", "commit", "commit" ), shadowClient._listRequests );
+            assertEquals( Collections.singletonList( "alias " + ALIAS + " " + COLLECTION_GREEN ), adminClient._listRequests );
+            // The writes of the current thread are sent to the alias from now on
+            assertNull( ShadowRebuild.getCurrent( ) );
+            assertSame( ShadowRebuild.getLiveClient( ), SolrAppointmentIndexer.getSolrClient( ) );
+        }
+        finally
+        {
+            rebuild.close( );
+        }
+
+        // The next rebuild writes into the previous live collection
+        listCreated.clear( );
+        ShadowRebuild next = ShadowRebuild.start( adminClient, ALIAS, new String [ ] {
+                COLLECTION_BLUE, COLLECTION_GREEN
+        }, -1, strCollection -> {
+            listCreated.add( strCollection );
+            return new RecordingClient( );
+        } );
+        next.close( );
+        assertEquals( Collections.singletonList( COLLECTION_BLUE ), listCreated );
+    }
+
+    public void testLiveWritesDuringRebuild( ) throws Exception
+    {
+        RecordingClient adminClient = new RecordingClient( );
+        RecordingClient shadowClient = new RecordingClient( );
+        ShadowRebuild rebuild = ShadowRebuild.start( adminClient, ALIAS, new String [ ] {
+                COLLECTION_BLUE, COLLECTION_GREEN
+        }, -1, strCollection -> shadowClient );
+        try
+        {
+            // The writes of the rebuild are not recorded
+            ShadowRebuild.changed( 1 );
+            assertTrue( rebuild.drainChangedForms( ).isEmpty( ) );
+
+            // The writes of another thread go to the alias and their forms are recorded
+            AtomicReference<SolrClient> liveClient = new AtomicReference<>( );
+            Thread thread = new Thread( ( ) -> {
+                liveClient.set( SolrAppointmentIndexer.getSolrClient( ) );
+                ShadowRebuild.changed( 2 );
+                ShadowRebuild.changed( 3 );
+            } );
+            thread.start( );
+            thread.join( );
+            assertSame( ShadowRebuild.getLiveClient( ), liveClient.get( ) );
+            assertNotSame( shadowClient, liveClient.get( ) );
+            assertEquals( new HashSet<>( Arrays.asList( 2, 3 ) ), rebuild.drainChangedForms( ) );
+            assertTrue( rebuild.drainChangedForms( ).isEmpty( ) );
+        }
+        finally
+        {
+            rebuild.close( );
+        }
+
+        // Once the rebuild is closed, the writes are no longer recorded
+        Thread thread = new Thread( ( ) -> ShadowRebuild.changed( 4 ) );
+        thread.start( );
+        thread.join( );
+        assertTrue( rebuild.drainChangedForms( ).isEmpty( ) );
+    }
+}
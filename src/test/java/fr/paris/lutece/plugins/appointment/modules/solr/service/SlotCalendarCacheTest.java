@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import fr.paris.lutece.plugins.appointment.business.slot.Slot;
+import fr.paris.lutece.test.LuteceTestCase;
+
+public class SlotCalendarCacheTest extends LuteceTestCase
+{
+    private static final LocalDate DAY = LocalDate.of( 2030, 1, 7 );
+
+    private static Slot slot( int nIdForm, LocalDateTime start, int nRemainingPlaces )
+    {
+        Slot slot = new Slot( );
+        slot.setIdForm( nIdForm );
+        slot.setStartingDateTime( start );
+        slot.setEndingDateTime( start.plusHours( 1 ) );
+        slot.setMaxCapacity( 2 );
+        slot.setNbPotentialRemainingPlaces( nRemainingPlaces );
+        slot.setIsOpen( true );
+        return slot;
+    }
+
+    private static SlotTable calendar( int nIdForm )
+    {
+        List<Slot> listSlots = new ArrayList<>( );
+        for ( int nDay = 0; nDay < 3; nDay++ )
+        {
+            listSlots.add( slot( nIdForm, DAY.plusDays( nDay ).atTime( 9, 0 ), 2 ) );
+            listSlots.add( slot( nIdForm, DAY.plusDays( nDay ).atTime( 10, 0 ), 2 ) );
+        }
+        return SlotTable.of( nIdForm, listSlots );
+    }
+
+    public void testSlicePatchAndInvalidate( )
+    {
+        SlotCalendarCache cache = new SlotCalendarCache( Long.MAX_VALUE, 60000L );
+        assertNull( cache.get( 1, DAY, DAY, null ) );
+        cache.put( 1, DAY, DAY.plusDays( 2 ), calendar( 1 ), System.nanoTime( ) );
+
+        assertEquals( 2, cache.get( 1, DAY.plusDays( 1 ), DAY.plusDays( 1 ), null ).size( ) );
+        SlotTable table = cache.get( 1, DAY, DAY.plusDays( 2 ), DAY.plusDays( 1 ).atTime( 9, 0 ) );
+        assertEquals( 3, table.size( ) );
+        assertEquals( DAY.plusDays( 1 ).atTime( 10, 0 ), table.getStartingDateTime( 0 ) );
+        // Not covered by the calendar
+        assertNull( cache.get( 1, DAY, DAY.plusDays( 3 ), null ) );
+
+        cache.patch( slot( 1, DAY.atTime( 9, 0 ), 0 ) );
+        assertEquals( 0, cache.get( 1, DAY, DAY, null ).getNbPotentialRemainingPlaces( 0 ) );
+
+        // A slot unknown to the calendar drops it
+        cache.patch( slot( 1, DAY.atTime( 9, 30 ), 0 ) );
+        assertNull( cache.get( 1, DAY, DAY, null ) );
+    }
+
+    public void testBuildRacingAnInvalidation( )
+    {
+        SlotCalendarCache cache = new SlotCalendarCache( Long.MAX_VALUE, 60000L );
+        long lBuildStart = System.nanoTime( );
+        cache.invalidate( 1 );
+        cache.put( 1, DAY, DAY.plusDays( 2 ), calendar( 1 ), lBuildStart );
+        assertNull( cache.get( 1, DAY, DAY, null ) );
+    }
+
+    public void testInvalidationsArePruned( ) throws InterruptedException
+    {
+        SlotCalendarCache cache = new SlotCalendarCache( Long.MAX_VALUE, 50L );
+        long lBuildStart = System.nanoTime( );
+        cache.invalidate( 1 );
+        cache.invalidate( 2 );
+        cache.invalidate( 1 );
+        assertEquals( 2, cache.getInvalidatedCount( ) );
+
+        Thread.sleep( 100L );
+        cache.invalidate( 3 );
+        assertEquals( 1, cache.getInvalidatedCount( ) );
+        // A build that started before a forgotten invalidation is not cached
+        cache.put( 2, DAY, DAY.plusDays( 2 ), calendar( 2 ), lBuildStart );
+        assertNull( cache.get( 2, DAY, DAY, null ) );
+        cache.put( 2, DAY, DAY.plusDays( 2 ), calendar( 2 ), System.nanoTime( ) );
+        assertNotNull( cache.get( 2, DAY, DAY, null ) );
+    }
+
+    public void testMemoryCap( )
+    {
+        SlotCalendarCache cache = new SlotCalendarCache( calendar( 1 ).getMemorySize( ) * 2, 60000L );
+        cache.put( 1, DAY, DAY.plusDays( 2 ), calendar( 1 ), System.nanoTime( ) );
+        cache.put( 2, DAY, DAY.plusDays( 2 ), calendar( 2 ), System.nanoTime( ) );
+        // Form 1 is used last, form 2 is dropped
+        assertNotNull( cache.get( 1, DAY, DAY, null ) );
+        cache.put( 3, DAY, DAY.plusDays( 2 ), calendar( 3 ), System.nanoTime( ) );
+        assertNotNull( cache.get( 1, DAY, DAY, null ) );
+        assertNull( cache.get( 2, DAY, DAY, null ) );
+        assertNotNull( cache.get( 3, DAY, DAY, null ) );
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.solr.client.solrj.beans.DocumentObjectBinder;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.SolrInputField;
+import org.apache.commons.lang3.StringUtils;
+
+import fr.paris.lutece.plugins.appointment.business.slot.Slot;
+import fr.paris.lutece.plugins.appointment.web.dto.AppointmentFormDTO;
+import fr.paris.lutece.portal.service.search.SearchItem;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+import fr.paris.lutece.test.LuteceTestCase;
+
+public class SlotDocumentBuilderTest extends LuteceTestCase
+{
+    private static final String PROPERTY_DISABLED_FIELDS = "appointment-solr.fields.disabled";
+    private static final DocumentObjectBinder BINDER = new DocumentObjectBinder( );
+    private static final LocalDate DAY1 = LocalDate.of( 2030, 1, 6 );
+    private static final String [ ] PROFILES = {
+            StringUtils.EMPTY, FieldProfile.SLOT_GEOLOC, SlotUtil.DAY_OF_WEEK + "," + SlotUtil.MINUTE_OF_DAY,
+            " url_form , day_open,, appointment_multislots,max_consecutives_slots "
+    };
+
+    private static Slot slot( LocalDateTime start, int nMaxCapacity, int nRemainingPlaces, boolean bOpen )
+    {
+        Slot slot = new Slot( );
+        slot.setIdForm( 7 );
+        slot.setStartingDateTime( start );
+        slot.setEndingDateTime( start.plusMinutes( 30 ) );
+        slot.setMaxCapacity( nMaxCapacity );
+        slot.setNbPotentialRemainingPlaces( nRemainingPlaces );
+        slot.setIsOpen( bOpen );
+        return slot;
+    }
+
+    private static AppointmentFormDTO form( boolean bGeoloc, boolean bMultislot )
+    {
+        AppointmentFormDTO form = new AppointmentFormDTO( );
+        form.setIdForm( 7 );
+        form.setTitle( "Form 7" );
+        form.setDescription( "Description" );
+        form.setIsActive( true );
+        form.setIsMultislotAppointment( bMultislot );
+        form.setNbConsecutiveSlots( 3 );
+        if ( bGeoloc )
+        {
+            form.setAddress( "1 place de l'Hotel de Ville" );
+            form.setLongitude( 2.35 );
+            form.setLatitude( 48.85 );
+        }
+        return form;
+    }
+
+    private static SlotTable table( )
+    {
+        List<Slot> listSlots = new ArrayList<>( );
+        // Several days, including a sunday and a day change at midnight, capacities and places varying
+        listSlots.add( slot( DAY1.atTime( 0, 0 ), 2, 2, true ) );
+        listSlots.add( slot( DAY1.atTime( 9, 5 ), 2, 1, true ) );
+        listSlots.add( slot( DAY1.atTime( 9, 35 ), 3, 1, true ) );
+        listSlots.add( slot( DAY1.atTime( 23, 30 ), 2, 0, false ) );
+        listSlots.add( slot( DAY1.plusDays( 1 ).atTime( 8, 0 ), 2, 2, true ) );
+        listSlots.add( slot( DAY1.plusDays( 1 ).atTime( 8, 30 ), 2, -1, true ) );
+        listSlots.add( slot( DAY1.plusDays( 8 ).atTime( 14, 45 ), 5, 4, true ) );
+        return SlotTable.of( 7, listSlots );
+    }
+
+    @Override
+    protected void tearDown( ) throws Exception
+    {
+        AppPropertiesService.putProperty( PROPERTY_DISABLED_FIELDS, StringUtils.EMPTY );
+        super.tearDown( );
+    }
+
+    public void testSameDocumentsAsTheSlotItems( )
+    {
+        SlotTable table = table( );
+        for ( String strProfile : PROFILES )
+        {
+            AppPropertiesService.putProperty( PROPERTY_DISABLED_FIELDS, strProfile );
+            for ( boolean bGeoloc : new boolean [ ] {
+                    false, true
+            } )
+            {
+                for ( boolean bMultislot : new boolean [ ] {
+                        false, true
+                } )
+                {
+                    AppointmentFormDTO form = form( bGeoloc, bMultislot );
+                    SlotDocumentBuilder builder = new SlotDocumentBuilder( form, table );
+                    for ( int i = 0; i < table.size( ); i++ )
+                    {
+                        String strCase = "profile [" + strProfile + "], geoloc " + bGeoloc + ", multislot " + bMultislot + ", slot " + i;
+                        SolrInputDocument expected = BINDER.toSolrInputDocument( SlotUtil.getSlotItem( form, table, i, FieldProfile.getCurrent( ) ) );
+                        assertEquals( strCase, toMap( expected ), toMap( builder.build( i ) ) );
+                    }
+                }
+            }
+        }
+    }
+
+    public void testSharedFieldsAreNotModified( )
+    {
+        SlotTable table = table( );
+        AppointmentFormDTO form = form( true, true );
+        SlotDocumentBuilder builder = new SlotDocumentBuilder( form, table );
+        SolrInputDocument first = builder.build( 0 );
+        Map<String, Object> mapFirst = toMap( first );
+        for ( int i = 1; i < table.size( ); i++ )
+        {
+            builder.build( i );
+        }
+        // The documents built later do not change the fields of the earlier ones
+        assertEquals( mapFirst, toMap( first ) );
+        assertEquals( SlotUtil.getSlotUid( 7, DAY1.atTime( 0, 0 ) ) + Utilities.buildResourceUid( StringUtils.EMPTY, Utilities.RESOURCE_TYPE_SLOT ),
+                first.getFieldValue( SearchItem.FIELD_UID ) );
+    }
+
+    private static Map<String, Object> toMap( SolrInputDocument document )
+    {
+        Map<String, Object> mapFields = new HashMap<>( );
+        for ( SolrInputField field : document )
+        {
+            if ( field.getValue( ) != null )
+            {
+                mapFields.put( field.getName( ), field.getValue( ) );
+            }
+        }
+        return mapFields;
+    }
+}
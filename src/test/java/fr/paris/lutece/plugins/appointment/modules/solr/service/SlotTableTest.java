@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import fr.paris.lutece.plugins.appointment.business.slot.Slot;
+import fr.paris.lutece.test.LuteceTestCase;
+
+public class SlotTableTest extends LuteceTestCase
+{
+    private static Slot slot( LocalDateTime start, int nRemainingPlaces )
+    {
+        Slot slot = new Slot( );
+        slot.setIdForm( 1 );
+        slot.setStartingDateTime( start );
+        slot.setEndingDateTime( start.plusHours( 1 ) );
+        slot.setMaxCapacity( 2 );
+        slot.setNbPotentialRemainingPlaces( nRemainingPlaces );
+        slot.setIsOpen( true );
+        return slot;
+    }
+
+    public void testDaysAndConsecutiveSlots( )
+    {
+        LocalDate day1 = LocalDate.of( 2030, 1, 7 );
+        LocalDate day3 = day1.plusDays( 2 );
+        List<Slot> listSlots = new ArrayList<>( );
+        // Unsorted on purpose
+        listSlots.add( slot( day3.atTime( 9, 0 ), 1 ) );
+        listSlots.add( slot( day1.atTime( 10, 0 ), 2 ) );
+        listSlots.add( slot( day1.atTime( 9, 0 ), 1 ) );
+        listSlots.add( slot( day1.atTime( 11, 0 ), 0 ) );
+        listSlots.add( slot( day3.atTime( 10, 0 ), -1 ) );
+
+        SlotTable table = SlotTable.of( 1, listSlots );
+        assertEquals( 5, table.size( ) );
+        assertEquals( day1.atTime( 9, 0 ), table.getStartingDateTime( 0 ) );
+        assertEquals( 0, table.getFirstIndexOfDay( day1 ) );
+        assertEquals( 3, table.getFirstIndexOfDay( day1.plusDays( 1 ) ) );
+        assertEquals( 3, table.getFirstIndexOfDay( day3 ) );
+        assertEquals( 5, table.getFirstIndexOfDay( day3.plusDays( 1 ) ) );
+        assertEquals( 1, table.indexOf( day1.atTime( 10, 0 ) ) );
+        assertTrue( table.indexOf( day1.atTime( 12, 0 ) ) < 0 );
+
+        assertEquals( 2, table.getNbConsecutiveSlots( 0 ) );
+        assertEquals( 1, table.getNbConsecutiveSlots( 1 ) );
+        assertEquals( 0, table.getNbConsecutiveSlots( 2 ) );
+        assertEquals( 1, table.getNbConsecutiveSlots( 3 ) );
+        assertEquals( 4, table.getFreePlaces( ) );
+        assertEquals( 10, table.getPlaces( ) );
+
+        // A slot received with an event replaces the generated one
+        table.set( 2, slot( day1.atTime( 11, 0 ), 1 ) );
+        assertEquals( 3, table.getNbConsecutiveSlots( 0 ) );
+        assertEquals( 5, table.getFreePlaces( ) );
+    }
+}
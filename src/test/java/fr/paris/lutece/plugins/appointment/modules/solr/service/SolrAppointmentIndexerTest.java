@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import java.io.IOException;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.solr.client.solrj.response.FacetField;
+
+import fr.paris.lutece.plugins.appointment.modules.solr.business.IndexCheckpoint;
+import fr.paris.lutece.plugins.appointment.modules.solr.business.IndexCheckpointHome;
+import fr.paris.lutece.plugins.appointment.modules.solr.business.MemoryIndexCheckpointDAO;
+import fr.paris.lutece.plugins.appointment.web.dto.AppointmentFormDTO;
+import fr.paris.lutece.plugins.search.solr.indexer.SolrIndexerService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+import fr.paris.lutece.test.LuteceTestCase;
+
+public class SolrAppointmentIndexerTest extends LuteceTestCase
+{
+    private static final String PROPERTY_NEAR_TERM_HORIZONS = "appointment-solr.reindex.nearTermFirst.horizons";
+    private static final LocalDate TODAY = LocalDate.of( 2026, 10, 19 );
+
+    /**
+     * Indexer recording the forms written, failing on some forms and interrupted when Solr becomes unavailable on a given form
+     */
+    private static final class RecordingIndexer extends SolrAppointmentIndexer
+    {
+        private final List<Integer> _listWritten = new ArrayList<>( );
+        private final List<Integer> _listFailing = new ArrayList<>( );
+        private int _nIdFormUnavailable = -1;
+
+        @Override
+        public int writeFormAndListSlots( AppointmentFormDTO appointmentForm, StringBuilder sbLogs ) throws IOException
+        {
+            if ( appointmentForm.getIdForm( ) == _nIdFormUnavailable )
+            {
+                throw new SolrUnavailableException( );
+            }
+            if ( _listFailing.contains( appointmentForm.getIdForm( ) ) )
+            {
+                throw new IOException( "Error writing the form " + appointmentForm.getIdForm( ) );
+            }
+            _listWritten.add( appointmentForm.getIdForm( ) );
+            return appointmentForm.getIdForm( ) * 10;
+        }
+    }
+
+    private static List<AppointmentFormDTO> forms( int... ids )
+    {
+        List<AppointmentFormDTO> listForms = new ArrayList<>( );
+        for ( int nIdForm : ids )
+        {
+            AppointmentFormDTO form = new AppointmentFormDTO( );
+            form.setIdForm( nIdForm );
+            listForms.add( form );
+        }
+        return listForms;
+    }
+
+    @Override
+    protected void setUp( ) throws Exception
+    {
+        super.setUp( );
+        MemoryIndexCheckpointDAO.install( );
+    }
+
+    @Override
+    protected void tearDown( ) throws Exception
+    {
+        AppPropertiesService.putProperty( PROPERTY_NEAR_TERM_HORIZONS, "2,14" );
+        super.tearDown( );
+    }
+
+    private static void assertPass( LocalDate startingDate, LocalDate endingDate, LocalDate [ ] pass )
+    {
+        assertEquals( startingDate, pass [0] );
+        assertEquals( endingDate, pass [1] );
+    }
+
+    public void testNearTermHorizons( )
+    {
+        AppPropertiesService.putProperty( PROPERTY_NEAR_TERM_HORIZONS, "2,14" );
+        assertEquals( Arrays.asList( TODAY.plusDays( 2 ), TODAY.plusDays( 14 ) ), SolrAppointmentIndexer.getNearTermHorizons( TODAY ) );
+
+        // The blank, invalid, null and not increasing horizons are ignored
+        AppPropertiesService.putProperty( PROPERTY_NEAR_TERM_HORIZONS, " 7 , ,x,0,-3,7,3, 30" );
+        assertEquals( Arrays.asList( TODAY.plusDays( 7 ), TODAY.plusDays( 30 ) ), SolrAppointmentIndexer.getNearTermHorizons( TODAY ) );
+
+        AppPropertiesService.putProperty( PROPERTY_NEAR_TERM_HORIZONS, "" );
+        assertTrue( SolrAppointmentIndexer.getNearTermHorizons( TODAY ).isEmpty( ) );
+    }
+
+    public void testNearTermPasses( )
+    {
+        AppPropertiesService.putProperty( PROPERTY_NEAR_TERM_HORIZONS, "2,14" );
+        List<LocalDate [ ]> listPasses = SolrAppointmentIndexer.getNearTermPasses( TODAY );
+        assertEquals( 3, listPasses.size( ) );
+        // The periods follow each other without overlap, the day of a horizon starts the next period
+        assertPass( null, TODAY.plusDays( 1 ), listPasses.get( 0 ) );
+        assertPass( TODAY.plusDays( 2 ), TODAY.plusDays( 13 ), listPasses.get( 1 ) );
+        // The final pass goes to the end of the display
+        assertPass( TODAY.plusDays( 14 ), null, listPasses.get( 2 ) );
+
+        // Without horizon, a single pass over the whole display
+        AppPropertiesService.putProperty( PROPERTY_NEAR_TERM_HORIZONS, "" );
+        listPasses = SolrAppointmentIndexer.getNearTermPasses( TODAY );
+        assertEquals( 1, listPasses.size( ) );
+        assertPass( null, null, listPasses.get( 0 ) );
+    }
+
+    public void testNearTermPassesOfShortDisplay( )
+    {
+        AppPropertiesService.putProperty( PROPERTY_NEAR_TERM_HORIZONS, "2,14" );
+        LocalDate today = LocalDate.now( );
+        // Displayed until tomorrow, before the end of the first horizon
+        AppointmentFormDTO form = new AppointmentFormDTO( );
+        form.setIdForm( 1 );
+        form.setNbWeeksToDisplay( 4 );
+        form.setDateEndValidity( Date.valueOf( today.plusDays( 1 ) ) );
+
+        List<LocalDate [ ]> listPasses = SolrAppointmentIndexer.getNearTermPasses( today );
+        LocalDate [ ] first = listPasses.get( 0 );
+        assertPass( today, today.plusDays( 1 ), SlotUtil.getDisplayedPeriod( form, first [0], first [1] ) );
+        // The next passes, the final one included, have no slot to write
+        for ( LocalDate [ ] pass : listPasses.subList( 1, listPasses.size( ) ) )
+        {
+            assertNull( SlotUtil.getDisplayedPeriod( form, pass [0], pass [1] ) );
+        }
+
+        // Displayed until a day between the two horizons, the final pass is empty
+        form.setDateEndValidity( Date.valueOf( today.plusDays( 10 ) ) );
+        assertPass( today.plusDays( 2 ), today.plusDays( 10 ), SlotUtil.getDisplayedPeriod( form, listPasses.get( 1 ) [0], listPasses.get( 1 ) [1] ) );
+        assertNull( SlotUtil.getDisplayedPeriod( form, listPasses.get( 2 ) [0], listPasses.get( 2 ) [1] ) );
+    }
+
+    public void testResumeInterruptedReindex( )
+    {
+        // Given in any order, indexed in the order of the ids
+        List<AppointmentFormDTO> listForms = forms( 5, 3, 1, 4, 2 );
+        RecordingIndexer indexer = new RecordingIndexer( );
+        indexer._listFailing.add( 2 );
+        indexer._nIdFormUnavailable = 4;
+
+        assertEquals( 2, indexer.indexAllForms( listForms, true, new StringBuilder( ) ).size( ) );
+        assertEquals( Arrays.asList( 1, 3 ), indexer._listWritten );
+        Map<Integer, IndexCheckpoint> mapCheckpoints = IndexCheckpointHome.findAll( );
+        assertEquals( Arrays.asList( 1, 2, 3 ), new ArrayList<>( mapCheckpoints.keySet( ) ) );
+        assertTrue( mapCheckpoints.get( 1 ).isDone( ) );
+        assertEquals( 10, mapCheckpoints.get( 1 ).getNbSlots( ) );
+        assertFalse( mapCheckpoints.get( 2 ).isDone( ) );
+        assertTrue( mapCheckpoints.get( 3 ).isDone( ) );
+
+        // The resumed reindex skips the forms done, retries the failed one and finishes the rest
+        RecordingIndexer resumed = new RecordingIndexer( );
+        StringBuilder sbLogs = new StringBuilder( );
+        assertTrue( resumed.indexAllForms( listForms, true, sbLogs ).isEmpty( ) );
+        assertTrue( sbLogs.toString( ), sbLogs.toString( ).contains( "2 forms already indexed" ) );
+        assertEquals( Arrays.asList( 2, 4, 5 ), resumed._listWritten );
+        assertEquals( 5, IndexingProgress.getCurrent( ).getNbFormsDone( ) );
+        // Completed: the checkpoints are removed
+        assertTrue( IndexCheckpointHome.findAll( ).isEmpty( ) );
+
+        // The next reindex starts from the first form
+        RecordingIndexer next = new RecordingIndexer( );
+        next._nIdFormUnavailable = 2;
+        next.indexAllForms( listForms, true, new StringBuilder( ) );
+        assertEquals( Collections.singletonList( 1 ), next._listWritten );
+    }
+
+    public void testReindexWithoutResume( )
+    {
+        List<AppointmentFormDTO> listForms = forms( 1, 2, 3 );
+        RecordingIndexer indexer = new RecordingIndexer( );
+        indexer._nIdFormUnavailable = 3;
+        indexer.indexAllForms( listForms, true, new StringBuilder( ) );
+        assertEquals( Arrays.asList( 1, 2 ), indexer._listWritten );
+
+        // The checkpoints of the interrupted reindex are ignored and replaced
+        RecordingIndexer restarted = new RecordingIndexer( );
+        restarted._nIdFormUnavailable = 2;
+        restarted.indexAllForms( listForms, false, new StringBuilder( ) );
+        assertEquals( Collections.singletonList( 1 ), restarted._listWritten );
+        assertEquals( Collections.singleton( 1 ), IndexCheckpointHome.findAll( ).keySet( ) );
+    }
+
+    public void testOrphanFormIds( )
+    {
+        FacetField facetField = new FacetField( Utilities.FIELD_UID_FORM );
+        facetField.add( FormUtil.getFormUid( 1 ), 12 );
+        facetField.add( FormUtil.getFormUid( 2 ), 8 );
+        facetField.add( FormUtil.getFormUid( 30 ), 1 );
+        // Not a form uid of this webapp
+        facetField.add( SolrIndexerService.getWebAppName( ) + Utilities.UNDERSCORE + "x_appointment", 1 );
+        facetField.add( "other" + SolrIndexerService.getWebAppName( ) + Utilities.UNDERSCORE + "4_appointment", 1 );
+
+        assertEquals( Arrays.asList( 2, 30 ), SolrAppointmentIndexer.getOrphanFormIds( facetField, Arrays.asList( 1, 5 ) ) );
+        assertEquals( Arrays.asList( 1, 2, 30 ), SolrAppointmentIndexer.getOrphanFormIds( facetField, Collections.emptyList( ) ) );
+        assertTrue( SolrAppointmentIndexer.getOrphanFormIds( facetField, Arrays.asList( 1, 2, 30 ) ).isEmpty( ) );
+        assertTrue( SolrAppointmentIndexer.getOrphanFormIds( null, Arrays.asList( 1 ) ).isEmpty( ) );
+    }
+
+    public void testUnknownResourceId( )
+    {
+        StringBuilder sbLogs = new StringBuilder( );
+        assertTrue( new SolrAppointmentIndexer( ).getDocuments( "form12", sbLogs ).isEmpty( ) );
+        assertTrue( sbLogs.toString( ).contains( "unknown resource id form12" ) );
+        assertFalse( sbLogs.toString( ).contains( "documents written" ) );
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import fr.paris.lutece.test.LuteceTestCase;
+
+public class SolrCircuitBreakerTest extends LuteceTestCase
+{
+    public void testOpenAfterThreshold( )
+    {
+        SolrCircuitBreaker breaker = new SolrCircuitBreaker( 2, 60000 );
+        assertTrue( breaker.allowRequest( ) );
+        breaker.recordFailure( );
+        assertFalse( breaker.isOpen( ) );
+        breaker.recordFailure( );
+        assertTrue( breaker.isOpen( ) );
+        assertFalse( breaker.allowRequest( ) );
+    }
+
+    public void testSuccessResetsFailures( )
+    {
+        SolrCircuitBreaker breaker = new SolrCircuitBreaker( 2, 60000 );
+        breaker.recordFailure( );
+        breaker.recordSuccess( );
+        breaker.recordFailure( );
+        assertFalse( breaker.isOpen( ) );
+    }
+
+    public void testHalfOpenProbe( ) throws InterruptedException
+    {
+        SolrCircuitBreaker breaker = new SolrCircuitBreaker( 1, 50 );
+        breaker.recordFailure( );
+        assertEquals( SolrCircuitBreaker.State.OPEN, breaker.getState( ) );
+        assertFalse( breaker.allowRequest( ) );
+        Thread.sleep( 60 );
+
+        // Only one probe is allowed
+        assertTrue( breaker.allowRequest( ) );
+        assertEquals( SolrCircuitBreaker.State.HALF_OPEN, breaker.getState( ) );
+        assertFalse( breaker.allowRequest( ) );
+
+        // A failed probe opens the circuit again
+        breaker.recordFailure( );
+        assertEquals( SolrCircuitBreaker.State.OPEN, breaker.getState( ) );
+        Thread.sleep( 60 );
+
+        assertTrue( breaker.allowRequest( ) );
+        breaker.recordSuccess( );
+        assertEquals( SolrCircuitBreaker.State.CLOSED, breaker.getState( ) );
+    }
+
+    public void testProbeHeldByItsThread( ) throws Exception
+    {
+        SolrCircuitBreaker breaker = new SolrCircuitBreaker( 1, 50 );
+        breaker.recordFailure( );
+        Thread.sleep( 60 );
+        assertTrue( breaker.allowRequest( ) );
+        assertTrue( breaker.holdsProbe( ) );
+
+        // The other threads are refused while the probe runs
+        boolean [ ] bOther = new boolean [ 2 ];
+        Thread thread = new Thread( ( ) -> {
+            bOther [0] = breaker.holdsProbe( );
+            bOther [1] = breaker.allowRequest( );
+        } );
+        thread.start( );
+        thread.join( );
+        assertFalse( bOther [0] );
+        assertFalse( bOther [1] );
+
+        breaker.recordSuccess( );
+        assertFalse( breaker.holdsProbe( ) );
+    }
+}
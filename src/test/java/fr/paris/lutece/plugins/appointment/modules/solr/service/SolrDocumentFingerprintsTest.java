@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import fr.paris.lutece.test.LuteceTestCase;
+
+public class SolrDocumentFingerprintsTest extends LuteceTestCase
+{
+    public void testUnchanged( )
+    {
+        SolrDocumentFingerprints fingerprints = new SolrDocumentFingerprints( 100 );
+        assertFalse( fingerprints.isUnchanged( "site_1_slot", 42L ) );
+        fingerprints.put( "site_1_slot", 1, 42L );
+        assertTrue( fingerprints.isUnchanged( "site_1_slot", 42L ) );
+        assertFalse( fingerprints.isUnchanged( "site_1_slot", 43L ) );
+        assertFalse( fingerprints.isUnchanged( "site_2_slot", 42L ) );
+        fingerprints.put( "site_1_slot", 1, 43L );
+        assertTrue( fingerprints.isUnchanged( "site_1_slot", 43L ) );
+        assertEquals( 1, fingerprints.size( ) );
+    }
+
+    public void testGrowAndRemove( )
+    {
+        SolrDocumentFingerprints fingerprints = new SolrDocumentFingerprints( 100000 );
+        for ( int i = 0; i < 5000; i++ )
+        {
+            fingerprints.put( "site_" + i + "_slot", 1, i );
+        }
+        assertEquals( 5000, fingerprints.size( ) );
+        for ( int i = 0; i < 5000; i += 2 )
+        {
+            fingerprints.remove( "site_" + i + "_slot" );
+        }
+        assertEquals( 2500, fingerprints.size( ) );
+        for ( int i = 0; i < 5000; i++ )
+        {
+            assertEquals( i % 2 == 1, fingerprints.isUnchanged( "site_" + i + "_slot", i ) );
+        }
+    }
+
+    public void testClearedWhenFull( )
+    {
+        SolrDocumentFingerprints fingerprints = new SolrDocumentFingerprints( 10 );
+        for ( int i = 0; i < 11; i++ )
+        {
+            fingerprints.put( "site_" + i + "_slot", 1, i );
+        }
+        assertEquals( 1, fingerprints.size( ) );
+        assertTrue( fingerprints.isUnchanged( "site_10_slot", 10 ) );
+        assertFalse( fingerprints.isUnchanged( "site_0_slot", 0 ) );
+    }
+
+    public void testRemoveForm( )
+    {
+        SolrDocumentFingerprints fingerprints = new SolrDocumentFingerprints( 100000 );
+        for ( int i = 0; i < 3000; i++ )
+        {
+            fingerprints.put( "site_" + i + "_slot", i % 3, i );
+        }
+        fingerprints.removeForm( 1 );
+        assertEquals( 2000, fingerprints.size( ) );
+        for ( int i = 0; i < 3000; i++ )
+        {
+            assertEquals( i % 3 != 1, fingerprints.isUnchanged( "site_" + i + "_slot", i ) );
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.solr.service;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.solr.common.SolrInputDocument;
+
+import fr.paris.lutece.portal.service.search.SearchItem;
+import fr.paris.lutece.test.LuteceTestCase;
+
+public class WriteSequenceTest extends LuteceTestCase
+{
+    private static SolrInputDocument document( String strUid, long lSequence )
+    {
+        SolrInputDocument document = new SolrInputDocument( );
+        document.setField( SearchItem.FIELD_UID, strUid );
+        document.setField( Utilities.FIELD_SEQUENCE, lSequence );
+        return document;
+    }
+
+    public void testOlderWritesAreDropped( )
+    {
+        WriteSequence sequence = new WriteSequence( 60000L );
+        long lOlder = sequence.next( );
+        long lNewer = sequence.next( );
+        assertTrue( lNewer > lOlder );
+        assertTrue( sequence.next( ) > 0 );
+
+        assertEquals( 2, sequence.accept( 1, Arrays.asList( document( "a", lNewer ), document( "b", lNewer ) ) ).size( ) );
+        // The write built first is sent last: only its document not written since is kept
+        assertEquals( "c",
+                sequence.accept( 1, Arrays.asList( document( "a", lOlder ), document( "c", lOlder ) ) ).get( 0 ).getFieldValue( SearchItem.FIELD_UID ) );
+        assertEquals( 1, sequence.accept( 1, Arrays.asList( document( "a", lOlder ), document( "c", lOlder ) ) ).size( ) );
+        assertTrue( sequence.acceptDelete( 1, Collections.singletonList( "b" ), lOlder ).isEmpty( ) );
+        // The other forms are not concerned
+        assertEquals( 1, sequence.accept( 2, Collections.singletonList( document( "a", lOlder ) ) ).size( ) );
+
+        sequence.deleteForm( 1, sequence.next( ) );
+        assertTrue( sequence.accept( 1, Collections.singletonList( document( "d", lNewer ) ) ).isEmpty( ) );
+        assertEquals( 1, sequence.accept( 1, Collections.singletonList( document( "d", sequence.next( ) ) ) ).size( ) );
+    }
+
+    public void testCurrentDoesNotAdvance( )
+    {
+        WriteSequence sequence = new WriteSequence( 60000L );
+        long lTaken = sequence.next( );
+        long lCurrent = sequence.current( );
+        assertTrue( lCurrent >= lTaken );
+        assertTrue( sequence.current( ) >= lCurrent );
+        // The numbers taken after it are higher
+        assertTrue( sequence.next( ) > lCurrent );
+    }
+
+    public void testSharedSequence( )
+    {
+        // A node whose clock is ahead took a number first
+        AtomicLong lShared = new AtomicLong( ( System.currentTimeMillis( ) + 3600000L ) * 1000L );
+        WriteSequence.SharedSequence shared = new WriteSequence.SharedSequence( )
+        {
+            @Override
+            public long next( long lMinimum )
+            {
+                return lShared.updateAndGet( lLast -> Math.max( lLast + 1, lMinimum ) );
+            }
+
+            @Override
+            public long current( )
+            {
+                return lShared.get( );
+            }
+        };
+        WriteSequence nodeAhead = new WriteSequence( 60000L, shared );
+        WriteSequence nodeBehind = new WriteSequence( 60000L, shared );
+        long lFirst = lShared.get( );
+        long lSecond = nodeBehind.next( );
+        assertTrue( lSecond > lFirst );
+        assertEquals( lSecond, nodeAhead.current( ) );
+        assertTrue( nodeAhead.next( ) > lSecond );
+    }
+
+    public void testPruneOutOfOrderNumbers( )
+    {
+        WriteSequence sequence = new WriteSequence( 0L );
+        long lFuture = ( System.currentTimeMillis( ) + 3600000L ) * 1000L;
+        // A number beyond the horizon written after a number within it
+        assertEquals( 2, sequence.accept( 1, Arrays.asList( document( "a", lFuture ), document( "b", 2L ) ) ).size( ) );
+        // The number beyond the horizon is forgotten, the older write is left to Solr
+        assertEquals( 1, sequence.accept( 1, Collections.singletonList( document( "b", 1L ) ) ).size( ) );
+        assertTrue( sequence.accept( 1, Collections.singletonList( document( "a", 1L ) ) ).isEmpty( ) );
+    }
+
+    public void testIdleFormsAreEvicted( )
+    {
+        WriteSequence sequence = new WriteSequence( 0L );
+        long lFuture = ( System.currentTimeMillis( ) + 3600000L ) * 1000L;
+        for ( int nIdForm = 1; nIdForm <= 3; nIdForm++ )
+        {
+            sequence.accept( nIdForm, Collections.singletonList( document( "a", 1L ) ) );
+        }
+        sequence.accept( 4, Collections.singletonList( document( "a", lFuture ) ) );
+        sequence.deleteForm( 5, lFuture );
+        // Only the forms with numbers within the horizon are kept
+        assertEquals( 2, sequence.getFormCount( ) );
+        assertTrue( sequence.accept( 5, Collections.singletonList( document( "a", 1L ) ) ).isEmpty( ) );
+    }
+}